@@ -48,6 +48,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
@@ -132,6 +133,16 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return 0;
   }
 
+  /**
+   * How long a multiFetch may wait for further requests to arrive before it is sent with fewer than
+   * {@link #getMultiFetchBatchSize(int)} keys. Rules whose dependencies finish together become
+   * fetchable at about the same time, so a short window lets their keys share a single round trip.
+   * If < 1, whatever is pending is sent immediately.
+   */
+  protected long getMultiFetchBatchWindowMillis() {
+    return 0;
+  }
+
   protected boolean isMultiCheckEnabled() {
     return false;
   }
@@ -361,9 +372,13 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
           enableMultiFetch ? getMultiFetchBatchSize(pendingFetchRequests.size()) : 0;
       if (multiFetchLimit > 0) {
         ImmutableList.Builder<ClaimedFetchRequest> requestsBuilder = ImmutableList.builder();
+        long deadlineNanos =
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getMultiFetchBatchWindowMillis());
         try {
           for (int i = 0; i < multiFetchLimit; i++) {
-            ClaimedFetchRequest request = getFetchRequest();
+            // Only wait for requests to join a batch, never for the first one.
+            ClaimedFetchRequest request =
+                i == 0 ? getFetchRequest() : getFetchRequest(deadlineNanos);
             if (request == null) {
               break;
             }
@@ -440,6 +455,21 @@ public abstract class AbstractAsynchronousCache implements ArtifactCache {
     return new ClaimedFetchRequest(request);
   }
 
+  @Nullable
+  private ClaimedFetchRequest getFetchRequest(long deadlineNanos) {
+    FetchRequest request;
+    try {
+      request = pendingFetchRequests.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      request = pendingFetchRequests.poll();
+    }
+    if (request == null) {
+      return null;
+    }
+    return new ClaimedFetchRequest(request);
+  }
+
   private ImmutableList<ClaimedFetchRequest> getCheckRequests() {
     int numberOfCheckRequests = pendingCheckRequests.size();
     ArrayList<FetchRequest> pendingCheckRequestsRequests = new ArrayList<>(numberOfCheckRequests);
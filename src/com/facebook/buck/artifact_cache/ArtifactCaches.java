@@ -356,6 +356,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
                       buckConfig.getHybridThriftEndpoint().get(),
                       buckEventBus.getBuildId(),
                       getMultiFetchLimit(buckConfig),
+                      buckConfig.getMultiFetchWindowMillis(),
                       buckConfig.getHttpFetchConcurrency(),
                       buckConfig.getMultiCheckEnabled(),
                       producerId,
@@ -375,6 +376,15 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       result = new MultiArtifactCache(artifactCaches);
     }
 
+    // Always support reading chunked stores (in case we performed any in the past).
+    result =
+        new ChunkedArtifactCacheDecorator(
+            result,
+            projectFilesystem,
+            buckConfig.getChunkedCachingEnabled(),
+            buckConfig.getChunkedCachingMinimumSize(),
+            buckConfig.getChunkedCachingChunkSize());
+
     // Always support reading two-level cache stores (in case we performed any in the past).
     result =
         new TwoLevelArtifactCacheDecorator(
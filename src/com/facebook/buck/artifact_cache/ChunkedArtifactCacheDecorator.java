@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Splits large artifacts into fixed size, content addressed chunks so that they can be moved by
+ * several concurrent requests instead of a single sequential one. The data is stored using the
+ * following scheme: rulekey -> (metadata + list of chunk hashes, empty artifact), chunk hash ->
+ * chunk. Chunks are fetched and stored through the delegate's own executors, so for network caches
+ * they go out in parallel over the existing connection pool. Chunks that the delegate already
+ * reports as present, or that were stored or fetched earlier by this instance, are not uploaded
+ * again, so identical parts of artifacts are shared between builds.
+ */
+public class ChunkedArtifactCacheDecorator implements ArtifactCache, CacheDecorator {
+
+  @VisibleForTesting static final String METADATA_KEY = "CHUNKED_CACHE_CHUNK_HASHES";
+  // Appended to the SHA-1 of each chunk to keep its key apart from other content hash keys.
+  private static final String CHUNK_KEY_SUFFIX = "c400";
+
+  private static final Logger LOG = Logger.get(ChunkedArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ProjectFilesystem projectFilesystem;
+  private final Path tmpDir;
+  private final Path emptyFilePath;
+  private final boolean performChunkedStores;
+  private final long minimumChunkedStoredArtifactSize;
+  private final long chunkSize;
+  private final Set<RuleKey> knownChunks = Sets.newConcurrentHashSet();
+
+  public ChunkedArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ProjectFilesystem projectFilesystem,
+      boolean performChunkedStores,
+      long minimumChunkedStoredArtifactSize,
+      long chunkSize) {
+    this.delegate = delegate;
+    this.projectFilesystem = projectFilesystem;
+    this.performChunkedStores = performChunkedStores;
+    this.minimumChunkedStoredArtifactSize = minimumChunkedStoredArtifactSize;
+    this.chunkSize = chunkSize;
+
+    this.tmpDir = projectFilesystem.getBuckPaths().getTmpDir();
+    try {
+      projectFilesystem.mkdirs(tmpDir);
+      this.emptyFilePath =
+          projectFilesystem.resolve(
+              projectFilesystem.createTempFile(tmpDir, ".buckcache", ".empty"));
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          "Could not create file in " + projectFilesystem.resolve(tmpDir));
+    }
+  }
+
+  @Override
+  public ListenableFuture<CacheResult> fetchAsync(
+      @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    return Futures.transformAsync(
+        delegate.fetchAsync(target, ruleKey, output),
+        (CacheResult fetchResult) -> {
+          if (!fetchResult.getType().isSuccess()
+              || !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+            return Futures.immediateFuture(fetchResult);
+          }
+
+          ImmutableList<RuleKey> chunkKeys =
+              Splitter.on(',').splitToList(fetchResult.getMetadata().get(METADATA_KEY)).stream()
+                  .map(RuleKey::new)
+                  .collect(ImmutableList.toImmutableList());
+          LOG.verbose("Found a chunked artifact for %s with %d chunks.", ruleKey, chunkKeys.size());
+
+          List<LazyPath> chunkPaths = new ArrayList<>(chunkKeys.size());
+          List<ListenableFuture<CacheResult>> chunkFetches = new ArrayList<>(chunkKeys.size());
+          for (RuleKey chunkKey : chunkKeys) {
+            LazyPath chunkPath = newTempPath("chunk");
+            chunkPaths.add(chunkPath);
+            chunkFetches.add(delegate.fetchAsync(target, chunkKey, chunkPath));
+          }
+
+          return Futures.transform(
+              Futures.allAsList(chunkFetches),
+              chunkResults ->
+                  assembleChunks(fetchResult, chunkKeys, chunkPaths, chunkResults, output),
+              MoreExecutors.directExecutor());
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private CacheResult assembleChunks(
+      CacheResult fetchResult,
+      ImmutableList<RuleKey> chunkKeys,
+      List<LazyPath> chunkPaths,
+      List<CacheResult> chunkResults,
+      LazyPath output) {
+    try {
+      for (CacheResult chunkResult : chunkResults) {
+        if (!chunkResult.getType().isSuccess()) {
+          LOG.verbose("Missed chunk lookup.");
+          // Note: for misses, the fetchResult metadata is not important, so we return the chunk
+          // result to signal the miss (as fetchResult was a hit).
+          return chunkResult;
+        }
+      }
+
+      long size = 0;
+      try (OutputStream out = projectFilesystem.newFileOutputStream(output.get())) {
+        for (int i = 0; i < chunkKeys.size(); i++) {
+          HashingOutputStream hashingOut = new HashingOutputStream(Hashing.sha1(), out);
+          try (InputStream in = projectFilesystem.newFileInputStream(chunkPaths.get(i).get())) {
+            size += ByteStreams.copy(in, hashingOut);
+          }
+          RuleKey actualKey = toChunkKey(hashingOut.hash());
+          if (!actualKey.equals(chunkKeys.get(i))) {
+            String msg =
+                String.format("chunk %s had invalid content hash %s", chunkKeys.get(i), actualKey);
+            LOG.warn("fetch: %s", msg);
+            return CacheResult.error(
+                fetchResult.getCacheSource(),
+                fetchResult.cacheMode().orElse(ArtifactCacheMode.unknown),
+                msg);
+          }
+          knownChunks.add(actualKey);
+        }
+      }
+
+      return fetchResult
+          .withArtifactSizeBytes(Optional.of(size))
+          .withMetadata(
+              Optional.of(
+                  fetchResult.getMetadata().entrySet().stream()
+                      .filter(e -> !Objects.equals(e.getKey(), METADATA_KEY))
+                      .collect(
+                          ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue))));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to assemble chunked artifact.");
+      return CacheResult.error(
+          fetchResult.getCacheSource(),
+          fetchResult.cacheMode().orElse(ArtifactCacheMode.unknown),
+          String.format("%s: %s", e.getClass(), e.getMessage()));
+    } finally {
+      deleteTempPaths(chunkPaths);
+    }
+  }
+
+  @Override
+  public void skipPendingAndFutureAsyncFetches() {
+    delegate.skipPendingAndFutureAsyncFetches();
+  }
+
+  @Override
+  public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+    if (!performChunkedStores || !getCacheReadMode().isWritable()) {
+      return delegate.store(info, output);
+    }
+
+    long fileSize;
+    try {
+      fileSize = projectFilesystem.getFileSize(output.getPath());
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot get file size of " + output.getPath());
+    }
+    if (fileSize < minimumChunkedStoredArtifactSize || fileSize <= chunkSize) {
+      return delegate.store(info, output);
+    }
+
+    List<LazyPath> chunkPaths = new ArrayList<>();
+    ImmutableList<RuleKey> chunkKeys;
+    try {
+      chunkKeys = splitIntoChunks(output.getPath(), chunkPaths);
+    } catch (IOException e) {
+      deleteTempPaths(chunkPaths);
+      LOG.warn(e, "Failed to split %s into chunks, storing it whole.", output.getPath());
+      return delegate.store(info, output);
+    }
+
+    ImmutableMap<String, String> metadataWithChunks =
+        ImmutableMap.<String, String>builder()
+            .putAll(info.getMetadata())
+            .put(METADATA_KEY, Joiner.on(',').join(chunkKeys))
+            .build();
+    ArtifactInfo manifestInfo =
+        ArtifactInfo.builder()
+            .setRuleKeys(info.getRuleKeys())
+            .setMetadata(metadataWithChunks)
+            .setBuildTarget(info.getBuildTarget())
+            .setBuildTimeMs(info.getBuildTimeMs())
+            .build();
+
+    ListenableFuture<Unit> result =
+        Futures.transformAsync(
+            storeMissingChunks(info, chunkKeys, chunkPaths),
+            // The manifest must only become visible once all chunks are stored, otherwise other
+            // builders could fetch it and miss on the chunks.
+            ignored ->
+                delegate.store(manifestInfo, BorrowablePath.notBorrowablePath(emptyFilePath)),
+            MoreExecutors.directExecutor());
+    result.addListener(() -> deleteTempPaths(chunkPaths), MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private ListenableFuture<List<Unit>> storeMissingChunks(
+      ArtifactInfo info, ImmutableList<RuleKey> chunkKeys, List<LazyPath> chunkPaths) {
+    ImmutableSet<RuleKey> uniqueChunkKeys = ImmutableSet.copyOf(chunkKeys);
+    ListenableFuture<ImmutableMap<RuleKey, CacheResult>> containsFuture =
+        Futures.catching(
+            delegate.multiContainsAsync(
+                Sets.difference(uniqueChunkKeys, knownChunks).immutableCopy()),
+            Exception.class,
+            e -> {
+              // Not every cache can answer contains queries, in that case upload everything.
+              LOG.verbose(e, "Cannot check for existing chunks.");
+              return ImmutableMap.of();
+            },
+            MoreExecutors.directExecutor());
+
+    return Futures.transformAsync(
+        containsFuture,
+        contains -> {
+          List<ListenableFuture<Unit>> stores = new ArrayList<>();
+          Set<RuleKey> scheduled = Sets.newHashSet();
+          for (int i = 0; i < chunkKeys.size(); i++) {
+            RuleKey chunkKey = chunkKeys.get(i);
+            CacheResult containsResult = contains.get(chunkKey);
+            if (knownChunks.contains(chunkKey)
+                || (containsResult != null && containsResult.getType() == CacheResultType.CONTAINS)
+                || !scheduled.add(chunkKey)) {
+              continue;
+            }
+            ListenableFuture<Unit> store =
+                delegate.store(
+                    ArtifactInfo.builder()
+                        .addRuleKeys(chunkKey)
+                        .setBuildTarget(info.getBuildTarget())
+                        .setBuildTimeMs(info.getBuildTimeMs())
+                        .build(),
+                    BorrowablePath.borrowablePath(chunkPaths.get(i).get()));
+            Futures.addCallback(
+                store,
+                new FutureCallback<Unit>() {
+                  @Override
+                  public void onSuccess(@Nullable Unit result) {
+                    knownChunks.add(chunkKey);
+                  }
+
+                  @Override
+                  public void onFailure(Throwable t) {
+                    // The chunk may not be in the cache, so upload it again next time.
+                  }
+                },
+                MoreExecutors.directExecutor());
+            stores.add(store);
+          }
+          LOG.verbose("Storing %d of %d chunks.", stores.size(), chunkKeys.size());
+          return Futures.allAsList(stores);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Writes each chunk of {@code artifact} to a temp file and returns the chunk keys in order. */
+  private ImmutableList<RuleKey> splitIntoChunks(Path artifact, List<LazyPath> chunkPaths)
+      throws IOException {
+    ImmutableList.Builder<RuleKey> chunkKeys = ImmutableList.builder();
+    try (InputStream in = projectFilesystem.newFileInputStream(artifact)) {
+      while (true) {
+        LazyPath chunkPath = newTempPath("chunk");
+        chunkPaths.add(chunkPath);
+        HashingOutputStream out =
+            new HashingOutputStream(
+                Hashing.sha1(), projectFilesystem.newFileOutputStream(chunkPath.get()));
+        long copied;
+        try {
+          copied = ByteStreams.copy(ByteStreams.limit(in, chunkSize), out);
+        } finally {
+          out.close();
+        }
+        if (copied == 0) {
+          chunkPaths.remove(chunkPaths.size() - 1);
+          projectFilesystem.deleteFileAtPathIfExists(chunkPath.get());
+          break;
+        }
+        chunkKeys.add(toChunkKey(out.hash()));
+      }
+    }
+    return chunkKeys.build();
+  }
+
+  private static RuleKey toChunkKey(HashCode sha1) {
+    return new RuleKey(sha1 + CHUNK_KEY_SUFFIX);
+  }
+
+  private LazyPath newTempPath(String prefix) {
+    return new LazyPath() {
+      @Override
+      protected Path create() throws IOException {
+        return projectFilesystem.resolve(projectFilesystem.createTempFile(tmpDir, prefix, ".tmp"));
+      }
+    };
+  }
+
+  private void deleteTempPaths(List<LazyPath> paths) {
+    for (LazyPath path : paths) {
+      try {
+        projectFilesystem.deleteFileAtPathIfExists(path.get());
+      } catch (IOException e) {
+        LOG.debug(e, "Exception when deleting temp file %s.", path);
+      }
+    }
+  }
+
+  /** Contains is supposed to be best-effort, but super-fast => Assume the chunks are present. */
+  @Override
+  public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+      ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContainsAsync(ruleKeys);
+  }
+
+  @Override
+  public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+    // Only the manifest entries are deleted, chunks may be shared with other artifacts.
+    return delegate.deleteAsync(ruleKeys);
+  }
+
+  @Override
+  public ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public CacheReadMode getCacheReadMode() {
+    return delegate.getCacheReadMode();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+    try {
+      projectFilesystem.deleteFileAtPath(emptyFilePath);
+    } catch (IOException e) {
+      LOG.debug("Exception when deleting temp file %s.", emptyFilePath, e);
+    }
+  }
+}
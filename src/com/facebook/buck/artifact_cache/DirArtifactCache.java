@@ -25,7 +25,7 @@ import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.DirectoryCleaner;
-import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
@@ -48,6 +48,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -65,6 +66,8 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String INDEX_FOLDER = "index";
+  private static final String INDEX_JOURNAL = "journal";
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -72,6 +75,9 @@ public class DirArtifactCache implements ArtifactCache {
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheReadMode;
   private final ListeningExecutorService storeExecutorService;
+  private final LocalArtifactMaterializer materializer;
+  // Only writable caches with a size limit ever evict, so only those need to track entries.
+  private final Optional<DirArtifactCacheIndex> index;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -88,7 +94,15 @@ public class DirArtifactCache implements ArtifactCache {
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.cacheReadMode = cacheReadMode;
     this.storeExecutorService = storeExecutorService;
+    this.materializer = new LocalArtifactMaterializer(filesystem);
     this.bytesSinceLastDeleteOldFiles = 0L;
+    this.index =
+        maxCacheSizeBytes.isPresent() && cacheReadMode.isWritable()
+            ? Optional.of(
+                new DirArtifactCacheIndex(
+                    filesystem.resolve(getPathToIndexFolder()).resolve(INDEX_JOURNAL),
+                    this::getAllEntriesInCacheColdestFirst))
+            : Optional.empty();
 
     // Check first, as mkdirs will fail if the path is a symlink.
     if (!filesystem.isDirectory(cacheDir)) {
@@ -127,8 +141,11 @@ public class DirArtifactCache implements ArtifactCache {
         }
       }
 
-      // Now copy the artifact out.
-      filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.empty()), output.get());
+      // Now hand the artifact out, by linking it if possible.
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
+      materializer.materialize(artifactPath, output.get());
+      recordAccess(artifactPath);
+      recordAccess(getPathForRuleKey(ruleKey, Optional.of(".metadata")));
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
@@ -187,7 +204,9 @@ public class DirArtifactCache implements ArtifactCache {
             filesystem.copyFile(borrowedAndStoredArtifactPath.get(), artifactPath);
           }
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+        long artifactSize = filesystem.getFileSize(artifactPath);
+        bytesSinceLastDeleteOldFiles += artifactSize;
+        recordStore(artifactPath, artifactSize);
 
         // Now, write the meta data artifact.
         Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
@@ -202,7 +221,9 @@ public class DirArtifactCache implements ArtifactCache {
             }
           }
           filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+          long metadataSize = filesystem.getFileSize(metadataPath);
+          bytesSinceLastDeleteOldFiles += metadataSize;
+          recordStore(metadataPath, metadataSize);
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
@@ -250,6 +271,10 @@ public class DirArtifactCache implements ArtifactCache {
     try {
       filesystem.deleteFileAtPathIfExists(metadataPath);
       filesystem.deleteFileAtPathIfExists(artifactPath);
+      if (index.isPresent()) {
+        index.get().recordRemoval(getIndexKey(metadataPath));
+        index.get().recordRemoval(getIndexKey(artifactPath));
+      }
     } catch (IOException e) {
       String message =
           String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
@@ -270,6 +295,26 @@ public class DirArtifactCache implements ArtifactCache {
     return cacheDir.resolve("tmp");
   }
 
+  private Path getPathToIndexFolder() {
+    return cacheDir.resolve(INDEX_FOLDER);
+  }
+
+  private String getIndexKey(Path pathInCache) {
+    return filesystem.resolve(cacheDir).relativize(filesystem.resolve(pathInCache)).toString();
+  }
+
+  private void recordStore(Path pathInCache, long sizeBytes) {
+    if (index.isPresent()) {
+      index.get().recordStore(getIndexKey(pathInCache), sizeBytes);
+    }
+  }
+
+  private void recordAccess(Path pathInCache) {
+    if (index.isPresent()) {
+      index.get().recordAccess(getIndexKey(pathInCache));
+    }
+  }
+
   private Path getPreparedTempFolder() throws IOException {
     Path tmp = getPathToTempFolder();
     if (!filesystem.exists(tmp)) {
@@ -313,29 +358,71 @@ public class DirArtifactCache implements ArtifactCache {
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
+    index.ifPresent(DirArtifactCacheIndex::close);
   }
 
-  /** Deletes files that haven't been accessed recently from the directory cache. */
+  /**
+   * Deletes files that haven't been accessed recently from the directory cache.
+   *
+   * <p>Candidates are taken from the {@link DirArtifactCacheIndex}, so this doesn't need to walk
+   * the cache directory unless the index has to be seeded.
+   */
   @VisibleForTesting
   void deleteOldFiles() {
-    if (!maxCacheSizeBytes.isPresent()) {
+    if (!maxCacheSizeBytes.isPresent() || !index.isPresent()) {
       return;
     }
 
-    Path cacheDirInFs = filesystem.resolve(cacheDir);
-    try {
-      synchronized (this) {
-        newDirectoryCleaner().clean(cacheDirInFs);
+    synchronized (this) {
+      ImmutableList<String> evicted =
+          index
+              .get()
+              .evict(
+                  maxCacheSizeBytes.get(), (long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
+      for (String pathInCache : evicted) {
+        Path path = cacheDir.resolve(pathInCache);
+        try {
+          LOG.verbose("Deleting path [%s].", path);
+          filesystem.deleteFileAtPathIfExists(path);
+        } catch (IOException e) {
+          LOG.error(e, "Failed to delete path [%s].", path);
+        }
       }
-    } catch (IOException e) {
-      LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
   }
 
+  /**
+   * Scans the cache directory and returns every stored file with its size, ordered the same way
+   * {@link #getDirectoryCleanerPathSelector()} would delete them. Used to seed the index.
+   */
+  private ImmutableList<Pair<String, Long>> getAllEntriesInCacheColdestFirst() {
+    DirectoryCleaner.PathSelector pathSelector = getDirectoryCleanerPathSelector();
+    List<DirectoryCleaner.PathStats> pathStats = new ArrayList<>();
+    for (Path path : getAllFilesInCache()) {
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        pathStats.add(
+            new DirectoryCleaner.PathStats(
+                path,
+                attributes.size(),
+                attributes.creationTime().toMillis(),
+                attributes.lastAccessTime().toMillis()));
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to read attributes of [%s].", path);
+      }
+    }
+    Comparator<DirectoryCleaner.PathStats> comparator = pathSelector::comparePaths;
+    return pathStats.stream()
+        .sorted(comparator)
+        .map(stats -> new Pair<>(getIndexKey(stats.getPath()), stats.getTotalSizeBytes()))
+        .collect(ImmutableList.toImmutableList());
+  }
+
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     List<Path> allFiles = new ArrayList<>();
-    Path tempFolderPath = getPathToTempFolder();
+    Path tempFolderPath = filesystem.resolve(getPathToTempFolder());
+    Path indexFolderPath = filesystem.resolve(getPathToIndexFolder());
     try {
       Files.walkFileTree(
           filesystem.resolve(cacheDir),
@@ -346,8 +433,9 @@ public class DirArtifactCache implements ArtifactCache {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                 throws IOException {
-              // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
+              // do not work with files in temp folder as they will be moved later, nor with the
+              // index which is not an artifact
+              if (dir.equals(tempFolderPath) || dir.equals(indexFolderPath)) {
                 return FileVisitResult.SKIP_SUBTREE;
               }
               return super.preVisitDirectory(dir, attrs);
@@ -367,18 +455,6 @@ public class DirArtifactCache implements ArtifactCache {
     return allFiles;
   }
 
-  private DirectoryCleaner newDirectoryCleaner() {
-    DirectoryCleanerArgs cleanerArgs =
-        DirectoryCleanerArgs.builder()
-            .setPathSelector(getDirectoryCleanerPathSelector())
-            .setMaxTotalSizeBytes(maxCacheSizeBytes.get())
-            .setMaxBytesAfterDeletion((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO))
-            .setMinAmountOfEntriesToKeep(0)
-            .build();
-
-    return new DirectoryCleaner(cleanerArgs);
-  }
-
   @VisibleForTesting
   DirectoryCleaner.PathSelector getDirectoryCleanerPathSelector() {
     return new DirectoryCleaner.PathSelector() {
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Size and recency index of the files stored in a {@link DirArtifactCache}.
+ *
+ * <p>Entries are kept in an access-ordered map so that the coldest files can be evicted without
+ * walking the cache directory. The index is persisted as an append-only journal of store, access
+ * and removal records which is replayed on first use and periodically compacted into a snapshot.
+ * When no journal exists yet (e.g. a cache populated by an older version of buck) the index is
+ * seeded once from the supplied directory scan.
+ *
+ * <p>A dir cache may be shared by several buck processes, so the journal is only ever read and
+ * written while holding a lock on a sibling lock file. Every time it takes the lock, an index first
+ * reads the records other processes appended since it last looked, or the whole journal if another
+ * process compacted it in the meantime, so that entries stored elsewhere are evicted too and
+ * compaction never drops them. Access records are batched and written along with the next store,
+ * removal or eviction.
+ */
+class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  private static final int JOURNAL_MAGIC = 0xB0C4D1C2;
+  private static final byte RECORD_ACCESS = 'A';
+  private static final byte RECORD_STORE = 'S';
+  private static final byte RECORD_REMOVE = 'R';
+
+  // Compact the journal once it has this many times more records than live entries.
+  private static final int COMPACTION_RATIO = 4;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 1024;
+  private static final int MAX_PENDING_RECORDS = 256;
+
+  // Generation of an index which has not been read from or written to a journal.
+  private static final long NO_JOURNAL = 0L;
+
+  // File locks are held by the whole process and can't be taken twice by it, so indexes of the
+  // same cache within this process take turns on a shared monitor first.
+  private static final ConcurrentMap<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+  private final Path journalPath;
+  private final Path lockPath;
+  private final Supplier<ImmutableList<Pair<String, Long>>> seedSupplier;
+
+  // Access-ordered: iteration starts with the least recently used entry.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // Records applied to the entries above which are not in the journal yet.
+  private final List<JournalRecord> pending = new ArrayList<>();
+  private long totalSizeBytes = 0L;
+  private boolean loaded = false;
+
+  // Which journal the entries were read from and how far, so that only new records are read.
+  private long journalGeneration = NO_JOURNAL;
+  private long journalOffset = 0L;
+  private long journalRecords = 0L;
+  private boolean needsSnapshot = false;
+
+  /**
+   * @param journalPath absolute path of the journal file.
+   * @param seedSupplier returns the cache-relative paths and sizes of the files currently in the
+   *     cache, coldest first. Only invoked if there is no usable journal.
+   */
+  DirArtifactCacheIndex(
+      Path journalPath, Supplier<ImmutableList<Pair<String, Long>>> seedSupplier) {
+    this.journalPath = journalPath;
+    this.lockPath = journalPath.resolveSibling(journalPath.getFileName() + ".lock");
+    this.seedSupplier = seedSupplier;
+  }
+
+  /** Records that a file of the given size has been written to the cache. */
+  synchronized void recordStore(String path, long sizeBytes) {
+    addRecord(new JournalRecord(RECORD_STORE, path, sizeBytes));
+    // Stores are comparatively rare and expensive; make sure they survive a crash and that other
+    // processes can evict them.
+    sync(true, () -> {});
+  }
+
+  /** Records that a file has been read from the cache. */
+  synchronized void recordAccess(String path) {
+    ensureLoaded();
+    if (entries.get(path) == null) {
+      return;
+    }
+    pending.add(new JournalRecord(RECORD_ACCESS, path, 0L));
+    if (pending.size() >= MAX_PENDING_RECORDS) {
+      sync(true, () -> {});
+    }
+  }
+
+  /** Records that a file has been removed from the cache by means other than eviction. */
+  synchronized void recordRemoval(String path) {
+    ensureLoaded();
+    if (entries.containsKey(path)) {
+      addRecord(new JournalRecord(RECORD_REMOVE, path, 0L));
+      sync(true, () -> {});
+    }
+  }
+
+  /**
+   * Removes the least recently used entries from the index until the total size drops below {@code
+   * maxBytesAfterEviction}, provided that it currently exceeds {@code maxTotalSizeBytes}. Entries
+   * stored by other processes sharing the cache are taken into account.
+   *
+   * @return cache-relative paths of the evicted files, which the caller is expected to delete.
+   */
+  synchronized ImmutableList<String> evict(long maxTotalSizeBytes, long maxBytesAfterEviction) {
+    ImmutableList.Builder<String> evicted = ImmutableList.builder();
+    sync(
+        true,
+        () -> {
+          if (totalSizeBytes <= maxTotalSizeBytes) {
+            return;
+          }
+          Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+          while (totalSizeBytes > maxBytesAfterEviction && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            totalSizeBytes -= entry.getValue();
+            evicted.add(entry.getKey());
+            pending.add(new JournalRecord(RECORD_REMOVE, entry.getKey(), 0L));
+          }
+        });
+    return evicted.build();
+  }
+
+  @VisibleForTesting
+  synchronized long getTotalSizeBytes() {
+    sync(false, () -> {});
+    return totalSizeBytes;
+  }
+
+  @VisibleForTesting
+  synchronized ImmutableList<String> getEntriesColdestFirst() {
+    sync(false, () -> {});
+    return ImmutableList.copyOf(entries.keySet());
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!pending.isEmpty()) {
+      sync(true, () -> {});
+    }
+  }
+
+  private void ensureLoaded() {
+    if (!loaded) {
+      sync(false, () -> {});
+    }
+  }
+
+  private void addRecord(JournalRecord record) {
+    applyRecord(record.type, record.path, record.sizeBytes);
+    pending.add(record);
+  }
+
+  private void applyRecord(byte type, String path, long sizeBytes) {
+    switch (type) {
+      case RECORD_STORE:
+        Long previous = entries.put(path, sizeBytes);
+        totalSizeBytes += sizeBytes - (previous == null ? 0L : previous);
+        break;
+      case RECORD_ACCESS:
+        entries.get(path);
+        break;
+      case RECORD_REMOVE:
+        Long removed = entries.remove(path);
+        totalSizeBytes -= removed == null ? 0L : removed;
+        break;
+      default:
+        throw new IllegalArgumentException(String.format("Unknown journal record type %d", type));
+    }
+  }
+
+  /**
+   * Brings the entries up to date with the journal, runs {@code action} and, if {@code write} is
+   * set, writes the pending records. All of this happens under the journal lock if it can be taken.
+   */
+  private void sync(boolean write, Runnable action) {
+    if (Files.notExists(lockPath.getParent())) {
+      // There is nothing to coordinate with until a journal is written, and inspecting an
+      // unmodified cache should not leave a lock file behind either.
+      readJournal();
+      action.run();
+      if (write && !pending.isEmpty()) {
+        syncLocked(true, () -> {});
+      }
+      return;
+    }
+    syncLocked(write, action);
+  }
+
+  private void syncLocked(boolean write, Runnable action) {
+    boolean done = false;
+    synchronized (PROCESS_LOCKS.computeIfAbsent(lockPath.toAbsolutePath(), p -> new Object())) {
+      try {
+        Files.createDirectories(lockPath.getParent());
+        try (FileChannel channel =
+                FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock ignored = channel.lock()) {
+          readJournal();
+          action.run();
+          done = true;
+          if (write) {
+            writeJournal();
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to lock dir cache journal [%s].", journalPath);
+      }
+    }
+    if (!done) {
+      // Carry on with what this process knows; the pending records are written next time.
+      if (!loaded) {
+        seed();
+        applyPending();
+      }
+      action.run();
+    }
+  }
+
+  /** Reads the records appended since the last call, or the whole journal if it was replaced. */
+  private void readJournal() {
+    try (CountingInputStream counting =
+        new CountingInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+      DataInputStream in = new DataInputStream(counting);
+      if (in.readInt() != JOURNAL_MAGIC) {
+        throw new IOException("Unknown journal format");
+      }
+      long generation = in.readLong();
+      if (loaded && generation == journalGeneration) {
+        ByteStreams.skipFully(in, journalOffset - counting.getCount());
+      } else {
+        clearEntries();
+        journalGeneration = generation;
+        journalRecords = 0L;
+      }
+      loaded = true;
+      needsSnapshot = false;
+      long offset = counting.getCount();
+      while (true) {
+        byte type;
+        try {
+          type = in.readByte();
+          String path = in.readUTF();
+          applyRecord(type, path, type == RECORD_STORE ? in.readLong() : 0L);
+        } catch (EOFException e) {
+          if (counting.getCount() != offset) {
+            // A truncated trailing record is left behind if a process was killed mid-write.
+            LOG.debug("Dir cache journal [%s] ends with a partial record.", journalPath);
+            needsSnapshot = true;
+          }
+          break;
+        }
+        offset = counting.getCount();
+        journalRecords++;
+      }
+      journalOffset = offset;
+    } catch (NoSuchFileException e) {
+      if (!loaded) {
+        seed();
+      }
+      // Nothing is written until the index is first modified, so that inspecting an unmodified
+      // cache does not leave a journal behind. Force the first write to be a full snapshot.
+      journalGeneration = NO_JOURNAL;
+      needsSnapshot = true;
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Failed to read dir cache journal [%s], rebuilding the index.", journalPath);
+      seed();
+      journalGeneration = NO_JOURNAL;
+      needsSnapshot = true;
+    }
+    // Records of this process come after everything in the journal.
+    applyPending();
+  }
+
+  private void applyPending() {
+    for (JournalRecord record : pending) {
+      applyRecord(record.type, record.path, record.sizeBytes);
+    }
+  }
+
+  private void seed() {
+    clearEntries();
+    for (Pair<String, Long> seed : seedSupplier.get()) {
+      applyRecord(RECORD_STORE, seed.getFirst(), seed.getSecond());
+    }
+    loaded = true;
+  }
+
+  private void clearEntries() {
+    entries.clear();
+    totalSizeBytes = 0L;
+  }
+
+  private void writeJournal() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    try {
+      if (needsSnapshot
+          || journalRecords + pending.size()
+              > Math.max(MIN_RECORDS_BEFORE_COMPACTION, COMPACTION_RATIO * entries.size())) {
+        writeSnapshot();
+      } else {
+        appendPending();
+      }
+      pending.clear();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write dir cache journal [%s].", journalPath);
+    }
+  }
+
+  private void appendPending() throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(journalPath, StandardOpenOption.APPEND)))) {
+      for (JournalRecord record : pending) {
+        record.writeTo(out);
+      }
+    }
+    journalOffset = Files.size(journalPath);
+    journalRecords += pending.size();
+  }
+
+  /** Replaces the journal with a compact snapshot of the current index, coldest entry first. */
+  private void writeSnapshot() throws IOException {
+    long generation = ThreadLocalRandom.current().nextLong();
+    if (generation == NO_JOURNAL) {
+      generation++;
+    }
+    Path tmp = Files.createTempFile(journalPath.getParent(), "journal", ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(JOURNAL_MAGIC);
+        out.writeLong(generation);
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+          new JournalRecord(RECORD_STORE, entry.getKey(), entry.getValue()).writeTo(out);
+        }
+      }
+      Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    journalGeneration = generation;
+    journalOffset = Files.size(journalPath);
+    journalRecords = entries.size();
+    needsSnapshot = false;
+  }
+
+  private static class JournalRecord {
+    private final byte type;
+    private final String path;
+    private final long sizeBytes;
+
+    private JournalRecord(byte type, String path, long sizeBytes) {
+      this.type = type;
+      this.path = path;
+      this.sizeBytes = sizeBytes;
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+      out.writeByte(type);
+      out.writeUTF(path);
+      if (type == RECORD_STORE) {
+        out.writeLong(sizeBytes);
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Hands artifacts stored on local disk by {@link DirArtifactCache} and {@link SQLiteArtifactCache}
+ * back to the caller.
+ *
+ * <p>Rather than copying the stored bytes, the output is hard linked to the stored file whenever
+ * both live on the same filesystem. This is safe because the caches never modify a stored file in
+ * place: new artifacts are always moved into position, and fetched artifacts are only read (and
+ * then deleted) by the build engine. If linking fails, e.g. because the output is on a different
+ * device, we fall back to copying and stop trying to link.
+ */
+class LocalArtifactMaterializer {
+
+  private static final Logger LOG = Logger.get(LocalArtifactMaterializer.class);
+
+  private final ProjectFilesystem filesystem;
+  private volatile boolean linkingSupported = true;
+
+  LocalArtifactMaterializer(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+  }
+
+  /**
+   * Makes the contents of {@code storedArtifact} available at {@code output}, replacing whatever
+   * was there before.
+   *
+   * @throws NoSuchFileException if the stored artifact does not exist.
+   */
+  void materialize(Path storedArtifact, Path output) throws IOException {
+    if (linkingSupported) {
+      Path source = filesystem.resolve(storedArtifact);
+      Path target = filesystem.resolve(output);
+      try {
+        Files.deleteIfExists(target);
+        Files.createLink(target, source);
+        return;
+      } catch (NoSuchFileException e) {
+        if (!Files.exists(source)) {
+          throw e;
+        }
+        disableLinking(e, source, target);
+      } catch (FileSystemException | UnsupportedOperationException e) {
+        disableLinking(e, source, target);
+      }
+    }
+    filesystem.copyFile(storedArtifact, output);
+  }
+
+  @VisibleForTesting
+  boolean isLinkingSupported() {
+    return linkingSupported;
+  }
+
+  private void disableLinking(Exception e, Path source, Path target) {
+    LOG.debug(e, "Cannot link [%s] to [%s], falling back to copying artifacts.", target, source);
+    linkingSupported = false;
+  }
+}
@@ -96,6 +96,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private final Optional<Long> maxBytesAfterDeletion;
   private final long maxInlinedBytes;
   private final CacheReadMode cacheMode;
+  private final LocalArtifactMaterializer materializer;
 
   private final ConnectionInfo db;
 
@@ -121,6 +122,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
         maxCacheSizeBytes.map(size -> (long) (size * MAX_BYTES_TRIM_RATIO));
     this.maxInlinedBytes = maxInlinedSizeBytes.orElse(DEFAULT_MAX_INLINED_BYTES);
     this.cacheMode = cacheMode;
+    this.materializer = new LocalArtifactMaterializer(filesystem);
 
     try {
       Class.forName("org.sqlite.JDBC");
@@ -182,7 +184,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
           filesystem.writeBytesToPath(artifact, output.get());
         } else if (filesystem.exists(filesystem.resolve(filepath))) {
           // artifact stored on disk with path in database
-          filesystem.copyFile(filesystem.resolve(filepath), output.get());
+          materializer.materialize(filesystem.resolve(filepath), output.get());
         } else {
           // artifact stored on disk was removed by another cache, remove database entry
           db.deleteContent(contentHash);
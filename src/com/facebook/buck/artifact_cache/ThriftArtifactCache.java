@@ -87,6 +87,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
   private final String hybridThriftEndpoint;
   private final BuildId buildId;
   private final int multiFetchLimit;
+  private final long multiFetchWindowMillis;
   private final int concurrencyLevel;
   private final boolean multiCheckEnabled;
   private final String producerId;
@@ -97,6 +98,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       String hybridThriftEndpoint,
       BuildId buildId,
       int multiFetchLimit,
+      long multiFetchWindowMillis,
       int concurrencyLevel,
       boolean multiCheckEnabled,
       String producerId,
@@ -106,6 +108,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
     this.targetConfigurationSerializer = args.getTargetConfigurationSerializer();
     this.buildId = buildId;
     this.multiFetchLimit = multiFetchLimit;
+    this.multiFetchWindowMillis = multiFetchWindowMillis;
     this.concurrencyLevel = concurrencyLevel;
     this.multiCheckEnabled = multiCheckEnabled;
     this.hybridThriftEndpoint = hybridThriftEndpoint;
@@ -399,9 +402,19 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
 
   @Override
   protected int getMultiFetchBatchSize(int pendingRequestsSize) {
-    if (concurrencyLevel > 0)
-      return Math.min(multiFetchLimit, 1 + pendingRequestsSize / concurrencyLevel);
-    return 0;
+    if (concurrencyLevel <= 0) {
+      return 0;
+    }
+    if (multiFetchWindowMillis > 0) {
+      // With a batching window, wait for full batches instead of sizing them by the backlog.
+      return multiFetchLimit;
+    }
+    return Math.min(multiFetchLimit, 1 + pendingRequestsSize / concurrencyLevel);
+  }
+
+  @Override
+  protected long getMultiFetchBatchWindowMillis() {
+    return multiFetchWindowMillis;
   }
 
   @Override
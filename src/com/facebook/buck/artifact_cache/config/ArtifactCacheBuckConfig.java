@@ -126,6 +126,12 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
       "two_level_cache_maximum_size";
   private static final long TWO_LEVEL_CACHING_MIN_SIZE_DEFAULT = 20 * 1024L;
 
+  private static final String CHUNKED_CACHING_ENABLED_FIELD_NAME = "chunked_cache_enabled";
+  private static final String CHUNKED_CACHING_MIN_SIZE_FIELD_NAME = "chunked_cache_minimum_size";
+  private static final String CHUNKED_CACHING_CHUNK_SIZE_FIELD_NAME = "chunked_cache_chunk_size";
+  private static final long CHUNKED_CACHING_MIN_SIZE_DEFAULT = 64 * 1024 * 1024L;
+  private static final long CHUNKED_CACHING_CHUNK_SIZE_DEFAULT = 16 * 1024 * 1024L;
+
   private static final String HYBRID_THRIFT_ENDPOINT = "hybrid_thrift_endpoint";
   private static final String REPOSITORY = "repository";
   private static final String DEFAULT_REPOSITORY = "";
@@ -142,6 +148,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String DEFAULT_SCHEDULE_TYPE = "none";
   public static final String MULTI_FETCH = "multi_fetch";
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
+  private static final String MULTI_FETCH_WINDOW_MILLIS = "multi_fetch_window_millis";
   public static final String MULTI_CHECK = "multi_check";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
 
@@ -189,6 +196,14 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(DEFAULT_MULTI_FETCH_LIMIT);
   }
 
+  /**
+   * @return how long to hold back a multiFetch request that is not yet full, waiting for more rule
+   *     keys to become fetchable. 0 sends whatever is pending immediately.
+   */
+  public long getMultiFetchWindowMillis() {
+    return buckConfig.getLong(CACHE_SECTION_NAME, MULTI_FETCH_WINDOW_MILLIS).orElse(0L);
+  }
+
   public String getRepository() {
     return buckConfig.getValue(CACHE_SECTION_NAME, REPOSITORY).orElse(DEFAULT_REPOSITORY);
   }
@@ -406,6 +421,34 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .map(SizeUnit::parseBytes);
   }
 
+  /** Whether large artifacts should be stored as chunks that can be transferred in parallel. */
+  public boolean getChunkedCachingEnabled() {
+    return buckConfig.getBooleanValue(
+        CACHE_SECTION_NAME, CHUNKED_CACHING_ENABLED_FIELD_NAME, false);
+  }
+
+  /** Artifacts smaller than this are always stored whole. */
+  public long getChunkedCachingMinimumSize() {
+    return buckConfig
+        .getValue(CACHE_SECTION_NAME, CHUNKED_CACHING_MIN_SIZE_FIELD_NAME)
+        .map(SizeUnit::parseBytes)
+        .orElse(CHUNKED_CACHING_MIN_SIZE_DEFAULT);
+  }
+
+  public long getChunkedCachingChunkSize() {
+    long chunkSize =
+        buckConfig
+            .getValue(CACHE_SECTION_NAME, CHUNKED_CACHING_CHUNK_SIZE_FIELD_NAME)
+            .map(SizeUnit::parseBytes)
+            .orElse(CHUNKED_CACHING_CHUNK_SIZE_DEFAULT);
+    if (chunkSize <= 0) {
+      throw new HumanReadableException(
+          "%s:%s must be positive, got %d",
+          CACHE_SECTION_NAME, CHUNKED_CACHING_CHUNK_SIZE_FIELD_NAME, chunkSize);
+    }
+    return chunkSize;
+  }
+
   /**
    * If true, fail if client TLS certificate or key paths are unspecified, don't exist, are not the
    * right format or have expired
@@ -32,12 +32,10 @@ import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.model.targetgraph.impl.TargetNodes;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
-import com.facebook.buck.core.util.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.core.util.graph.AcyclicDepthFirstPostOrderTraversalWithPayload;
 import com.facebook.buck.core.util.graph.CycleException;
 import com.facebook.buck.core.util.graph.DirectedAcyclicGraph;
 import com.facebook.buck.core.util.graph.GraphTraversableWithPayload;
-import com.facebook.buck.core.util.graph.MutableDirectedGraph;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.file.MorePaths;
@@ -46,6 +44,7 @@ import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserMessages;
 import com.facebook.buck.parser.ParsingContext;
 import com.facebook.buck.parser.PerBuildState;
+import com.facebook.buck.parser.ReverseDepsIndex;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
@@ -54,18 +53,19 @@ import com.facebook.buck.query.AllPathsFunction;
 import com.facebook.buck.query.AttrFilterFunction;
 import com.facebook.buck.query.AttrRegexFilterFunction;
 import com.facebook.buck.query.BuildFileFunction;
+import com.facebook.buck.query.CachingQueryEvaluator;
 import com.facebook.buck.query.DepsFunction;
 import com.facebook.buck.query.FilterFunction;
 import com.facebook.buck.query.InputsFunction;
 import com.facebook.buck.query.KindFunction;
 import com.facebook.buck.query.LabelsFunction;
-import com.facebook.buck.query.NoopQueryEvaluator;
 import com.facebook.buck.query.OwnerFunction;
 import com.facebook.buck.query.QueryBuildTarget;
 import com.facebook.buck.query.QueryEnvironment;
 import com.facebook.buck.query.QueryException;
 import com.facebook.buck.query.QueryExpression;
 import com.facebook.buck.query.QueryFileTarget;
+import com.facebook.buck.query.QueryResultStore;
 import com.facebook.buck.query.RdepsFunction;
 import com.facebook.buck.query.TestsOfFunction;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
@@ -140,9 +140,19 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   private final Map<BuildTarget, QueryBuildTarget> buildTargetToQueryTarget = new HashMap<>();
 
   // Query execution is single threaded, however the buildTransitiveClosure implementation
-  // traverses the graph in parallel.
-  private MutableDirectedGraph<TargetNode<?>> graph = MutableDirectedGraph.createConcurrent();
+  // discovers new targets in parallel. Only discovered targets are added to the graph, on the
+  // query thread, so the graph only holds what the expression could reach.
+  private final QueryTargetGraph graph = new QueryTargetGraph();
   private Map<BuildTarget, TargetNode<?>> targetsToNodes = new ConcurrentHashMap<>();
+  // Targets only ever get added to this environment, so the result of an expression stays the same
+  // for as long as it lives, e.g. across the queries of `buck query 'rdeps(//..., %s)' ...`. Given
+  // the daemon's store, it stays the same across commands too, until the parser state changes.
+  private final Optional<QueryResultStore.View> queryResultStore;
+  private final CachingQueryEvaluator<QueryBuildTarget> evaluator;
+  private final Set<QueryExpression<QueryBuildTarget>> exploredStoredExpressions = new HashSet<>();
+  // Universes whose reverse dependencies were found among the daemon's cached nodes, so their
+  // closure was not added to the graph.
+  private final List<Set<QueryBuildTarget>> unexploredUniverses = new ArrayList<>();
   private TemporaryUnconfiguredTargetToTargetUniquenessChecker checker;
 
   @VisibleForTesting
@@ -154,6 +164,26 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
       TargetPatternEvaluator targetPatternEvaluator,
       BuckEventBus eventBus,
       TypeCoercerFactory typeCoercerFactory) {
+    this(
+        rootCell,
+        ownersReportBuilder,
+        parser,
+        parserState,
+        targetPatternEvaluator,
+        eventBus,
+        typeCoercerFactory,
+        Optional.empty());
+  }
+
+  private BuckQueryEnvironment(
+      Cell rootCell,
+      Builder ownersReportBuilder,
+      Parser parser,
+      PerBuildState parserState,
+      TargetPatternEvaluator targetPatternEvaluator,
+      BuckEventBus eventBus,
+      TypeCoercerFactory typeCoercerFactory,
+      Optional<QueryResultStore.View> queryResultStore) {
     this.parser = parser;
     this.eventBus = eventBus;
     this.parserState = parserState;
@@ -174,6 +204,8 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     this.checker =
         TemporaryUnconfiguredTargetToTargetUniquenessChecker.create(
             BuildBuckConfig.of(rootCell.getBuckConfig()).shouldBuckOutIncludeTargetConfigHash());
+    this.queryResultStore = queryResultStore;
+    this.evaluator = new CachingQueryEvaluator<>(queryResultStore);
   }
 
   public static BuckQueryEnvironment from(
@@ -194,9 +226,22 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
         typeCoercerFactory);
   }
 
+  /**
+   * Creates an environment which shares the results of its queries with the other commands run by
+   * the daemon, for as long as the daemon's parser state does not change.
+   */
   public static BuckQueryEnvironment from(
       CommandRunnerParams params, PerBuildState parserState, ParsingContext parsingContext) {
-    return from(
+    // Everything besides the parser state that the result of a query depends on.
+    Object queryContext =
+        ImmutableList.of(
+            params.getTargetConfiguration(),
+            params.getHostConfiguration(),
+            params.getClientWorkingDir(),
+            parsingContext.useUnconfiguredSelectorResolver(),
+            parsingContext.excludeUnsupportedTargets(),
+            parsingContext.enableTargetCompatibilityChecks());
+    return new BuckQueryEnvironment(
         params.getCells().getRootCell(),
         OwnersReport.builder(
             params.getCells().getRootCell(),
@@ -217,11 +262,27 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
                 ParserConfig.ApplyDefaultFlavorsMode.DISABLED),
             params.getTargetConfiguration()),
         params.getBuckEventBus(),
-        params.getTypeCoercerFactory());
+        params.getTypeCoercerFactory(),
+        Optional.of(params.getParser().getPermState().getQueryResultStore().view(queryContext)));
   }
 
-  public DirectedAcyclicGraph<TargetNode<?>> getTargetGraph() {
-    return new DirectedAcyclicGraph<>(graph);
+  /**
+   * @return the graph of the targets the queries evaluated so far led to. Queries whose results
+   *     were found in the daemon's store led nowhere, so they are evaluated again first, and so do
+   *     the universes of reverse dependencies found among the daemon's cached nodes.
+   */
+  public DirectedAcyclicGraph<TargetNode<?>> getTargetGraph() throws QueryException {
+    CachingQueryEvaluator<QueryBuildTarget> exploringEvaluator = new CachingQueryEvaluator<>();
+    for (QueryExpression<QueryBuildTarget> expr : evaluator.getStoredExpressions()) {
+      if (exploredStoredExpressions.add(expr)) {
+        exploringEvaluator.eval(expr, this);
+      }
+    }
+    for (Set<QueryBuildTarget> universe : unexploredUniverses) {
+      buildTransitiveClosure(universe, Integer.MAX_VALUE);
+    }
+    unexploredUniverses.clear();
+    return new DirectedAcyclicGraph<>(graph.toMutableDirectedGraph());
   }
 
   public PerBuildState getParserState() {
@@ -248,10 +309,12 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
    */
   public Set<QueryTarget> evaluateQuery(QueryExpression<QueryBuildTarget> expr)
       throws QueryException, InterruptedException {
-    Set<String> targetLiterals = new HashSet<>();
-    expr.collectTargetPatterns(targetLiterals);
-    preloadTargetPatterns(targetLiterals);
-    return new NoopQueryEvaluator<QueryBuildTarget>().eval(expr, this);
+    if (!queryResultStore.isPresent() || !queryResultStore.get().get(expr).isPresent()) {
+      Set<String> targetLiterals = new HashSet<>();
+      expr.collectTargetPatterns(targetLiterals);
+      preloadTargetPatterns(targetLiterals);
+    }
+    return evaluator.eval(expr, this);
   }
 
   public Set<QueryTarget> evaluateQuery(String query) throws QueryException, InterruptedException {
@@ -313,7 +376,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     ImmutableSet.Builder<QueryBuildTarget> result = new ImmutableSet.Builder<>();
     for (QueryBuildTarget target : targets) {
       TargetNode<?> node = getNode(target);
-      result.addAll(getTargetsFromTargetNodes(graph.getOutgoingNodesFor(node)));
+      result.addAll(getTargetsFromTargetNodes(graph.getDeps(node)));
     }
     return result.build();
   }
@@ -324,7 +387,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     Set<QueryBuildTarget> result = new LinkedHashSet<>();
     for (QueryBuildTarget target : targets) {
       TargetNode<?> node = getNode(target);
-      for (TargetNode<?> parentNode : graph.getIncomingNodesFor(node)) {
+      for (TargetNode<?> parentNode : graph.getReverseDeps(node)) {
         result.add(getOrCreateQueryBuildTarget(parentNode.getBuildTarget()));
       }
     }
@@ -348,6 +411,39 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
         .collect(ImmutableSet.toImmutableSet());
   }
 
+  @Override
+  public Optional<Set<QueryBuildTarget>> getReverseDepsWithinUniverse(
+      Set<QueryBuildTarget> universe, Set<QueryBuildTarget> targets, int maxDepth) {
+    Set<BuildTarget> universeTargets = new HashSet<>();
+    for (QueryBuildTarget target : universe) {
+      universeTargets.add(target.getBuildTarget());
+    }
+    // Like `rdeps()` itself, ignore targets which are not build targets rather than failing.
+    Set<BuildTarget> buildTargets = new LinkedHashSet<>();
+    for (Object target : targets) {
+      if (target instanceof QueryBuildTarget) {
+        buildTargets.add(((QueryBuildTarget) target).getBuildTarget());
+      }
+    }
+    Optional<ReverseDepsIndex.ReverseDeps> reverseDeps =
+        parser
+            .getPermState()
+            .getCachedReverseDeps(
+                rootCell.getAllCells(), eventBus, universeTargets, buildTargets, maxDepth);
+    if (!reverseDeps.isPresent()) {
+      return Optional.empty();
+    }
+    for (BuildTarget target : reverseDeps.get().getUniverseClosure()) {
+      checker.addTarget(target, DependencyStack.top(target));
+    }
+    unexploredUniverses.add(universe);
+    Set<QueryBuildTarget> result = new LinkedHashSet<>();
+    for (BuildTarget target : reverseDeps.get().getReverseDeps()) {
+      result.add(getOrCreateQueryBuildTarget(target));
+    }
+    return Optional.of(result);
+  }
+
   @Override
   public ImmutableSet<QueryBuildTarget> getTransitiveClosure(Set<QueryBuildTarget> targets)
       throws QueryException {
@@ -356,17 +452,8 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
       nodes.add(getNode(target));
     }
     ImmutableSet.Builder<QueryBuildTarget> result = ImmutableSet.builder();
-
-    new AbstractBreadthFirstTraversal<TargetNode<?>>(nodes) {
-      @Override
-      public Iterable<TargetNode<?>> visit(TargetNode<?> node) {
-        result.add(getOrCreateQueryBuildTarget(node.getBuildTarget()));
-        return node.getParseDeps().stream()
-            .map(targetsToNodes::get)
-            .collect(ImmutableSet.toImmutableSet());
-      }
-    }.start();
-
+    graph.forEachInTransitiveClosure(
+        nodes, node -> result.add(getOrCreateQueryBuildTarget(node.getBuildTarget())));
     return result.build();
   }
 
@@ -421,7 +508,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
           //  - we can't have a cycle involving the "old" nodes,
           //  - there are no new edges or nodes to be discovered by descending into the "old" nodes,
           // making this node safe to skip.
-          if (graph.getNodes().contains(node)) {
+          if (graph.contains(target)) {
             return new Pair<>(node, ImmutableSet.<BuildTarget>of().iterator());
           }
           return new Pair<>(node, node.getParseDeps().iterator());
@@ -431,14 +518,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
         new AcyclicDepthFirstPostOrderTraversalWithPayload<>(traversable);
     try {
       for (Pair<BuildTarget, TargetNode<?>> entry : targetNodeTraversal.traverse(newBuildTargets)) {
-        TargetNode<?> node = entry.getSecond();
-        graph.addNode(node);
-        for (BuildTarget dep : node.getParseDeps()) {
-          graph.addEdge(
-              node,
-              Preconditions.checkNotNull(
-                  targetsToNodes.get(dep), "Couldn't find TargetNode for %s", dep));
-        }
+        graph.addNode(entry.getSecond());
       }
     } catch (CycleException e) {
       throw new QueryException(e, e.getMessage());
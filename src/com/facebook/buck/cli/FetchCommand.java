@@ -142,6 +142,7 @@ public class FetchCommand extends BuildCommand {
                   cachingBuildEngineBuckConfig.getBuildDepFiles(),
                   cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                   cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                  cachingBuildEngineBuckConfig.getCachePrefetchLimit(),
                   actionGraphAndBuilder.getActionGraphBuilder(),
                   actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
                   params.getTargetConfigurationSerializer(),
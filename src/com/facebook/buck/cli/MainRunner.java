@@ -45,6 +45,7 @@ import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.config.DepsAwareExecutorConfig;
 import com.facebook.buck.core.graph.transformation.executor.factory.DepsAwareExecutorFactory;
 import com.facebook.buck.core.graph.transformation.executor.factory.DepsAwareExecutorType;
+import com.facebook.buck.core.graph.transformation.executor.impl.TaskDurationHistory;
 import com.facebook.buck.core.graph.transformation.model.ComputeResult;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.TargetConfiguration;
@@ -70,6 +71,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.counters.CounterBuckConfig;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.counters.EventListenerDispatchCounter;
 import com.facebook.buck.doctor.DefaultDefectReporter;
 import com.facebook.buck.doctor.config.DoctorConfig;
 import com.facebook.buck.event.BuckEventBus;
@@ -1007,7 +1009,9 @@ public final class MainRunner {
                       printConsole.getStdErr(),
                       printConsole.getStdErr().getRawStream(),
                       verbosity);
-          DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+          DefaultBuckEventBus buildEventBus =
+              new DefaultBuckEventBus(
+                  clock, buildId, logBuckConfig.isPerListenerEventDispatchEnabled());
           ) {
         BuckConfigWriter.writeConfig(
             filesystem.getRootPath().getPath(), invocationInfo, buckConfig);
@@ -1195,7 +1199,8 @@ public final class MainRunner {
                     });
             CloseableMemoizedSupplier<DepsAwareExecutor<? super ComputeResult, ?>>
                 depsAwareExecutorSupplier =
-                    getDepsAwareExecutorSupplier(buckConfig, buildEventBus);
+                    getDepsAwareExecutorSupplier(
+                        buckConfig, buildEventBus, buckGlobalState.getTaskDurationHistory());
 
             // This will get executed first once it gets out of try block and just wait for
             // event bus to dispatch all pending events before we proceed to termination
@@ -1417,6 +1422,10 @@ public final class MainRunner {
           // The counters will be unregistered once the counter registry is closed.
           counterRegistry.registerCounters(
               parserAndCaches.getParser().getPermState().getCounters());
+          counterRegistry.registerCounters(
+              ImmutableList.of(
+                  new EventListenerDispatchCounter(
+                      "buck_event_bus", "listener_dispatch", ImmutableMap.of(), buildEventBus)));
 
           Optional<ProcessManager> processManager;
           if (platform == Platform.WINDOWS) {
@@ -1543,6 +1552,9 @@ public final class MainRunner {
             context.get().exit(exitCode.getCode());
           }
 
+          buckGlobalState.persistFileHashCaches();
+          buckGlobalState.persistDaemonState();
+
           // TODO(buck_team): refactor eventListeners for RAII
           flushAndCloseEventListeners(printConsole, eventListeners);
         }
@@ -2455,6 +2467,12 @@ public final class MainRunner {
 
   static CloseableMemoizedSupplier<DepsAwareExecutor<? super ComputeResult, ?>>
       getDepsAwareExecutorSupplier(BuckConfig config, BuckEventBus eventBus) {
+    return getDepsAwareExecutorSupplier(config, eventBus, new TaskDurationHistory());
+  }
+
+  private static CloseableMemoizedSupplier<DepsAwareExecutor<? super ComputeResult, ?>>
+      getDepsAwareExecutorSupplier(
+          BuckConfig config, BuckEventBus eventBus, TaskDurationHistory taskDurationHistory) {
     Map<DepsAwareExecutorType, Double> executorType =
         config.getView(DepsAwareExecutorConfig.class).getExecutorType();
     DepsAwareExecutorType resolvedExecutorType;
@@ -2472,14 +2490,18 @@ public final class MainRunner {
         new ExperimentEvent("depsaware_executor", resolvedExecutorType.toString(), "", null, null));
     return getDepsAwareExecutorSupplier(
         resolvedExecutorType,
-        config.getView(ResourcesConfig.class).getMaximumResourceAmounts().getCpu());
+        config.getView(ResourcesConfig.class).getMaximumResourceAmounts().getCpu(),
+        taskDurationHistory);
   }
 
-  static CloseableMemoizedSupplier<DepsAwareExecutor<? super ComputeResult, ?>>
-      getDepsAwareExecutorSupplier(DepsAwareExecutorType executorType, int parallelism) {
+  private static CloseableMemoizedSupplier<DepsAwareExecutor<? super ComputeResult, ?>>
+      getDepsAwareExecutorSupplier(
+          DepsAwareExecutorType executorType,
+          int parallelism,
+          TaskDurationHistory taskDurationHistory) {
     return CloseableMemoizedSupplier.of(
         (Supplier<DepsAwareExecutor<? super ComputeResult, ?>>)
-            () -> DepsAwareExecutorFactory.create(executorType, parallelism),
+            () -> DepsAwareExecutorFactory.create(executorType, parallelism, taskDurationHistory),
         DepsAwareExecutor::close);
   }
 
@@ -206,11 +206,42 @@ final class OwnersReport {
                   throw new HumanReadableException(e);
                 }
               });
+      String filePath = cellRelativePath.toString();
+      if (!targetNodes.isEmpty()
+          && Files.isRegularFile(cell.getFilesystem().getPathForRelativePath(filePath))) {
+        // The daemon indexes the inputs of the nodes it caches, which saves going through the
+        // inputs of every node of the package.
+        Optional<ImmutableSet<TargetNode<?>>> owners =
+            parser
+                .getPermState()
+                .getOwnersAmongCachedNodes(
+                    cell, targetNodes, ForwardRelativePath.ofPath(cellRelativePath.getPath()));
+        if (owners.isPresent()) {
+          return reportForOwners(owners.get(), cell.getFilesystem().getPath(filePath));
+        }
+      }
       return targetNodes.stream()
-          .map(targetNode -> generateOwnersReport(cell, targetNode, cellRelativePath.toString()))
+          .map(targetNode -> generateOwnersReport(cell, targetNode, filePath))
           .reduce(OwnersReport.emptyReport(), OwnersReport::updatedWith);
     }
 
+    private OwnersReport reportForOwners(ImmutableSet<TargetNode<?>> owners, Path commandInput) {
+      if (owners.isEmpty()) {
+        return new OwnersReport(
+            ImmutableSetMultimap.of(),
+            ImmutableSet.of(commandInput),
+            ImmutableSet.of(),
+            ImmutableSet.of());
+      }
+      ImmutableSetMultimap.Builder<TargetNode<?>, Path> ownersBuilder =
+          ImmutableSetMultimap.builder();
+      for (TargetNode<?> owner : owners) {
+        ownersBuilder.put(owner, commandInput);
+      }
+      return new OwnersReport(
+          ownersBuilder.build(), ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of());
+    }
+
     private ImmutableSet<RelPath> getAllBasePathsForPath(
         BuildFileTree buildFileTree, RelPath cellRelativePath) {
       if (rootCell
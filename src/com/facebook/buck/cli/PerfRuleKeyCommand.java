@@ -28,6 +28,7 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.model.targetgraph.TargetGraphCreationResult;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.calculator.BatchedRuleKeyCalculator;
 import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
@@ -54,7 +55,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import javax.annotation.Nullable;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
@@ -95,6 +98,12 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
           "Whether to keep the file hash cache between runs or not. If enabled, the first run will have a cold cache. This may more accurately reflect the performance for incremental builds.")
   private boolean preserveFileHashCache;
 
+  @Option(
+      name = "--calculator",
+      usage =
+          "how to schedule key computation: one future per rule (parallel), or waves of rules of the same height with their input file hashes loaded ahead (batched).")
+  private CalculatorType calculatorType = CalculatorType.PARALLEL;
+
   @Argument private List<String> arguments = new ArrayList<>();
 
   private enum KeyType {
@@ -104,6 +113,11 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
     MANIFEST
   }
 
+  private enum CalculatorType {
+    PARALLEL,
+    BATCHED
+  }
+
   @Override
   PreparedState prepareTest(CommandRunnerParams params) {
     try {
@@ -147,15 +161,16 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
         }
       }
 
+      int numThreads = params.getBuckConfig().getView(BuildBuckConfig.class).getNumThreads();
       ListeningExecutorService service =
           MoreExecutors.listeningDecorator(
-              MostExecutors.newMultiThreadExecutor(
-                  "rulekey-computation",
-                  params.getBuckConfig().getView(BuildBuckConfig.class).getNumThreads()));
+              MostExecutors.newMultiThreadExecutor("rulekey-computation", numThreads));
+      ForkJoinPool pool = new ForkJoinPool(numThreads);
 
       StackedFileHashCache fileHashCache =
           preserveFileHashCache ? createStackedFileHashCache(params) : null;
-      return new PreparedState(service, graphAndBuilder, rulesInGraph, usedInputs, fileHashCache);
+      return new PreparedState(
+          service, pool, graphAndBuilder, rulesInGraph, usedInputs, fileHashCache);
     } catch (Exception e) {
       throw new BuckUncheckedExecutionException(
           e, "When inspecting serialization state of the action graph.");
@@ -165,6 +180,7 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
   /** The state prepared for us to compute keys. */
   static class PreparedState {
     private final ListeningExecutorService service;
+    private final ForkJoinPool pool;
     private final ActionGraphAndBuilder graphAndBuilder;
     private final ImmutableList<BuildRule> rulesInGraph;
     private final Map<BuildEngineAction, ImmutableList<DependencyFileEntry>> usedInputs;
@@ -172,11 +188,13 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
 
     PreparedState(
         ListeningExecutorService service,
+        ForkJoinPool pool,
         ActionGraphAndBuilder graphAndBuilder,
         ImmutableList<BuildRule> rulesInGraph,
         Map<BuildEngineAction, ImmutableList<DependencyFileEntry>> usedInputs,
         @Nullable StackedFileHashCache fileHashCache) {
       this.service = service;
+      this.pool = pool;
       this.graphAndBuilder = graphAndBuilder;
       this.rulesInGraph = rulesInGraph;
       this.usedInputs = usedInputs;
@@ -186,21 +204,37 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
 
   @Override
   protected String getComputationName() {
-    return String.format("%s key", keyType.toString().toLowerCase());
+    return String.format(
+        "%s key (%s)",
+        keyType.toString().toLowerCase(), calculatorType.toString().toLowerCase());
   }
 
   @Override
   void runPerfTest(CommandRunnerParams params, PreparedState state) throws Exception {
-    RuleKeyFactory<?> keyFactory = getRuleKeyFactory(params, state);
+    // We recreate the filehashcache and key factory in each run to ensure they don't benefit from
+    // internal caching.
+    StackedFileHashCache fileHashCache =
+        state.fileHashCache != null ? state.fileHashCache : createStackedFileHashCache(params);
+    RuleKeyFactory<?> keyFactory = getRuleKeyFactory(params, state, fileHashCache);
+    DefaultRuleDepsCache ruleDepsCache =
+        new DefaultRuleDepsCache(
+            state.graphAndBuilder.getActionGraphBuilder(),
+            state.graphAndBuilder.getBuildEngineActionToBuildRuleResolver());
+
+    if (calculatorType == CalculatorType.BATCHED) {
+      new BatchedRuleKeyCalculator<>(
+              state.pool,
+              keyFactory,
+              ruleDepsCache,
+              (buckEventBus, buildRule) -> () -> {},
+              Optional.of(fileHashCache))
+          .calculate(params.getBuckEventBus(), state.rulesInGraph);
+      return;
+    }
 
     ParallelRuleKeyCalculator<?> keyCalculator =
         new ParallelRuleKeyCalculator<>(
-            state.service,
-            keyFactory,
-            new DefaultRuleDepsCache(
-                state.graphAndBuilder.getActionGraphBuilder(),
-                state.graphAndBuilder.getBuildEngineActionToBuildRuleResolver()),
-            (buckEventBus, buildRule) -> () -> {});
+            state.service, keyFactory, ruleDepsCache, (buckEventBus, buildRule) -> () -> {});
 
     List<ListenableFuture<?>> futures = new ArrayList<>();
     for (BuildRule buildRule : state.rulesInGraph) {
@@ -209,13 +243,8 @@ public class PerfRuleKeyCommand extends AbstractPerfCommand<PreparedState> {
     Futures.allAsList(futures).get();
   }
 
-  private RuleKeyFactory<?> getRuleKeyFactory(CommandRunnerParams params, PreparedState context)
-      throws InterruptedException {
-    // We recreate the filehashcache and key factory in each run to ensure they don't benefit from
-    // internal caching.
-    StackedFileHashCache fileHashCache =
-        context.fileHashCache != null ? context.fileHashCache : createStackedFileHashCache(params);
-
+  private RuleKeyFactory<?> getRuleKeyFactory(
+      CommandRunnerParams params, PreparedState context, StackedFileHashCache fileHashCache) {
     TrackedRuleKeyCache<RuleKey> ruleKeyCache =
         new TrackedRuleKeyCache<>(
             new DefaultRuleKeyCache<>(), new InstrumentingCacheStatsTracker());
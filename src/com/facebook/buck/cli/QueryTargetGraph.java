@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.graph.MutableDirectedGraph;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * The part of the target graph that a query has explored, stored compactly so that queries over
+ * most of a large repository do not need much more memory than the target nodes themselves.
+ *
+ * <p>Targets are numbered densely in the order in which they are added. Forward edges are not
+ * stored, since they are the parse deps of each node, and reverse edges are stored as arrays of
+ * target numbers. Traversals keep track of the targets they visited with bit sets over those
+ * numbers.
+ *
+ * <p>Not thread safe.
+ */
+class QueryTargetGraph {
+
+  private final Map<BuildTarget, Integer> ids = new HashMap<>();
+  private final List<TargetNode<?>> nodes = new ArrayList<>();
+  private int[][] reverseDeps = new int[16][];
+  private int[] reverseDepCounts = new int[16];
+
+  /** @return the number of targets in the graph. */
+  int size() {
+    return nodes.size();
+  }
+
+  boolean contains(BuildTarget target) {
+    return ids.containsKey(target);
+  }
+
+  /**
+   * Adds a node and the edges to its parse deps, unless it is in the graph already. All of its
+   * parse deps must have been added before.
+   */
+  void addNode(TargetNode<?> node) {
+    if (ids.containsKey(node.getBuildTarget())) {
+      return;
+    }
+    int id = nodes.size();
+    if (id == reverseDeps.length) {
+      reverseDeps = Arrays.copyOf(reverseDeps, id * 2);
+      reverseDepCounts = Arrays.copyOf(reverseDepCounts, id * 2);
+    }
+    for (BuildTarget dep : node.getParseDeps()) {
+      int depId =
+          Preconditions.checkNotNull(
+              ids.get(dep), "Dependency %s of %s was not added first", dep, node);
+      addReverseDep(depId, id);
+    }
+    ids.put(node.getBuildTarget(), id);
+    nodes.add(node);
+  }
+
+  private void addReverseDep(int id, int reverseDepId) {
+    int[] current = reverseDeps[id];
+    int count = reverseDepCounts[id];
+    if (current == null) {
+      current = new int[2];
+      reverseDeps[id] = current;
+    } else if (count == current.length) {
+      current = Arrays.copyOf(current, count * 2);
+      reverseDeps[id] = current;
+    }
+    current[count] = reverseDepId;
+    reverseDepCounts[id] = count + 1;
+  }
+
+  /** @return the parse deps of a node, or nothing if the node is not in the graph. */
+  ImmutableList<TargetNode<?>> getDeps(TargetNode<?> node) {
+    if (!contains(node.getBuildTarget())) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetNode<?>> deps =
+        ImmutableList.builderWithExpectedSize(node.getParseDeps().size());
+    for (BuildTarget dep : node.getParseDeps()) {
+      deps.add(nodes.get(ids.get(dep)));
+    }
+    return deps.build();
+  }
+
+  /** @return the nodes in the graph which have {@code node} as a parse dep. */
+  ImmutableList<TargetNode<?>> getReverseDeps(TargetNode<?> node) {
+    @Nullable Integer id = ids.get(node.getBuildTarget());
+    if (id == null || reverseDeps[id] == null) {
+      return ImmutableList.of();
+    }
+    int[] reverseDepIds = reverseDeps[id];
+    int count = reverseDepCounts[id];
+    ImmutableList.Builder<TargetNode<?>> result = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      result.add(nodes.get(reverseDepIds[i]));
+    }
+    return result.build();
+  }
+
+  /**
+   * Visits {@code roots} and the nodes in the graph they transitively depend on, breadth first,
+   * each one once.
+   */
+  void forEachInTransitiveClosure(Iterable<TargetNode<?>> roots, Consumer<TargetNode<?>> visitor) {
+    BitSet visited = new BitSet(nodes.size());
+    int[] queue = new int[16];
+    int head = 0;
+    int tail = 0;
+    for (TargetNode<?> root : roots) {
+      @Nullable Integer id = ids.get(root.getBuildTarget());
+      if (id == null) {
+        // Not explored by the query, so there are no edges to follow.
+        visitor.accept(root);
+        continue;
+      }
+      if (!visited.get(id)) {
+        visited.set(id);
+        if (tail == queue.length) {
+          queue = Arrays.copyOf(queue, tail * 2);
+        }
+        queue[tail++] = id;
+      }
+    }
+    while (head < tail) {
+      TargetNode<?> node = nodes.get(queue[head++]);
+      visitor.accept(node);
+      for (BuildTarget dep : node.getParseDeps()) {
+        int depId = ids.get(dep);
+        if (!visited.get(depId)) {
+          visited.set(depId);
+          if (tail == queue.length) {
+            queue = Arrays.copyOf(queue, tail * 2);
+          }
+          queue[tail++] = depId;
+        }
+      }
+    }
+  }
+
+  /** @return a copy of the graph, for output formats which need the whole graph. */
+  MutableDirectedGraph<TargetNode<?>> toMutableDirectedGraph() {
+    MutableDirectedGraph<TargetNode<?>> graph = new MutableDirectedGraph<>();
+    for (TargetNode<?> node : nodes) {
+      graph.addNode(node);
+      for (BuildTarget dep : node.getParseDeps()) {
+        graph.addEdge(node, nodes.get(ids.get(dep)));
+      }
+    }
+    return graph;
+  }
+}
@@ -114,7 +114,9 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Closer;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
@@ -130,6 +132,8 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -142,6 +146,9 @@ public class TargetsCommand extends AbstractCommand {
 
   private static final Logger LOG = Logger.get(TargetsCommand.class);
 
+  /** How many rule keys {@code --streaming} requests ahead of the ones it has printed. */
+  private static final int MAX_STREAMED_RULE_KEYS_IN_FLIGHT = 4096;
+
   // TODO(mbolin): Use org.kohsuke.args4j.spi.PathOptionHandler. Currently, we resolve paths
   // manually, which is likely the path to madness.
   @Option(
@@ -222,6 +229,24 @@ public class TargetsCommand extends AbstractCommand {
               + "Incompatible with '--show-target-hash'.")
   private boolean isShowRuleKey;
 
+  @Option(
+      name = "--streaming",
+      depends = {"--show-rulekey"},
+      forbids = {
+        "--show-transitive-rulekeys",
+        "--show-output",
+        "--show-outputs",
+        "--show-full-output",
+        "--show-cell-path",
+        "--output-attributes",
+        "--dot"
+      },
+      usage =
+          "With '--show-rulekey', print each target as soon as its rule key is computed, in the "
+              + "order they complete rather than sorted. With '--json', prints one JSON object per "
+              + "line holding the target's name, rule type and rule key.")
+  private boolean isStreaming;
+
   @Option(
       name = "--show-transitive-rulekeys",
       aliases = {"--show-transitive-rulekeys"},
@@ -536,6 +561,16 @@ public class TargetsCommand extends AbstractCommand {
         useVersioning
             ? toVersionedTargetGraph(params, targetGraphAndBuildTargetsForShowRules)
             : targetGraphAndBuildTargetsForShowRules;
+    if (isStreaming) {
+      streamRuleKeys(
+          params,
+          executor,
+          targetGraphAndBuildTargetsForShowRules.getTargetGraph(),
+          targetGraphAndBuildTargetsForShowRules
+              .getTargetGraph()
+              .getAll(targetGraphAndBuildTargetsForShowRules.getBuildTargets()));
+      return ExitCode.SUCCESS;
+    }
     ImmutableSortedMap<BuildTargetWithOutputs, TargetResult> showRulesResult =
         computeShowRules(
             params,
@@ -1250,6 +1285,91 @@ public class TargetsCommand extends AbstractCommand {
     }
   }
 
+  /**
+   * Prints the rule key of each of {@code targetNodes} as soon as it is computed. Rule keys are
+   * computed in parallel, but at most {@link #MAX_STREAMED_RULE_KEYS_IN_FLIGHT} targets are
+   * requested ahead of what was printed, so that neither pending nor completed results pile up for
+   * large target sets.
+   */
+  private void streamRuleKeys(
+      CommandRunnerParams params,
+      ListeningExecutorService executor,
+      TargetGraph targetGraph,
+      Iterable<TargetNode<?>> targetNodes)
+      throws IOException, InterruptedException {
+    ActionGraphAndBuilder result =
+        params
+            .getActionGraphProvider()
+            .getActionGraph(TargetGraphCreationResult.of(targetGraph, ImmutableSet.of()));
+    ActionGraphBuilder graphBuilder = result.getActionGraphBuilder();
+    PrintStream stdOut = params.getConsole().getStdOut();
+
+    try (ThriftRuleKeyLogger ruleKeyLogger = createRuleKeyLogger().orElse(null);
+        RuleKeyCacheScope<RuleKey> ruleKeyCacheScope =
+            getDefaultRuleKeyCacheScope(
+                params,
+                new RuleKeyCacheRecycler.SettingsAffectingCache(
+                    params.getBuckConfig().getView(BuildBuckConfig.class).getKeySeed(),
+                    result.getActionGraph()))) {
+      ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator =
+          new ParallelRuleKeyCalculator<>(
+              executor,
+              new DefaultRuleKeyFactory(
+                  new RuleKeyFieldLoader(params.getRuleKeyConfiguration()),
+                  params.getFileHashCache(),
+                  graphBuilder,
+                  ruleKeyCacheScope.getCache(),
+                  Optional.ofNullable(ruleKeyLogger)),
+              new DefaultRuleDepsCache(
+                  graphBuilder, result.getBuildEngineActionToBuildRuleResolver()),
+              (eventBus, rule) -> () -> {});
+
+      BlockingQueue<Pair<BuildRule, ListenableFuture<RuleKey>>> completed =
+          new LinkedBlockingQueue<>();
+      int inFlight = 0;
+      for (TargetNode<?> targetNode : targetNodes) {
+        if (!targetNode.getRuleType().isBuildRule()) {
+          continue;
+        }
+        for (; inFlight >= MAX_STREAMED_RULE_KEYS_IN_FLIGHT; inFlight--) {
+          printStreamedRuleKey(completed, stdOut);
+        }
+        BuildRule rule = graphBuilder.requireRule(targetNode.getBuildTarget());
+        ListenableFuture<RuleKey> ruleKey =
+            ruleKeyCalculator.calculate(params.getBuckEventBus(), rule);
+        ruleKey.addListener(
+            () -> completed.add(new Pair<>(rule, ruleKey)), MoreExecutors.directExecutor());
+        inFlight++;
+      }
+      for (; inFlight > 0; inFlight--) {
+        printStreamedRuleKey(completed, stdOut);
+      }
+      stdOut.flush();
+    }
+  }
+
+  private void printStreamedRuleKey(
+      BlockingQueue<Pair<BuildRule, ListenableFuture<RuleKey>>> completed, PrintStream stdOut)
+      throws IOException, InterruptedException {
+    if (completed.isEmpty()) {
+      // Make everything printed so far visible before waiting for more.
+      stdOut.flush();
+    }
+    Pair<BuildRule, ListenableFuture<RuleKey>> ruleAndKey = completed.take();
+    BuildRule rule = ruleAndKey.getFirst();
+    String ruleKey = Futures.getUnchecked(ruleAndKey.getSecond()).toString();
+    if (shouldUseJsonFormat()) {
+      stdOut.println(
+          ObjectMappers.WRITER.writeValueAsString(
+              ImmutableMap.of(
+                  "fully_qualified_name", rule.getFullyQualifiedName(),
+                  TargetResultFieldName.RULE_TYPE.name, rule.getType(),
+                  TargetResultFieldName.RULE_KEY.name, ruleKey)));
+    } else {
+      stdOut.println(rule.getFullyQualifiedName() + " " + ruleKey);
+    }
+  }
+
   private void processBuildRules(
       Map<BuildTarget, ImmutableTargetResult.Builder> buildTargetToTargetBuilderMap,
       TargetGraph targetGraph,
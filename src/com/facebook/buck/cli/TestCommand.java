@@ -614,6 +614,7 @@ public class TestCommand extends BuildCommand {
                     cachingBuildEngineBuckConfig.getBuildDepFiles(),
                     cachingBuildEngineBuckConfig.getBuildMaxDepFileCacheEntries(),
                     cachingBuildEngineBuckConfig.getBuildArtifactCacheSizeLimit(),
+                    cachingBuildEngineBuckConfig.getCachePrefetchLimit(),
                     actionGraphAndBuilder.getActionGraphBuilder(),
                     actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
                     params.getTargetConfigurationSerializer(),
@@ -161,6 +161,7 @@ public class BuildExecutor {
         engineConfig.getBuildDepFiles(),
         engineConfig.getBuildMaxDepFileCacheEntries(),
         engineConfig.getBuildArtifactCacheSizeLimit(),
+        engineConfig.getCachePrefetchLimit(),
         actionGraphAndBuilder.getActionGraphBuilder(),
         actionGraphAndBuilder.getBuildEngineActionToBuildRuleResolver(),
         targetConfigurationSerializer,
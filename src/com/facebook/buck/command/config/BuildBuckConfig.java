@@ -39,6 +39,7 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
   private static final String PROJECT_SECTION = "project";
   private static final String TARGETS_SECTION = "targets";
   private static final String CACHE_SECTION = "cache";
+  private static final long MAX_ACTION_GRAPH_CACHE_RULES_DEFAULT = 500_000;
 
   @Override
   public abstract BuckConfig getDelegate();
@@ -52,6 +53,17 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getInteger(CACHE_SECTION, "max_action_graph_cache_entries").orElse(1);
   }
 
+  /**
+   * @return how many build rules the cached action graphs may hold together, as an estimate of
+   *     their memory footprint.
+   */
+  @Value.Lazy
+  public long getMaxActionGraphCacheRules() {
+    return getDelegate()
+        .getLong(CACHE_SECTION, "max_action_graph_cache_rules")
+        .orElse(MAX_ACTION_GRAPH_CACHE_RULES_DEFAULT);
+  }
+
   /**
    * Whether Buck should use Buck binary hash or git commit id as the core key in all rule keys.
    *
@@ -251,6 +263,32 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /**
+   * @return whether to keep the hashes of source files on disk, so that they are reused by the next
+   *     daemon instead of being computed again.
+   */
+  @Value.Lazy
+  public boolean isPersistentFileHashCacheEnabled() {
+    return getDelegate().getBooleanValue("build", "persistent_file_hash_cache", false);
+  }
+
+  /**
+   * @return whether the daemon keeps default rule keys by their structural key, so that they are
+   *     reused by new action graphs and, together with the parser state snapshot, new daemons.
+   */
+  @Value.Lazy
+  public boolean isPersistentRuleKeyCacheEnabled() {
+    return getDelegate().getBooleanValue("build", "persistent_rule_key_cache", false);
+  }
+
+  /** @return the bound on the number of rule keys kept by the persistent rule key cache. */
+  @Value.Lazy
+  public int getMaxPersistentRuleKeyCacheEntries() {
+    return getDelegate()
+        .getInteger("build", "persistent_rule_key_cache_max_entries")
+        .orElse(1_000_000);
+  }
+
   @Value.Lazy
   public boolean shouldBuckOutIncludeTargetConfigHash() {
     return getDelegate()
@@ -77,6 +77,7 @@ public abstract class ConfigIgnoredByDaemon implements ConfigView<BuckConfig> {
     ignoreFieldsForDaemonRestartBuilder.put(
         "log",
         ImmutableSet.of(
+            "binary_traces",
             "chrome_trace_generation",
             "compress_traces",
             "max_traces",
@@ -51,6 +51,7 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -282,9 +283,11 @@ public class ManifestRuleKeyManager {
     originalRuleKeyAndInputs = null;
 
     // Fetch the manifest from the cache.
+    long fetchStartNanos = System.nanoTime();
     return Futures.transformAsync(
         fetchManifest(manifestRuleKey),
         (@Nonnull CacheResult manifestCacheResult) -> {
+          long fetchTimeMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - fetchStartNanos);
           ManifestFetchResult.Builder manifestFetchResult = ManifestFetchResult.builder();
           manifestFetchResult.setManifestCacheResult(manifestCacheResult);
           if (!manifestCacheResult.getType().isSuccess()) {
@@ -310,11 +313,17 @@ public class ManifestRuleKeyManager {
               rule.getBuildTarget(),
               keyAndInputs.getRuleKey(),
               manifest.getKey());
-          manifestFetchResult.setManifestStats(manifest.getStats());
 
           // Lookup the dep file rule key matching the current state of our inputs.
+          long lookupStartNanos = System.nanoTime();
           Optional<RuleKey> depFileRuleKey =
               manifest.lookup(fileHashLoader, pathResolver, keyAndInputs.getInputs());
+          manifestFetchResult.setManifestStats(
+              manifest
+                  .getStats()
+                  .withTimes(
+                      fetchTimeMicros,
+                      TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - lookupStartNanos)));
           if (!depFileRuleKey.isPresent()) {
             return Futures.immediateFuture(manifestFetchResult.build());
           }
@@ -63,6 +63,14 @@ public abstract class CachingBuildEngineBuckConfig implements ConfigView<BuckCon
     return getDelegate().getLong("build", "artifact_cache_size_limit");
   }
 
+  /**
+   * @return the maximum number of artifacts to fetch from the cache ahead of the build engine, or 0
+   *     if prefetching is disabled.
+   */
+  public int getCachePrefetchLimit() {
+    return getDelegate().getInteger("build", "cache_prefetch_limit").orElse(0);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     ResourcesConfig resourcesConfig = getDelegate().getView(ResourcesConfig.class);
     return ResourceAwareSchedulingInfo.of(
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheDecorator;
+import com.facebook.buck.artifact_cache.CacheDeleteResult;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.build.engine.BuildEngineBuildContext;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
+import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
+import com.facebook.buck.core.build.engine.type.BuildType;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.util.types.Pair;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Speculatively fetches artifacts for rules before {@link CachingBuildRuleBuilder} gets to them.
+ *
+ * <p>Prefetching starts at the top-level rules as soon as their rule keys are known. Runtime deps
+ * are always prefetched, since the engine always builds them. Build deps are only prefetched once
+ * the rule depending on them turned out to be a miss, mirroring the shallow build mode, unless the
+ * engine runs in a mode which visits every rule anyway.
+ *
+ * <p>Fetched artifacts are held in a staging area which can hold at most {@code limit} artifacts,
+ * counting both in-flight downloads and downloaded artifacts nobody claimed yet. Rules wait in a
+ * queue while the staging area is full. Builders read the staging area through {@link
+ * #stagedView(ArtifactCache)}, which hands out a staged result (or joins an in-flight download)
+ * instead of issuing a second request for the same rule key. An artifact whose rule is done
+ * without claiming it, e.g. because the rule failed or was built locally, is dropped along with
+ * its slot through {@link #releaseWhenDone(RuleKey, ListenableFuture)}.
+ */
+class CachePrefetcher {
+
+  private static final Logger LOG = Logger.get(CachePrefetcher.class);
+
+  private final BuildType buildMode;
+  private final ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator;
+  private final RuleDepsCache ruleDeps;
+  private final BuildInfoStoreManager buildInfoStoreManager;
+  private final Semaphore slots;
+
+  private final Set<BuildTarget> visited = Sets.newConcurrentHashSet();
+  // Claimed rule keys map to an empty value so that they are never prefetched afterwards.
+  private final ConcurrentMap<RuleKey, Optional<StagedArtifact>> staged =
+      new ConcurrentHashMap<>();
+  private final Queue<Candidate> pending = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean cancelled = false;
+
+  CachePrefetcher(
+      int limit,
+      BuildType buildMode,
+      ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator,
+      RuleDepsCache ruleDeps,
+      BuildInfoStoreManager buildInfoStoreManager) {
+    Preconditions.checkArgument(limit > 0, "Prefetch limit must be positive: %s", limit);
+    this.buildMode = buildMode;
+    this.ruleKeyCalculator = ruleKeyCalculator;
+    this.ruleDeps = ruleDeps;
+    this.buildInfoStoreManager = buildInfoStoreManager;
+    this.slots = new Semaphore(limit);
+  }
+
+  /** Schedules a prefetch of {@code rule} once its rule key has been calculated. */
+  void prefetch(BuildRule rule, BuildEngineBuildContext buildContext) {
+    if (cancelled || !visited.add(rule.getBuildTarget())) {
+      return;
+    }
+    Futures.addCallback(
+        ruleKeyCalculator.calculate(buildContext.getEventBus(), rule),
+        new FutureCallback<RuleKey>() {
+          @Override
+          public void onSuccess(RuleKey ruleKey) {
+            enqueue(new Candidate(rule, ruleKey, buildContext));
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            // The build engine reports rule key failures when it reaches this rule.
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Drops all queued prefetches. Downloads which are already running are allowed to finish. */
+  void cancel() {
+    cancelled = true;
+    pending.clear();
+  }
+
+  /** Cancels further prefetches and deletes any staged artifact which was never claimed. */
+  void close() {
+    cancel();
+    for (RuleKey ruleKey : ImmutableList.copyOf(staged.keySet())) {
+      claim(ruleKey).ifPresent(this::discardWhenFetched);
+    }
+  }
+
+  /**
+   * Drops the artifact staged for {@code ruleKey} and frees its slot once {@code done} completes,
+   * unless the builder claimed it by then. The rule key is not prefetched afterwards.
+   */
+  void releaseWhenDone(RuleKey ruleKey, ListenableFuture<?> done) {
+    done.addListener(
+        () -> claim(ruleKey).ifPresent(this::discardWhenFetched), MoreExecutors.directExecutor());
+  }
+
+  private void discardWhenFetched(StagedArtifact artifact) {
+    artifact.result.addListener(
+        () -> {
+          artifact.discard();
+          releaseSlot(artifact);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Frees the slot held by {@code artifact}, if it still holds one. */
+  private void releaseSlot(StagedArtifact artifact) {
+    if (artifact.holdsSlot.compareAndSet(true, false)) {
+      slots.release();
+      drain();
+    }
+  }
+
+  /**
+   * @return an {@link ArtifactCache} which serves fetches from the staging area when possible and
+   *     forwards everything else to {@code delegate}.
+   */
+  ArtifactCache stagedView(ArtifactCache delegate) {
+    return new StagedArtifactCache(delegate);
+  }
+
+  private void enqueue(Candidate candidate) {
+    BuildRule rule = candidate.rule;
+    for (BuildRule dep : ruleDeps.getRuntimeDeps(rule)) {
+      prefetch(dep, candidate.buildContext);
+    }
+    if (buildMode != BuildType.SHALLOW) {
+      prefetchBuildDeps(candidate);
+    }
+    if (!rule.isCacheable()) {
+      // A rule which can't be fetched is always built, so its deps are needed.
+      onMiss(candidate);
+      return;
+    }
+    if (hasMatchingLocalKey(candidate)) {
+      return;
+    }
+    pending.add(candidate);
+    drain();
+  }
+
+  private boolean hasMatchingLocalKey(Candidate candidate) {
+    BuildRule rule = candidate.rule;
+    Optional<RuleKey> onDiskRuleKey =
+        candidate
+            .buildContext
+            .createOnDiskBuildInfoFor(
+                rule.getBuildTarget(),
+                rule.getProjectFilesystem(),
+                buildInfoStoreManager.get(rule.getProjectFilesystem()))
+            .getRuleKey(BuildInfo.MetadataKey.RULE_KEY);
+    return candidate.ruleKey.equals(onDiskRuleKey.orElse(null));
+  }
+
+  private void drain() {
+    while (!cancelled && !pending.isEmpty() && slots.tryAcquire()) {
+      Candidate candidate = pending.poll();
+      if (candidate == null || !start(candidate)) {
+        slots.release();
+      }
+    }
+  }
+
+  /** @return whether a download was started and now holds a slot. */
+  private boolean start(Candidate candidate) {
+    StagedArtifact artifact = new StagedArtifact(candidate.rule);
+    if (staged.putIfAbsent(candidate.ruleKey, Optional.of(artifact)) != null) {
+      return false;
+    }
+    LOG.verbose("Prefetching %s with rule key %s", candidate.rule, candidate.ruleKey);
+    artifact.result.setFuture(
+        candidate
+            .buildContext
+            .getArtifactCache()
+            .fetchAsync(candidate.rule.getBuildTarget(), candidate.ruleKey, artifact));
+    Futures.addCallback(
+        artifact.result,
+        new FutureCallback<CacheResult>() {
+          @Override
+          public void onSuccess(CacheResult result) {
+            if (result.getType() != CacheResultType.HIT) {
+              artifact.discard();
+              releaseSlot(artifact);
+            }
+            if (result.getType() == CacheResultType.MISS) {
+              onMiss(candidate);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            artifact.discard();
+            releaseSlot(artifact);
+          }
+        },
+        MoreExecutors.directExecutor());
+    return true;
+  }
+
+  private void onMiss(Candidate candidate) {
+    if (buildMode == BuildType.SHALLOW) {
+      prefetchBuildDeps(candidate);
+    }
+  }
+
+  private void prefetchBuildDeps(Candidate candidate) {
+    for (BuildRule dep : candidate.rule.getBuildDeps()) {
+      prefetch(dep, candidate.buildContext);
+    }
+  }
+
+  /**
+   * Takes the staged artifact for {@code ruleKey}, if any. Once claimed, a rule key is never
+   * prefetched again.
+   */
+  private Optional<StagedArtifact> claim(RuleKey ruleKey) {
+    Optional<StagedArtifact> previous = staged.put(ruleKey, Optional.empty());
+    return previous == null ? Optional.empty() : previous;
+  }
+
+  private ListenableFuture<CacheResult> fetchStaged(
+      StagedArtifact artifact,
+      ArtifactCache delegate,
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output) {
+    return Futures.transformAsync(
+        Futures.catching(
+            artifact.result,
+            Exception.class,
+            e -> CacheResult.skipped(),
+            MoreExecutors.directExecutor()),
+        result -> {
+          if (result.getType() == CacheResultType.HIT) {
+            try {
+              Files.move(
+                  artifact.getUnchecked(), output.get(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+              releaseSlot(artifact);
+            }
+            return Futures.immediateFuture(result);
+          }
+          if (result.getType() == CacheResultType.MISS) {
+            return Futures.immediateFuture(result);
+          }
+          // Errors and skipped fetches might have been transient, so give the cache another go.
+          return delegate.fetchAsync(target, ruleKey, output);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private static class Candidate {
+    private final BuildRule rule;
+    private final RuleKey ruleKey;
+    private final BuildEngineBuildContext buildContext;
+
+    private Candidate(BuildRule rule, RuleKey ruleKey, BuildEngineBuildContext buildContext) {
+      this.rule = rule;
+      this.ruleKey = ruleKey;
+      this.buildContext = buildContext;
+    }
+  }
+
+  /** The download location of a prefetched artifact, along with the result of fetching it. */
+  private static class StagedArtifact extends LazyPath {
+    private final BuildRule rule;
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+    private final AtomicBoolean holdsSlot = new AtomicBoolean(true);
+    private volatile boolean created = false;
+
+    private StagedArtifact(BuildRule rule) {
+      this.rule = rule;
+    }
+
+    @Override
+    protected Path create() throws IOException {
+      Path path =
+          Files.createTempFile(
+              "buck_prefetch_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()), ".zip");
+      created = true;
+      return path;
+    }
+
+    private void discard() {
+      if (!created) {
+        return;
+      }
+      try {
+        Files.deleteIfExists(getUnchecked());
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to delete prefetched artifact for %s.", rule);
+      }
+    }
+  }
+
+  private class StagedArtifactCache implements ArtifactCache, CacheDecorator {
+    private final ArtifactCache delegate;
+
+    private StagedArtifactCache(ArtifactCache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ListenableFuture<CacheResult> fetchAsync(
+        @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+      Optional<StagedArtifact> artifact = claim(ruleKey);
+      if (!artifact.isPresent()) {
+        return delegate.fetchAsync(target, ruleKey, output);
+      }
+      return fetchStaged(artifact.get(), delegate, target, ruleKey, output);
+    }
+
+    @Override
+    public void skipPendingAndFutureAsyncFetches() {
+      cancel();
+      delegate.skipPendingAndFutureAsyncFetches();
+    }
+
+    @Override
+    public ArtifactCache getDelegate() {
+      return delegate;
+    }
+
+    @Override
+    public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+      return delegate.store(info, output);
+    }
+
+    @Override
+    public ListenableFuture<Unit> store(
+        ImmutableList<Pair<ArtifactInfo, BorrowablePath>> artifacts) {
+      return delegate.store(artifacts);
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+        ImmutableSet<RuleKey> ruleKeys) {
+      return delegate.multiContainsAsync(ruleKeys);
+    }
+
+    @Override
+    public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
+      return delegate.deleteAsync(ruleKeys);
+    }
+
+    @Override
+    public CacheReadMode getCacheReadMode() {
+      return delegate.getCacheReadMode();
+    }
+
+    @Override
+    public void close() {
+      // The delegate is owned by the build context.
+    }
+  }
+}
@@ -127,6 +127,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final BuildRuleResolver resolver;
   private final TargetConfigurationSerializer targetConfigurationSerializer;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final Optional<CachePrefetcher> cachePrefetcher;
   private final FileHashCache fileHashCache;
   @VisibleForTesting final RuleKeyFactories ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
@@ -152,6 +153,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      int cachePrefetchLimit,
       BuildRuleResolver resolver,
       BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -167,6 +169,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        cachePrefetchLimit,
         resolver,
         buildInfoStoreManager,
         actionToBuildRuleResolver,
@@ -195,6 +198,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       DepFiles depFiles,
       long maxDepFileCacheEntries,
       Optional<Long> artifactCacheSizeLimit,
+      int cachePrefetchLimit,
       BuildRuleResolver resolver,
       BuildInfoStoreManager buildInfoStoreManager,
       BuildEngineActionToBuildRuleResolver actionToBuildRuleResolver,
@@ -235,6 +239,16 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                     rule,
                     buildRuleDurationTracker,
                     ruleKeyFactories.getDefaultRuleKeyFactory()));
+    this.cachePrefetcher =
+        cachePrefetchLimit > 0
+            ? Optional.of(
+                new CachePrefetcher(
+                    cachePrefetchLimit,
+                    buildMode,
+                    ruleKeyCalculator,
+                    ruleDeps,
+                    buildInfoStoreManager))
+            : Optional.empty();
   }
 
   @Override
@@ -245,6 +259,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       }
       terminateBuildWithFailure(new CancellationException("Cancelling due to engine shutdown."));
       Futures.allAsList(asyncCallbacks).get();
+      cachePrefetcher.ifPresent(CachePrefetcher::close);
     } catch (InterruptedException e) {
       e.printStackTrace();
     } catch (IOException | ExecutionException e) {
@@ -295,6 +310,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // TODO(cjhopman): Change this to only accept specific exception types to enforce that we get
     // the information that we want.
     if (firstFailure.compareAndSet(null, failure)) {
+      cachePrefetcher.ifPresent(CachePrefetcher::cancel);
       forEachLiveBuilder(builder -> builder.cancel(failure));
     }
   }
@@ -355,7 +371,13 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     ListenableFuture<BuildResult> result =
         Futures.transformAsync(
             ruleKey,
-            input -> processBuildRule(rule, buildContext, executionContext),
+            input -> {
+              ListenableFuture<BuildResult> processed =
+                  processBuildRule(rule, buildContext, executionContext);
+              // Whatever the builder did not claim from the prefetcher is no longer needed.
+              cachePrefetcher.ifPresent(prefetcher -> prefetcher.releaseWhenDone(input, processed));
+              return processed;
+            },
             serviceByAdjustingDefaultWeightsTo(SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS));
     if (!(rule instanceof HasRuntimeDeps)) {
       future.setFuture(result);
@@ -444,6 +466,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    cachePrefetcher.ifPresent(prefetcher -> prefetcher.prefetch(rule, buildContext));
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
     return BuildEngine.BuildEngineResult.of(resultFuture);
@@ -570,5 +593,14 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public ArtifactCache getArtifactCache() {
+      ArtifactCache artifactCache = buildContext.getArtifactCache();
+      return cachingBuildEngine
+          .cachePrefetcher
+          .map(prefetcher -> prefetcher.stagedView(artifactCache))
+          .orElse(artifactCache);
+    }
   }
 }
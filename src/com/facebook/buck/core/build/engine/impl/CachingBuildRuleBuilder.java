@@ -231,7 +231,7 @@ class CachingBuildRuleBuilder {
     this.pipelinesRunner = pipelinesRunner;
     this.eventBus = buildContext.getEventBus();
     this.buildRuleBuildContext = buildContext.getBuildContext();
-    this.artifactCache = buildContext.getArtifactCache();
+    this.artifactCache = buildRuleBuilderDelegate.getArtifactCache();
     this.buildId = buildContext.getBuildId();
 
     this.defaultKey = ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
@@ -1455,5 +1455,8 @@ class CachingBuildRuleBuilder {
     void addAsyncCallback(ListenableFuture<Unit> callback);
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    /** @return the cache this rule should be fetched from and uploaded to. */
+    ArtifactCache getArtifactCache();
   }
 }
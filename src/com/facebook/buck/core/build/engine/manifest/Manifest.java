@@ -40,6 +40,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +52,11 @@ public class Manifest {
 
   private static final Logger LOG = Logger.get(Manifest.class);
 
-  private static final int VERSION = 0;
+  private static final int VERSION = 1;
+
+  private static final byte HASH_UNKNOWN = 0;
+  private static final byte HASH_CURRENT = 1;
+  private static final byte HASH_STALE = 2;
 
   private final RuleKey key;
 
@@ -81,39 +86,44 @@ public class Manifest {
     int version = input.readInt();
     Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
 
-    key = new RuleKey(input.readUTF());
+    key = readRuleKey(input);
 
-    int numberOfHeaders = input.readInt();
+    int numberOfHeaders = readVarInt(input);
     LOG.verbose("%s: loading %d input entries", this.key, numberOfHeaders);
     inputs = new ArrayList<>(numberOfHeaders);
     inputIndices = new HashMap<>(numberOfHeaders);
+    String previousInput = "";
     for (int index = 0; index < numberOfHeaders; index++) {
-      String inputName = input.readUTF();
+      int sharedPrefixLength = readVarInt(input);
+      String inputName = previousInput.substring(0, sharedPrefixLength) + input.readUTF();
       inputs.add(inputName);
       inputIndices.put(inputName, index);
+      previousInput = inputName;
     }
 
-    int numberOfHashes = input.readInt();
+    int numberOfHashes = readVarInt(input);
     LOG.verbose("%s: loading %d hash entries", this.key, numberOfHashes);
     hashes = new ArrayList<>(numberOfHashes);
     hashIndices = new HashMap<>(numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
-      int inputIndex = input.readInt();
-      HashCode inputHash = HashCode.fromString(input.readUTF());
+      int inputIndex = readVarInt(input);
+      HashCode inputHash = readHashCode(input);
       hashes.add(new Pair<>(inputIndex, inputHash));
       hashIndices.put(inputHash, index);
     }
 
-    int numberOfEntries = input.readInt();
+    int numberOfEntries = readVarInt(input);
     LOG.verbose("%s: loading %d dep file rule key entries", this.key, numberOfEntries);
     entries = new ArrayList<>(numberOfEntries);
     for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
-      int numberOfEntryHashes = input.readInt();
+      RuleKey key = readRuleKey(input);
+      int numberOfEntryHashes = readVarInt(input);
       int[] entryHashes = new int[numberOfEntryHashes];
+      int previousHashIndex = 0;
       for (int hashIndex = 0; hashIndex < numberOfEntryHashes; hashIndex++) {
-        entryHashes[hashIndex] = input.readInt();
+        previousHashIndex += readVarInt(input);
+        entryHashes[hashIndex] = previousHashIndex;
       }
-      RuleKey key = new RuleKey(input.readUTF());
       LOG.verbose("%s: loaded entry for dep file rule key %s", this.key, key);
       entries.add(new Pair<>(key, entryHashes));
     }
@@ -183,29 +193,58 @@ public class Manifest {
       FileHashLoader fileHashLoader,
       SourcePathResolverAdapter resolver,
       ImmutableListMultimap<String, SourcePath> universe,
-      int[] hashIndices)
+      int[] hashIndices,
+      byte[] hashStates,
+      Map<Integer, Optional<HashCode>> onDiskInputHashes)
       throws IOException {
+    // Reject the entry on hashes already known to be stale before looking at any new inputs.
     for (int hashIndex : hashIndices) {
-      Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-      String input = inputs.get(hashEntry.getFirst());
-      ImmutableList<SourcePath> candidates = universe.get(input);
-      if (candidates.isEmpty()) {
+      if (hashStates[hashIndex] == HASH_STALE) {
         return false;
       }
-      HashCode onDiskHeaderHash;
-      try {
-        onDiskHeaderHash = hashSourcePathGroup(fileHashLoader, resolver, candidates);
-      } catch (NoSuchFileException e) {
-        return false;
+    }
+    for (int hashIndex : hashIndices) {
+      if (hashStates[hashIndex] == HASH_UNKNOWN) {
+        Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
+        Optional<HashCode> onDiskHash =
+            getOnDiskInputHash(
+                fileHashLoader, resolver, universe, hashEntry.getFirst(), onDiskInputHashes);
+        hashStates[hashIndex] =
+            onDiskHash.isPresent() && onDiskHash.get().equals(hashEntry.getSecond())
+                ? HASH_CURRENT
+                : HASH_STALE;
       }
-      HashCode inputHash = hashEntry.getSecond();
-      if (!inputHash.equals(onDiskHeaderHash)) {
+      if (hashStates[hashIndex] == HASH_STALE) {
         return false;
       }
     }
     return true;
   }
 
+  private Optional<HashCode> getOnDiskInputHash(
+      FileHashLoader fileHashLoader,
+      SourcePathResolverAdapter resolver,
+      ImmutableListMultimap<String, SourcePath> universe,
+      int inputIndex,
+      Map<Integer, Optional<HashCode>> onDiskInputHashes)
+      throws IOException {
+    Optional<HashCode> onDiskHash = onDiskInputHashes.get(inputIndex);
+    if (onDiskHash == null) {
+      ImmutableList<SourcePath> candidates = universe.get(inputs.get(inputIndex));
+      if (candidates.isEmpty()) {
+        onDiskHash = Optional.empty();
+      } else {
+        try {
+          onDiskHash = Optional.of(hashSourcePathGroup(fileHashLoader, resolver, candidates));
+        } catch (NoSuchFileException e) {
+          onDiskHash = Optional.empty();
+        }
+      }
+      onDiskInputHashes.put(inputIndex, onDiskHash);
+    }
+    return onDiskHash;
+  }
+
   /**
    * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
    *     fileHashLoader}.
@@ -215,25 +254,25 @@ public class Manifest {
       SourcePathResolverAdapter resolver,
       ImmutableSet<SourcePath> universe)
       throws IOException {
-    // Create a set of all paths we care about.
-    ImmutableSet.Builder<String> interestingPathsBuilder = new ImmutableSet.Builder<>();
-    for (Pair<?, int[]> entry : entries) {
-      for (int hashIndex : entry.getSecond()) {
-        interestingPathsBuilder.add(inputs.get(hashes.get(hashIndex).getFirst()));
-      }
-    }
-    ImmutableSet<String> interestingPaths = interestingPathsBuilder.build();
-
-    // Create a multimap from paths we care about to SourcePaths that maps to them.
+    // Create a multimap from the inputs recorded in the manifest to SourcePaths that map to them.
     ImmutableListMultimap<String, SourcePath> mappedUniverse =
         index(
             universe,
             path -> sourcePathToManifestHeader(path, resolver),
-            interestingPaths::contains);
+            inputIndices::containsKey);
 
-    // Find a matching entry.
+    // Find a matching entry.  Inputs and hashes are shared between entries, so remember what we
+    // learn about them to hash every input at most once and to compare every hash at most once.
+    byte[] hashStates = new byte[hashes.size()];
+    Map<Integer, Optional<HashCode>> onDiskInputHashes = new HashMap<>();
     for (Pair<RuleKey, int[]> entry : entries) {
-      if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
+      if (hashesMatch(
+          fileHashLoader,
+          resolver,
+          mappedUniverse,
+          entry.getSecond(),
+          hashStates,
+          onDiskInputHashes)) {
         return Optional.of(entry.getFirst());
       }
     }
@@ -295,27 +334,90 @@ public class Manifest {
 
     output.writeInt(VERSION);
 
-    output.writeUTF(key.toString());
+    writeRuleKey(output, key);
 
-    output.writeInt(inputs.size());
+    // Inputs are mostly headers from a handful of directories, so only store the part of each
+    // path which differs from the previous one.
+    writeVarInt(output, inputs.size());
+    String previousInput = "";
     for (String input : inputs) {
-      output.writeUTF(input);
+      int sharedPrefixLength = sharedPrefixLength(previousInput, input);
+      writeVarInt(output, sharedPrefixLength);
+      output.writeUTF(input.substring(sharedPrefixLength));
+      previousInput = input;
     }
 
-    output.writeInt(hashes.size());
+    writeVarInt(output, hashes.size());
     for (Pair<Integer, HashCode> hash : hashes) {
-      output.writeInt(hash.getFirst());
-      output.writeUTF(hash.getSecond().toString());
+      writeVarInt(output, hash.getFirst());
+      writeHashCode(output, hash.getSecond());
     }
 
-    output.writeInt(entries.size());
+    writeVarInt(output, entries.size());
     for (Pair<RuleKey, int[]> entry : entries) {
-      output.writeInt(entry.getSecond().length);
-      for (int hashIndex : entry.getSecond()) {
-        output.writeInt(hashIndex);
+      writeRuleKey(output, entry.getFirst());
+      int[] hashIndices = entry.getSecond().clone();
+      Arrays.sort(hashIndices);
+      writeVarInt(output, hashIndices.length);
+      int previousHashIndex = 0;
+      for (int hashIndex : hashIndices) {
+        writeVarInt(output, hashIndex - previousHashIndex);
+        previousHashIndex = hashIndex;
+      }
+    }
+  }
+
+  private static int sharedPrefixLength(String first, String second) {
+    int maxLength = Math.min(first.length(), second.length());
+    int length = 0;
+    while (length < maxLength && first.charAt(length) == second.charAt(length)) {
+      length++;
+    }
+    return length;
+  }
+
+  private static void writeRuleKey(DataOutputStream output, RuleKey ruleKey) throws IOException {
+    writeHashCode(output, ruleKey.getHashCode());
+  }
+
+  private static RuleKey readRuleKey(DataInputStream input) throws IOException {
+    return new RuleKey(readHashCode(input));
+  }
+
+  private static void writeHashCode(DataOutputStream output, HashCode hashCode)
+      throws IOException {
+    byte[] bytes = hashCode.asBytes();
+    output.writeByte(bytes.length);
+    output.write(bytes);
+  }
+
+  private static HashCode readHashCode(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readUnsignedByte()];
+    input.readFully(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  /** Writes a non-negative int in 7 bit groups, so that small values only take a single byte. */
+  private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+    Preconditions.checkArgument(value >= 0, "negative value: %s", value);
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = input.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        Preconditions.checkState(value >= 0, "invalid manifest: negative value");
+        return value;
       }
-      output.writeUTF(entry.getFirst().toString());
     }
+    throw new IllegalStateException("invalid manifest: malformed varint");
   }
 
   public int size() {
@@ -342,6 +444,6 @@ public class Manifest {
   }
 
   public ManifestStats getStats() {
-    return ImmutableManifestStats.of(entries.size(), hashes.size(), inputs.size());
+    return ImmutableManifestStats.of(entries.size(), hashes.size(), inputs.size(), 0, 0);
   }
 }
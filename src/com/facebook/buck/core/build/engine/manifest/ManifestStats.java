@@ -26,4 +26,16 @@ public interface ManifestStats {
   int getNumHashes();
 
   int getNumInputs();
+
+  /** @return time spent fetching the manifest from the cache, in microseconds. */
+  long getFetchTimeMicros();
+
+  /** @return time spent looking up the dep file rule key in the manifest, in microseconds. */
+  long getLookupTimeMicros();
+
+  /** @return a copy of these stats with the given fetch and lookup times. */
+  default ManifestStats withTimes(long fetchTimeMicros, long lookupTimeMicros) {
+    return ImmutableManifestStats.of(
+        getNumDepFiles(), getNumHashes(), getNumInputs(), fetchTimeMicros, lookupTimeMicros);
+  }
 }
@@ -58,6 +58,19 @@ public interface DepsAwareExecutor<ResultType, TaskType extends DepsAwareTask<Re
       ThrowingSupplier<ImmutableSet<TaskType>, Exception> prereqSupplier,
       ThrowingSupplier<ImmutableSet<TaskType>, Exception> depsSupplier);
 
+  /**
+   * Same as {@link #createThrowingTask(Callable, ThrowingSupplier, ThrowingSupplier)}, for a task
+   * that computes {@code key}. Executors may use the key to estimate how long the task takes from
+   * previous runs of tasks with an equal key.
+   */
+  default TaskType createThrowingTask(
+      Object key,
+      Callable<ResultType> callable,
+      ThrowingSupplier<ImmutableSet<TaskType>, Exception> prereqSupplier,
+      ThrowingSupplier<ImmutableSet<TaskType>, Exception> depsSupplier) {
+    return createThrowingTask(callable, prereqSupplier, depsSupplier);
+  }
+
   /** @return a new {@link DepsAwareTask} that can be executed in this executor */
   TaskType createTask(Callable<ResultType> callable);
 
@@ -20,7 +20,9 @@ import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutorWithLocalStack;
 import com.facebook.buck.core.graph.transformation.executor.impl.JavaExecutorBackedDefaultDepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.impl.TaskDurationHistory;
 import com.facebook.buck.core.graph.transformation.executor.impl.ToposortBasedDepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.impl.WorkStealingDepsAwareExecutor;
 
 /**
  * A factory for {@link DepsAwareExecutor}s.
@@ -41,6 +43,21 @@ public class DepsAwareExecutorFactory {
    *     based on {@link DepsAwareExecutorType}
    */
   public static <U> DepsAwareExecutor<U, ?> create(DepsAwareExecutorType type, int parallelism) {
+    return create(type, parallelism, new TaskDurationHistory());
+  }
+
+  /**
+   * @param type the {@link DepsAwareExecutorType} used to indicate which specific implementation of
+   *     {@link DepsAwareExecutor} to return
+   * @param parallelism the number of threads in parallel
+   * @param taskDurationHistory durations of earlier tasks, used and updated by {@link
+   *     WorkStealingDepsAwareExecutor}s to run the tasks on the critical path first
+   * @param <U> the type supported by the {@link DepsAwareExecutor}
+   * @return a {@link DepsAwareExecutor} of the given parallelism with the specific implementation
+   *     based on {@link DepsAwareExecutorType}
+   */
+  public static <U> DepsAwareExecutor<U, ?> create(
+      DepsAwareExecutorType type, int parallelism, TaskDurationHistory taskDurationHistory) {
     switch (type) {
       case DEFAULT:
         return DefaultDepsAwareExecutor.of(parallelism);
@@ -50,6 +67,8 @@ public class DepsAwareExecutorFactory {
         return JavaExecutorBackedDefaultDepsAwareExecutor.of(parallelism);
       case TOPOSORT_BASED:
         return ToposortBasedDepsAwareExecutor.of(parallelism);
+      case WORK_STEALING:
+        return WorkStealingDepsAwareExecutor.of(parallelism, taskDurationHistory);
       default:
         throw new IllegalArgumentException(
             String.format("Unknown DepsAwareExecutorType: %s", type));
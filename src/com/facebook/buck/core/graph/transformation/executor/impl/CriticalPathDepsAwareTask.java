@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Task to be ran in {@link WorkStealingDepsAwareExecutor}.
+ *
+ * <p>Like {@link ToposortBasedDepsAwareTask}, each task keeps a list of all tasks that depend on
+ * it, and a counter of how many of its dependencies have yet to be completed. In addition, each
+ * task carries an estimate of its critical path: the time from when it starts until the task that
+ * was submitted to the executor through it completes, following the longest chain of dependents.
+ */
+class CriticalPathDepsAwareTask<T> extends AbstractDepsAwareTask<T, CriticalPathDepsAwareTask<T>> {
+
+  final AtomicLong numOutStandingDependencies = new AtomicLong();
+  private final ConcurrentLinkedQueue<CriticalPathDepsAwareTask<T>> dependants =
+      new ConcurrentLinkedQueue<>();
+
+  @Nullable private final Object durationKey;
+  private final long estimatedNanos;
+  private final AtomicLong criticalPathNanos;
+
+  private CriticalPathDepsAwareTask(
+      Callable<T> callable,
+      DepsAwareTask.DepsSupplier<CriticalPathDepsAwareTask<T>> depsSupplier,
+      @Nullable Object durationKey,
+      long estimatedNanos) {
+    super(callable, depsSupplier);
+    this.durationKey = durationKey;
+    this.estimatedNanos = estimatedNanos;
+    this.criticalPathNanos = new AtomicLong(estimatedNanos);
+  }
+
+  static <T> CriticalPathDepsAwareTask<T> of(
+      Callable<T> callable,
+      DepsAwareTask.DepsSupplier<CriticalPathDepsAwareTask<T>> depsSupplier,
+      @Nullable Object durationKey,
+      long estimatedNanos) {
+    return new CriticalPathDepsAwareTask<>(callable, depsSupplier, durationKey, estimatedNanos);
+  }
+
+  /** @return the key the duration of this task is recorded under, if any */
+  @Nullable
+  Object getDurationKey() {
+    return durationKey;
+  }
+
+  /** @return the estimated critical path of this task in nanoseconds */
+  long getCriticalPathNanos() {
+    return criticalPathNanos.get();
+  }
+
+  /**
+   * Lengthens the critical path of this task to go through a dependant with the given critical
+   * path, if that is longer than its current one.
+   */
+  void addDependantCriticalPath(long dependantCriticalPathNanos) {
+    long newCriticalPathNanos = dependantCriticalPathNanos + estimatedNanos;
+    if (newCriticalPathNanos > criticalPathNanos.get()) {
+      criticalPathNanos.accumulateAndGet(newCriticalPathNanos, Math::max);
+    }
+  }
+
+  /**
+   * Registers the given task as depending on this one, and updates the task's dependency counters
+   */
+  void registerDependant(CriticalPathDepsAwareTask<T> task) {
+    if (status.get() == TaskStatus.DONE) {
+      return;
+    }
+    dependants.add(task);
+    task.numOutStandingDependencies.incrementAndGet();
+
+    if (status.get() == TaskStatus.DONE && dependants.remove(task)) {
+      task.numOutStandingDependencies.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return update the dependents outstanding dependency counters and returns a list of dependents
+   *     who is ready to be rescheduled
+   */
+  ImmutableList<CriticalPathDepsAwareTask<T>> reportCompletionToDependents() {
+    Preconditions.checkState(status.get() == TaskStatus.DONE);
+    ImmutableList.Builder<CriticalPathDepsAwareTask<T>> toReschedule = ImmutableList.builder();
+    for (CriticalPathDepsAwareTask<T> task = dependants.poll();
+        task != null;
+        task = dependants.poll()) {
+      if (task.numOutStandingDependencies.decrementAndGet() == 0) {
+        toReschedule.add(task);
+      }
+    }
+    return toReschedule.build();
+  }
+}
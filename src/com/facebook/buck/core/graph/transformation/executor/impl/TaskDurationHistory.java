@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Durations of previously run tasks, used by {@link WorkStealingDepsAwareExecutor} to estimate how
+ * long a task will take before running it.
+ *
+ * <p>Durations are remembered per task key, for a bounded number of keys, and averaged per type of
+ * key, which is used for keys that have not run before. Keys are only remembered by their type and
+ * hash code, so that the history doesn't keep the objects they refer to, such as target nodes,
+ * alive. A hash collision only makes for a worse estimate. Thread safe.
+ */
+public class TaskDurationHistory {
+
+  /** Estimate for tasks of a type never seen before. Only relative durations matter. */
+  private static final long DEFAULT_ESTIMATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final int DEFAULT_MAX_KEYS = 1 << 16;
+
+  /** Weight of older samples in the per type average, as a power of two. */
+  private static final int AVERAGE_DECAY_SHIFT = 3;
+
+  private final Cache<DurationKey, Long> durationsByKey;
+  private final ConcurrentHashMap<Class<?>, Long> averageDurationsByKeyType =
+      new ConcurrentHashMap<>();
+
+  public TaskDurationHistory() {
+    this(DEFAULT_MAX_KEYS);
+  }
+
+  public TaskDurationHistory(int maxKeys) {
+    this.durationsByKey = CacheBuilder.newBuilder().maximumSize(maxKeys).build();
+  }
+
+  /** @return the estimated duration in nanoseconds of a task computing {@code key} */
+  public long estimateNanos(@Nullable Object key) {
+    if (key == null) {
+      return DEFAULT_ESTIMATE_NANOS;
+    }
+    Long duration = durationsByKey.getIfPresent(new DurationKey(key));
+    if (duration == null) {
+      duration = averageDurationsByKeyType.get(key.getClass());
+    }
+    return duration == null ? DEFAULT_ESTIMATE_NANOS : duration;
+  }
+
+  /** Records that a task computing {@code key} took {@code durationNanos} to run. */
+  public void record(@Nullable Object key, long durationNanos) {
+    if (key == null) {
+      return;
+    }
+    durationsByKey.put(new DurationKey(key), durationNanos);
+    averageDurationsByKeyType.merge(
+        key.getClass(),
+        durationNanos,
+        (average, sample) -> average + ((sample - average) >> AVERAGE_DECAY_SHIFT));
+  }
+
+  /** Identifies a task key without referring to it. */
+  private static final class DurationKey {
+    private final Class<?> keyType;
+    private final int keyHashCode;
+
+    private DurationKey(Object key) {
+      this.keyType = key.getClass();
+      this.keyHashCode = key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof DurationKey)) {
+        return false;
+      }
+      DurationKey that = (DurationKey) other;
+      return keyType == that.keyType && keyHashCode == that.keyHashCode;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * keyType.hashCode() + keyHashCode;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
+import com.facebook.buck.core.graph.transformation.executor.DepsAwareTask.DepsSupplier;
+import com.facebook.buck.core.graph.transformation.executor.impl.AbstractDepsAwareTask.TaskStatus;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+
+/**
+ * A specialized Executor that executes tasks with dependencies. This executor will attempt to
+ * maintain maximum concurrency, while completing dependencies of each supplied work first.
+ *
+ * <p>Each worker has a queue of its own, ordered by the estimated critical path of the tasks in it,
+ * and idle workers steal the most critical task queued by another worker. The critical path of a
+ * task is estimated from the durations of the tasks on the longest chain from it to the submitted
+ * task that needs it. Durations are taken from a {@link TaskDurationHistory}, which learns from the
+ * tasks this executor runs, so priorities improve over the life of the history.
+ */
+public class WorkStealingDepsAwareExecutor<T>
+    implements DepsAwareExecutor<T, CriticalPathDepsAwareTask<T>> {
+
+  private static final Logger LOG = Logger.get(WorkStealingDepsAwareExecutor.class);
+
+  /** Upper bound on how long an idle worker waits before looking for work again. */
+  private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final TaskDurationHistory durationHistory;
+  private final ExecutorService executorService;
+  private final ImmutableList<WorkStealingDepsAwareWorker<T>> workers;
+  private final Future<?>[] workerFutures;
+  private final AtomicInteger nextWorker = new AtomicInteger();
+
+  private final ReentrantLock idleLock = new ReentrantLock();
+  private final Condition workAvailable = idleLock.newCondition();
+  private final AtomicInteger idleWorkers = new AtomicInteger();
+
+  private volatile boolean isShutdown = false;
+
+  private WorkStealingDepsAwareExecutor(
+      int numberOfThreads, TaskDurationHistory durationHistory, ExecutorService executorService) {
+    this.durationHistory = durationHistory;
+    this.executorService = executorService;
+    ImmutableList.Builder<WorkStealingDepsAwareWorker<T>> workers =
+        ImmutableList.builderWithExpectedSize(numberOfThreads);
+    for (int i = 0; i < numberOfThreads; i++) {
+      workers.add(new WorkStealingDepsAwareWorker<>(this));
+    }
+    this.workers = workers.build();
+    this.workerFutures = new Future<?>[numberOfThreads];
+  }
+
+  /**
+   * Creates a {@link WorkStealingDepsAwareExecutor} with given {@code numberOfThreads}, which
+   * estimates durations from and records them in {@code durationHistory}.
+   */
+  public static <U> WorkStealingDepsAwareExecutor<U> of(
+      int numberOfThreads, TaskDurationHistory durationHistory) {
+    ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+    WorkStealingDepsAwareExecutor<U> executor =
+        new WorkStealingDepsAwareExecutor<>(numberOfThreads, durationHistory, executorService);
+    executor.startWorkers();
+    return executor;
+  }
+
+  private void startWorkers() {
+    for (int i = 0; i < workerFutures.length; i++) {
+      WorkStealingDepsAwareWorker<T> worker = workers.get(i);
+      workerFutures[i] = executorService.submit(() -> runWorker(worker));
+    }
+  }
+
+  private static void runWorker(WorkStealingDepsAwareWorker<?> worker) {
+    try {
+      worker.loopForever();
+    } catch (InterruptedException e) {
+      LOG.info("Worker was interrupted");
+    } catch (Throwable e) {
+      LOG.error(e, "Unexpected Error occurred in DepsAwareExecutor");
+    }
+  }
+
+  @Override
+  public void close() {
+    isShutdown = true;
+    for (Future<?> worker : workerFutures) {
+      worker.cancel(true);
+    }
+    executorService.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return isShutdown;
+  }
+
+  @Override
+  public CriticalPathDepsAwareTask<T> createThrowingTask(
+      Callable<T> callable,
+      ThrowingSupplier<ImmutableSet<CriticalPathDepsAwareTask<T>>, Exception> prereqSupplier,
+      ThrowingSupplier<ImmutableSet<CriticalPathDepsAwareTask<T>>, Exception> depsSupplier) {
+    return createTask(null, callable, DepsSupplier.of(prereqSupplier, depsSupplier));
+  }
+
+  @Override
+  public CriticalPathDepsAwareTask<T> createThrowingTask(
+      Object key,
+      Callable<T> callable,
+      ThrowingSupplier<ImmutableSet<CriticalPathDepsAwareTask<T>>, Exception> prereqSupplier,
+      ThrowingSupplier<ImmutableSet<CriticalPathDepsAwareTask<T>>, Exception> depsSupplier) {
+    return createTask(key, callable, DepsSupplier.of(prereqSupplier, depsSupplier));
+  }
+
+  @Override
+  public CriticalPathDepsAwareTask<T> createTask(Callable<T> callable) {
+    return createTask(null, callable, DepsSupplier.of());
+  }
+
+  private CriticalPathDepsAwareTask<T> createTask(
+      @Nullable Object key,
+      Callable<T> callable,
+      DepsSupplier<CriticalPathDepsAwareTask<T>> depsSupplier) {
+    return CriticalPathDepsAwareTask.of(
+        callable, depsSupplier, key, durationHistory.estimateNanos(key));
+  }
+
+  @Override
+  public Future<T> submit(CriticalPathDepsAwareTask<T> task) {
+    if (isShutdown) {
+      throw new RejectedExecutionException("Executor has already been shutdown");
+    }
+    if (task.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+      workers.get(Math.floorMod(nextWorker.getAndIncrement(), workers.size())).push(task);
+    }
+    return task.getResultFuture();
+  }
+
+  @Override
+  public ImmutableList<Future<T>> submitAll(Collection<CriticalPathDepsAwareTask<T>> tasks) {
+    ImmutableList.Builder<Future<T>> futures = ImmutableList.builderWithExpectedSize(tasks.size());
+    for (CriticalPathDepsAwareTask<T> task : tasks) {
+      futures.add(submit(task));
+    }
+    return futures.build();
+  }
+
+  void recordDuration(CriticalPathDepsAwareTask<T> task, long durationNanos) {
+    durationHistory.record(task.getDurationKey(), durationNanos);
+  }
+
+  /** Wakes up an idle worker, if any, after a task was queued. */
+  void signalWork() {
+    if (idleWorkers.get() == 0) {
+      return;
+    }
+    idleLock.lock();
+    try {
+      workAvailable.signal();
+    } finally {
+      idleLock.unlock();
+    }
+  }
+
+  /** @return the next task for {@code worker} to run, waiting for one if there is none */
+  CriticalPathDepsAwareTask<T> takeTask(WorkStealingDepsAwareWorker<T> worker)
+      throws InterruptedException {
+    while (true) {
+      CriticalPathDepsAwareTask<T> task = findTask(worker);
+      if (task != null) {
+        return task;
+      }
+      idleLock.lockInterruptibly();
+      idleWorkers.incrementAndGet();
+      try {
+        // Tasks queued after idleWorkers was incremented signal us, but we must not miss any that
+        // were queued before.
+        task = findTask(worker);
+        if (task != null) {
+          return task;
+        }
+        workAvailable.awaitNanos(MAX_IDLE_NANOS);
+      } finally {
+        idleWorkers.decrementAndGet();
+        idleLock.unlock();
+      }
+    }
+  }
+
+  @Nullable
+  private CriticalPathDepsAwareTask<T> findTask(WorkStealingDepsAwareWorker<T> worker) {
+    CriticalPathDepsAwareTask<T> task = worker.poll();
+    if (task != null) {
+      return task;
+    }
+    WorkStealingDepsAwareWorker<T> victim = null;
+    long victimCriticalPathNanos = Long.MIN_VALUE;
+    for (WorkStealingDepsAwareWorker<T> other : workers) {
+      if (other == worker) {
+        continue;
+      }
+      long criticalPathNanos = other.peekCriticalPathNanos();
+      if (criticalPathNanos > victimCriticalPathNanos) {
+        victim = other;
+        victimCriticalPathNanos = criticalPathNanos;
+      }
+    }
+    return victim == null ? null : victim.poll();
+  }
+}
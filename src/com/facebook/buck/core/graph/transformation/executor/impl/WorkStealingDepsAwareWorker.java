@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import com.facebook.buck.core.graph.transformation.executor.impl.AbstractDepsAwareTask.TaskStatus;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * A worker of {@link WorkStealingDepsAwareExecutor}, to be ran in a thread of its own.
+ *
+ * <p>Like {@link ToposortDepsAwareWorker}, a task is only queued once all its tracked dependencies
+ * are completed. Each worker queues the tasks it discovers or unblocks on a queue of its own,
+ * ordered by their estimated critical path, so the work that holds up the most downstream work is
+ * done first. Workers that run out of work steal from the queues of others.
+ *
+ * <p>The critical path of a queued task is the one known when it was queued. It may grow as more
+ * dependants of the task are discovered, but the task keeps its place in the queue.
+ */
+class WorkStealingDepsAwareWorker<T> {
+
+  private final WorkStealingDepsAwareExecutor<T> executor;
+
+  /** Guarded by itself. */
+  private final PriorityQueue<QueuedTask<T>> queue = new PriorityQueue<>();
+
+  /** Guarded by {@link #queue}. */
+  private long queuedCount = 0;
+
+  WorkStealingDepsAwareWorker(WorkStealingDepsAwareExecutor<T> executor) {
+    this.executor = executor;
+  }
+
+  /** Adds a {@link TaskStatus#SCHEDULED} task to the queue of this worker. */
+  void push(CriticalPathDepsAwareTask<T> task) {
+    synchronized (queue) {
+      queue.add(new QueuedTask<>(task, task.getCriticalPathNanos(), queuedCount++));
+    }
+    executor.signalWork();
+  }
+
+  /** @return the most critical task in the queue of this worker, if any */
+  @Nullable
+  CriticalPathDepsAwareTask<T> poll() {
+    synchronized (queue) {
+      QueuedTask<T> queuedTask = queue.poll();
+      return queuedTask == null ? null : queuedTask.task;
+    }
+  }
+
+  /**
+   * @return the critical path of the most critical task in the queue of this worker, or {@link
+   *     Long#MIN_VALUE} if the queue is empty
+   */
+  long peekCriticalPathNanos() {
+    synchronized (queue) {
+      QueuedTask<T> queuedTask = queue.peek();
+      return queuedTask == null ? Long.MIN_VALUE : queuedTask.criticalPathNanos;
+    }
+  }
+
+  /** Runs the scheduled loop forever until shutdown */
+  void loopForever() throws InterruptedException {
+    while (!Thread.currentThread().isInterrupted()) {
+      eval(executor.takeTask(this));
+    }
+  }
+
+  private void eval(CriticalPathDepsAwareTask<T> task) {
+    if (!task.compareAndSetStatus(TaskStatus.SCHEDULED, TaskStatus.STARTED)) {
+      return;
+    }
+
+    ImmutableSet<CriticalPathDepsAwareTask<T>> prereqs;
+    try {
+      prereqs = task.getPrereqs();
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return;
+    }
+    if (!checkTasksReadyOrWait(task, prereqs)) {
+      return;
+    }
+
+    ImmutableSet<CriticalPathDepsAwareTask<T>> deps;
+    try {
+      deps = task.getDependencies();
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return;
+    }
+    if (!checkTasksReadyOrWait(task, deps)) {
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    task.call();
+    executor.recordDuration(task, System.nanoTime() - startNanos);
+    scheduleReadyDependants(task);
+  }
+
+  /**
+   * Schedules the dependencies of {@code task} that are not done, after extending their critical
+   * paths through {@code task}. If some are not done, {@code task} is registered as their dependant
+   * and becomes {@link TaskStatus#NOT_SCHEDULED} until they are.
+   *
+   * @return true iff all the dependencies are done, and {@code task} is still {@link
+   *     TaskStatus#STARTED}
+   */
+  private boolean checkTasksReadyOrWait(
+      CriticalPathDepsAwareTask<T> task, ImmutableSet<CriticalPathDepsAwareTask<T>> depTasks) {
+    List<CriticalPathDepsAwareTask<T>> notDoneTasks = new ArrayList<>();
+    try {
+      for (CriticalPathDepsAwareTask<T> depTask : depTasks) {
+        depTask.addDependantCriticalPath(task.getCriticalPathNanos());
+        if (depTask.getStatus() != TaskStatus.DONE) {
+          notDoneTasks.add(depTask);
+          if (depTask.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+            push(depTask);
+          }
+        }
+        propagateException(depTask);
+      }
+    } catch (Throwable e) {
+      completeWithException(task, e);
+      return false;
+    }
+
+    if (notDoneTasks.isEmpty()) {
+      return true;
+    }
+    notDoneTasks.forEach(depTask -> depTask.registerDependant(task));
+    // task becomes NOT_SCHEDULED only when all its deps are registered, see ToposortDepsAwareWorker
+    Verify.verify(task.compareAndSetStatus(TaskStatus.STARTED, TaskStatus.NOT_SCHEDULED));
+    return task.numOutStandingDependencies.get() == 0
+        && task.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.STARTED);
+  }
+
+  private void scheduleReadyDependants(CriticalPathDepsAwareTask<T> task) {
+    for (CriticalPathDepsAwareTask<T> taskToSchedule : task.reportCompletionToDependents()) {
+      if (!taskToSchedule.compareAndSetStatus(TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+        continue;
+      }
+      if (taskToSchedule.numOutStandingDependencies.get() != 0) {
+        // The dependant was still registering with its other dependencies. Same as in
+        // ToposortDepsAwareWorker, back off and recheck once it can no longer be blocked by us.
+        Verify.verify(
+            taskToSchedule.compareAndSetStatus(TaskStatus.SCHEDULED, TaskStatus.NOT_SCHEDULED));
+        if (taskToSchedule.numOutStandingDependencies.get() != 0
+            || !taskToSchedule.compareAndSetStatus(
+                TaskStatus.NOT_SCHEDULED, TaskStatus.SCHEDULED)) {
+          continue;
+        }
+      }
+      push(taskToSchedule);
+    }
+  }
+
+  /** propagate an exception for the dependency to the current task by throwing it */
+  private void propagateException(CriticalPathDepsAwareTask<T> task)
+      throws InterruptedException, ExecutionException {
+    CompletableFuture<?> depResult = task.getFuture();
+    if (!depResult.isCompletedExceptionally()) {
+      return;
+    }
+    depResult.get();
+    Verify.verify(false, "Should have completed exceptionally");
+  }
+
+  private void completeWithException(CriticalPathDepsAwareTask<T> task, Throwable e) {
+    if (e instanceof ExecutionException) {
+      e = e.getCause();
+    }
+    task.getFuture().completeExceptionally(e);
+    Verify.verify(task.compareAndSetStatus(TaskStatus.STARTED, TaskStatus.DONE));
+    scheduleReadyDependants(task);
+  }
+
+  /** A task in the queue, ordered by critical path and then in the order they were queued. */
+  private static class QueuedTask<T> implements Comparable<QueuedTask<T>> {
+    private final CriticalPathDepsAwareTask<T> task;
+    private final long criticalPathNanos;
+    private final long sequenceNumber;
+
+    private QueuedTask(
+        CriticalPathDepsAwareTask<T> task, long criticalPathNanos, long sequenceNumber) {
+      this.task = task;
+      this.criticalPathNanos = criticalPathNanos;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public int compareTo(QueuedTask<T> other) {
+      int result = Long.compare(other.criticalPathNanos, criticalPathNanos);
+      return result != 0 ? result : Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+  }
+}
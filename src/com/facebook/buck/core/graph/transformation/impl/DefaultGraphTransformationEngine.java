@@ -234,6 +234,7 @@ public final class DefaultGraphTransformationEngine implements GraphTransformati
                 MoreSuppliers.memoize(
                     () -> computeDepsForKey(stage, key, depResults), Exception.class);
             return executor.createThrowingTask(
+                key,
                 () -> computeForKey(key, stage, collectDeps(depResults.build())),
                 preliminaryDepsSupplier,
                 depsSupplier);
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.impl;
+
+import com.facebook.buck.core.graph.transformation.GraphEngineCache;
+import com.facebook.buck.core.graph.transformation.model.ComputeKey;
+import com.facebook.buck.core.graph.transformation.model.ComputeResult;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link GraphEngineCache} that also stores results on disk, so that they can be reused by later
+ * engines, including in a new daemon.
+ *
+ * <p>Results are stored in a file per key, named after a stable hash of the key and of everything
+ * the result depends on, which the stage supplies through a {@link KeyHasher}. Stages whose results
+ * depend on inputs that are not part of the key, such as files, must include those in the hash.
+ * Keys that cannot be hashed are only cached in memory.
+ *
+ * <p>Recently used results are also kept in memory, together with the hash they were computed
+ * for, and are only returned while the hash is unchanged. The number of results kept in memory and
+ * the total size of the stored results are bounded. When either is exceeded, the least recently
+ * used results are dropped. Recency on disk survives restarts through the modification times of the
+ * files, which are updated when a result is stored or read from disk.
+ *
+ * <p>Failures to read or write the disk are logged and otherwise ignored: a result that cannot be
+ * read is simply recomputed.
+ */
+public class PersistentGraphEngineCache<Key extends ComputeKey<Value>, Value extends ComputeResult>
+    implements GraphEngineCache<Key, Value> {
+
+  private static final Logger LOG = Logger.get(PersistentGraphEngineCache.class);
+
+  private static final String TEMP_FILE_PREFIX = ".tmp-";
+
+  /**
+   * Computes the stable hash a result is stored under.
+   *
+   * @param <Key> the type of keys of the stage
+   */
+  @FunctionalInterface
+  public interface KeyHasher<Key> {
+    /**
+     * @return a hash of {@code key} and of everything its result depends on, which is the same in
+     *     every process for the same result, or empty if the result should not be stored on disk
+     */
+    Optional<HashCode> hash(Key key) throws IOException;
+  }
+
+  /**
+   * Converts results to and from bytes. The format must be covered by the {@link KeyHasher}, so
+   * that results stored in an older format are not read.
+   *
+   * @param <Value> the type of results of the stage
+   */
+  public interface Codec<Value> {
+    /** @return the stored form of {@code value}, or empty if it should not be stored on disk */
+    Optional<byte[]> encode(Value value) throws IOException;
+
+    /**
+     * @return the value stored as {@code bytes}, or empty if it depends on inputs which changed
+     *     since it was stored, in which case it is deleted
+     */
+    Optional<Value> decode(byte[] bytes) throws IOException;
+  }
+
+  private final Path directory;
+  private final long maxSizeBytes;
+  private final KeyHasher<Key> keyHasher;
+  private final Codec<Value> codec;
+
+  private final Cache<Key, CachedResult<Value>> memoryCache;
+
+  /**
+   * Sizes of the stored results, least recently used first. Loaded on first use. Guarded by this
+   * while loading, and by itself afterwards.
+   */
+  @Nullable private LinkedHashMap<HashCode, Long> index;
+
+  /** Total size of the stored results. Guarded by {@link #index}. */
+  private long sizeBytes = 0;
+
+  /**
+   * @param directory the absolute path of the directory to store results in, which must not be
+   *     shared with other stages
+   * @param maxSizeBytes the bound on the total size of the stored results
+   * @param maxMemoryEntries the bound on the number of results kept in memory
+   */
+  public PersistentGraphEngineCache(
+      Path directory,
+      long maxSizeBytes,
+      long maxMemoryEntries,
+      KeyHasher<Key> keyHasher,
+      Codec<Value> codec) {
+    Preconditions.checkArgument(directory.isAbsolute(), "%s is not absolute", directory);
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+    this.memoryCache = CacheBuilder.newBuilder().maximumSize(maxMemoryEntries).build();
+    this.keyHasher = keyHasher;
+    this.codec = codec;
+  }
+
+  @Override
+  public Optional<Value> get(Key key) {
+    Optional<HashCode> hash = hash(key);
+    CachedResult<Value> cachedResult = memoryCache.getIfPresent(key);
+    if (cachedResult != null) {
+      if (Objects.equals(cachedResult.hash, hash.orElse(null))) {
+        hash.ifPresent(this::touch);
+        return Optional.of(cachedResult.value);
+      }
+      // The inputs of the result changed since it was computed.
+      memoryCache.asMap().remove(key, cachedResult);
+    }
+
+    if (!hash.isPresent() || !touch(hash.get())) {
+      return Optional.empty();
+    }
+    Path path = getPath(hash.get());
+    Value value;
+    try {
+      Optional<Value> decoded = codec.decode(Files.readAllBytes(path));
+      if (!decoded.isPresent()) {
+        delete(hash.get());
+        return Optional.empty();
+      }
+      value = decoded.get();
+    } catch (NoSuchFileException e) {
+      // Evicted concurrently.
+      remove(hash.get());
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Could not read cached result of %s from %s.", key, path);
+      delete(hash.get());
+      return Optional.empty();
+    }
+    try {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug(e, "Could not record access to %s.", path);
+    }
+    memoryCache.put(key, new CachedResult<>(value, hash.get()));
+    return Optional.of(value);
+  }
+
+  @Override
+  public void put(Key key, Value value) {
+    Optional<HashCode> hash = hash(key);
+    CachedResult<Value> previous =
+        memoryCache.asMap().put(key, new CachedResult<>(value, hash.orElse(null)));
+    if (!hash.isPresent() || (previous != null && hash.get().equals(previous.hash))) {
+      // Either not stored on disk at all, or already stored for the same inputs.
+      return;
+    }
+
+    Path path = getPath(hash.get());
+    Path tempPath = null;
+    try {
+      Optional<byte[]> encoded = codec.encode(value);
+      if (!encoded.isPresent() || encoded.get().length > maxSizeBytes) {
+        return;
+      }
+      byte[] bytes = encoded.get();
+      Files.createDirectories(path.getParent());
+      tempPath = Files.createTempFile(directory, TEMP_FILE_PREFIX, "");
+      Files.write(tempPath, bytes);
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      tempPath = null;
+      recordStore(hash.get(), bytes.length);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Could not store result of %s in %s.", key, path);
+    } finally {
+      if (tempPath != null) {
+        try {
+          Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+          LOG.debug(e, "Could not delete %s.", tempPath);
+        }
+      }
+    }
+  }
+
+  private Optional<HashCode> hash(Key key) {
+    try {
+      return keyHasher.hash(key);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug(e, "Could not hash %s, not using the disk cache for it.", key);
+      return Optional.empty();
+    }
+  }
+
+  private Path getPath(HashCode hash) {
+    String name = hash.toString();
+    return directory.resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  /** @return whether a result is stored for {@code hash}, marking it as most recently used if so */
+  private boolean touch(HashCode hash) {
+    LinkedHashMap<HashCode, Long> index = getIndex();
+    synchronized (index) {
+      return index.get(hash) != null;
+    }
+  }
+
+  private void recordStore(HashCode hash, long entrySizeBytes) {
+    List<HashCode> evicted = new ArrayList<>();
+    LinkedHashMap<HashCode, Long> index = getIndex();
+    synchronized (index) {
+      Long previousSizeBytes = index.put(hash, entrySizeBytes);
+      sizeBytes += entrySizeBytes - (previousSizeBytes == null ? 0 : previousSizeBytes);
+      Iterator<Map.Entry<HashCode, Long>> entries = index.entrySet().iterator();
+      while (sizeBytes > maxSizeBytes && entries.hasNext()) {
+        Map.Entry<HashCode, Long> entry = entries.next();
+        if (entry.getKey().equals(hash)) {
+          continue;
+        }
+        sizeBytes -= entry.getValue();
+        evicted.add(entry.getKey());
+        entries.remove();
+      }
+    }
+    for (HashCode evictedHash : evicted) {
+      deleteFile(evictedHash);
+    }
+  }
+
+  private void delete(HashCode hash) {
+    remove(hash);
+    deleteFile(hash);
+  }
+
+  private void remove(HashCode hash) {
+    LinkedHashMap<HashCode, Long> index = getIndex();
+    synchronized (index) {
+      Long entrySizeBytes = index.remove(hash);
+      if (entrySizeBytes != null) {
+        sizeBytes -= entrySizeBytes;
+      }
+    }
+  }
+
+  private void deleteFile(HashCode hash) {
+    Path path = getPath(hash);
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOG.warn(e, "Could not delete %s.", path);
+    }
+  }
+
+  /** @return the index, after loading it from the results stored by earlier processes if needed */
+  private synchronized LinkedHashMap<HashCode, Long> getIndex() {
+    if (index != null) {
+      return index;
+    }
+    LinkedHashMap<HashCode, Long> loadedIndex = new LinkedHashMap<>(16, 0.75f, true);
+    long loadedSizeBytes = 0;
+    if (Files.isDirectory(directory)) {
+      List<StoredResult> storedResults = new ArrayList<>();
+      try (Stream<Path> paths = Files.walk(directory, 2)) {
+        paths.forEach(
+            path -> {
+              String name = path.getFileName().toString();
+              if (name.startsWith(TEMP_FILE_PREFIX)) {
+                try {
+                  // Left behind by a process that died while storing a result.
+                  Files.deleteIfExists(path);
+                } catch (IOException e) {
+                  LOG.debug(e, "Could not delete %s.", path);
+                }
+                return;
+              }
+              if (!path.getParent().equals(directory)
+                  && name.length() > 2
+                  && name.startsWith(path.getParent().getFileName().toString())) {
+                try {
+                  BasicFileAttributes attributes =
+                      Files.readAttributes(path, BasicFileAttributes.class);
+                  storedResults.add(
+                      new StoredResult(
+                          HashCode.fromString(name),
+                          attributes.size(),
+                          attributes.lastModifiedTime().toMillis()));
+                } catch (IOException | IllegalArgumentException e) {
+                  LOG.debug(e, "Ignoring %s.", path);
+                }
+              }
+            });
+      } catch (IOException e) {
+        LOG.warn(e, "Could not list cached results in %s.", directory);
+      }
+      storedResults.sort(Comparator.comparingLong(storedResult -> storedResult.lastModifiedMillis));
+      for (StoredResult storedResult : storedResults) {
+        loadedIndex.put(storedResult.hash, storedResult.sizeBytes);
+        loadedSizeBytes += storedResult.sizeBytes;
+      }
+    }
+    synchronized (loadedIndex) {
+      sizeBytes = loadedSizeBytes;
+    }
+    index = loadedIndex;
+    return loadedIndex;
+  }
+
+  private static class CachedResult<Value> {
+    private final Value value;
+    @Nullable private final HashCode hash;
+
+    private CachedResult(Value value, @Nullable HashCode hash) {
+      this.value = value;
+      this.hash = hash;
+    }
+  }
+
+  private static class StoredResult {
+    private final HashCode hash;
+    private final long sizeBytes;
+    private final long lastModifiedMillis;
+
+    private StoredResult(HashCode hash, long sizeBytes, long lastModifiedMillis) {
+      this.hash = hash;
+      this.sizeBytes = sizeBytes;
+      this.lastModifiedMillis = lastModifiedMillis;
+    }
+  }
+}
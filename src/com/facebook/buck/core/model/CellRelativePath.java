@@ -18,15 +18,17 @@ package com.facebook.buck.core.model;
 
 import com.facebook.buck.core.cell.name.CanonicalCellName;
 import com.facebook.buck.core.path.ForwardRelativePath;
-import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.core.util.immutables.BuckStylePrehashedValue;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /**
  * A pair of {@link CanonicalCellName} and {@link ForwardRelativePath} relative the the cell.
  *
  * <p>This object can identify a buck package or a buck file.
  */
-@BuckStyleValue
+@BuckStylePrehashedValue
 public abstract class CellRelativePath implements Comparable<CellRelativePath> {
 
   public abstract CanonicalCellName getCellName();
@@ -51,7 +53,13 @@ public abstract class CellRelativePath implements Comparable<CellRelativePath> {
         .result();
   }
 
+  /**
+   * Every target of a package refers to the package path, so these are interned to share one
+   * instance (along with its {@link ForwardRelativePath}) between all of them.
+   */
+  private static final Interner<CellRelativePath> interner = Interners.newWeakInterner();
+
   public static CellRelativePath of(CanonicalCellName cellName, ForwardRelativePath path) {
-    return ImmutableCellRelativePath.of(cellName, path);
+    return interner.intern(ImmutableCellRelativePath.of(cellName, path));
   }
 }
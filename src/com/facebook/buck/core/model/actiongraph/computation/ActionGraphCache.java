@@ -19,46 +19,138 @@ package com.facebook.buck.core.model.actiongraph.computation;
 import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
 import com.facebook.buck.core.model.targetgraph.TargetGraph;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Preconditions;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
-/** Contains cached action graphs. */
+/**
+ * Contains cached action graphs.
+ *
+ * <p>Several action graphs are kept, so that alternating between commands on different sets of
+ * targets doesn't rebuild the action graph every time. Graphs are evicted least recently used
+ * first once there are more than {@code maxEntries} of them, or once they hold more than {@code
+ * maxRules} build rules together, the number of rules standing in for their memory footprint. The
+ * most recently used graph is kept regardless of its size.
+ */
 public class ActionGraphCache {
+  private static final Logger LOG = Logger.get(ActionGraphCache.class);
+
+  private final int maxEntries;
+  private final long maxRules;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<ActionGraphCacheKey, CachedActionGraph> previousActionGraphs =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  @GuardedBy("this")
+  private long cachedRuleCount = 0;
 
-  private final Cache<TargetGraph, ActionGraphAndBuilder> previousActionGraphs;
   private final IncrementalActionGraphGenerator incrementalActionGraphGenerator;
 
   public ActionGraphCache(int maxEntries) {
-    previousActionGraphs = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
-    incrementalActionGraphGenerator = new IncrementalActionGraphGenerator();
+    this(maxEntries, Long.MAX_VALUE);
   }
 
-  public void invalidateCache() {
-    previousActionGraphs.invalidateAll();
+  public ActionGraphCache(int maxEntries, long maxRules) {
+    Preconditions.checkArgument(maxEntries >= 0);
+    Preconditions.checkArgument(maxRules > 0);
+    this.maxEntries = maxEntries;
+    this.maxRules = maxRules;
+    // Rules of the last action graph can be reused even if action graphs aren't cached.
+    incrementalActionGraphGenerator =
+        new IncrementalActionGraphGenerator(Math.max(1, maxEntries), maxRules);
+  }
+
+  public synchronized void invalidateCache() {
+    previousActionGraphs.clear();
+    cachedRuleCount = 0;
   }
 
   @Nullable
-  public ActionGraphAndBuilder getIfPresent(TargetGraph targetGraph) {
-    return previousActionGraphs.getIfPresent(targetGraph);
+  public synchronized ActionGraphAndBuilder getIfPresent(ActionGraphCacheKey key) {
+    CachedActionGraph cached = previousActionGraphs.get(key);
+    return cached == null ? null : cached.actionGraphAndBuilder;
   }
 
-  public boolean isEmpty() {
-    return previousActionGraphs.size() == 0;
+  public synchronized boolean isEmpty() {
+    return previousActionGraphs.isEmpty();
   }
 
-  public long size() {
+  public synchronized long size() {
     return previousActionGraphs.size();
   }
 
-  public void put(TargetGraph targetGraph, ActionGraphAndBuilder actionGraphAndBuilder) {
-    previousActionGraphs.put(targetGraph, actionGraphAndBuilder);
+  /** @return the number of build rules held by the cached action graphs. */
+  public synchronized long getCachedRuleCount() {
+    return cachedRuleCount;
   }
 
+  public synchronized void put(
+      ActionGraphCacheKey key, ActionGraphAndBuilder actionGraphAndBuilder) {
+    if (maxEntries == 0) {
+      return;
+    }
+    CachedActionGraph cached =
+        new CachedActionGraph(
+            actionGraphAndBuilder, actionGraphAndBuilder.getActionGraph().getSize());
+    CachedActionGraph replaced = previousActionGraphs.put(key, cached);
+    if (replaced != null) {
+      cachedRuleCount -= replaced.ruleCount;
+    }
+    cachedRuleCount += cached.ruleCount;
+
+    Iterator<CachedActionGraph> leastRecentlyUsed = previousActionGraphs.values().iterator();
+    while (previousActionGraphs.size() > 1
+        && (previousActionGraphs.size() > maxEntries || cachedRuleCount > maxRules)) {
+      CachedActionGraph evicted = leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      cachedRuleCount -= evicted.ruleCount;
+      LOG.debug("Evicted cached action graph with %d rules.", evicted.ruleCount);
+    }
+  }
+
+  /**
+   * Populates {@code graphBuilder} with the usable rules of the most similar recent action graph.
+   * The action graphs whose rules were taken are dropped from the cache, as those rules now belong
+   * to {@code graphBuilder}.
+   */
   public void populateActionGraphBuilderWithCachedRules(
       BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
-    incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
-        eventBus, targetGraph, graphBuilder);
+    incrementalActionGraphGenerator
+        .populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder)
+        .ifPresent(this::invalidateActionGraphsBuiltBy);
+  }
+
+  /**
+   * Drops the least recent builders rules could be taken from which no longer fit the rule budget
+   * along with the action graph that was just built.
+   */
+  public void evictPreviousActionGraphBuilders() {
+    incrementalActionGraphGenerator.evictPreviousGraphs();
+  }
+
+  private synchronized void invalidateActionGraphsBuiltBy(ActionGraphBuilder graphBuilder) {
+    Iterator<CachedActionGraph> it = previousActionGraphs.values().iterator();
+    while (it.hasNext()) {
+      CachedActionGraph cached = it.next();
+      if (cached.actionGraphAndBuilder.getActionGraphBuilder() == graphBuilder) {
+        it.remove();
+        cachedRuleCount -= cached.ruleCount;
+      }
+    }
+  }
+
+  private static class CachedActionGraph {
+    private final ActionGraphAndBuilder actionGraphAndBuilder;
+    private final int ruleCount;
+
+    private CachedActionGraph(ActionGraphAndBuilder actionGraphAndBuilder, int ruleCount) {
+      this.actionGraphAndBuilder = actionGraphAndBuilder;
+      this.ruleCount = ruleCount;
+    }
   }
 }
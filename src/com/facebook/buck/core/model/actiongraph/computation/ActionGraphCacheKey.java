@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.model.actiongraph.computation;
+
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.rules.transformer.TargetNodeToBuildRuleTransformer;
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+
+/**
+ * Identifies a cached action graph: the same target graph can produce different action graphs
+ * depending on how its nodes are transformed into build rules and how the graph is constructed.
+ */
+@BuckStyleValue
+public abstract class ActionGraphCacheKey {
+
+  public abstract TargetGraph getTargetGraph();
+
+  public abstract Class<? extends TargetNodeToBuildRuleTransformer> getTransformerType();
+
+  public abstract IncrementalActionGraphMode getIncrementalActionGraphMode();
+
+  public static ActionGraphCacheKey of(
+      TargetGraph targetGraph,
+      TargetNodeToBuildRuleTransformer transformer,
+      IncrementalActionGraphMode incrementalActionGraphMode) {
+    return ImmutableActionGraphCacheKey.of(
+        targetGraph, transformer.getClass(), incrementalActionGraphMode);
+  }
+}
@@ -127,7 +127,9 @@ public class ActionGraphProvider {
     try {
       TargetGraph targetGraph = targetGraphCreationResult.getTargetGraph();
       RuleKeyFieldLoader fieldLoader = new RuleKeyFieldLoader(ruleKeyConfiguration);
-      ActionGraphAndBuilder cachedActionGraph = actionGraphCache.getIfPresent(targetGraph);
+      ActionGraphCacheKey cacheKey =
+          ActionGraphCacheKey.of(targetGraph, transformer, incrementalActionGraphMode);
+      ActionGraphAndBuilder cachedActionGraph = actionGraphCache.getIfPresent(cacheKey);
       if (cachedActionGraph != null) {
         eventBus.post(ActionGraphEvent.Cache.hit());
         LOG.info("ActionGraph cache hit.");
@@ -157,7 +159,7 @@ public class ActionGraphProvider {
                     : incrementalActionGraphMode);
         if (!skipActionGraphCache) {
           LOG.info("ActionGraph cache assignment.");
-          actionGraphCache.put(targetGraph, out);
+          actionGraphCache.put(cacheKey, out);
         }
       }
       finished = ActionGraphEvent.finished(started, out.getActionGraph().getSize());
@@ -206,21 +208,25 @@ public class ActionGraphProvider {
       TargetGraph targetGraph,
       IncrementalActionGraphMode incrementalActionGraphMode) {
 
-    return actionGraphFactory.createActionGraph(
-        transformer,
-        targetGraph,
-        incrementalActionGraphMode,
-        graphBuilder -> {
-          // Any previously cached action graphs are no longer valid, as we may use build rules
-          // from those graphs to construct a new graph incrementally, and update those build
-          // rules to use a new BuildRuleResolver.
-          actionGraphCache.invalidateCache();
-
-          // Populate the new build rule graphBuilder with all of the usable rules from the last
-          // build rule graphBuilder for incremental action graph generation.
-          actionGraphCache.populateActionGraphBuilderWithCachedRules(
-              eventBus, targetGraph, graphBuilder);
-        });
+    ActionGraphAndBuilder actionGraph =
+        actionGraphFactory.createActionGraph(
+            transformer,
+            targetGraph,
+            incrementalActionGraphMode,
+            graphBuilder -> {
+              // Populate the new build rule graphBuilder with all of the usable rules from the
+              // most similar previous build rule graphBuilder for incremental action graph
+              // generation. The cached action graphs built by the graphBuilder those rules are
+              // taken from are no longer valid, as the rules are updated to use the new
+              // BuildRuleResolver, so they are dropped from the cache. Other cached action graphs
+              // don't share rules with them and stay valid.
+              actionGraphCache.populateActionGraphBuilderWithCachedRules(
+                  eventBus, targetGraph, graphBuilder);
+            });
+    // The rules of the new action graph can only be counted against the rule budget once it is
+    // built.
+    actionGraphCache.evictPreviousActionGraphBuilders();
+    return actionGraph;
   }
 
   private static Map<BuildRule, RuleKey> getRuleKeysFromBuildRules(
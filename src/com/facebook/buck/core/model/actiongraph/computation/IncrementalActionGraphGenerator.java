@@ -30,8 +30,12 @@ import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -43,23 +47,64 @@ import javax.annotation.Nullable;
  *
  * <p>This works by grabbing all the build rules from the previous {@link ActionGraphBuilder} with
  * unflavored targets that were not invalidated when doing a target graph walk to check for changes.
+ *
+ * <p>Several recent builders can be kept, so that switching between a few sets of targets reuses
+ * the rules of the graph closest to the new one rather than only those of the last graph. Rules
+ * can only be moved into one new builder, so the builder they were taken from is dropped.
  */
 public class IncrementalActionGraphGenerator {
   private static final Logger LOG = Logger.get(IncrementalActionGraphGenerator.class);
 
+  private final int maxPreviousGraphs;
+  private final long maxPreviousRules;
+
+  /** Builders that rules can still be taken from, least recently created first. */
+  private final Deque<PreviousGraph> previousGraphs = new ArrayDeque<>();
+
+  // The graph rules are being taken from, while populating a new builder.
   @Nullable private ActionGraphBuilder lastActionGraphBuilder;
   @Nullable private TargetGraph lastTargetGraph;
 
+  public IncrementalActionGraphGenerator() {
+    this(1);
+  }
+
+  public IncrementalActionGraphGenerator(int maxPreviousGraphs) {
+    this(maxPreviousGraphs, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param maxPreviousGraphs how many recent builders to keep
+   * @param maxPreviousRules how many build rules the kept builders may hold together before the
+   *     least recent ones are dropped. The most recent builder is always kept.
+   */
+  public IncrementalActionGraphGenerator(int maxPreviousGraphs, long maxPreviousRules) {
+    Preconditions.checkArgument(maxPreviousGraphs > 0);
+    Preconditions.checkArgument(maxPreviousRules > 0);
+    this.maxPreviousGraphs = maxPreviousGraphs;
+    this.maxPreviousRules = maxPreviousRules;
+  }
+
   /**
    * Populates the given {@link ActionGraphBuilder} with the rules from the previously used {@link
    * ActionGraphBuilder} that are deemed usable after checking for invalidations with a target graph
-   * walk.
+   * walk. Of the previous builders that are kept, the one whose target graph shares the most nodes
+   * with {@code targetGraph} is used.
+   *
+   * @return the previous builder whose rules were taken. That builder is invalidated, so any
+   *     action graph it built must be dropped.
    */
-  public void populateActionGraphBuilderWithCachedRules(
+  public Optional<ActionGraphBuilder> populateActionGraphBuilderWithCachedRules(
       BuckEventBus eventBus, TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
     int reusedRuleCount = 0;
-    if (lastActionGraphBuilder != null) {
-      Objects.requireNonNull(lastTargetGraph);
+    int previousRuleCount = 0;
+    Optional<ActionGraphBuilder> reusedGraphBuilder = Optional.empty();
+    PreviousGraph previousGraph = removeMostSimilarPreviousGraph(targetGraph);
+    if (previousGraph != null) {
+      lastTargetGraph = previousGraph.targetGraph;
+      lastActionGraphBuilder = previousGraph.graphBuilder;
+      previousRuleCount =
+          Iterables.size(lastActionGraphBuilder.getSuccessfullyConstructedBuildRules());
 
       // We first walk the new target graph to find new nodes. A new node will invalidate all nodes
       // with the same unflavored target.
@@ -85,11 +130,68 @@ public class IncrementalActionGraphGenerator {
       // Invalidate the previous {@see ActionGraphBuilder}, which we no longer need, to make sure
       // nobody unexpectedly accesses it after this point.
       lastActionGraphBuilder.invalidate();
+      reusedGraphBuilder = Optional.of(lastActionGraphBuilder);
+      lastTargetGraph = null;
+      lastActionGraphBuilder = null;
     }
 
-    lastTargetGraph = targetGraph;
-    lastActionGraphBuilder = graphBuilder;
-    eventBus.post(new ActionGraphEvent.IncrementalLoad(reusedRuleCount));
+    previousGraphs.addLast(new PreviousGraph(targetGraph, graphBuilder));
+    while (previousGraphs.size() > maxPreviousGraphs) {
+      previousGraphs.removeFirst();
+    }
+    eventBus.post(new ActionGraphEvent.IncrementalLoad(reusedRuleCount, previousRuleCount));
+    return reusedGraphBuilder;
+  }
+
+  /**
+   * Drops the least recent builders until the kept builders hold at most {@code maxPreviousRules}
+   * rules together. Must be called once the most recent builder has been populated, as its rules
+   * can only be counted then.
+   */
+  public void evictPreviousGraphs() {
+    if (maxPreviousRules == Long.MAX_VALUE) {
+      return;
+    }
+    long previousRuleCount = 0;
+    for (PreviousGraph previousGraph : previousGraphs) {
+      previousRuleCount +=
+          Iterables.size(previousGraph.graphBuilder.getSuccessfullyConstructedBuildRules());
+    }
+    while (previousGraphs.size() > 1 && previousRuleCount > maxPreviousRules) {
+      previousRuleCount -=
+          Iterables.size(
+              previousGraphs.removeFirst().graphBuilder.getSuccessfullyConstructedBuildRules());
+    }
+  }
+
+  /**
+   * Removes and returns the previous graph with the most target nodes that are unchanged in {@code
+   * targetGraph}, preferring the most recent one on ties. Graphs sharing no unchanged nodes with
+   * {@code targetGraph} are left alone, as none of their rules could be reused.
+   */
+  @Nullable
+  private PreviousGraph removeMostSimilarPreviousGraph(TargetGraph targetGraph) {
+    PreviousGraph best = null;
+    int bestUnchangedNodeCount = 0;
+    for (Iterator<PreviousGraph> it = previousGraphs.descendingIterator(); it.hasNext(); ) {
+      PreviousGraph candidate = it.next();
+      int unchangedNodeCount = 0;
+      for (TargetNode<?> node : targetGraph.getNodes()) {
+        Optional<TargetNode<?>> previousNode =
+            candidate.targetGraph.getExactOptional(node.getBuildTarget());
+        if (previousNode.isPresent() && previousNode.get().equals(node)) {
+          unchangedNodeCount++;
+        }
+      }
+      if (unchangedNodeCount > bestUnchangedNodeCount) {
+        best = candidate;
+        bestUnchangedNodeCount = unchangedNodeCount;
+      }
+    }
+    if (best != null) {
+      previousGraphs.remove(best);
+    }
+    return best;
   }
 
   private Set<UnflavoredBuildTarget> findUnflavoredTargetsForNewNodes(TargetGraph targetGraph) {
@@ -272,4 +374,14 @@ public class IncrementalActionGraphGenerator {
     }
     return false;
   }
+
+  private static class PreviousGraph {
+    private final TargetGraph targetGraph;
+    private final ActionGraphBuilder graphBuilder;
+
+    private PreviousGraph(TargetGraph targetGraph, ActionGraphBuilder graphBuilder) {
+      this.targetGraph = targetGraph;
+      this.graphBuilder = graphBuilder;
+    }
+  }
 }
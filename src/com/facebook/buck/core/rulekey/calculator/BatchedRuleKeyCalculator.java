@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.rulekey.calculator;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.actions.Action;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.rules.keys.AbstractRuleKeyBuilder;
+import com.facebook.buck.rules.keys.AlterRuleKeys;
+import com.facebook.buck.rules.keys.NoopRuleKeyScopedHasher;
+import com.facebook.buck.rules.keys.RuleKeyFactory;
+import com.facebook.buck.util.Scope;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * Calculates {@link RuleKey}s bottom-up, one wave of rules at a time, on a work-stealing pool.
+ *
+ * <p>Unlike {@link ParallelRuleKeyCalculator}, which chains a future per rule, this first walks the
+ * action graph to number the rules and group them by height: a wave holds the rules whose deps are
+ * all in earlier waves. Each wave is computed in parallel batches, and keys are kept in an array
+ * indexed by rule number. Optionally, the file hashes of the sources of a wave are loaded in
+ * parallel before its keys are computed, so that rules with many inputs don't hash them on a
+ * single thread.
+ */
+public class BatchedRuleKeyCalculator<T> {
+
+  /** Number of rules or files below which work isn't split further between threads. */
+  private static final int BATCH_SIZE = 8;
+
+  private final ForkJoinPool pool;
+  private final RuleKeyFactory<T> ruleKeyFactory;
+  private final RuleDepsCache ruleDepsCache;
+  private final BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope;
+  private final Optional<FileHashLoader> inputPrefetcher;
+
+  /**
+   * @param inputPrefetcher if present, the file hash loader used by {@code ruleKeyFactory}, which
+   *     is used to load the hashes of the sources of each wave ahead of computing its keys.
+   */
+  public BatchedRuleKeyCalculator(
+      ForkJoinPool pool,
+      RuleKeyFactory<T> ruleKeyFactory,
+      RuleDepsCache ruleDepsCache,
+      BiFunction<BuckEventBus, BuildRule, Scope> ruleKeyCalculationScope,
+      Optional<FileHashLoader> inputPrefetcher) {
+    this.pool = pool;
+    this.ruleKeyFactory = ruleKeyFactory;
+    this.ruleDepsCache = ruleDepsCache;
+    this.ruleKeyCalculationScope = ruleKeyCalculationScope;
+    this.inputPrefetcher = inputPrefetcher;
+  }
+
+  /**
+   * Calculates the keys of the given rules and of their transitive deps.
+   *
+   * @return the keys of {@code rules}, in the same order. A key is null if the factory doesn't
+   *     compute one for its rule.
+   */
+  public List<T> calculate(BuckEventBus buckEventBus, List<BuildRule> rules) {
+    RuleIndex index = new RuleIndex();
+    int[] requested = new int[rules.size()];
+    for (int i = 0; i < rules.size(); i++) {
+      requested[i] = index.add(rules.get(i));
+    }
+
+    for (int[] wave : index.getWaves()) {
+      if (inputPrefetcher.isPresent()) {
+        prefetchInputs(index, wave, inputPrefetcher.get());
+      }
+      forEachInParallel(
+          wave.length,
+          i -> {
+            BuildRule rule = index.rules.get(wave[i]);
+            try (Scope scope = ruleKeyCalculationScope.apply(buckEventBus, rule)) {
+              index.keys[wave[i]] = ruleKeyFactory.build(rule);
+            } catch (Exception e) {
+              throw new BuckUncheckedExecutionException(
+                  e, String.format("When computing rulekey for %s.", rule));
+            }
+          });
+    }
+
+    List<T> keys = new ArrayList<>(requested.length);
+    for (int number : requested) {
+      @SuppressWarnings("unchecked")
+      T key = (T) index.keys[number];
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  private void prefetchInputs(RuleIndex index, int[] wave, FileHashLoader fileHashLoader) {
+    Set<PathSourcePath> inputs = ConcurrentHashMap.newKeySet();
+    forEachInParallel(
+        wave.length,
+        i -> AlterRuleKeys.amendKey(new InputCollector(inputs), index.rules.get(wave[i])));
+    PathSourcePath[] inputArray = inputs.toArray(new PathSourcePath[0]);
+    forEachInParallel(
+        inputArray.length,
+        i -> {
+          try {
+            fileHashLoader.get(inputArray[i].getFilesystem(), inputArray[i].getRelativePath());
+          } catch (IOException e) {
+            // Computing the key of the rule reads the same file, and reports the failure.
+          }
+        });
+  }
+
+  private void forEachInParallel(int size, IntConsumer action) {
+    if (size <= BATCH_SIZE) {
+      for (int i = 0; i < size; i++) {
+        action.accept(i);
+      }
+    } else {
+      pool.invoke(new BatchAction(action, 0, size));
+    }
+  }
+
+  private static class BatchAction extends RecursiveAction {
+    private final IntConsumer action;
+    private final int start;
+    private final int end;
+
+    private BatchAction(IntConsumer action, int start, int end) {
+      this.action = action;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= BATCH_SIZE) {
+        for (int i = start; i < end; i++) {
+          action.accept(i);
+        }
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new BatchAction(action, start, middle), new BatchAction(action, middle, end));
+      }
+    }
+  }
+
+  /**
+   * Numbers the rules reachable from the requested ones, and records their heights. Rules whose
+   * keys are already cached by the factory have no height, and their deps aren't visited: they are
+   * cached too, as the cache invalidates the dependents of anything it drops.
+   */
+  private class RuleIndex {
+    private final Map<BuildTarget, Integer> numbers = new HashMap<>();
+    private final List<BuildRule> rules = new ArrayList<>();
+    private int[] heights = new int[16];
+    private Object[] keys = new Object[16];
+
+    private int add(BuildRule root) {
+      Integer existing = numbers.get(root.getBuildTarget());
+      if (existing != null) {
+        return existing;
+      }
+      int rootNumber = number(root);
+
+      // Iterative post-order walk: a rule's height is known once all its deps have been visited.
+      Deque<BuildRule> stack = new ArrayDeque<>();
+      Deque<Boolean> expanded = new ArrayDeque<>();
+      stack.push(root);
+      expanded.push(false);
+      while (!stack.isEmpty()) {
+        BuildRule rule = stack.pop();
+        int number = numbers.get(rule.getBuildTarget());
+        if (heights[number] != 0) {
+          // Cached, or reached through another dependent first.
+          expanded.pop();
+        } else if (!expanded.pop()) {
+          stack.push(rule);
+          expanded.push(true);
+          for (BuildRule dep : ruleDepsCache.get(rule)) {
+            Integer depNumber = numbers.get(dep.getBuildTarget());
+            if (depNumber == null) {
+              depNumber = number(dep);
+            }
+            if (heights[depNumber] == 0) {
+              stack.push(dep);
+              expanded.push(false);
+            }
+          }
+        } else {
+          int height = 1;
+          for (BuildRule dep : ruleDepsCache.get(rule)) {
+            height = Math.max(height, heights[numbers.get(dep.getBuildTarget())] + 1);
+          }
+          heights[number] = height;
+        }
+      }
+      return rootNumber;
+    }
+
+    /** Numbers a rule, and records its key if it's cached, or a height of 0 until it's known. */
+    private int number(BuildRule rule) {
+      int number = rules.size();
+      numbers.put(rule.getBuildTarget(), number);
+      rules.add(rule);
+      if (number == heights.length) {
+        heights = Arrays.copyOf(heights, number * 2);
+        keys = Arrays.copyOf(keys, number * 2);
+      }
+      T cached = ruleKeyFactory.getFromCache(rule);
+      if (cached != null) {
+        keys[number] = cached;
+        heights[number] = -1;
+      }
+      return number;
+    }
+
+    /** @return the numbers of the rules to compute keys for, grouped by height */
+    private int[][] getWaves() {
+      int[] waveSizes = new int[0];
+      for (int number = 0; number < rules.size(); number++) {
+        int height = heights[number];
+        if (height > waveSizes.length) {
+          waveSizes = Arrays.copyOf(waveSizes, height);
+        }
+        if (height > 0) {
+          waveSizes[height - 1]++;
+        }
+      }
+      int[][] waves = new int[waveSizes.length][];
+      for (int wave = 0; wave < waves.length; wave++) {
+        waves[wave] = new int[waveSizes[wave]];
+        waveSizes[wave] = 0;
+      }
+      for (int number = 0; number < rules.size(); number++) {
+        int height = heights[number];
+        if (height > 0) {
+          waves[height - 1][waveSizes[height - 1]++] = number;
+        }
+      }
+      return waves;
+    }
+  }
+
+  /** Collects the source files a rule key hashes, without computing anything. */
+  private static class InputCollector extends AbstractRuleKeyBuilder<Void> {
+    private final Set<PathSourcePath> inputs;
+
+    private InputCollector(Set<PathSourcePath> inputs) {
+      super(NoopRuleKeyScopedHasher.INSTANCE);
+      this.inputs = inputs;
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<Void> setSingleValue(@Nullable Object val) {
+      return this;
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<Void> setAction(Action action) {
+      return this;
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<Void> setBuildRule(BuildRule rule) {
+      // Its key is computed in an earlier wave.
+      return this;
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<Void> setAddsToRuleKey(AddsToRuleKey appendable) {
+      AlterRuleKeys.amendKey(this, appendable);
+      return this;
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<Void> setSourcePath(SourcePath sourcePath) {
+      if (sourcePath instanceof PathSourcePath) {
+        inputs.add((PathSourcePath) sourcePath);
+      }
+      return this;
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<Void> setNonHashingSourcePath(SourcePath sourcePath) {
+      return this;
+    }
+
+    @Override
+    public Void build() {
+      return null;
+    }
+  }
+}
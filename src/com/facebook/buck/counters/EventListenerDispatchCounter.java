@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.event.EventListenerDispatchStats;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reports the largest queue depth and lag of each listener of a {@link DefaultBuckEventBus} since
+ * the last flush.
+ */
+public class EventListenerDispatchCounter extends Counter {
+
+  private final DefaultBuckEventBus eventBus;
+
+  public EventListenerDispatchCounter(
+      String category,
+      String name,
+      ImmutableMap<String, String> tags,
+      DefaultBuckEventBus eventBus) {
+    super(category, name, tags);
+    this.eventBus = eventBus;
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    SortedMap<String, Long> values = new TreeMap<>();
+    for (EventListenerDispatchStats stats : eventBus.getAndResetListenerDispatchStats()) {
+      values.merge(
+          stats.getListenerName() + "_max_queue_depth", stats.getMaxQueueDepth(), Math::max);
+      values.merge(stats.getListenerName() + "_max_lag_ms", stats.getMaxLagMillis(), Math::max);
+    }
+    if (values.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(CounterSnapshot.builderForCounter(this).putAllValues(values).build());
+  }
+}
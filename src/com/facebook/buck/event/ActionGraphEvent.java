@@ -81,10 +81,12 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
   /** Event for incremental action graph construction. * */
   public static class IncrementalLoad extends ActionGraphEvent {
     public int reusedNodeCount;
+    public int previousNodeCount;
 
-    public IncrementalLoad(int reusedNodeCount) {
+    public IncrementalLoad(int reusedNodeCount, int previousNodeCount) {
       super(EventKey.unique());
       this.reusedNodeCount = reusedNodeCount;
+      this.previousNodeCount = previousNodeCount;
     }
 
     @Override
@@ -95,6 +97,16 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
     public int getReusedNodeCount() {
       return reusedNodeCount;
     }
+
+    /** @return the number of rules in the action graph that rules were reused from */
+    public int getPreviousNodeCount() {
+      return previousNodeCount;
+    }
+
+    /** @return the fraction of the rules of the previous action graph that were reused */
+    public double getReuseRatio() {
+      return previousNodeCount == 0 ? 0 : (double) reusedNodeCount / previousNodeCount;
+    }
   }
 
   public static class Cache extends ActionGraphEvent implements BuckEvent {
@@ -26,11 +26,14 @@ import com.facebook.buck.util.timing.Clock;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /** Thin wrapper around guava event bus. */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
@@ -48,6 +51,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
+  @Nullable private final PerListenerEventDispatcher perListenerDispatcher;
 
   // synchronization variables to ensure proper shutdown
   private volatile int activeTasks = 0;
@@ -57,6 +61,21 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
   }
 
+  /**
+   * @param perListenerDispatch whether to deliver events to each listener on a thread of its own,
+   *     see {@link PerListenerEventDispatcher}, rather than to all listeners on a single thread
+   */
+  public DefaultBuckEventBus(Clock clock, BuildId buildId, boolean perListenerDispatch) {
+    this(
+        clock,
+        buildId,
+        DEFAULT_SHUTDOWN_TIMEOUT_MS,
+        perListenerDispatch
+            ? MoreExecutors.newDirectExecutorService()
+            : MostExecutors.newSingleThreadExecutor(newThreadFactory()),
+        perListenerDispatch ? new PerListenerEventDispatcher(newThreadFactory()) : null);
+  }
+
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, boolean async, BuildId buildId, int shutdownTimeoutMillis) {
@@ -65,25 +84,44 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         buildId,
         shutdownTimeoutMillis,
         async
-            ? MostExecutors.newSingleThreadExecutor(
-                new CommandThreadFactory(
-                    BuckEventBus.class.getSimpleName(),
-                    GlobalStateManager.singleton().getThreadToCommandRegister()))
+            ? MostExecutors.newSingleThreadExecutor(newThreadFactory())
             : MoreExecutors.newDirectExecutorService());
   }
 
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, BuildId buildId, int shutdownTimeoutMillis, ExecutorService executorService) {
+    this(clock, buildId, shutdownTimeoutMillis, executorService, null);
+  }
+
+  @VisibleForTesting
+  DefaultBuckEventBus(
+      Clock clock,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      ExecutorService executorService,
+      @Nullable PerListenerEventDispatcher perListenerDispatcher) {
     this.clock = clock;
     this.executorService = executorService;
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.perListenerDispatcher = perListenerDispatcher;
+  }
+
+  private static ThreadFactory newThreadFactory() {
+    return new CommandThreadFactory(
+        BuckEventBus.class.getSimpleName(),
+        GlobalStateManager.singleton().getThreadToCommandRegister());
   }
 
   private void dispatch(BuckEvent event) {
+    if (perListenerDispatcher != null) {
+      perListenerDispatcher.post(event);
+      return;
+    }
+
     // keep track the number of active tasks so we can do proper shutdown
     synchronized (lock) {
       activeTasks++;
@@ -124,12 +162,20 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    if (perListenerDispatcher != null) {
+      perListenerDispatcher.register(object);
+    } else {
+      eventBus.register(object);
+    }
   }
 
   @Override
   public void unregister(Object object) {
-    eventBus.unregister(object);
+    if (perListenerDispatcher != null) {
+      perListenerDispatcher.unregister(object);
+    } else {
+      eventBus.unregister(object);
+    }
   }
 
   @Override
@@ -143,6 +189,17 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     return clock;
   }
 
+  /**
+   * @return how far each listener fell behind since the last call, if events are delivered to each
+   *     listener on a thread of its own, and an empty list otherwise
+   */
+  public ImmutableList<EventListenerDispatchStats> getAndResetListenerDispatchStats() {
+    if (perListenerDispatcher == null) {
+      return ImmutableList.of();
+    }
+    return perListenerDispatcher.getAndResetStats();
+  }
+
   /**
    * An id that every event posted to this event bus will share. For long-running processes, like
    * the daemon, the build id makes it possible to distinguish when events come from different
@@ -172,6 +229,20 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
     waitEvents(shutdownTimeoutMillis);
 
+    if (perListenerDispatcher != null) {
+      long waitTime = timeoutTime - System.currentTimeMillis();
+      if (!perListenerDispatcher.close(waitTime)) {
+        LOG.warn(
+            Joiner.on(System.lineSeparator())
+                .join(
+                    "The BuckEventBus failed to shut down within the standard timeout.",
+                    "Your build might have succeeded, but some messages were probably lost.",
+                    "Here's some debugging information:",
+                    perListenerDispatcher.toString()));
+      }
+      return;
+    }
+
     executorService.shutdown();
     try {
       long waitTime = timeoutTime - System.currentTimeMillis();
@@ -192,6 +263,9 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public boolean waitEvents(long timeout) {
+    if (perListenerDispatcher != null) {
+      return perListenerDispatcher.waitIdle(timeout);
+    }
     long startWaitTime = System.nanoTime();
     synchronized (lock) {
       while (activeTasks > 0) {
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+
+/** How far a listener of a {@link DefaultBuckEventBus} fell behind since its stats were read. */
+@BuckStyleValue
+public abstract class EventListenerDispatchStats {
+
+  /** Simple class name of the listener. */
+  public abstract String getListenerName();
+
+  /** The largest number of posted events the listener had not processed yet. */
+  public abstract long getMaxQueueDepth();
+
+  /** The longest time between posting an event and the listener starting to process it. */
+  public abstract long getMaxLagMillis();
+
+  public static EventListenerDispatchStats of(
+      String listenerName, long maxQueueDepth, long maxLagMillis) {
+    return ImmutableEventListenerDispatchStats.of(listenerName, maxQueueDepth, maxLagMillis);
+  }
+}
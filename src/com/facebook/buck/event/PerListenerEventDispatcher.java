@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.util.Threads;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Delivers events to each listener on a thread of its own, so that a slow listener holds up neither
+ * the other listeners nor the threads posting events.
+ *
+ * <p>Posted events are appended to a log shared by all listeners. The log is a linked list of
+ * fixed-size segments: posting claims a slot with an atomic increment, and never takes a lock or
+ * waits for a listener. The thread of each listener reads the log in order with a cursor of its own
+ * and hands the events it subscribes to over to the listener in batches. So every listener sees
+ * events in the order they were posted, including events posted by other listeners while they
+ * handle earlier ones. Segments which every cursor has passed are garbage collected.
+ */
+final class PerListenerEventDispatcher {
+
+  private static final int SEGMENT_SIZE = 1024;
+
+  /**
+   * Listener threads are only woken up for events they subscribe to. They catch up with the other
+   * events at least this often so that the log does not grow behind them.
+   */
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final ThreadFactory threadFactory;
+  private final AtomicReference<Segment> tail = new AtomicReference<>(new Segment(0));
+  private final AtomicInteger idleWaiters = new AtomicInteger();
+  private final Object idleLock = new Object();
+
+  /** Replaced on every change, so that posting can read it without a lock. */
+  private volatile ImmutableList<ListenerThread> listeners = ImmutableList.of();
+
+  @GuardedBy("this")
+  private boolean closed = false;
+
+  PerListenerEventDispatcher(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  void post(BuckEvent event) {
+    long postedNanos = System.nanoTime();
+    Segment segment;
+    int index;
+    while (true) {
+      segment = tail.get();
+      index = segment.claimed.getAndIncrement();
+      if (index < SEGMENT_SIZE) {
+        break;
+      }
+      tail.compareAndSet(segment, segment.getOrCreateNext());
+    }
+    segment.postedNanos[index] = postedNanos;
+    segment.events.set(index, event);
+
+    long position = segment.base + index;
+    boolean wakeAll = idleWaiters.get() > 0;
+    Class<?> eventClass = event.getClass();
+    for (ListenerThread listener : listeners) {
+      if (listener.parked
+          && (wakeAll || listener.position == position || listener.accepts(eventClass))) {
+        LockSupport.unpark(listener.thread);
+      }
+    }
+  }
+
+  /** @return the number of events posted so far, including those still being appended. */
+  private long getPostedCount() {
+    Segment segment = getLastSegment();
+    return segment.base + Math.min(segment.claimed.get(), SEGMENT_SIZE);
+  }
+
+  private Segment getLastSegment() {
+    Segment segment = tail.get();
+    for (Segment next = segment.next.get(); next != null; next = segment.next.get()) {
+      segment = next;
+    }
+    return segment;
+  }
+
+  synchronized void register(Object listener) {
+    if (closed) {
+      return;
+    }
+    for (ListenerThread registered : listeners) {
+      if (registered.listener == listener) {
+        return;
+      }
+    }
+    ImmutableSet<Class<?>> subscribedTypes = getSubscribedTypes(listener.getClass());
+    if (subscribedTypes.isEmpty()) {
+      return;
+    }
+    ListenerThread listenerThread = new ListenerThread(listener, subscribedTypes);
+    listeners =
+        ImmutableList.<ListenerThread>builder().addAll(listeners).add(listenerThread).build();
+    listenerThread.thread.start();
+  }
+
+  synchronized void unregister(Object listener) {
+    for (ListenerThread registered : listeners) {
+      if (registered.listener == listener) {
+        remove(registered);
+        registered.stop();
+        return;
+      }
+    }
+    throw new IllegalArgumentException(
+        "missing event subscriber for an annotated method. Is " + listener + " registered?");
+  }
+
+  private synchronized void remove(ListenerThread listenerThread) {
+    ImmutableList.Builder<ListenerThread> remaining = ImmutableList.builder();
+    for (ListenerThread registered : listeners) {
+      if (registered != listenerThread) {
+        remaining.add(registered);
+      }
+    }
+    listeners = remaining.build();
+  }
+
+  /**
+   * Waits until every listener has processed all events posted so far, and those it posted while
+   * doing so.
+   *
+   * @param timeoutMillis time to wait, or 0 to wait indefinitely
+   * @return whether all events were processed before the timeout
+   */
+  boolean waitIdle(long timeoutMillis) {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    idleWaiters.incrementAndGet();
+    try {
+      // Let listeners catch up with the events they were not woken up for.
+      for (ListenerThread listener : listeners) {
+        LockSupport.unpark(listener.thread);
+      }
+      synchronized (idleLock) {
+        while (!isIdle()) {
+          long waitMillis = 0;
+          if (timeoutMillis > 0) {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+              return false;
+            }
+            waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+          }
+          try {
+            idleLock.wait(waitMillis);
+          } catch (InterruptedException e) {
+            Threads.interruptCurrentThread();
+            return isIdle();
+          }
+        }
+      }
+      return true;
+    } finally {
+      idleWaiters.decrementAndGet();
+    }
+  }
+
+  private boolean isIdle() {
+    long postedCount = getPostedCount();
+    for (ListenerThread listener : listeners) {
+      if (listener.position < postedCount) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stops all listener threads. Events which were not processed yet are dropped, and events posted
+   * afterwards are not delivered.
+   *
+   * @return whether all listener threads finished within the timeout
+   */
+  boolean close(long timeoutMillis) {
+    ImmutableList<ListenerThread> stopped;
+    synchronized (this) {
+      closed = true;
+      stopped = listeners;
+      listeners = ImmutableList.of();
+    }
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    for (ListenerThread listener : stopped) {
+      listener.stop();
+    }
+    boolean terminated = true;
+    for (ListenerThread listener : stopped) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+      try {
+        if (remainingMillis > 0) {
+          listener.thread.join(remainingMillis);
+        }
+      } catch (InterruptedException e) {
+        Threads.interruptCurrentThread();
+      }
+      if (listener.thread.isAlive()) {
+        listener.thread.interrupt();
+        terminated = false;
+      }
+    }
+    return terminated;
+  }
+
+  /** @return how far each listener fell behind since the last call. */
+  ImmutableList<EventListenerDispatchStats> getAndResetStats() {
+    ImmutableList.Builder<EventListenerDispatchStats> stats = ImmutableList.builder();
+    long postedCount = getPostedCount();
+    for (ListenerThread listener : listeners) {
+      stats.add(
+          EventListenerDispatchStats.of(
+              listener.name,
+              Math.max(listener.maxQueueDepth.getAndSet(0), postedCount - listener.position),
+              TimeUnit.NANOSECONDS.toMillis(listener.maxLagNanos.getAndSet(0))));
+    }
+    return stats.build();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s{postedCount=%d, listeners=%s}",
+        getClass().getSimpleName(), getPostedCount(), listeners);
+  }
+
+  /** Finds the event types a listener subscribes to in the same way as {@link EventBus} does. */
+  private static ImmutableSet<Class<?>> getSubscribedTypes(Class<?> listenerClass) {
+    ImmutableSet.Builder<Class<?>> subscribedTypes = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(listenerClass).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && !method.isSynthetic()
+            && method.getParameterCount() == 1) {
+          subscribedTypes.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return subscribedTypes.build();
+  }
+
+  private static String getName(Object listener) {
+    String name = listener.getClass().getSimpleName();
+    return name.isEmpty() ? listener.getClass().getName() : name;
+  }
+
+  private static final class Segment {
+    private final long base;
+    private final AtomicInteger claimed = new AtomicInteger();
+    private final AtomicReferenceArray<BuckEvent> events =
+        new AtomicReferenceArray<>(SEGMENT_SIZE);
+    // Written before the event is published, so visible to anyone who read the event.
+    private final long[] postedNanos = new long[SEGMENT_SIZE];
+    private final AtomicReference<Segment> next = new AtomicReference<>();
+
+    private Segment(long base) {
+      this.base = base;
+    }
+
+    private Segment getOrCreateNext() {
+      Segment existing = next.get();
+      if (existing != null) {
+        return existing;
+      }
+      Segment created = new Segment(base + SEGMENT_SIZE);
+      return next.compareAndSet(null, created) ? created : next.get();
+    }
+  }
+
+  private final class ListenerThread implements Runnable {
+    private final Object listener;
+    private final String name;
+    private final ImmutableSet<Class<?>> subscribedTypes;
+    private final ConcurrentHashMap<Class<?>, Boolean> acceptedTypes = new ConcurrentHashMap<>();
+    private final EventBus eventBus;
+    private final Thread thread;
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    // Only accessed by the listener thread.
+    private Segment segment;
+    private int index;
+
+    /** Number of events this listener has processed or skipped. */
+    private volatile long position;
+
+    private volatile boolean parked = false;
+    private volatile boolean stopped = false;
+
+    private ListenerThread(Object listener, ImmutableSet<Class<?>> subscribedTypes) {
+      this.listener = listener;
+      this.name = PerListenerEventDispatcher.getName(listener);
+      this.subscribedTypes = subscribedTypes;
+      this.eventBus = new EventBus("buck-build-events-" + name);
+      this.eventBus.register(listener);
+      this.segment = getLastSegment();
+      this.index = Math.min(segment.claimed.get(), SEGMENT_SIZE);
+      this.position = segment.base + index;
+      this.thread = threadFactory.newThread(this);
+      this.thread.setName(thread.getName() + "-" + name);
+      this.thread.setDaemon(true);
+    }
+
+    private boolean accepts(Class<?> eventClass) {
+      Boolean accepted = acceptedTypes.get(eventClass);
+      if (accepted == null) {
+        accepted =
+            acceptedTypes.computeIfAbsent(
+                eventClass,
+                type ->
+                    subscribedTypes.stream()
+                        .anyMatch(subscribedType -> subscribedType.isAssignableFrom(type)));
+      }
+      return accepted;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          BuckEvent event = peek();
+          if (event == null) {
+            awaitEvents();
+            continue;
+          }
+          if (accepts(event.getClass())) {
+            long lagNanos = System.nanoTime() - segment.postedNanos[index];
+            if (lagNanos > maxLagNanos.get()) {
+              maxLagNanos.set(lagNanos);
+            }
+            eventBus.post(event);
+          }
+          index++;
+          position = segment.base + index;
+        }
+      } finally {
+        remove(this);
+        notifyIdleWaiters();
+      }
+    }
+
+    /** @return the next event in the log, or null if it has not been published yet. */
+    @Nullable
+    private BuckEvent peek() {
+      if (index == SEGMENT_SIZE) {
+        Segment next = segment.next.get();
+        if (next == null) {
+          return null;
+        }
+        segment = next;
+        index = 0;
+        recordQueueDepth();
+      }
+      return segment.events.get(index);
+    }
+
+    private void awaitEvents() {
+      notifyIdleWaiters();
+      parked = true;
+      if (!stopped && peek() == null) {
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+      }
+      parked = false;
+      recordQueueDepth();
+    }
+
+    private void notifyIdleWaiters() {
+      if (idleWaiters.get() > 0) {
+        synchronized (idleLock) {
+          idleLock.notifyAll();
+        }
+      }
+    }
+
+    private void recordQueueDepth() {
+      long queueDepth = getPostedCount() - position;
+      if (queueDepth > maxQueueDepth.get()) {
+        maxQueueDepth.set(queueDepth);
+      }
+    }
+
+    private void stop() {
+      stopped = true;
+      LockSupport.unpark(thread);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s{position=%d}", name, position);
+    }
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.trace.BinaryTraceFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Writes Chrome trace events in the binary trace format described in {@link BinaryTraceFormat}.
+ *
+ * <p>Events are encoded into a buffer which is allocated once and written out whenever it fills
+ * up. Strings are written once and referred to by index afterwards, so writing an event whose
+ * strings were seen before allocates nothing beyond iterating its arguments.
+ *
+ * <p>Not thread safe.
+ */
+public class BinaryChromeTraceWriter implements TraceEventWriter {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Longest encoding of a varint or a double, and of a character in UTF-8. */
+  private static final int MAX_PRIMITIVE_SIZE = 10;
+
+  private final OutputStream traceStream;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+  private final Map<String, Integer> stringIndices = new HashMap<>();
+  private long previousMicroTime = 0;
+  private long previousMicroThreadUserTime = 0;
+
+  public BinaryChromeTraceWriter(OutputStream traceStream) {
+    this.traceStream = traceStream;
+  }
+
+  @Override
+  public void writeStart() throws IOException {
+    for (byte b : BinaryTraceFormat.getMagic()) {
+      writeByte(b);
+    }
+    writeByte(BinaryTraceFormat.VERSION);
+  }
+
+  @Override
+  public void writeEvent(ChromeTraceEvent chromeTraceEvent) throws IOException {
+    writeByte(BinaryTraceFormat.EVENT_RECORD);
+    writeByte(chromeTraceEvent.getPhase().getPhase().charAt(0));
+    writeString(chromeTraceEvent.getCategory());
+    writeString(chromeTraceEvent.getName());
+    writeVarLong(chromeTraceEvent.getProcessId());
+    writeVarLong(chromeTraceEvent.getThreadId());
+    writeZigZagLong(chromeTraceEvent.getMicroTime() - previousMicroTime);
+    writeZigZagLong(chromeTraceEvent.getMicroThreadUserTime() - previousMicroThreadUserTime);
+    previousMicroTime = chromeTraceEvent.getMicroTime();
+    previousMicroThreadUserTime = chromeTraceEvent.getMicroThreadUserTime();
+
+    Map<String, ?> args = chromeTraceEvent.getArgs();
+    if (args == null) {
+      writeVarLong(0);
+    } else {
+      writeVarLong(args.size() + 1);
+      writeMapEntries(args);
+    }
+  }
+
+  private void writeMapEntries(Map<?, ?> map) throws IOException {
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeString(String.valueOf(entry.getKey()));
+      writeValue(entry.getValue());
+    }
+  }
+
+  /**
+   * Writes the types that show up in trace event arguments. Anything else is written the way
+   * {@link ChromeTraceWriter} would serialize it.
+   */
+  private void writeValue(@Nullable Object value) throws IOException {
+    if (value instanceof Optional) {
+      value = ((Optional<?>) value).orElse(null);
+    }
+    if (value == null) {
+      writeByte(BinaryTraceFormat.VALUE_NULL);
+    } else if (value instanceof Boolean) {
+      writeByte((Boolean) value ? BinaryTraceFormat.VALUE_TRUE : BinaryTraceFormat.VALUE_FALSE);
+    } else if (value instanceof Long
+        || value instanceof Integer
+        || value instanceof Short
+        || value instanceof Byte) {
+      writeByte(BinaryTraceFormat.VALUE_LONG);
+      writeZigZagLong(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      writeByte(BinaryTraceFormat.VALUE_DOUBLE);
+      ensureCapacity(Long.BYTES);
+      long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[position++] = (byte) (bits >>> shift);
+      }
+    } else if (value instanceof Iterable) {
+      Iterable<?> iterable = (Iterable<?>) value;
+      int size = 0;
+      for (@SuppressWarnings("unused") Object element : iterable) {
+        size++;
+      }
+      writeByte(BinaryTraceFormat.VALUE_LIST);
+      writeVarLong(size);
+      for (Object element : iterable) {
+        writeValue(element);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      writeByte(BinaryTraceFormat.VALUE_MAP);
+      writeVarLong(map.size());
+      writeMapEntries(map);
+    } else if (value instanceof CharSequence || value instanceof Character) {
+      writeByte(BinaryTraceFormat.VALUE_STRING);
+      writeString(value.toString());
+    } else {
+      // Rare in practice: let Jackson turn it into the strings, numbers, lists and maps it would
+      // write for the JSON format.
+      writeValue(
+          ObjectMappers.READER
+              .forType(Object.class)
+              .readValue(ObjectMappers.WRITER.writeValueAsBytes(value)));
+    }
+  }
+
+  private void writeString(@Nullable String string) throws IOException {
+    if (string == null) {
+      writeVarLong(BinaryTraceFormat.NULL_STRING);
+      return;
+    }
+    Integer index = stringIndices.get(string);
+    if (index != null) {
+      writeVarLong(index + BinaryTraceFormat.FIRST_STRING_INDEX);
+      return;
+    }
+    stringIndices.put(string, stringIndices.size());
+    writeVarLong(BinaryTraceFormat.NEW_STRING);
+    writeVarLong(getUtf8Length(string));
+    for (int i = 0; i < string.length(); i++) {
+      ensureCapacity(MAX_PRIMITIVE_SIZE);
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >>> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < string.length()
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, string.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >>> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced, as String.getBytes(UTF_8) does.
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >>> 12));
+        buffer[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private static int getUtf8Length(String string) {
+    int length = 0;
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < string.length()
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private void writeZigZagLong(long value) throws IOException {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    ensureCapacity(MAX_PRIMITIVE_SIZE);
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeByte(int value) throws IOException {
+    ensureCapacity(1);
+    buffer[position++] = (byte) value;
+  }
+
+  private void ensureCapacity(int size) throws IOException {
+    if (position + size > buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    traceStream.write(buffer, 0, position);
+    position = 0;
+  }
+
+  @Override
+  public void writeEnd() throws IOException {
+    writeByte(BinaryTraceFormat.END_RECORD);
+    flushBuffer();
+    traceStream.flush();
+  }
+
+  /** Writes out any buffered events and closes the underlying stream. */
+  @Override
+  public void close() throws IOException {
+    flushBuffer();
+    traceStream.close();
+  }
+}
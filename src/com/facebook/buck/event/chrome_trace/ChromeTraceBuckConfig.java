@@ -55,6 +55,14 @@ public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getBooleanValue(LOG_SECTION, "compress_traces", false);
   }
 
+  /**
+   * Whether to write traces in the binary format of {@link
+   * com.facebook.buck.util.trace.BinaryTraceFormat} rather than as JSON.
+   */
+  public boolean getBinaryTraces() {
+    return delegate.getBooleanValue(LOG_SECTION, "binary_traces", false);
+  }
+
   /** Get URL to upload trace if the config is enabled. */
   public Optional<URI> getTraceUploadUriIfEnabled() {
     if (!getShouldUploadBuildTraces()) {
@@ -41,10 +41,12 @@ import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.event.StartActivityEvent;
 import com.facebook.buck.event.UninstallEvent;
 import com.facebook.buck.event.WatchmanStatusEvent;
+import com.facebook.buck.event.chrome_trace.BinaryChromeTraceWriter;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
 import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
+import com.facebook.buck.event.chrome_trace.TraceEventWriter;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.AnnotationProcessingEvent;
 import com.facebook.buck.jvm.java.tracing.JavacPhaseEvent;
@@ -121,7 +123,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
   private final OutputStream traceStream;
-  private final ChromeTraceWriter chromeTraceWriter;
+  private final TraceEventWriter chromeTraceWriter;
   private final Path logDirectoryPath;
   private final ChromeTraceBuckConfig config;
   private final Set<Long> threadNamesRecorded = new HashSet<>();
@@ -195,7 +197,10 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo.getBuildId());
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
-    this.chromeTraceWriter = new ChromeTraceWriter(this.traceStream);
+    this.chromeTraceWriter =
+        config.getBinaryTraces()
+            ? new BinaryChromeTraceWriter(this.traceStream)
+            : new ChromeTraceWriter(this.traceStream);
     this.chromeTraceWriter.writeStart();
     addProcessMetadataEvent(invocationInfo);
     addProjectFilesystemDelegateMetadataEvent(projectFilesystem);
@@ -232,7 +237,10 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   private TracePathAndStream createPathAndStream(BuildId buildId) {
     String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
-    String traceName = String.format("build.%s.%s.trace", filenameTime, buildId);
+    String traceName =
+        String.format(
+            "build.%s.%s.%s",
+            filenameTime, buildId, config.getBinaryTraces() ? "btrace" : "trace");
     if (config.getCompressTraces()) {
       traceName = traceName + ".gz";
     }
@@ -20,7 +20,7 @@ import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
-import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
+import com.facebook.buck.event.chrome_trace.TraceEventWriter;
 import com.facebook.buck.io.file.PathListing;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.support.bgtasks.TaskAction;
@@ -52,7 +52,7 @@ class ChromeTraceBuildListenerCloseAction
 
     public abstract Path getTracePath();
 
-    public abstract ChromeTraceWriter getChromeTraceWriter();
+    public abstract TraceEventWriter getChromeTraceWriter();
 
     public abstract OutputStream getTraceStream();
 
@@ -75,6 +75,10 @@ class ChromeTraceBuildListenerCloseAction
     if (!traceUploadUri.isPresent()) {
       return;
     }
+    if (config.getBinaryTraces()) {
+      LOG.debug("Not uploading binary trace %s", tracePath);
+      return;
+    }
 
     Path fullPath = projectFilesystem.resolve(tracePath);
     Path logFile = projectFilesystem.resolve(logDirectoryPath.resolve("upload-build-trace.log"));
@@ -96,7 +100,7 @@ class ChromeTraceBuildListenerCloseAction
       for (Path path :
           PathListing.listMatchingPathsWithFilters(
               traceDirectory,
-              "build.*.trace",
+              "build.*.{trace,btrace}",
               PathListing.GET_PATH_MODIFIED_TIME,
               PathListing.FilterMode.EXCLUDE,
               OptionalInt.of(config.getMaxTraces()),
@@ -131,7 +135,10 @@ class ChromeTraceBuildListenerCloseAction
         args.getTracePath(),
         args.getLogDirectoryPath());
 
-    String symlinkName = args.getConfig().getCompressTraces() ? "build.trace.gz" : "build.trace";
+    String symlinkName = args.getConfig().getBinaryTraces() ? "build.btrace" : "build.trace";
+    if (args.getConfig().getCompressTraces()) {
+      symlinkName += ".gz";
+    }
     Path symlinkPath = args.getProjectFilesystem().getBuckPaths().getLogDir().resolve(symlinkName);
     args.getProjectFilesystem()
         .createSymLink(
@@ -35,7 +35,7 @@ import org.eclipse.jetty.server.Request;
 public class TracesHandlerDelegate implements TemplateHandlerDelegate {
 
   private static final Pattern TRACE_FILE_NAME_PATTERN =
-      Pattern.compile("build\\.(?:[\\d\\-\\.]+\\.)?" + BuildTraces.TRACE_ID_PATTERN + "\\.trace");
+      Pattern.compile("build\\.(?:[\\d\\-\\.]+\\.)?" + BuildTraces.TRACE_ID_PATTERN + "\\.b?trace");
 
   private final BuildTraces buildTraces;
 
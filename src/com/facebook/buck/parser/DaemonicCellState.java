@@ -24,6 +24,7 @@ import com.facebook.buck.core.model.UnconfiguredBuildTarget;
 import com.facebook.buck.core.model.UnflavoredBuildTarget;
 import com.facebook.buck.core.model.targetgraph.TargetNodeMaybeIncompatible;
 import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
+import com.facebook.buck.core.path.ForwardRelativePath;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.parser.api.BuildFileManifest;
 import com.facebook.buck.parser.api.PackageFileManifest;
@@ -83,9 +84,21 @@ class DaemonicCellState {
 
     private void invalidateFor(UnflavoredBuildTarget target) {
       Set<K> keys = targetsCornucopia.removeAll(target);
+      for (K key : keys) {
+        T node = allComputedNodes.getIfPresent(key);
+        if (node != null) {
+          onNodeInvalidated(node);
+        }
+      }
       allComputedNodes.invalidateAll(keys);
     }
 
+    /** Called with {@link #cachesLock} held for writing when a node was added to the cache. */
+    void onNodeAdded(T node) {}
+
+    /** Called with {@link #cachesLock} held for writing when a node is removed from the cache. */
+    void onNodeInvalidated(T node) {}
+
     public Optional<T> lookupComputedNode(K target) throws BuildTargetException {
       try (AutoCloseableLock readLock = cachesLock.readLock()) {
         return Optional.ofNullable(allComputedNodes.getIfPresent(target));
@@ -101,6 +114,7 @@ class DaemonicCellState {
             target);
         if (updatedNode.equals(targetNode)) {
           targetsCornucopia.put(type.keyToUnflavoredBuildTargetView.apply(target), target);
+          onNodeAdded(updatedNode);
         }
         return updatedNode;
       }
@@ -156,6 +170,17 @@ class DaemonicCellState {
   @GuardedBy("cachesLock")
   private final Set<UnflavoredBuildTarget> allRawNodeTargets;
 
+  /** Owners of the inputs of the nodes in {@link #targetNodeCache}, kept up to date with it. */
+  @GuardedBy("cachesLock")
+  private final FileOwnerIndex fileOwnerIndex = new FileOwnerIndex();
+
+  /** Reverse dependencies of the nodes of every cell of the daemon, shared with the other cells. */
+  private final ReverseDepsIndex reverseDepsIndex;
+
+  /** Set once this state is dropped by the daemon, after which its nodes are no longer indexed. */
+  @GuardedBy("cachesLock")
+  private boolean dropped = false;
+
   /** Type-safe accessor to one of state caches */
   static class CellCacheType<K, T> {
     private final Function<DaemonicCellState, Cache<K, T>> getCache;
@@ -200,8 +225,9 @@ class DaemonicCellState {
   private final AutoCloseableReadWriteUpdateLock cachesLock;
   private final int parsingThreads;
 
-  DaemonicCellState(Cell cell, int parsingThreads) {
+  DaemonicCellState(Cell cell, int parsingThreads, ReverseDepsIndex reverseDepsIndex) {
     this.cell = new AtomicReference<>(cell);
+    this.reverseDepsIndex = reverseDepsIndex;
     this.parsingThreads = parsingThreads;
     this.cellRoot = cell.getRoot();
     this.cellCanonicalName = cell.getCanonicalName();
@@ -212,7 +238,22 @@ class DaemonicCellState {
     this.allPackageFileManifests = new ConcurrentMapCache<>(parsingThreads);
     this.allRawNodeTargets = new HashSet<>();
     this.cachesLock = new AutoCloseableReadWriteUpdateLock();
-    this.targetNodeCache = new Cache<>(TARGET_NODE_CACHE_TYPE);
+    this.targetNodeCache =
+        new Cache<BuildTarget, TargetNodeMaybeIncompatible>(TARGET_NODE_CACHE_TYPE) {
+          @Override
+          void onNodeAdded(TargetNodeMaybeIncompatible node) {
+            node.getTargetNodeOptional().ifPresent(fileOwnerIndex::add);
+            if (!dropped) {
+              node.getTargetNodeOptional().ifPresent(reverseDepsIndex::add);
+            }
+          }
+
+          @Override
+          void onNodeInvalidated(TargetNodeMaybeIncompatible node) {
+            node.getTargetNodeOptional().ifPresent(fileOwnerIndex::remove);
+            node.getTargetNodeOptional().ifPresent(reverseDepsIndex::remove);
+          }
+        };
     this.rawTargetNodeCache = new Cache<>(RAW_TARGET_NODE_CACHE_TYPE);
   }
 
@@ -229,6 +270,16 @@ class DaemonicCellState {
     return type.getCache.apply(this);
   }
 
+  /**
+   * @return the targets of the cached target nodes which have {@code file}, or a directory
+   *     containing it, as an input
+   */
+  ImmutableSet<BuildTarget> getCachedOwners(ForwardRelativePath file) {
+    try (AutoCloseableLock readLock = cachesLock.readLock()) {
+      return fileOwnerIndex.getOwners(file);
+    }
+  }
+
   Optional<BuildFileManifest> lookupBuildFileManifest(AbsPath buildFile) {
     try (AutoCloseableLock readLock = cachesLock.readLock()) {
       return Optional.ofNullable(allBuildFileManifests.getIfPresent(buildFile));
@@ -286,6 +337,26 @@ class DaemonicCellState {
     }
   }
 
+  /** Copies the build and package file manifests of this cell into the given maps. */
+  void copyManifestsTo(
+      Map<AbsPath, BuildFileManifest> buildFileManifests,
+      Map<AbsPath, PackageFileManifest> packageFileManifests) {
+    try (AutoCloseableLock readLock = cachesLock.readLock()) {
+      for (AbsPath buildFile : allBuildFileManifests.keySet()) {
+        BuildFileManifest manifest = allBuildFileManifests.getIfPresent(buildFile);
+        if (manifest != null) {
+          buildFileManifests.put(buildFile, manifest);
+        }
+      }
+      for (AbsPath packageFile : allPackageFileManifests.keySet()) {
+        PackageFileManifest manifest = allPackageFileManifests.getIfPresent(packageFile);
+        if (manifest != null) {
+          packageFileManifests.put(packageFile, manifest);
+        }
+      }
+    }
+  }
+
   /**
    * Invalidates all target nodes defined in {@param path}. Optionally also invalidates the build
    * targets {@link UnflavoredBuildTarget} depending on {@param invalidateBuildTargets}.
@@ -384,6 +455,41 @@ class DaemonicCellState {
     }
   }
 
+  /**
+   * Removes the nodes of this state from the reverse dependencies index shared with the other
+   * cells, and stops adding them, as the daemon no longer uses this state.
+   */
+  void drop() {
+    try (AutoCloseableLock writeLock = cachesLock.writeLock()) {
+      dropped = true;
+      for (TargetNodeMaybeIncompatible node : targetNodeCache.allComputedNodes.values()) {
+        node.getTargetNodeOptional().ifPresent(reverseDepsIndex::remove);
+      }
+    }
+  }
+
+  /** @return the build and package files whose parsing depended on environment variables. */
+  ImmutableSet<AbsPath> getFilesParsedWithEnv() {
+    try (AutoCloseableLock readLock = cachesLock.readLock()) {
+      return buildFileEnv.entrySet().stream()
+          .filter(entry -> !entry.getValue().isEmpty())
+          .map(Map.Entry::getKey)
+          .collect(ImmutableSet.toImmutableSet());
+    }
+  }
+
+  /**
+   * @return whether any content cached for this cell was parsed from, or depends on, {@code path}.
+   */
+  boolean isCachedContentBasedOn(AbsPath path) {
+    try (AutoCloseableLock readLock = cachesLock.readLock()) {
+      return allBuildFileManifests.getIfPresent(path) != null
+          || allPackageFileManifests.getIfPresent(path) != null
+          || buildFileDependents.containsKey(path)
+          || packageFileDependents.containsKey(path);
+    }
+  }
+
   Optional<MapDifference<String, String>> invalidateIfEnvHasChanged(Cell cell, AbsPath buildFile) {
     // Invalidate if env vars have changed.
     ImmutableMap<String, Optional<String>> usedEnv;
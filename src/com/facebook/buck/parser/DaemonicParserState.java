@@ -25,8 +25,10 @@ import com.facebook.buck.core.model.BuildFileTree;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.UnconfiguredBuildTarget;
 import com.facebook.buck.core.model.impl.FilesystemBackedBuildFileTree;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
 import com.facebook.buck.core.model.targetgraph.TargetNodeMaybeIncompatible;
 import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
+import com.facebook.buck.core.path.ForwardRelativePath;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.counters.Counter;
 import com.facebook.buck.counters.IntegerCounter;
@@ -41,6 +43,8 @@ import com.facebook.buck.parser.api.PackageFileManifest;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
+import com.facebook.buck.query.QueryResultStore;
+import com.facebook.buck.skylark.io.impl.GlobResultCache;
 import com.facebook.buck.util.concurrent.AutoCloseableLock;
 import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
 import com.google.common.annotations.VisibleForTesting;
@@ -55,9 +59,11 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
@@ -65,6 +71,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -181,6 +188,11 @@ public class DaemonicParserState {
     public Optional<BuildFileManifest> lookupComputedNode(
         Cell cell, AbsPath buildFile, BuckEventBus eventBus) throws BuildTargetException {
       invalidateIfProjectBuildFileParserStateChanged(cell);
+      Optional<BuildFileManifest> restored =
+          restoredState.takeBuildFileManifest(cell.getRoot(), buildFile);
+      if (restored.isPresent()) {
+        putComputedNodeIfNotPresent(cell, buildFile, restored.get(), false, eventBus);
+      }
       invalidateIfBuckConfigOrEnvHasChanged(cell, buildFile, eventBus);
 
       DaemonicCellState state = getCellState(cell);
@@ -226,12 +238,17 @@ public class DaemonicParserState {
         dependentsOfEveryNode.add(packageFile).addAll(parentPackageFiles);
       }
 
-      return getOrCreateCellState(cell)
-          .putBuildFileManifestIfNotPresent(
-              buildFile,
-              manifest,
-              dependentsOfEveryNode.build(),
-              manifest.getEnv().orElse(ImmutableMap.of()));
+      BuildFileManifest updated =
+          getOrCreateCellState(cell)
+              .putBuildFileManifestIfNotPresent(
+                  buildFile,
+                  manifest,
+                  dependentsOfEveryNode.build(),
+                  manifest.getEnv().orElse(ImmutableMap.of()));
+      if (updated == manifest) {
+        manifestsAdded.incrementAndGet();
+      }
+      return updated;
     }
   }
 
@@ -243,6 +260,11 @@ public class DaemonicParserState {
     public Optional<PackageFileManifest> lookupComputedNode(
         Cell cell, AbsPath packageFile, BuckEventBus eventBus) throws BuildTargetException {
       invalidateIfProjectBuildFileParserStateChanged(cell);
+      Optional<PackageFileManifest> restored =
+          restoredState.takePackageFileManifest(cell.getRoot(), packageFile);
+      if (restored.isPresent()) {
+        putComputedNodeIfNotPresent(cell, packageFile, restored.get(), false, eventBus);
+      }
       invalidateIfBuckConfigOrEnvHasChanged(cell, packageFile, eventBus);
 
       DaemonicCellState state = getCellState(cell);
@@ -269,12 +291,17 @@ public class DaemonicParserState {
 
       addAllIncludes(packageDependents, manifest.getIncludes(), cell);
 
-      return getOrCreateCellState(cell)
-          .putPackageFileManifestIfNotPresent(
-              packageFile,
-              manifest,
-              packageDependents.build(),
-              manifest.getEnv().orElse(ImmutableMap.of()));
+      PackageFileManifest updated =
+          getOrCreateCellState(cell)
+              .putPackageFileManifestIfNotPresent(
+                  packageFile,
+                  manifest,
+                  packageDependents.build(),
+                  manifest.getEnv().orElse(ImmutableMap.of()));
+      if (updated == manifest) {
+        manifestsAdded.incrementAndGet();
+      }
+      return updated;
     }
   }
 
@@ -369,6 +396,24 @@ public class DaemonicParserState {
   private final AutoCloseableReadWriteLock cachedStateLock;
   private final AutoCloseableReadWriteLock cellStateLock;
 
+  /** Manifests restored from a snapshot taken by an earlier daemon, which were not used yet. */
+  private final RestoredParserState restoredState = new RestoredParserState();
+
+  /** The number of manifests added to the caches, to tell whether a new snapshot has new data. */
+  private final AtomicLong manifestsAdded = new AtomicLong();
+
+  /**
+   * Watchman glob results, which outlive the parse caches: they only depend on the files present,
+   * not on the configuration or the environment.
+   */
+  private final GlobResultCache globResultCache = new GlobResultCache();
+
+  /** Reverse dependencies of the target nodes cached for all cells. */
+  private final ReverseDepsIndex reverseDepsIndex = new ReverseDepsIndex();
+
+  /** Query results, which are dropped whenever the cached state they were computed from changes. */
+  private final QueryResultStore queryResultStore = new QueryResultStore();
+
   public DaemonicParserState(int parsingThreads) {
     this.parsingThreads = parsingThreads;
     this.cacheInvalidatedByEnvironmentVariableChangeCounter =
@@ -419,6 +464,73 @@ public class DaemonicParserState {
     return buildFileTrees;
   }
 
+  /**
+   * Finds which of the given target nodes of a cell own a file, using an index of the inputs of the
+   * cached target nodes instead of going through the inputs of every node.
+   *
+   * @return the nodes which have {@code file}, or a directory containing it, as an input, or
+   *     nothing if some of the nodes are not cached, as the index does not know about those
+   */
+  public Optional<ImmutableSet<TargetNode<?>>> getOwnersAmongCachedNodes(
+      Cell cell, Iterable<TargetNode<?>> targetNodes, ForwardRelativePath file) {
+    DaemonicCellState cellState = getCellState(cell);
+    if (cellState == null) {
+      return Optional.empty();
+    }
+    DaemonicCellState.Cache<BuildTarget, TargetNodeMaybeIncompatible> cache =
+        cellState.getCache(DaemonicCellState.TARGET_NODE_CACHE_TYPE);
+    for (TargetNode<?> targetNode : targetNodes) {
+      if (!cache.lookupComputedNode(targetNode.getBuildTarget()).isPresent()) {
+        return Optional.empty();
+      }
+    }
+    ImmutableSet<BuildTarget> owners = cellState.getCachedOwners(file);
+    ImmutableSet.Builder<TargetNode<?>> result = ImmutableSet.builder();
+    for (TargetNode<?> targetNode : targetNodes) {
+      if (owners.contains(targetNode.getBuildTarget())) {
+        result.add(targetNode);
+      }
+    }
+    return Optional.of(result.build());
+  }
+
+  /**
+   * Finds the reverse dependencies of {@code targets} within the transitive closure of {@code
+   * universe} among the cached target nodes, as {@code rdeps()} does, without looking the nodes up
+   * one by one.
+   *
+   * @return nothing if some targets in the closure of {@code universe} are not cached, or are
+   *     cached as incompatible, in which case the nodes need to be looked up
+   */
+  public Optional<ReverseDepsIndex.ReverseDeps> getCachedReverseDeps(
+      Iterable<Cell> cells,
+      BuckEventBus eventBus,
+      Set<BuildTarget> universe,
+      Set<BuildTarget> targets,
+      int maxDepth) {
+    // Invalidate what looking the nodes up one by one would.
+    for (Cell cell : cells) {
+      invalidateIfProjectBuildFileParserStateChanged(cell);
+      DaemonicCellState cellState = getCellState(cell);
+      if (cellState != null) {
+        for (AbsPath file : cellState.getFilesParsedWithEnv()) {
+          invalidateIfBuckConfigOrEnvHasChanged(cell, file, eventBus);
+        }
+      }
+    }
+    return reverseDepsIndex.getReverseDepsWithinUniverse(universe, targets, maxDepth);
+  }
+
+  /** @return the glob results kept for build files parsed by this daemon. */
+  public GlobResultCache getGlobResultCache() {
+    return globResultCache;
+  }
+
+  /** @return the query results kept for the commands run by this daemon. */
+  public QueryResultStore getQueryResultStore() {
+    return queryResultStore;
+  }
+
   /** Type-safe accessor to one of state caches */
   static final class CacheType<K, T> {
     private final Function<DaemonicParserState, DaemonicCacheView<K, T>> getCacheView;
@@ -467,7 +579,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
       if (state == null) {
-        state = new DaemonicCellState(cell, parsingThreads);
+        state = new DaemonicCellState(cell, parsingThreads, reverseDepsIndex);
         cellPathToDaemonicState.put(cell.getRoot(), state);
       }
       return state;
@@ -479,6 +591,8 @@ public class DaemonicParserState {
     // Non-path change event, likely an overflow due to many change events: invalidate everything.
     LOG.debug("Received non-path change event %s, assuming overflow and checking caches.", event);
 
+    globResultCache.invalidateAll();
+
     if (invalidateAllCaches()) {
       LOG.warn("Invalidated cache on watch event %s.", event);
       cacheInvalidatedByWatchOverflowCounter.inc();
@@ -493,10 +607,12 @@ public class DaemonicParserState {
 
     RelPath path = event.getPath();
     AbsPath fullPath = event.getCellPath().resolve(event.getPath());
+    restoredState.invalidatePath(fullPath, isPathCreateOrDeleteEvent(event));
 
     // We only care about creation and deletion events because modified should result in a
     // rule key change.  For parsing, these are the only events we need to care about.
     if (isPathCreateOrDeleteEvent(event)) {
+      globResultCache.invalidateForPath(fullPath);
       try (AutoCloseableLock readLock = cellStateLock.readLock()) {
         for (DaemonicCellState state : cellPathToDaemonicState.values()) {
           try {
@@ -538,6 +654,12 @@ public class DaemonicParserState {
     } else {
       invalidatePath(fullPath);
     }
+
+    if (isPathCreateOrDeleteEvent(event)) {
+      // Added or removed files can change the result of a query even when no cached build file
+      // depends on them, e.g. through the packages found by `//...` or through `owner()`.
+      queryResultStore.invalidateAll();
+    }
   }
 
   /**
@@ -630,8 +752,12 @@ public class DaemonicParserState {
 
     // Paths passed in may not be absolute.
     path = state.getCellRoot().resolve(path.getPath());
+    boolean parsedFromPath = state.isCachedContentBasedOn(path);
     int invalidatedNodes = state.invalidatePath(path);
     rulesInvalidatedByWatchEventsCounter.inc(invalidatedNodes);
+    if (parsedFromPath) {
+      queryResultStore.invalidateAll();
+    }
   }
 
   public static boolean isPathCreateOrDeleteEvent(WatchmanPathEvent event) {
@@ -667,6 +793,7 @@ public class DaemonicParserState {
         environmentChanges.addAll(diff.entriesOnlyOnRight().keySet());
         environmentChanges.addAll(diff.entriesDiffering().keySet());
         cacheInvalidatedByEnvironmentVariableChangeCounter.addAll(environmentChanges);
+        queryResultStore.invalidateAll();
         eventBus.post(ParsingEvent.environmentalChange(environmentChanges.toString()));
       }
 
@@ -696,6 +823,10 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cachedStateLock.writeLock()) {
       cachedIncludes.put(cell.getRoot(), defaultIncludes);
     }
+    if (expected != null) {
+      // Restored manifests are only valid for the includes the daemon started with.
+      restoredState.invalidateCell(cell.getRoot());
+    }
     if (invalidateCellCaches(cell)) {
       LOG.warn(
           "Invalidating cache on default includes change (%s != %s)", expected, defaultIncludes);
@@ -707,9 +838,11 @@ public class DaemonicParserState {
   public boolean invalidateCellCaches(Cell cell) {
     LOG.debug("Starting to invalidate caches for %s..", cell.getRoot());
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
-      boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
-      cellPathToDaemonicState.remove(cell.getRoot());
+      DaemonicCellState state = cellPathToDaemonicState.remove(cell.getRoot());
+      boolean invalidated = state != null;
       if (invalidated) {
+        state.drop();
+        queryResultStore.invalidateAll();
         LOG.debug("Cell cache data invalidated.");
       } else {
         LOG.debug("Cell caches were empty, no data invalidated.");
@@ -722,10 +855,13 @@ public class DaemonicParserState {
   public boolean invalidateAllCaches() {
     LOG.debug("Starting to invalidate all caches..");
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
-      boolean invalidated = !cellPathToDaemonicState.isEmpty();
+      boolean invalidated = !cellPathToDaemonicState.isEmpty() || !restoredState.isEmpty();
+      cellPathToDaemonicState.values().forEach(DaemonicCellState::drop);
       cellPathToDaemonicState.clear();
+      restoredState.invalidateAll();
       buildFileTrees.invalidateAll();
       configurationBuildFiles.clear();
+      queryResultStore.invalidateAll();
       if (invalidated) {
         LOG.debug("Cache data invalidated.");
       } else {
@@ -735,6 +871,56 @@ public class DaemonicParserState {
     }
   }
 
+  /**
+   * Makes the manifests of a snapshot taken by an earlier daemon available to the parser. Each one
+   * is used the first time its file is looked up, unless a file it depends on changes before that.
+   *
+   * <p>The caller is responsible for delivering all file changes since the snapshot was taken.
+   */
+  public void restore(ParserStateSnapshot snapshot) {
+    restoredState.restore(snapshot);
+  }
+
+  /** @return whether manifests restored from a snapshot are waiting to be used. */
+  public boolean hasRestoredState() {
+    return !restoredState.isEmpty();
+  }
+
+  /**
+   * @return the number of manifests added to the caches so far. A snapshot only has new data if
+   *     this changed since the previous one was taken.
+   */
+  public long getManifestsAddedCount() {
+    return manifestsAdded.get();
+  }
+
+  /**
+   * Takes a snapshot of the build and package file manifests, including restored ones which were
+   * not used yet.
+   *
+   * @param key identifies the configuration the manifests were parsed with
+   * @param clocks the watchman clocks all file changes before which are reflected in the caches
+   */
+  public ParserStateSnapshot snapshot(String key, ImmutableMap<AbsPath, String> clocks) {
+    Map<AbsPath, Map<AbsPath, BuildFileManifest>> buildFileManifests = new HashMap<>();
+    Map<AbsPath, Map<AbsPath, PackageFileManifest>> packageFileManifests = new HashMap<>();
+    try (AutoCloseableLock readLock = cellStateLock.readLock()) {
+      restoredState.addTo(buildFileManifests, packageFileManifests);
+      for (Map.Entry<AbsPath, DaemonicCellState> entry : cellPathToDaemonicState.entrySet()) {
+        entry
+            .getValue()
+            .copyManifestsTo(
+                buildFileManifests.computeIfAbsent(entry.getKey(), root -> new HashMap<>()),
+                packageFileManifests.computeIfAbsent(entry.getKey(), root -> new HashMap<>()));
+      }
+    }
+    return new ParserStateSnapshot(
+        key,
+        clocks,
+        ImmutableMap.copyOf(Maps.transformValues(buildFileManifests, ImmutableMap::copyOf)),
+        ImmutableMap.copyOf(Maps.transformValues(packageFileManifests, ImmutableMap::copyOf)));
+  }
+
   public ImmutableList<Counter> getCounters() {
     return ImmutableList.of(
         cacheInvalidatedByEnvironmentVariableChangeCounter,
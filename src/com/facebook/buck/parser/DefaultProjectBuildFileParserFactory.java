@@ -42,6 +42,7 @@ import com.facebook.buck.parser.options.UserDefinedRulesState;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.skylark.function.SkylarkBuildModule;
 import com.facebook.buck.skylark.io.GlobberFactory;
+import com.facebook.buck.skylark.io.impl.GlobResultCache;
 import com.facebook.buck.skylark.io.impl.HybridGlobberFactory;
 import com.facebook.buck.skylark.io.impl.NativeGlobber;
 import com.facebook.buck.skylark.io.impl.SyncCookieState;
@@ -58,6 +59,8 @@ import com.google.devtools.build.lib.syntax.Runtime;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
@@ -68,6 +71,14 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final KnownRuleTypesProvider knownRuleTypesProvider;
   private final boolean enableProfiling;
   private final Optional<AtomicLong> processedBytes;
+  private final Optional<GlobResultCache> globResultCache;
+
+  /**
+   * Skylark parsers are thread safe, so the parsers created for a cell share one of them and the
+   * extensions it has evaluated, even when Python DSL parsers are pooled in polyglot mode.
+   */
+  private final ConcurrentMap<Cell, SkylarkProjectBuildFileParser> skylarkParsers =
+      new ConcurrentHashMap<>();
 
   public DefaultProjectBuildFileParserFactory(
       TypeCoercerFactory typeCoercerFactory,
@@ -75,13 +86,15 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       ParserPythonInterpreterProvider pythonInterpreterProvider,
       KnownRuleTypesProvider knownRuleTypesProvider,
       boolean enableProfiling,
-      Optional<AtomicLong> processedBytes) {
+      Optional<AtomicLong> processedBytes,
+      Optional<GlobResultCache> globResultCache) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.console = console;
     this.pythonInterpreterProvider = pythonInterpreterProvider;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
     this.enableProfiling = enableProfiling;
     this.processedBytes = processedBytes;
+    this.globResultCache = globResultCache;
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -89,14 +102,16 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       ParserPythonInterpreterProvider pythonInterpreterProvider,
       boolean enableProfiling,
       Optional<AtomicLong> processedBytes,
-      KnownRuleTypesProvider knownRuleTypesProvider) {
+      KnownRuleTypesProvider knownRuleTypesProvider,
+      Optional<GlobResultCache> globResultCache) {
     this(
         typeCoercerFactory,
         Console.createNullConsole(),
         pythonInterpreterProvider,
         knownRuleTypesProvider,
         enableProfiling,
-        processedBytes);
+        processedBytes,
+        globResultCache);
   }
 
   public DefaultProjectBuildFileParserFactory(
@@ -110,6 +125,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         pythonInterpreterProvider,
         knownRuleTypesProvider,
         false,
+        Optional.empty(),
         Optional.empty());
   }
 
@@ -195,13 +211,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
 
     if (parserConfig.isPolyglotParsingEnabled()) {
       SkylarkProjectBuildFileParser skylark =
-          newSkylarkParser(
-              cell,
-              typeCoercerFactory,
-              knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
-              eventBus,
-              buildFileParserOptions,
-              parserConfig.getSkylarkGlobHandler());
+          getSkylarkParser(
+              cell, typeCoercerFactory, eventBus, parserConfig, buildFileParserOptions);
       Optional<UserDefinedRuleLoader> udrLoader = Optional.empty();
       if (parserConfig.getUserDefinedRulesState() == UserDefinedRulesState.ENABLED) {
         udrLoader = Optional.of(skylark);
@@ -225,13 +236,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
       switch (defaultBuildFileSyntax) {
         case SKYLARK:
           parser =
-              newSkylarkParser(
-                  cell,
-                  typeCoercerFactory,
-                  knownRuleTypesProvider.getUserDefinedRuleTypes(cell),
-                  eventBus,
-                  buildFileParserOptions,
-                  parserConfig.getSkylarkGlobHandler());
+              getSkylarkParser(
+                  cell, typeCoercerFactory, eventBus, parserConfig, buildFileParserOptions);
           break;
         case PYTHON_DSL:
           parser =
@@ -282,7 +288,25 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     return new ConcurrentProjectBuildFileParser(parserSupplier);
   }
 
-  private static SkylarkProjectBuildFileParser newSkylarkParser(
+  private SkylarkProjectBuildFileParser getSkylarkParser(
+      Cell cell,
+      TypeCoercerFactory typeCoercerFactory,
+      BuckEventBus eventBus,
+      ParserConfig parserConfig,
+      ProjectBuildFileParserOptions buildFileParserOptions) {
+    return skylarkParsers.computeIfAbsent(
+        cell,
+        c ->
+            newSkylarkParser(
+                c,
+                typeCoercerFactory,
+                knownRuleTypesProvider.getUserDefinedRuleTypes(c),
+                eventBus,
+                buildFileParserOptions,
+                parserConfig.getSkylarkGlobHandler()));
+  }
+
+  private SkylarkProjectBuildFileParser newSkylarkParser(
       Cell cell,
       TypeCoercerFactory typeCoercerFactory,
       KnownUserDefinedRuleTypes knownUserDefinedRuleTypes,
@@ -354,7 +378,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
     }
   }
 
-  private static GlobberFactory getSkylarkGlobberFactory(
+  private GlobberFactory getSkylarkGlobberFactory(
       ProjectBuildFileParserOptions buildFileParserOptions, SkylarkGlobHandler skylarkGlobHandler)
       throws IOException {
     SyncCookieState syncCookieState = new SyncCookieState();
@@ -365,6 +389,7 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
             buildFileParserOptions.getWatchman().createClient(),
             syncCookieState,
             buildFileParserOptions.getProjectRoot().getPath(),
-            buildFileParserOptions.getWatchman().getProjectWatches());
+            buildFileParserOptions.getWatchman().getProjectWatches(),
+            globResultCache);
   }
 }
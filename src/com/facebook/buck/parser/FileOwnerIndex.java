@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.path.ForwardRelativePath;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import java.util.Optional;
+
+/**
+ * Index from the inputs of the target nodes cached for a cell to the targets of those nodes, so
+ * that the owners of a file can be found without going through the inputs of every node that might
+ * own it. An input that is a directory owns every file below it.
+ *
+ * <p>Not thread safe: it is guarded by the lock of the {@link DaemonicCellState} it belongs to.
+ */
+class FileOwnerIndex {
+
+  private final SetMultimap<ForwardRelativePath, BuildTarget> targetsByInput =
+      HashMultimap.create();
+
+  void add(TargetNode<?> node) {
+    for (ForwardRelativePath input : node.getInputs()) {
+      targetsByInput.put(input, node.getBuildTarget());
+    }
+  }
+
+  void remove(TargetNode<?> node) {
+    for (ForwardRelativePath input : node.getInputs()) {
+      targetsByInput.remove(input, node.getBuildTarget());
+    }
+  }
+
+  /** @return the targets which have {@code file} or one of its parent directories as an input. */
+  ImmutableSet<BuildTarget> getOwners(ForwardRelativePath file) {
+    ImmutableSet.Builder<BuildTarget> owners = ImmutableSet.builder();
+    Optional<ForwardRelativePath> path = Optional.of(file);
+    while (path.isPresent() && !path.get().isEmpty()) {
+      owners.addAll(targetsByInput.get(path.get()));
+      path = path.get().parent();
+    }
+    return owners.build();
+  }
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.PackageFileManifest;
+import com.facebook.buck.parser.api.PackageMetadata;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.devtools.build.lib.syntax.Runtime;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import javax.annotation.Nullable;
+
+/**
+ * The build and package file manifests cached by a {@link DaemonicParserState}, in a form which can
+ * be written to disk and restored by a later daemon.
+ *
+ * <p>A snapshot is only meaningful together with the watchman clocks it was taken at: the daemon
+ * restoring it has to replay all file changes since those clocks before using any of the
+ * manifests. The key identifies everything else which affects the result of parsing, i.e. the buck
+ * version and the configuration of all cells, and a snapshot with a different key is never read.
+ *
+ * <p>The manifests are stored in a compact binary format in which every distinct string is written
+ * only once, since attribute names, rule types and target names repeat across build files. Values
+ * which the format cannot represent leave the manifest out of the snapshot.
+ */
+public class ParserStateSnapshot {
+
+  private static final Logger LOG = Logger.get(ParserStateSnapshot.class);
+
+  private static final int SNAPSHOT_MAGIC = 0xB0C4DA7E;
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private static final byte TAG_NONE = 1;
+  private static final byte TAG_STRING = 2;
+  private static final byte TAG_TRUE = 3;
+  private static final byte TAG_FALSE = 4;
+  private static final byte TAG_INTEGER = 5;
+  private static final byte TAG_LONG = 6;
+  private static final byte TAG_DOUBLE = 7;
+  private static final byte TAG_LIST = 8;
+  private static final byte TAG_SET = 9;
+  private static final byte TAG_SORTED_SET = 10;
+  private static final byte TAG_MAP = 11;
+  private static final byte TAG_SORTED_MAP = 12;
+  private static final byte TAG_LIST_WITH_SELECTS = 13;
+  private static final byte TAG_SELECTOR_VALUE = 14;
+
+  @SuppressWarnings("unchecked")
+  private static final Comparator<Object> NATURAL_ORDER =
+      (Comparator<Object>) (Comparator<?>) Ordering.natural();
+
+  private final String key;
+  private final ImmutableMap<AbsPath, String> clocks;
+  private final ImmutableMap<AbsPath, ImmutableMap<AbsPath, BuildFileManifest>> buildFileManifests;
+  private final ImmutableMap<AbsPath, ImmutableMap<AbsPath, PackageFileManifest>>
+      packageFileManifests;
+
+  /**
+   * @param key identifies the configuration the manifests were parsed with
+   * @param clocks the watchman clock of every cell root the manifests are up to date with
+   * @param buildFileManifests the build file manifests of every cell, by cell root
+   * @param packageFileManifests the package file manifests of every cell, by cell root
+   */
+  public ParserStateSnapshot(
+      String key,
+      ImmutableMap<AbsPath, String> clocks,
+      ImmutableMap<AbsPath, ImmutableMap<AbsPath, BuildFileManifest>> buildFileManifests,
+      ImmutableMap<AbsPath, ImmutableMap<AbsPath, PackageFileManifest>> packageFileManifests) {
+    this.key = key;
+    this.clocks = clocks;
+    this.buildFileManifests = buildFileManifests;
+    this.packageFileManifests = packageFileManifests;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public ImmutableMap<AbsPath, String> getClocks() {
+    return clocks;
+  }
+
+  public ImmutableMap<AbsPath, ImmutableMap<AbsPath, BuildFileManifest>> getBuildFileManifests() {
+    return buildFileManifests;
+  }
+
+  public ImmutableMap<AbsPath, ImmutableMap<AbsPath, PackageFileManifest>>
+      getPackageFileManifests() {
+    return packageFileManifests;
+  }
+
+  /**
+   * Reads the snapshot at {@code path}.
+   *
+   * @return the snapshot, or nothing if there is none, it is unreadable or it has a different key.
+   */
+  public static Optional<ParserStateSnapshot> read(Path path, String key) {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        LOG.info("Ignoring parser state snapshot %s written by a different version.", path);
+        return Optional.empty();
+      }
+      if (!in.readUTF().equals(key)) {
+        LOG.info("Ignoring parser state snapshot %s taken with a different configuration.", path);
+        return Optional.empty();
+      }
+      ParserStateSnapshot snapshot = new Reader(in).readSnapshot(key);
+      LOG.debug("Loaded parser state snapshot %s.", path);
+      return Optional.of(snapshot);
+    } catch (NoSuchFileException e) {
+      // Nothing was persisted yet.
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Discarding unreadable parser state snapshot %s.", path);
+      return Optional.empty();
+    }
+  }
+
+  /** Replaces the snapshot at {@code path} with this one. */
+  public void write(Path path) throws IOException {
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.createDirectories(path.getParent());
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeUTF(key);
+      new Writer(out).writeSnapshot(this);
+    }
+    Files.move(
+        tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Encodes a single build file manifest the way snapshots store them, for other stores of parsed
+   * build files.
+   *
+   * @return the encoded manifest, or nothing if it contains values which cannot be stored
+   */
+  public static Optional<byte[]> encodeBuildFileManifest(BuildFileManifest manifest)
+      throws IOException {
+    if (!isWritable(manifest)) {
+      return Optional.empty();
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    new Writer(out).writeBuildFileManifest(manifest);
+    out.flush();
+    return Optional.of(bytes.toByteArray());
+  }
+
+  /** Decodes a build file manifest encoded by {@link #encodeBuildFileManifest}. */
+  public static BuildFileManifest decodeBuildFileManifest(byte[] bytes) throws IOException {
+    return new Reader(new DataInputStream(new ByteArrayInputStream(bytes)))
+        .readBuildFileManifest();
+  }
+
+  /** @return whether {@code value} can be stored in a snapshot. */
+  @VisibleForTesting
+  static boolean isWritable(Object value) {
+    if (value == Runtime.NONE
+        || value instanceof String
+        || value instanceof Boolean
+        || value instanceof Integer
+        || value instanceof Long
+        || value instanceof Double) {
+      return true;
+    }
+    if (value instanceof SortedSet && !isNaturalOrder(((SortedSet<?>) value).comparator())) {
+      return false;
+    }
+    if (value instanceof SortedMap && !isNaturalOrder(((SortedMap<?, ?>) value).comparator())) {
+      return false;
+    }
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).stream().allMatch(ParserStateSnapshot::isWritable);
+    }
+    if (value instanceof Map) {
+      return ((Map<?, ?>) value)
+          .entrySet().stream()
+              .allMatch(entry -> isWritable(entry.getKey()) && isWritable(entry.getValue()));
+    }
+    if (value instanceof ListWithSelects) {
+      return isWritable(((ListWithSelects) value).getElements());
+    }
+    if (value instanceof SelectorValue) {
+      return isWritable(((SelectorValue) value).getDictionary());
+    }
+    return false;
+  }
+
+  private static boolean isNaturalOrder(@Nullable Comparator<?> comparator) {
+    return comparator == null || Ordering.natural().equals(comparator);
+  }
+
+  private static boolean isWritable(BuildFileManifest manifest) {
+    return isWritable(manifest.getTargets())
+        && isWritable(manifest.getConfigs())
+        && manifest.getGlobManifest().stream()
+            .allMatch(
+                glob ->
+                    isWritable(glob.getGlobSpec().getInclude())
+                        && isWritable(glob.getGlobSpec().getExclude()));
+  }
+
+  private static boolean isWritable(PackageFileManifest manifest) {
+    return isWritable(manifest.getConfigs());
+  }
+
+  /** Writes values, replacing all but the first occurrence of a string with its index. */
+  private static class Writer {
+    private final DataOutputStream out;
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+
+    private Writer(DataOutputStream out) {
+      this.out = out;
+    }
+
+    private void writeSnapshot(ParserStateSnapshot snapshot) throws IOException {
+      writeVarInt(snapshot.clocks.size());
+      for (Map.Entry<AbsPath, String> clock : snapshot.clocks.entrySet()) {
+        writeString(clock.getKey().toString());
+        writeString(clock.getValue());
+      }
+
+      writeVarInt(snapshot.buildFileManifests.size());
+      for (Map.Entry<AbsPath, ImmutableMap<AbsPath, BuildFileManifest>> cell :
+          snapshot.buildFileManifests.entrySet()) {
+        AbsPath cellRoot = cell.getKey();
+        writeString(cellRoot.toString());
+        List<Map.Entry<AbsPath, BuildFileManifest>> manifests = new ArrayList<>();
+        for (Map.Entry<AbsPath, BuildFileManifest> entry : cell.getValue().entrySet()) {
+          if (isWritable(entry.getValue())) {
+            manifests.add(entry);
+          } else {
+            LOG.verbose("Leaving %s out of the parser state snapshot.", entry.getKey());
+          }
+        }
+        writeVarInt(manifests.size());
+        for (Map.Entry<AbsPath, BuildFileManifest> entry : manifests) {
+          writeString(cellRoot.relativize(entry.getKey()).toString());
+          writeBuildFileManifest(entry.getValue());
+        }
+      }
+
+      writeVarInt(snapshot.packageFileManifests.size());
+      for (Map.Entry<AbsPath, ImmutableMap<AbsPath, PackageFileManifest>> cell :
+          snapshot.packageFileManifests.entrySet()) {
+        AbsPath cellRoot = cell.getKey();
+        writeString(cellRoot.toString());
+        List<Map.Entry<AbsPath, PackageFileManifest>> manifests = new ArrayList<>();
+        for (Map.Entry<AbsPath, PackageFileManifest> entry : cell.getValue().entrySet()) {
+          if (isWritable(entry.getValue())) {
+            manifests.add(entry);
+          }
+        }
+        writeVarInt(manifests.size());
+        for (Map.Entry<AbsPath, PackageFileManifest> entry : manifests) {
+          writeString(cellRoot.relativize(entry.getKey()).toString());
+          writePackageFileManifest(entry.getValue());
+        }
+      }
+    }
+
+    private void writeBuildFileManifest(BuildFileManifest manifest) throws IOException {
+      writeValue(manifest.getTargets());
+      writeStrings(manifest.getIncludes());
+      writeValue(manifest.getConfigs());
+      writeEnv(manifest.getEnv());
+      writeVarInt(manifest.getGlobManifest().size());
+      for (GlobSpecWithResult glob : manifest.getGlobManifest()) {
+        writeStrings(glob.getGlobSpec().getInclude());
+        writeStrings(glob.getGlobSpec().getExclude());
+        out.writeBoolean(glob.getGlobSpec().getExcludeDirectories());
+        writeStrings(glob.getFilePaths());
+      }
+      writeErrors(manifest.getErrors());
+    }
+
+    private void writePackageFileManifest(PackageFileManifest manifest) throws IOException {
+      writeStrings(manifest.getPackage().getVisibility());
+      writeStrings(manifest.getPackage().getWithinView());
+      writeStrings(manifest.getIncludes());
+      writeValue(manifest.getConfigs());
+      writeEnv(manifest.getEnv());
+      writeErrors(manifest.getErrors());
+    }
+
+    private void writeEnv(Optional<ImmutableMap<String, Optional<String>>> env)
+        throws IOException {
+      out.writeBoolean(env.isPresent());
+      if (env.isPresent()) {
+        writeVarInt(env.get().size());
+        for (Map.Entry<String, Optional<String>> entry : env.get().entrySet()) {
+          writeString(entry.getKey());
+          out.writeBoolean(entry.getValue().isPresent());
+          if (entry.getValue().isPresent()) {
+            writeString(entry.getValue().get());
+          }
+        }
+      }
+    }
+
+    private void writeErrors(ImmutableList<ParsingError> errors) throws IOException {
+      writeVarInt(errors.size());
+      for (ParsingError error : errors) {
+        writeString(error.getMessage());
+        writeStrings(error.getStackTrace());
+      }
+    }
+
+    private void writeValue(Object value) throws IOException {
+      if (value == Runtime.NONE) {
+        out.writeByte(TAG_NONE);
+      } else if (value instanceof String) {
+        out.writeByte(TAG_STRING);
+        writeString((String) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+      } else if (value instanceof Integer) {
+        out.writeByte(TAG_INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TAG_LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Double) {
+        out.writeByte(TAG_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof List) {
+        out.writeByte(TAG_LIST);
+        writeValues((List<?>) value);
+      } else if (value instanceof Collection) {
+        out.writeByte(value instanceof SortedSet ? TAG_SORTED_SET : TAG_SET);
+        writeValues((Collection<?>) value);
+      } else if (value instanceof Map) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        out.writeByte(value instanceof SortedMap ? TAG_SORTED_MAP : TAG_MAP);
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(entry.getKey());
+          writeValue(entry.getValue());
+        }
+      } else if (value instanceof ListWithSelects) {
+        ListWithSelects listWithSelects = (ListWithSelects) value;
+        out.writeByte(TAG_LIST_WITH_SELECTS);
+        writeValues(listWithSelects.getElements());
+        writeString(listWithSelects.getType().getName());
+      } else if (value instanceof SelectorValue) {
+        SelectorValue selectorValue = (SelectorValue) value;
+        out.writeByte(TAG_SELECTOR_VALUE);
+        writeValue(selectorValue.getDictionary());
+        writeString(selectorValue.getNoMatchError());
+      } else {
+        throw new IllegalArgumentException("Cannot write " + value.getClass().getName());
+      }
+    }
+
+    private void writeValues(Collection<?> values) throws IOException {
+      writeVarInt(values.size());
+      for (Object value : values) {
+        writeValue(value);
+      }
+    }
+
+    private void writeStrings(Collection<String> strings) throws IOException {
+      writeVarInt(strings.size());
+      for (String string : strings) {
+        writeString(string);
+      }
+    }
+
+    private void writeString(String string) throws IOException {
+      Integer index = stringIndices.get(string);
+      if (index != null) {
+        writeVarInt(index + 1);
+        return;
+      }
+      stringIndices.put(string, stringIndices.size());
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(0);
+      writeVarInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+        out.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+    }
+  }
+
+  /** Reads values written by a {@link Writer}. */
+  private static class Reader {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    private Reader(DataInputStream in) {
+      this.in = in;
+    }
+
+    private ParserStateSnapshot readSnapshot(String key) throws IOException {
+      ImmutableMap.Builder<AbsPath, String> clocks = ImmutableMap.builder();
+      for (int i = readVarInt(); i > 0; i--) {
+        clocks.put(AbsPath.get(readString()), readString());
+      }
+
+      ImmutableMap.Builder<AbsPath, ImmutableMap<AbsPath, BuildFileManifest>> buildFileManifests =
+          ImmutableMap.builder();
+      for (int i = readVarInt(); i > 0; i--) {
+        AbsPath cellRoot = AbsPath.get(readString());
+        ImmutableMap.Builder<AbsPath, BuildFileManifest> manifests = ImmutableMap.builder();
+        for (int j = readVarInt(); j > 0; j--) {
+          manifests.put(cellRoot.resolve(readString()), readBuildFileManifest());
+        }
+        buildFileManifests.put(cellRoot, manifests.build());
+      }
+
+      ImmutableMap.Builder<AbsPath, ImmutableMap<AbsPath, PackageFileManifest>>
+          packageFileManifests = ImmutableMap.builder();
+      for (int i = readVarInt(); i > 0; i--) {
+        AbsPath cellRoot = AbsPath.get(readString());
+        ImmutableMap.Builder<AbsPath, PackageFileManifest> manifests = ImmutableMap.builder();
+        for (int j = readVarInt(); j > 0; j--) {
+          manifests.put(cellRoot.resolve(readString()), readPackageFileManifest());
+        }
+        packageFileManifests.put(cellRoot, manifests.build());
+      }
+
+      return new ParserStateSnapshot(
+          key, clocks.build(), buildFileManifests.build(), packageFileManifests.build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private BuildFileManifest readBuildFileManifest() throws IOException {
+      ImmutableMap<String, ImmutableMap<String, Object>> targets =
+          (ImmutableMap<String, ImmutableMap<String, Object>>) readValue();
+      ImmutableSortedSet<String> includes = ImmutableSortedSet.copyOf(readStrings());
+      ImmutableMap<String, Object> configs = (ImmutableMap<String, Object>) readValue();
+      Optional<ImmutableMap<String, Optional<String>>> env = readEnv();
+      ImmutableList.Builder<GlobSpecWithResult> globManifest = ImmutableList.builder();
+      for (int i = readVarInt(); i > 0; i--) {
+        ImmutableList<String> include = readStrings();
+        ImmutableList<String> exclude = readStrings();
+        boolean excludeDirectories = in.readBoolean();
+        globManifest.add(
+            GlobSpecWithResult.of(
+                GlobSpec.of(include, exclude, excludeDirectories),
+                ImmutableSet.copyOf(readStrings())));
+      }
+      return BuildFileManifest.of(
+          targets, includes, configs, env, globManifest.build(), readErrors());
+    }
+
+    @SuppressWarnings("unchecked")
+    private PackageFileManifest readPackageFileManifest() throws IOException {
+      PackageMetadata packageMetadata = PackageMetadata.of(readStrings(), readStrings());
+      ImmutableSortedSet<String> includes = ImmutableSortedSet.copyOf(readStrings());
+      ImmutableMap<String, Object> configs = (ImmutableMap<String, Object>) readValue();
+      return PackageFileManifest.of(packageMetadata, includes, configs, readEnv(), readErrors());
+    }
+
+    private Optional<ImmutableMap<String, Optional<String>>> readEnv() throws IOException {
+      if (!in.readBoolean()) {
+        return Optional.empty();
+      }
+      ImmutableMap.Builder<String, Optional<String>> env = ImmutableMap.builder();
+      for (int i = readVarInt(); i > 0; i--) {
+        String name = readString();
+        env.put(name, in.readBoolean() ? Optional.of(readString()) : Optional.empty());
+      }
+      return Optional.of(env.build());
+    }
+
+    private ImmutableList<ParsingError> readErrors() throws IOException {
+      ImmutableList.Builder<ParsingError> errors = ImmutableList.builder();
+      for (int i = readVarInt(); i > 0; i--) {
+        errors.add(ParsingError.of(readString(), readStrings()));
+      }
+      return errors.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readValue() throws IOException {
+      byte tag = in.readByte();
+      switch (tag) {
+        case TAG_NONE:
+          return Runtime.NONE;
+        case TAG_STRING:
+          return readString();
+        case TAG_TRUE:
+          return true;
+        case TAG_FALSE:
+          return false;
+        case TAG_INTEGER:
+          return in.readInt();
+        case TAG_LONG:
+          return in.readLong();
+        case TAG_DOUBLE:
+          return in.readDouble();
+        case TAG_LIST:
+          return readValues();
+        case TAG_SET:
+          return ImmutableSet.copyOf(readValues());
+        case TAG_SORTED_SET:
+          return ImmutableSortedSet.copyOf(NATURAL_ORDER, readValues());
+        case TAG_MAP:
+        case TAG_SORTED_MAP:
+          int size = readVarInt();
+          Map<Object, Object> map = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            map.put(readValue(), readValue());
+          }
+          return tag == TAG_MAP
+              ? ImmutableMap.copyOf(map)
+              : ImmutableSortedMap.copyOf(map, NATURAL_ORDER);
+        case TAG_LIST_WITH_SELECTS:
+          ImmutableList<Object> elements = readValues();
+          try {
+            Class<?> type =
+                Class.forName(readString(), false, ListWithSelects.class.getClassLoader());
+            return ListWithSelects.of(elements, type);
+          } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+          }
+        case TAG_SELECTOR_VALUE:
+          Map<String, Object> dictionary = (Map<String, Object>) readValue();
+          return SelectorValue.of(dictionary, readString());
+        default:
+          throw new IOException("Unknown value tag " + tag);
+      }
+    }
+
+    private ImmutableList<Object> readValues() throws IOException {
+      int size = readVarInt();
+      ImmutableList.Builder<Object> values = ImmutableList.builderWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        values.add(readValue());
+      }
+      return values.build();
+    }
+
+    private ImmutableList<String> readStrings() throws IOException {
+      int size = readVarInt();
+      ImmutableList.Builder<String> values = ImmutableList.builderWithExpectedSize(size);
+      for (int i = 0; i < size; i++) {
+        values.add(readString());
+      }
+      return values.build();
+    }
+
+    private String readString() throws IOException {
+      int index = readVarInt();
+      if (index > 0) {
+        return strings.get(index - 1);
+      }
+      byte[] bytes = new byte[readVarInt()];
+      in.readFully(bytes);
+      String string = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    }
+
+    private int readVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        int b = in.readUnsignedByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable length integer.");
+    }
+  }
+}
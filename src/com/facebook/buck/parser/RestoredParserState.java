@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.FileManifest;
+import com.facebook.buck.parser.api.PackageFileManifest;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Manifests restored from a {@link ParserStateSnapshot} which no parse has asked for yet.
+ *
+ * <p>A restored manifest is handed over to the {@link DaemonicParserState} the first time its file
+ * is looked up, which then tracks its dependents like those of a freshly parsed file. Until then,
+ * file changes are applied here: a manifest is dropped when its file or one of its includes
+ * changes, when a PACKAGE file in its directory or above changes, and when a file is added to or
+ * removed from its directory or below, which may change the result of a glob. This is more than
+ * the {@link DaemonicParserState} invalidates, but keeps the restored state cheap to maintain.
+ */
+class RestoredParserState {
+
+  @GuardedBy("this")
+  private final Map<AbsPath, Map<AbsPath, BuildFileManifest>> buildFileManifests =
+      new HashMap<>();
+
+  @GuardedBy("this")
+  private final Map<AbsPath, Map<AbsPath, PackageFileManifest>> packageFileManifests =
+      new HashMap<>();
+
+  /** Files with a restored manifest by the files they include. */
+  @GuardedBy("this")
+  private final SetMultimap<AbsPath, AbsPath> dependents = HashMultimap.create();
+
+  /** Build files with a restored manifest by their directory. */
+  @GuardedBy("this")
+  private final SetMultimap<AbsPath, AbsPath> buildFilesByDirectory = HashMultimap.create();
+
+  synchronized void restore(ParserStateSnapshot snapshot) {
+    snapshot
+        .getBuildFileManifests()
+        .forEach(
+            (cellRoot, manifests) -> {
+              buildFileManifests
+                  .computeIfAbsent(cellRoot, root -> new HashMap<>())
+                  .putAll(manifests);
+              manifests.forEach(
+                  (buildFile, manifest) -> {
+                    addDependents(cellRoot, buildFile, manifest);
+                    buildFilesByDirectory.put(buildFile.getParent(), buildFile);
+                  });
+            });
+    snapshot
+        .getPackageFileManifests()
+        .forEach(
+            (cellRoot, manifests) -> {
+              packageFileManifests
+                  .computeIfAbsent(cellRoot, root -> new HashMap<>())
+                  .putAll(manifests);
+              manifests.forEach(
+                  (packageFile, manifest) -> addDependents(cellRoot, packageFile, manifest));
+            });
+  }
+
+  private void addDependents(AbsPath cellRoot, AbsPath file, FileManifest manifest) {
+    for (String include : manifest.getIncludes()) {
+      dependents.put(cellRoot.resolve(include), file);
+    }
+  }
+
+  synchronized boolean isEmpty() {
+    return buildFileManifests.isEmpty() && packageFileManifests.isEmpty();
+  }
+
+  /** Removes and returns the restored manifest of {@code buildFile}, if there is one. */
+  synchronized Optional<BuildFileManifest> takeBuildFileManifest(
+      AbsPath cellRoot, AbsPath buildFile) {
+    return take(buildFileManifests, cellRoot, buildFile);
+  }
+
+  /** Removes and returns the restored manifest of {@code packageFile}, if there is one. */
+  synchronized Optional<PackageFileManifest> takePackageFileManifest(
+      AbsPath cellRoot, AbsPath packageFile) {
+    return take(packageFileManifests, cellRoot, packageFile);
+  }
+
+  private static <T> Optional<T> take(
+      Map<AbsPath, Map<AbsPath, T>> manifestsByCell, AbsPath cellRoot, AbsPath file) {
+    Map<AbsPath, T> manifests = manifestsByCell.get(cellRoot);
+    if (manifests == null) {
+      return Optional.empty();
+    }
+    T manifest = manifests.remove(file);
+    if (manifests.isEmpty()) {
+      manifestsByCell.remove(cellRoot);
+    }
+    return Optional.ofNullable(manifest);
+  }
+
+  /**
+   * Drops all restored manifests which may depend on {@code path}.
+   *
+   * @param createdOrDeleted whether the file was added or removed rather than modified
+   */
+  synchronized void invalidatePath(AbsPath path, boolean createdOrDeleted) {
+    if (isEmpty()) {
+      return;
+    }
+    remove(path);
+    for (AbsPath dependent : dependents.removeAll(path)) {
+      remove(dependent);
+    }
+
+    AbsPath directory = path.getParent();
+    if (directory == null) {
+      return;
+    }
+    if (path.getPath().getFileName().toString().equals(PackagePipeline.PACKAGE_FILE_NAME)) {
+      for (Map<AbsPath, BuildFileManifest> manifests : buildFileManifests.values()) {
+        manifests.keySet().removeIf(buildFile -> buildFile.startsWith(directory));
+      }
+    }
+    if (createdOrDeleted) {
+      for (AbsPath ancestor = directory; ancestor != null; ancestor = ancestor.getParent()) {
+        for (AbsPath buildFile : buildFilesByDirectory.removeAll(ancestor)) {
+          remove(buildFile);
+        }
+      }
+    }
+    buildFileManifests.values().removeIf(Map::isEmpty);
+  }
+
+  private void remove(AbsPath file) {
+    for (Map<AbsPath, BuildFileManifest> manifests : buildFileManifests.values()) {
+      manifests.remove(file);
+    }
+    for (Map<AbsPath, PackageFileManifest> manifests : packageFileManifests.values()) {
+      manifests.remove(file);
+    }
+    packageFileManifests.values().removeIf(Map::isEmpty);
+  }
+
+  /** Drops the restored manifests of a cell. */
+  synchronized void invalidateCell(AbsPath cellRoot) {
+    buildFileManifests.remove(cellRoot);
+    packageFileManifests.remove(cellRoot);
+  }
+
+  /** Drops all restored manifests. */
+  synchronized void invalidateAll() {
+    buildFileManifests.clear();
+    packageFileManifests.clear();
+    dependents.clear();
+    buildFilesByDirectory.clear();
+  }
+
+  /** Adds the restored manifests which are still unused to the given maps, by cell root. */
+  synchronized void addTo(
+      Map<AbsPath, Map<AbsPath, BuildFileManifest>> buildFileManifestsByCell,
+      Map<AbsPath, Map<AbsPath, PackageFileManifest>> packageFileManifestsByCell) {
+    buildFileManifests.forEach(
+        (cellRoot, manifests) ->
+            buildFileManifestsByCell
+                .computeIfAbsent(cellRoot, root -> new HashMap<>())
+                .putAll(manifests));
+    packageFileManifests.forEach(
+        (cellRoot, manifests) ->
+            packageFileManifestsByCell
+                .computeIfAbsent(cellRoot, root -> new HashMap<>())
+                .putAll(manifests));
+  }
+}
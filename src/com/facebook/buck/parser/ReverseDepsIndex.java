@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.util.concurrent.AutoCloseableLock;
+import com.facebook.buck.util.concurrent.AutoCloseableReadWriteLock;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Index from the targets the compatible target nodes cached by a daemon depend on to the targets of
+ * those nodes, so that reverse dependencies within the transitive closure of some targets can be
+ * found without building that closure as a graph.
+ *
+ * <p>Shared by the {@link DaemonicCellState}s of a daemon, as dependencies cross cells.
+ */
+@ThreadSafe
+public class ReverseDepsIndex {
+
+  private final AutoCloseableReadWriteLock lock = new AutoCloseableReadWriteLock();
+
+  @GuardedBy("lock")
+  private final Map<BuildTarget, TargetNode<?>> nodes = new HashMap<>();
+
+  @GuardedBy("lock")
+  private final SetMultimap<BuildTarget, BuildTarget> dependents = HashMultimap.create();
+
+  void add(TargetNode<?> node) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      TargetNode<?> previous = nodes.put(node.getBuildTarget(), node);
+      if (previous != null) {
+        removeEdges(previous);
+      }
+      for (BuildTarget dep : node.getParseDeps()) {
+        dependents.put(dep, node.getBuildTarget());
+      }
+    }
+  }
+
+  /** Removes {@code node}, unless another node was indexed for its target since. */
+  void remove(TargetNode<?> node) {
+    try (AutoCloseableLock writeLock = lock.writeLock()) {
+      if (nodes.get(node.getBuildTarget()) != node) {
+        return;
+      }
+      nodes.remove(node.getBuildTarget());
+      removeEdges(node);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void removeEdges(TargetNode<?> node) {
+    for (BuildTarget dep : node.getParseDeps()) {
+      dependents.remove(dep, node.getBuildTarget());
+    }
+  }
+
+  /**
+   * Finds the reverse dependencies of {@code targets} within the transitive closure of {@code
+   * universe}, level by level up to {@code maxDepth} levels away, as {@code rdeps()} does.
+   *
+   * @return nothing if some target in the transitive closure of {@code universe} is not indexed
+   */
+  public Optional<ReverseDeps> getReverseDepsWithinUniverse(
+      Set<BuildTarget> universe, Set<BuildTarget> targets, int maxDepth) {
+    try (AutoCloseableLock readLock = lock.readLock()) {
+      Set<BuildTarget> closure = new HashSet<>();
+      Deque<BuildTarget> worklist = new ArrayDeque<>(universe);
+      while (!worklist.isEmpty()) {
+        BuildTarget target = worklist.pop();
+        if (!closure.add(target)) {
+          continue;
+        }
+        TargetNode<?> node = nodes.get(target);
+        if (node == null) {
+          return Optional.empty();
+        }
+        worklist.addAll(node.getParseDeps());
+      }
+
+      Set<BuildTarget> visited = new LinkedHashSet<>();
+      Set<BuildTarget> current = targets;
+      // Iterating maxDepth+1 times because the first one processes the given targets.
+      for (int i = 0; i <= maxDepth && !current.isEmpty(); i++) {
+        Set<BuildTarget> next = new LinkedHashSet<>();
+        for (BuildTarget target : current) {
+          if (closure.contains(target) && visited.add(target)) {
+            next.addAll(dependents.get(target));
+          }
+        }
+        current = next;
+      }
+      return Optional.of(new ReverseDeps(closure, visited));
+    }
+  }
+
+  /** The reverse dependencies of some targets within the transitive closure of a universe. */
+  public static final class ReverseDeps {
+    private final Set<BuildTarget> universeClosure;
+    private final Set<BuildTarget> reverseDeps;
+
+    private ReverseDeps(Set<BuildTarget> universeClosure, Set<BuildTarget> reverseDeps) {
+      this.universeClosure = Collections.unmodifiableSet(universeClosure);
+      this.reverseDeps = Collections.unmodifiableSet(reverseDeps);
+    }
+
+    /** @return the targets in the transitive closure of the universe. */
+    public Set<BuildTarget> getUniverseClosure() {
+      return universeClosure;
+    }
+
+    /** @return the reverse dependencies, in the order they were visited in. */
+    public Set<BuildTarget> getReverseDeps() {
+      return reverseDeps;
+    }
+  }
+}
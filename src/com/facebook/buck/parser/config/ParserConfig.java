@@ -282,6 +282,15 @@ public abstract class ParserConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue("parser", "warn_about_deprecated_syntax", true);
   }
 
+  /**
+   * @return whether the daemon should save the parsed build and package files to disk, so that a
+   *     new daemon can reuse those which did not change since.
+   */
+  @Value.Lazy
+  public boolean isDaemonStateSnapshotEnabled() {
+    return getDelegate().getBooleanValue("parser", "daemon_state_snapshot", false);
+  }
+
   /** @return the type of the glob handler used by the Skylark parser. */
   @Value.Lazy
   public SkylarkGlobHandler getSkylarkGlobHandler() {
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.parser.manifest;
+
+import com.facebook.buck.core.graph.transformation.GraphEngineCache;
+import com.facebook.buck.core.graph.transformation.impl.PersistentGraphEngineCache;
+import com.facebook.buck.parser.ParserStateSnapshot;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Keeps {@link BuildFileManifest}s in a {@link BuildFileManifestCache} and also stores them on
+ * disk, so that build files which did not change are not parsed again by a new daemon.
+ *
+ * <p>A manifest is stored under a hash of the configuration and of the path and the contents of its
+ * build file, and is only reused while the files it includes are unchanged, too. Manifests which
+ * failed to parse, expanded globs or read environment variables depend on more than that and are
+ * not stored. This relies on the parser recording the globs it expands, which the Skylark parser
+ * does but the Python DSL parser does not. Manifests are encoded like in a {@link
+ * ParserStateSnapshot}.
+ */
+public class PersistentBuildFileManifestCache
+    implements GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest> {
+
+  /** Changes whenever the stored format does. */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * Manifests are mostly served by the {@link BuildFileManifestCache}, so only a few are kept in
+   * memory a second time.
+   */
+  private static final long MAX_MEMORY_ENTRIES = 256;
+
+  private final BuildFileManifestCache memoryCache;
+  private final PersistentGraphEngineCache<
+          BuildPackagePathToBuildFileManifestKey, BuildFileManifest>
+      persistentCache;
+
+  private PersistentBuildFileManifestCache(
+      BuildFileManifestCache memoryCache,
+      PersistentGraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>
+          persistentCache) {
+    this.memoryCache = memoryCache;
+    this.persistentCache = persistentCache;
+  }
+
+  /**
+   * Create new instance of {@link PersistentBuildFileManifestCache}
+   *
+   * @param memoryCache the cache of the daemon, which is consulted first
+   * @param directory absolute path of the directory to store manifests in, which must not be shared
+   *     with other cells
+   * @param maxSizeBytes the bound on the total size of the stored manifests
+   * @param configurationKey identifies everything besides the contents of the files which affects
+   *     the result of parsing, such as the version of buck and the configuration
+   * @param superRootPath absolute path of the root cell, which relative includes are relative to
+   * @param root absolute path of the cell the manifests are parsed in
+   * @param buildFileName file name of the build file (like BUCK)
+   */
+  public static PersistentBuildFileManifestCache of(
+      BuildFileManifestCache memoryCache,
+      Path directory,
+      long maxSizeBytes,
+      String configurationKey,
+      Path superRootPath,
+      Path root,
+      Path buildFileName) {
+    return new PersistentBuildFileManifestCache(
+        memoryCache,
+        new PersistentGraphEngineCache<>(
+            directory,
+            maxSizeBytes,
+            MAX_MEMORY_ENTRIES,
+            key -> {
+              Path buildFile = root.resolve(key.getPath()).resolve(buildFileName);
+              Optional<HashCode> contentHash = hashFile(buildFile);
+              if (!contentHash.isPresent()) {
+                return Optional.empty();
+              }
+              return Optional.of(
+                  Hashing.sha1()
+                      .newHasher()
+                      .putInt(FORMAT_VERSION)
+                      .putString(configurationKey, StandardCharsets.UTF_8)
+                      .putString(buildFile.toString(), StandardCharsets.UTF_8)
+                      .putBytes(contentHash.get().asBytes())
+                      .hash());
+            },
+            new Codec(superRootPath)));
+  }
+
+  @Override
+  public Optional<BuildFileManifest> get(BuildPackagePathToBuildFileManifestKey key) {
+    Optional<BuildFileManifest> manifest = memoryCache.get(key);
+    if (manifest.isPresent()) {
+      return manifest;
+    }
+    manifest = persistentCache.get(key);
+    manifest.ifPresent(value -> memoryCache.put(key, value));
+    return manifest;
+  }
+
+  @Override
+  public void put(BuildPackagePathToBuildFileManifestKey key, BuildFileManifest manifest) {
+    memoryCache.put(key, manifest);
+    persistentCache.put(key, manifest);
+  }
+
+  /** @return the hash of the contents of {@code path}, or empty if it does not exist */
+  private static Optional<HashCode> hashFile(Path path) throws IOException {
+    try {
+      return Optional.of(Hashing.sha1().hashBytes(Files.readAllBytes(path)));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Stores the includes of a manifest together with the hashes of their contents, followed by the
+   * manifest itself.
+   */
+  private static class Codec implements PersistentGraphEngineCache.Codec<BuildFileManifest> {
+
+    private final Path superRootPath;
+
+    private Codec(Path superRootPath) {
+      this.superRootPath = superRootPath;
+    }
+
+    @Override
+    public Optional<byte[]> encode(BuildFileManifest manifest) throws IOException {
+      if (!manifest.getErrors().isEmpty()
+          || !manifest.getGlobManifest().isEmpty()
+          || manifest.getEnv().map(env -> !env.isEmpty()).orElse(false)) {
+        return Optional.empty();
+      }
+      Optional<byte[]> encodedManifest = ParserStateSnapshot.encodeBuildFileManifest(manifest);
+      if (!encodedManifest.isPresent()) {
+        return Optional.empty();
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(manifest.getIncludes().size());
+      for (String include : manifest.getIncludes()) {
+        Optional<HashCode> includeHash = hashFile(superRootPath.resolve(include));
+        if (!includeHash.isPresent()) {
+          return Optional.empty();
+        }
+        out.writeUTF(include);
+        out.writeInt(includeHash.get().bits() / Byte.SIZE);
+        out.write(includeHash.get().asBytes());
+      }
+      out.writeInt(encodedManifest.get().length);
+      out.write(encodedManifest.get());
+      out.flush();
+      return Optional.of(bytes.toByteArray());
+    }
+
+    @Override
+    public Optional<BuildFileManifest> decode(byte[] bytes) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      int includeCount = in.readInt();
+      for (int i = 0; i < includeCount; i++) {
+        String include = in.readUTF();
+        byte[] storedHash = new byte[in.readInt()];
+        in.readFully(storedHash);
+        Optional<HashCode> includeHash = hashFile(superRootPath.resolve(include));
+        if (!includeHash.isPresent() || !includeHash.get().equals(HashCode.fromBytes(storedHash))) {
+          return Optional.empty();
+        }
+      }
+      byte[] encodedManifest = new byte[in.readInt()];
+      in.readFully(encodedManifest);
+      return Optional.of(ParserStateSnapshot.decodeBuildFileManifest(encodedManifest));
+    }
+  }
+}
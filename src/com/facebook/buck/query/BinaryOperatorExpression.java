@@ -119,7 +119,13 @@ final class BinaryOperatorExpression<NODE_TYPE> extends QueryExpression<NODE_TYP
   <OUTPUT_TYPE extends QueryTarget> Set<OUTPUT_TYPE> eval(
       QueryEvaluator<NODE_TYPE> evaluator, QueryEnvironment<NODE_TYPE> env) throws QueryException {
     ImmutableList<QueryExpression<NODE_TYPE>> operands = getOperands();
-    Set<QueryTarget> lhsValue = new LinkedHashSet<>(evaluator.eval(operands.get(0), env));
+    Set<QueryTarget> firstValue = evaluator.eval(operands.get(0), env);
+    // Keep the representation of indexed sets, so operations with other sets over the same index
+    // work on whole words.
+    Set<QueryTarget> lhsValue =
+        firstValue instanceof IndexedTargetSet
+            ? IndexedTargetSet.copyOf((IndexedTargetSet<QueryTarget>) firstValue)
+            : new LinkedHashSet<>(firstValue);
 
     for (int i = 1; i < operands.size(); i++) {
       Set<QueryTarget> rhsValue = evaluator.eval(operands.get(i), env);
@@ -18,17 +18,43 @@ package com.facebook.buck.query;
 
 import com.facebook.buck.core.model.QueryTarget;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * Evaluates each distinct query expression once, and keeps its result for as long as the evaluator
+ * is used, so its results must not depend on anything that can change in the meantime.
+ *
+ * <p>Results are kept as {@link IndexedTargetSet}s over one numbering of all the targets this
+ * evaluator has seen, so that set operations between them work on words rather than on targets.
+ * Results much smaller than that numbering are kept as they are, since a bit set over it would take
+ * more memory than the targets themselves.
+ *
+ * <p>Given a {@link QueryResultStore}, it also looks up the results of expressions it has not
+ * evaluated yet there, and stores the results of those it evaluates.
+ */
 public class CachingQueryEvaluator<ENV_NODE_TYPE> implements QueryEvaluator<ENV_NODE_TYPE> {
   private final Cache<QueryExpression<?>, Set<?>> cache;
+  private final QueryTargetIndex<QueryTarget> index = new QueryTargetIndex<>();
+  private final Optional<QueryResultStore.View> store;
+  private final Set<QueryExpression<ENV_NODE_TYPE>> storedExpressions =
+      Collections.synchronizedSet(new LinkedHashSet<>());
 
   public CachingQueryEvaluator() {
+    this(Optional.empty());
+  }
+
+  public CachingQueryEvaluator(Optional<QueryResultStore.View> store) {
     this.cache = CacheBuilder.newBuilder().build();
+    this.store = store;
   }
 
   @Override
@@ -37,10 +63,48 @@ public class CachingQueryEvaluator<ENV_NODE_TYPE> implements QueryEvaluator<ENV_
       QueryExpression<ENV_NODE_TYPE> exp, QueryEnvironment<ENV_NODE_TYPE> env)
       throws QueryException {
     try {
-      return (Set<OUTPUT_TYPE>) cache.get(exp, () -> exp.eval(this, env));
+      return (Set<OUTPUT_TYPE>) cache.get(exp, () -> index(evalOrLookUp(exp, env)));
     } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), QueryException.class);
       throw new QueryException(e, "Failed executing query [%s]", exp);
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  private Set<QueryTarget> evalOrLookUp(
+      QueryExpression<ENV_NODE_TYPE> exp, QueryEnvironment<ENV_NODE_TYPE> env)
+      throws QueryException {
+    if (!store.isPresent()) {
+      return exp.eval(this, env);
+    }
+    Optional<Set<QueryTarget>> stored = store.get().get(exp);
+    if (stored.isPresent()) {
+      storedExpressions.add(exp);
+      return stored.get();
+    }
+    Set<QueryTarget> result = exp.eval(this, env);
+    store.get().put(exp, result);
+    return result;
+  }
+
+  /**
+   * @return the expressions whose results were looked up in the store rather than evaluated, so the
+   *     environment has not seen the targets they would have led it to.
+   */
+  public Set<QueryExpression<ENV_NODE_TYPE>> getStoredExpressions() {
+    synchronized (storedExpressions) {
+      return new LinkedHashSet<>(storedExpressions);
+    }
+  }
+
+  private Set<QueryTarget> index(Set<QueryTarget> result) {
+    if (!(result instanceof IndexedTargetSet)
+        && (long) result.size() * Long.SIZE < index.size()) {
+      return result;
     }
+    return IndexedTargetSet.copyOf(index, result);
   }
 
   @VisibleForTesting
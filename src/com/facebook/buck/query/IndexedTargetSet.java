@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * A set of targets stored as a bit set over the numbers a {@link QueryTargetIndex} gives them.
+ *
+ * <p>Union, intersection and difference with another set over the same index work a word of 64
+ * targets at a time instead of hashing every target. Sets over different indexes, or other
+ * collections, fall back to adding, looking up and removing targets one by one. Iterates in the
+ * order in which targets were numbered.
+ *
+ * <p>Not thread safe, although sets over the same index may be used by different threads.
+ */
+final class IndexedTargetSet<T> extends AbstractSet<T> {
+
+  private final QueryTargetIndex<T> index;
+  private final BitSet bits;
+
+  private IndexedTargetSet(QueryTargetIndex<T> index, BitSet bits) {
+    this.index = index;
+    this.bits = bits;
+  }
+
+  IndexedTargetSet(QueryTargetIndex<T> index) {
+    this(index, new BitSet());
+  }
+
+  /** @return a mutable copy of {@code targets} over {@code index}. */
+  @SuppressWarnings("unchecked")
+  static <T> IndexedTargetSet<T> copyOf(
+      QueryTargetIndex<T> index, Collection<? extends T> targets) {
+    if (targets instanceof IndexedTargetSet && ((IndexedTargetSet<?>) targets).index == index) {
+      return new IndexedTargetSet<>(index, (BitSet) ((IndexedTargetSet<T>) targets).bits.clone());
+    }
+    IndexedTargetSet<T> result = new IndexedTargetSet<>(index);
+    result.addAll(targets);
+    return result;
+  }
+
+  /** @return a mutable copy of {@code targets} over the same index. */
+  static <T> IndexedTargetSet<T> copyOf(IndexedTargetSet<T> targets) {
+    return new IndexedTargetSet<>(targets.index, (BitSet) targets.bits.clone());
+  }
+
+  /** @return the bits of {@code other}, if it is a set over the same index. */
+  @Nullable
+  private BitSet getBitsOverSameIndex(Collection<?> other) {
+    if (other instanceof IndexedTargetSet && ((IndexedTargetSet<?>) other).index == index) {
+      return ((IndexedTargetSet<?>) other).bits;
+    }
+    return null;
+  }
+
+  @Override
+  public int size() {
+    return bits.cardinality();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return bits.isEmpty();
+  }
+
+  @Override
+  public boolean contains(Object target) {
+    int id = index.getId(target);
+    return id >= 0 && bits.get(id);
+  }
+
+  @Override
+  public boolean add(T target) {
+    int id = index.getOrAssignId(target);
+    if (bits.get(id)) {
+      return false;
+    }
+    bits.set(id);
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object target) {
+    int id = index.getId(target);
+    if (id < 0 || !bits.get(id)) {
+      return false;
+    }
+    bits.clear(id);
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> targets) {
+    BitSet otherBits = getBitsOverSameIndex(targets);
+    if (otherBits == null) {
+      return super.addAll(targets);
+    }
+    int sizeBefore = bits.cardinality();
+    bits.or(otherBits);
+    return bits.cardinality() != sizeBefore;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> targets) {
+    BitSet otherBits = getBitsOverSameIndex(targets);
+    if (otherBits == null) {
+      return super.retainAll(targets);
+    }
+    int sizeBefore = bits.cardinality();
+    bits.and(otherBits);
+    return bits.cardinality() != sizeBefore;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> targets) {
+    BitSet otherBits = getBitsOverSameIndex(targets);
+    if (otherBits == null) {
+      return super.removeAll(targets);
+    }
+    int sizeBefore = bits.cardinality();
+    bits.andNot(otherBits);
+    return bits.cardinality() != sizeBefore;
+  }
+
+  @Override
+  public boolean containsAll(Collection<?> targets) {
+    BitSet otherBits = getBitsOverSameIndex(targets);
+    if (otherBits == null) {
+      return super.containsAll(targets);
+    }
+    BitSet missing = (BitSet) otherBits.clone();
+    missing.andNot(bits);
+    return missing.isEmpty();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof Collection)) {
+      return false;
+    }
+    BitSet otherBits = getBitsOverSameIndex((Collection<?>) other);
+    if (otherBits == null) {
+      return super.equals(other);
+    }
+    return bits.equals(otherBits);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    Object[] targets = index.getTargets();
+    return new Iterator<T>() {
+      private int next = bits.nextSetBit(0);
+      private int last = -1;
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = bits.nextSetBit(next + 1);
+        return (T) targets[last];
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        bits.clear(last);
+        last = -1;
+      }
+    };
+  }
+}
@@ -34,6 +34,7 @@ import com.facebook.buck.core.model.QueryTarget;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -241,6 +242,16 @@ public interface QueryEnvironment<NODE_TYPE> {
   /** Returns the direct reverse dependencies of the specified targets. */
   Set<NODE_TYPE> getReverseDeps(Iterable<NODE_TYPE> targets) throws QueryException;
 
+  /**
+   * Returns the reverse dependencies of {@code targets} within the transitive closure of {@code
+   * universe}, up to {@code maxDepth} levels away, in the order in which {@link RdepsFunction}
+   * visits them, if they can be found without building that closure.
+   */
+  default Optional<Set<NODE_TYPE>> getReverseDepsWithinUniverse(
+      Set<NODE_TYPE> universe, Set<NODE_TYPE> targets, int maxDepth) throws QueryException {
+    return Optional.empty();
+  }
+
   Set<QueryFileTarget> getInputs(NODE_TYPE target) throws QueryException;
 
   /**
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import com.facebook.buck.core.model.QueryTarget;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps the results of query expressions across queries, e.g. across the commands run by a daemon,
+ * until whatever they were computed from changes and the owner of the store calls {@link
+ * #invalidateAll()}.
+ *
+ * <p>Results are kept per context, which stands for everything besides the expression that the
+ * result of an expression depends on, such as the target configuration a query is run with.
+ */
+@ThreadSafe
+public final class QueryResultStore {
+
+  /** The number of targets kept across all results before the least recently used are dropped. */
+  private static final long MAX_TARGETS = 1L << 22;
+
+  private final Cache<Key, Set<QueryTarget>> results;
+  private final AtomicLong generation = new AtomicLong();
+
+  public QueryResultStore() {
+    this(MAX_TARGETS);
+  }
+
+  QueryResultStore(long maxTargets) {
+    this.results =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxTargets)
+            .weigher((Key key, Set<QueryTarget> result) -> result.size() + 1)
+            .build();
+  }
+
+  /**
+   * @return a view of the results for {@code context}. Results computed after the store is
+   *     invalidated are not stored through the view, as they may have been computed from state
+   *     which was read before.
+   */
+  public View view(Object context) {
+    return new View(context, generation.get());
+  }
+
+  /** Drops all the results. */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    results.invalidateAll();
+  }
+
+  /** The results of a {@link QueryResultStore} for one context. */
+  public final class View {
+    private final Object context;
+    private final long viewGeneration;
+
+    private View(Object context, long viewGeneration) {
+      this.context = context;
+      this.viewGeneration = viewGeneration;
+    }
+
+    /** @return the stored result of {@code exp}, if any. */
+    public Optional<Set<QueryTarget>> get(QueryExpression<?> exp) {
+      if (viewGeneration != generation.get()) {
+        return Optional.empty();
+      }
+      return Optional.ofNullable(results.getIfPresent(new Key(exp, context)));
+    }
+
+    /** Stores a copy of the result of {@code exp}. */
+    public void put(QueryExpression<?> exp, Set<? extends QueryTarget> result) {
+      if (viewGeneration != generation.get()) {
+        return;
+      }
+      results.put(new Key(exp, context), Collections.unmodifiableSet(new LinkedHashSet<>(result)));
+      if (viewGeneration != generation.get()) {
+        // The store was invalidated while the result was being put.
+        results.invalidate(new Key(exp, context));
+      }
+    }
+  }
+
+  private static final class Key {
+    private final QueryExpression<?> exp;
+    private final Object context;
+    private final int hash;
+
+    Key(QueryExpression<?> exp, Object context) {
+      this.exp = exp;
+      this.context = context;
+      this.hash = Objects.hash(exp, context);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) other;
+      return hash == that.hash && exp.equals(that.exp) && context.equals(that.context);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Numbers targets densely in the order in which they are first seen, so that sets of them can be
+ * stored as {@link IndexedTargetSet}s. Numbers are never reused, so an index only grows.
+ */
+@ThreadSafe
+final class QueryTargetIndex<T> {
+
+  @GuardedBy("this")
+  private final Map<T, Integer> ids = new HashMap<>();
+
+  @GuardedBy("this")
+  private Object[] targets = new Object[16];
+
+  /** @return the number of {@code target}, which is assigned if it has none yet. */
+  synchronized int getOrAssignId(T target) {
+    Integer id = ids.get(target);
+    if (id != null) {
+      return id;
+    }
+    int newId = ids.size();
+    if (newId == targets.length) {
+      targets = Arrays.copyOf(targets, newId * 2);
+    }
+    targets[newId] = target;
+    ids.put(target, newId);
+    return newId;
+  }
+
+  /** @return the number of {@code target}, or -1 if it has none. */
+  synchronized int getId(Object target) {
+    Integer id = ids.get(target);
+    return id == null ? -1 : id;
+  }
+
+  /** @return the number of targets numbered so far. */
+  synchronized int size() {
+    return ids.size();
+  }
+
+  /**
+   * @return the targets numbered so far, by number. Each entry is written once, and the array is
+   *     replaced rather than resized when the index grows, so the targets numbered before this call
+   *     can be read from it without holding a lock.
+   */
+  synchronized Object[] getTargets() {
+    return targets;
+  }
+}
@@ -38,6 +38,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import java.util.LinkedHashSet;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -81,6 +82,14 @@ public class RdepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
       QueryEvaluator<T> evaluator, QueryEnvironment<T> env, ImmutableList<Argument<T>> args)
       throws QueryException {
     Set<T> universeSet = evaluator.eval(args.get(0).getExpression(), env);
+    Set<T> current = evaluator.eval(args.get(1).getExpression(), env);
+    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
+    Optional<Set<T>> reverseDeps =
+        env.getReverseDepsWithinUniverse(universeSet, current, depthBound);
+    if (reverseDeps.isPresent()) {
+      return reverseDeps.get();
+    }
+
     env.buildTransitiveClosure(universeSet, Integer.MAX_VALUE);
     Set<T> transitiveClosureUniverse = env.getTransitiveClosure(universeSet);
 
@@ -88,7 +97,6 @@ public class RdepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
     // The order by which we traverse the result is meaningful because the dependencies are
     // traversed level-by-level.
     Set<T> visited = new LinkedHashSet<>();
-    Set<T> current = evaluator.eval(args.get(1).getExpression(), env);
 
     // This predicate function does not just do filtering but also populates visited collection.
     // This is a bit ugly but enables to evaluate the collection exactly once
@@ -97,7 +105,6 @@ public class RdepsFunction<T extends QueryTarget> implements QueryFunction<T, T>
     Predicate<T> filter =
         target -> (transitiveClosureUniverse.contains(target) && visited.add(target));
 
-    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
     // Iterating depthBound+1 times because the first one processes the given argument set.
     for (int i = 0; i <= depthBound; i++) {
       Set<T> next = env.getReverseDeps(Iterables.filter(current, filter));
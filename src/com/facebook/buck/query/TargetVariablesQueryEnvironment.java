@@ -19,6 +19,7 @@ package com.facebook.buck.query;
 import com.facebook.buck.core.model.QueryTarget;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -52,6 +53,12 @@ public class TargetVariablesQueryEnvironment<NODE_TYPE> implements QueryEnvironm
     return delegate.getReverseDeps(targets);
   }
 
+  @Override
+  public Optional<Set<NODE_TYPE>> getReverseDepsWithinUniverse(
+      Set<NODE_TYPE> universe, Set<NODE_TYPE> targets, int maxDepth) throws QueryException {
+    return delegate.getReverseDepsWithinUniverse(universe, targets, maxDepth);
+  }
+
   @Override
   public Set<QueryFileTarget> getInputs(NODE_TYPE target) throws QueryException {
     return delegate.getInputs(target);
@@ -21,6 +21,7 @@ import com.google.common.collect.Iterables;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -45,6 +46,7 @@ class Unions {
    * @param f function that produces a {@link java.util.Set} that can be assumed to be immutable.
    * @param sources inputs to pass to <code>f</code>
    */
+  @SuppressWarnings("unchecked")
   static <I, T extends QueryTarget> Set<T> of(SourceToSetFunction<I, T> f, Collection<I> sources)
       throws QueryException {
     int size = sources.size();
@@ -53,9 +55,15 @@ class Unions {
     } else if (size == 1) {
       return f.toSet(Iterables.getOnlyElement(sources));
     } else {
-      Set<T> out = new HashSet<>();
-      for (I source : sources) {
-        out.addAll(f.toSet(source));
+      Iterator<I> iterator = sources.iterator();
+      Set<T> first = f.toSet(iterator.next());
+      // Sets over the same index are united a word at a time.
+      Set<T> out =
+          first instanceof IndexedTargetSet
+              ? IndexedTargetSet.copyOf((IndexedTargetSet<T>) first)
+              : new HashSet<>(first);
+      while (iterator.hasNext()) {
+        out.addAll(f.toSet(iterator.next()));
       }
       return out;
     }
@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -64,6 +65,20 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   private final ConcurrentHashMap<RuleKeyInput, Stream.Builder<Object>> inputsIndex =
       new ConcurrentHashMap<>();
 
+  private final Optional<PersistentRuleKeyStore> persistentStore;
+
+  public DefaultRuleKeyCache() {
+    this(Optional.empty());
+  }
+
+  /**
+   * @param persistentStore a store which the rule key factory can keep rule keys in beyond the
+   *     lifetime of this cache. Invalidations of inputs are forwarded to it.
+   */
+  public DefaultRuleKeyCache(Optional<PersistentRuleKeyStore> persistentStore) {
+    this.persistentStore = persistentStore;
+  }
+
   private <K> V calculateNode(K node, Function<K, RuleKeyResult<V>> create) {
     Preconditions.checkArgument(
         node instanceof BuildEngineAction || node instanceof AddsToRuleKey,
@@ -184,6 +199,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   /** Invalidate the given inputs and all their transitive dependents. */
   @Override
   public void invalidateInputs(Iterable<RuleKeyInput> inputs, CacheStatsTracker statsTracker) {
+    persistentStore.ifPresent(store -> store.invalidateInputs(inputs));
     List<Stream<Object>> nodes = new ArrayList<>();
     for (RuleKeyInput input : inputs) {
       LOG.verbose("invalidating input %s", input);
@@ -204,6 +220,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
   @Override
   public void invalidateAllExceptFilesystems(
       ImmutableSet<ProjectFilesystem> filesystems, CacheStatsTracker statsTracker) {
+    persistentStore.ifPresent(store -> store.invalidateAllExceptFilesystems(filesystems));
     if (filesystems.isEmpty()) {
       invalidateAll(statsTracker);
     } else {
@@ -220,6 +237,7 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
    */
   @Override
   public void invalidateFilesystem(ProjectFilesystem filesystem, CacheStatsTracker statsTracker) {
+    persistentStore.ifPresent(store -> store.invalidateFilesystem(filesystem));
     invalidateInputs(
         inputsIndex.keySet().stream()
             .filter(input -> filesystem.equals(input.getFilesystem()))
@@ -235,6 +253,11 @@ public class DefaultRuleKeyCache<V> implements TrackableRuleKeyCache<V> {
     inputsIndex.clear();
   }
 
+  @Override
+  public Optional<PersistentRuleKeyStore> getPersistentStore() {
+    return persistentStore;
+  }
+
   @Override
   public ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules() {
     ImmutableList.Builder<Map.Entry<BuildRule, V>> builder = ImmutableList.builder();
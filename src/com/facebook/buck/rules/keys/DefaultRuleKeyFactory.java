@@ -17,6 +17,7 @@
 package com.facebook.buck.rules.keys;
 
 import com.facebook.buck.core.build.action.BuildEngineAction;
+import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.BuildRule;
@@ -26,26 +27,43 @@ import com.facebook.buck.core.rules.attr.HasDeclaredAndExtraDeps;
 import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
 import com.facebook.buck.core.sourcepath.PathSourcePath;
 import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
 import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
 import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Equivalence;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 
-/** A {@link RuleKeyFactory} which adds some default settings to {@link RuleKey}s. */
+/**
+ * A {@link RuleKeyFactory} which adds some default settings to {@link RuleKey}s.
+ *
+ * <p>If the {@link RuleKeyCache} has a {@link PersistentRuleKeyStore}, rule keys are looked up in
+ * it by their structural key before they are calculated, which saves hashing their inputs. The
+ * structural key is calculated like the rule key, but with the structural keys of deps in place of
+ * their rule keys and without the contents of source files.
+ */
 public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<RuleKey> {
 
+  /** Stands in for the hash of every source file in structural keys. */
+  private static final HashCode UNHASHED_FILE = HashCode.fromBytes(new byte[20]);
+
   private final RuleKeyFieldLoader ruleKeyFieldLoader;
   private final FileHashLoader hashLoader;
   private final SourcePathRuleFinder ruleFinder;
   private final RuleKeyCache<RuleKey> ruleKeyCache;
   private final Optional<ThriftRuleKeyLogger> ruleKeyLogger;
+  private final ConcurrentMap<Equivalence.Wrapper<Object>, StructuralKey> structuralKeys =
+      new ConcurrentHashMap<>();
 
   public DefaultRuleKeyFactory(
       RuleKeyFieldLoader ruleKeyFieldLoader,
@@ -87,7 +105,16 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
 
   private <HASH> Builder<HASH> newPopulatedBuilder(
       BuildEngineAction action, RuleKeyHasher<HASH> hasher) {
-    Builder<HASH> builder = new Builder<>(hasher);
+    return populate(new Builder<>(hasher), action);
+  }
+
+  private <HASH> Builder<HASH> newPopulatedBuilder(
+      AddsToRuleKey appendable, RuleKeyHasher<HASH> hasher) {
+    return populate(new Builder<>(hasher), appendable);
+  }
+
+  private <BUILDER extends AbstractRuleKeyBuilder<?>> BUILDER populate(
+      BUILDER builder, BuildEngineAction action) {
     ruleKeyFieldLoader.setFields(builder, action, RuleKeyType.DEFAULT);
     if (action instanceof BuildRule) {
       addDepsToRuleKey((BuildRule) action, builder);
@@ -95,13 +122,19 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
     return builder;
   }
 
-  private <HASH> Builder<HASH> newPopulatedBuilder(
-      AddsToRuleKey appendable, RuleKeyHasher<HASH> hasher) {
-    Builder<HASH> builder = new Builder<>(hasher);
+  private <BUILDER extends AbstractRuleKeyBuilder<?>> BUILDER populate(
+      BUILDER builder, AddsToRuleKey appendable) {
     AlterRuleKeys.amendKey(builder, appendable);
     return builder;
   }
 
+  private <BUILDER extends AbstractRuleKeyBuilder<?>> BUILDER populate(
+      BUILDER builder, Object node) {
+    return node instanceof BuildEngineAction
+        ? populate(builder, (BuildEngineAction) node)
+        : populate(builder, (AddsToRuleKey) node);
+  }
+
   @VisibleForTesting
   public Builder<HashCode> newBuilderForTesting(BuildRule buildRule) {
     return newPopulatedBuilder(buildRule, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger));
@@ -115,19 +148,96 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
 
   @Override
   public RuleKey build(BuildEngineAction action) {
-    return ruleKeyCache.get(
-        action,
-        rule ->
-            newPopulatedBuilder(rule, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger))
-                .buildResult(RuleKey::new));
+    return ruleKeyCache.get(action, this::calculate);
   }
 
   private RuleKey buildAppendableKey(AddsToRuleKey appendable) {
-    return ruleKeyCache.get(
-        appendable,
-        app ->
-            newPopulatedBuilder(app, RuleKeyBuilder.createDefaultHasher(ruleKeyLogger))
-                .buildResult(RuleKey::new));
+    return ruleKeyCache.get(appendable, this::calculate);
+  }
+
+  /** Calculates the rule key of a rule or appendable, unless the persistent store has it. */
+  private RuleKeyResult<RuleKey> calculate(Object node) {
+    Optional<PersistentRuleKeyStore> store = ruleKeyCache.getPersistentStore();
+    // Rule keys served from the store wouldn't be logged.
+    if (!store.isPresent() || ruleKeyLogger.isPresent()) {
+      return calculateUnstored(node);
+    }
+    StructuralKey structuralKey = getStructuralKey(node);
+    if (!structuralKey.storable) {
+      return calculateUnstored(node);
+    }
+    HashCode storedRuleKey = store.get().get(structuralKey.key);
+    if (storedRuleKey != null) {
+      structuralKey.steps = null;
+      return new RuleKeyResult<>(
+          new RuleKey(storedRuleKey), structuralKey.deps, structuralKey.inputs);
+    }
+    RuleKeyResult<RuleKey> result = calculateFromSteps(structuralKey);
+    store
+        .get()
+        .put(
+            structuralKey.key,
+            result.result.getHashCode(),
+            structuralKey.depStructuralKeys,
+            result.inputs);
+    return result;
+  }
+
+  private RuleKeyResult<RuleKey> calculateUnstored(Object node) {
+    return populate(new Builder<>(RuleKeyBuilder.createDefaultHasher(ruleKeyLogger)), node)
+        .buildResult(RuleKey::new);
+  }
+
+  /**
+   * Calculates the rule key by replaying what the structural key was calculated from, with the
+   * hashes of files and the rule keys of deps filled in, rather than walking the fields again.
+   */
+  private RuleKeyResult<RuleKey> calculateFromSteps(StructuralKey structuralKey) {
+    ImmutableList<RecordingRuleKeyHasher.Step> steps = structuralKey.steps;
+    if (steps == null) {
+      return calculateUnstored(structuralKey.node);
+    }
+    structuralKey.steps = null;
+    HashCode ruleKey;
+    try {
+      ruleKey =
+          RecordingRuleKeyHasher.replay(
+              steps,
+              RuleKeyBuilder.createDefaultHasher(Optional.empty()),
+              new RecordingRuleKeyHasher.Resolver() {
+                @Override
+                public HashCode getFileHash(ProjectFilesystem filesystem, Path path)
+                    throws IOException {
+                  return hashLoader.get(filesystem, path);
+                }
+
+                @Override
+                public RuleKey getRuleKey(Object dep) {
+                  return dep instanceof BuildEngineAction
+                      ? build((BuildEngineAction) dep)
+                      : buildAppendableKey((AddsToRuleKey) dep);
+                }
+              });
+    } catch (IOException e) {
+      throw new BuckUncheckedExecutionException(
+          e, String.format("When calculating the rule key of %s", structuralKey.node));
+    }
+    return new RuleKeyResult<>(new RuleKey(ruleKey), structuralKey.deps, structuralKey.inputs);
+  }
+
+  private StructuralKey getStructuralKey(Object node) {
+    Equivalence.Wrapper<Object> wrapper = Equivalence.identity().wrap(node);
+    StructuralKey structuralKey = structuralKeys.get(wrapper);
+    if (structuralKey == null) {
+      // Not computeIfAbsent(), as this recurses into the deps of the node.
+      RecordingRuleKeyHasher hasher =
+          new RecordingRuleKeyHasher(RuleKeyBuilder.createDefaultHasher(Optional.empty()));
+      structuralKey =
+          populate(new StructuralKeyBuilder(new StructuralHashLoader(hasher), hasher), node)
+              .buildStructuralKey(node);
+      structuralKeys.putIfAbsent(wrapper, structuralKey);
+    }
+    return structuralKey;
   }
 
   @Override
@@ -158,6 +268,158 @@ public class DefaultRuleKeyFactory implements RuleKeyFactoryWithDiagnostics<Rule
     }
   }
 
+  /** The structural key of a rule or appendable, and what it was calculated from. */
+  private static class StructuralKey {
+    private final Object node;
+    private final HashCode key;
+    private final ImmutableList<Object> deps;
+    private final ImmutableList<HashCode> depStructuralKeys;
+    private final ImmutableList<RuleKeyInput> inputs;
+
+    /**
+     * Whether the rule key can be stored, i.e. whether invalidating its inputs and those of its
+     * deps is enough to tell when it changes.
+     */
+    private final boolean storable;
+
+    /**
+     * What the structural key was calculated from, kept to calculate the rule key from, if the
+     * store doesn't have it, and dropped as soon as the rule key is known.
+     */
+    @Nullable private volatile ImmutableList<RecordingRuleKeyHasher.Step> steps;
+
+    private StructuralKey(
+        Object node,
+        HashCode key,
+        ImmutableList<Object> deps,
+        ImmutableList<HashCode> depStructuralKeys,
+        ImmutableList<RuleKeyInput> inputs,
+        boolean storable,
+        @Nullable ImmutableList<RecordingRuleKeyHasher.Step> steps) {
+      this.node = node;
+      this.key = key;
+      this.deps = deps;
+      this.depStructuralKeys = depStructuralKeys;
+      this.inputs = inputs;
+      this.storable = storable;
+      this.steps = steps;
+    }
+  }
+
+  /**
+   * Hashes every file under a project filesystem, which {@link Builder} tracks as inputs, to {@link
+   * #UNHASHED_FILE}, marking it in the recording to be hashed for real when the rule key is
+   * calculated, and records whether any other file was hashed.
+   */
+  private static class StructuralHashLoader implements FileHashLoader {
+    private final RecordingRuleKeyHasher hasher;
+    private boolean hashedUntrackedFile = false;
+
+    private StructuralHashLoader(RecordingRuleKeyHasher hasher) {
+      this.hasher = hasher;
+    }
+
+    @Override
+    public HashCode get(ProjectFilesystem filesystem, Path path) {
+      hasher.setFilePlaceholder(filesystem, path);
+      return UNHASHED_FILE;
+    }
+
+    @Override
+    public HashCode get(Path path) {
+      hashedUntrackedFile = true;
+      return UNHASHED_FILE;
+    }
+
+    @Override
+    public long getSize(Path path) {
+      hashedUntrackedFile = true;
+      return 0;
+    }
+
+    @Override
+    public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath) {
+      hashedUntrackedFile = true;
+      return UNHASHED_FILE;
+    }
+  }
+
+  /** Calculates structural keys, tracking deps and inputs the same way as {@link Builder}. */
+  private class StructuralKeyBuilder extends RuleKeyBuilder<HashCode> {
+
+    private final StructuralHashLoader hashLoader;
+    private final RecordingRuleKeyHasher hasher;
+    private final ImmutableList.Builder<Object> deps = ImmutableList.builder();
+    private final ImmutableList.Builder<HashCode> depStructuralKeys = ImmutableList.builder();
+    private final ImmutableList.Builder<RuleKeyInput> inputs = ImmutableList.builder();
+    private boolean storableDeps = true;
+
+    private StructuralKeyBuilder(StructuralHashLoader hashLoader, RecordingRuleKeyHasher hasher) {
+      super(ruleFinder, hashLoader, hasher);
+      this.hashLoader = hashLoader;
+      this.hasher = hasher;
+    }
+
+    private RuleKey addDep(Object dep) {
+      StructuralKey depStructuralKey = getStructuralKey(dep);
+      deps.add(dep);
+      depStructuralKeys.add(depStructuralKey.key);
+      storableDeps &= depStructuralKey.storable;
+      hasher.setDepPlaceholder(dep);
+      return new RuleKey(depStructuralKey.key);
+    }
+
+    @Override
+    protected AbstractRuleKeyBuilder<HashCode> setAction(Action action) {
+      return setActionRuleKey(addDep(action));
+    }
+
+    @Override
+    protected RuleKeyBuilder<HashCode> setBuildRule(BuildRule rule) {
+      return setBuildRuleKey(addDep(rule));
+    }
+
+    @Override
+    protected RuleKeyBuilder<HashCode> setAddsToRuleKey(AddsToRuleKey appendable) {
+      return setAddsToRuleKey(addDep(appendable));
+    }
+
+    @Override
+    protected RuleKeyBuilder<HashCode> setSourcePath(SourcePath sourcePath) throws IOException {
+      if (sourcePath instanceof BuildTargetSourcePath) {
+        return setSourcePathAsRule((BuildTargetSourcePath) sourcePath);
+      } else {
+        PathSourcePath.from(sourcePath)
+            .ifPresent(
+                path ->
+                    inputs.add(
+                        ImmutableRuleKeyInput.of(path.getFilesystem(), path.getRelativePath())));
+        return setSourcePathDirectly(sourcePath);
+      }
+    }
+
+    @Override
+    protected RuleKeyBuilder<HashCode> setNonHashingSourcePath(SourcePath sourcePath) {
+      try {
+        return setSourcePath(sourcePath);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private StructuralKey buildStructuralKey(Object node) {
+      boolean storable = storableDeps && !hashLoader.hashedUntrackedFile;
+      return new StructuralKey(
+          node,
+          build(),
+          deps.build(),
+          depStructuralKeys.build(),
+          inputs.build(),
+          storable,
+          storable ? hasher.getSteps() : null);
+    }
+  }
+
   public class Builder<RULE_KEY> extends RuleKeyBuilder<RULE_KEY> {
 
     private final ImmutableList.Builder<Object> deps = ImmutableList.builder();
@@ -0,0 +1,598 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Default rule keys which outlive the daemon that calculated them.
+ *
+ * <p>Entries are keyed by a structural key, which {@link DefaultRuleKeyFactory} calculates from
+ * everything the rule key is calculated from except the contents of source files. An entry stays
+ * valid for as long as none of those files change, so it records them together with the structural
+ * keys of the rules and appendables it depends on, and it is dropped together with all its
+ * transitive dependents when one of them is invalidated. Unlike the instances cached by {@link
+ * DefaultRuleKeyCache}, structural keys don't change when a new action graph is created.
+ *
+ * <p>The number of entries is bounded. When it is exceeded, the least recently used entries are
+ * dropped, again together with their transitive dependents. Lookups and additions don't lock the
+ * store, so that they can be made from many threads calculating rule keys.
+ *
+ * <p>Like a {@code ParserStateSnapshot}, a saved store is only meaningful together with the
+ * Watchman clocks it was saved at, and with a key identifying the buck version and configuration.
+ * A store is saved as a journal: saving it again only appends the entries added and removed since,
+ * followed by the new clocks, until the journal is compacted by rewriting it.
+ */
+public class PersistentRuleKeyStore {
+
+  private static final Logger LOG = Logger.get(PersistentRuleKeyStore.class);
+
+  private static final int SNAPSHOT_MAGIC = 0xB0C4EE75;
+  private static final int SNAPSHOT_VERSION = 2;
+
+  private static final byte TAG_ENTRY = 1;
+  private static final byte TAG_REMOVAL = 2;
+  private static final byte TAG_CLOCKS = 3;
+
+  /** The journal is rewritten once it has this many records for each entry of the store. */
+  private static final int MAX_JOURNAL_RECORDS_PER_ENTRY = 2;
+
+  /** ...but not before it has this many records in total. */
+  private static final int MIN_JOURNAL_RECORDS_TO_COMPACT = 1024;
+
+  private final int maxEntries;
+
+  private final ConcurrentHashMap<HashCode, Entry> entries = new ConcurrentHashMap<>();
+
+  /** The structural keys of the entries depending on each entry. */
+  private final ConcurrentHashMap<HashCode, Set<HashCode>> dependents = new ConcurrentHashMap<>();
+
+  /** The structural keys of the entries using each input. */
+  private final ConcurrentHashMap<Input, Set<HashCode>> inputsIndex = new ConcurrentHashMap<>();
+
+  /**
+   * The entries added and removed since the store was last saved, in the order of the changes for
+   * every structural key.
+   */
+  private final Queue<Record> unsavedRecords = new ConcurrentLinkedQueue<>();
+
+  /** Advanced whenever an entry is added, and recorded in entries when they are looked up. */
+  private final AtomicLong accessClock = new AtomicLong();
+
+  private final AtomicLong modificationCount = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+
+  /** The journal which this store was last saved to or read from, if it can be appended to. */
+  @GuardedBy("this")
+  @Nullable
+  private Path journalPath;
+
+  @GuardedBy("this")
+  @Nullable
+  private String journalKey;
+
+  @GuardedBy("this")
+  private long journalRecordCount = 0;
+
+  /** @param maxEntries the bound on the number of entries */
+  public PersistentRuleKeyStore(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /** @return the rule key stored for {@code structuralKey}, or null if there is none. */
+  @Nullable
+  public HashCode get(HashCode structuralKey) {
+    Entry entry = entries.get(structuralKey);
+    if (entry == null) {
+      return null;
+    }
+    long now = accessClock.get();
+    if (entry.lastAccess != now) {
+      entry.lastAccess = now;
+    }
+    return entry.ruleKey;
+  }
+
+  /**
+   * Stores a rule key. Rule keys which depend on entries which are not stored (any more) are
+   * ignored, as nothing would invalidate them when those entries' inputs change.
+   */
+  public void put(
+      HashCode structuralKey,
+      HashCode ruleKey,
+      Iterable<HashCode> deps,
+      Iterable<RuleKeyInput> inputs) {
+    ImmutableList<HashCode> entryDeps = ImmutableList.copyOf(deps);
+    if (entries.containsKey(structuralKey) || !areStored(entryDeps)) {
+      return;
+    }
+    ImmutableList.Builder<Input> entryInputs = ImmutableList.builder();
+    for (RuleKeyInput input : inputs) {
+      entryInputs.add(new Input(input.getFilesystem().getRootPath(), input.getPath()));
+    }
+    Entry entry = new Entry(ruleKey, entryDeps, entryInputs.build());
+    entry.lastAccess = accessClock.incrementAndGet();
+    if (!add(structuralKey, entry)) {
+      return;
+    }
+    // A dep may have been removed before this entry was registered as its dependent.
+    if (!areStored(entryDeps)) {
+      remove(ImmutableList.of(structuralKey));
+      return;
+    }
+    if (entries.size() > maxEntries) {
+      evict();
+    }
+  }
+
+  private boolean areStored(Collection<HashCode> structuralKeys) {
+    for (HashCode structuralKey : structuralKeys) {
+      if (!entries.containsKey(structuralKey)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return whether the entry was added, i.e. whether there was none for the key yet */
+  private boolean add(HashCode structuralKey, Entry entry) {
+    // Recorded within the update, so that records of the same key are in the order of the updates.
+    Entry added =
+        entries.computeIfAbsent(
+            structuralKey,
+            key -> {
+              unsavedRecords.add(new Record(key, entry));
+              return entry;
+            });
+    if (added != entry) {
+      return false;
+    }
+    modificationCount.incrementAndGet();
+    for (HashCode dep : entry.deps) {
+      addToIndex(dependents, dep, structuralKey);
+    }
+    for (Input input : entry.inputs) {
+      addToIndex(inputsIndex, input, structuralKey);
+    }
+    return true;
+  }
+
+  /** Removes the given entries and all their transitive dependents. */
+  private void remove(Collection<HashCode> structuralKeys) {
+    Deque<HashCode> toRemove = new ArrayDeque<>(structuralKeys);
+    while (!toRemove.isEmpty()) {
+      HashCode structuralKey = toRemove.pop();
+      // This entry may have already been removed due to being someone else's dependent.
+      if (removeEntry(structuralKey)) {
+        Set<HashCode> entryDependents = dependents.remove(structuralKey);
+        if (entryDependents != null) {
+          toRemove.addAll(entryDependents);
+        }
+      }
+    }
+  }
+
+  /** Removes a single entry, but not its dependents. */
+  private boolean removeEntry(HashCode structuralKey) {
+    AtomicReference<Entry> removed = new AtomicReference<>();
+    entries.computeIfPresent(
+        structuralKey,
+        (key, entry) -> {
+          removed.set(entry);
+          unsavedRecords.add(new Record(key, null));
+          return null;
+        });
+    Entry entry = removed.get();
+    if (entry == null) {
+      return false;
+    }
+    modificationCount.incrementAndGet();
+    for (HashCode dep : entry.deps) {
+      removeFromIndex(dependents, dep, structuralKey);
+    }
+    for (Input input : entry.inputs) {
+      removeFromIndex(inputsIndex, input, structuralKey);
+    }
+    return true;
+  }
+
+  private static <K> void addToIndex(
+      ConcurrentHashMap<K, Set<HashCode>> index, K key, HashCode structuralKey) {
+    index.compute(
+        key,
+        (ignored, structuralKeys) -> {
+          Set<HashCode> updated = structuralKeys == null ? new HashSet<>() : structuralKeys;
+          updated.add(structuralKey);
+          return updated;
+        });
+  }
+
+  private static <K> void removeFromIndex(
+      ConcurrentHashMap<K, Set<HashCode>> index, K key, HashCode structuralKey) {
+    index.computeIfPresent(
+        key,
+        (ignored, structuralKeys) -> {
+          structuralKeys.remove(structuralKey);
+          return structuralKeys.isEmpty() ? null : structuralKeys;
+        });
+  }
+
+  /**
+   * Drops the least recently used entries until a quarter of the bound is free again, so that the
+   * entries are only sorted once every so many additions.
+   */
+  private void evict() {
+    if (!evicting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      List<Map.Entry<HashCode, Long>> byAccess = new ArrayList<>(entries.size());
+      entries.forEach(
+          (structuralKey, entry) ->
+              byAccess.add(
+                  new AbstractMap.SimpleImmutableEntry<>(structuralKey, entry.lastAccess)));
+      byAccess.sort(Map.Entry.comparingByValue());
+      int targetSize = maxEntries - maxEntries / 4;
+      for (int i = 0; i < byAccess.size() && entries.size() > targetSize; i++) {
+        remove(ImmutableList.of(byAccess.get(i).getKey()));
+      }
+    } finally {
+      evicting.set(false);
+    }
+  }
+
+  /** Invalidate the given inputs and all their transitive dependents. */
+  public void invalidateInputs(Iterable<RuleKeyInput> inputs) {
+    List<HashCode> invalidated = new ArrayList<>();
+    for (RuleKeyInput input : inputs) {
+      Set<HashCode> users =
+          inputsIndex.remove(new Input(input.getFilesystem().getRootPath(), input.getPath()));
+      if (users != null) {
+        invalidated.addAll(users);
+      }
+    }
+    remove(invalidated);
+  }
+
+  /**
+   * Invalidate all inputs from a given {@link ProjectFilesystem} and their transitive dependents.
+   */
+  public void invalidateFilesystem(ProjectFilesystem filesystem) {
+    AbsPath root = filesystem.getRootPath();
+    invalidateRoots(inputRoot -> inputRoot.equals(root));
+  }
+
+  /**
+   * Invalidate all inputs *not* from the given {@link ProjectFilesystem}s and their transitive
+   * dependents.
+   */
+  public void invalidateAllExceptFilesystems(ImmutableSet<ProjectFilesystem> filesystems) {
+    Set<AbsPath> retained = new HashSet<>();
+    filesystems.forEach(filesystem -> retained.add(filesystem.getRootPath()));
+    invalidateRoots(inputRoot -> !retained.contains(inputRoot));
+  }
+
+  private void invalidateRoots(Predicate<AbsPath> invalidatedRoots) {
+    List<HashCode> invalidated = new ArrayList<>();
+    for (Input input : inputsIndex.keySet()) {
+      if (invalidatedRoots.test(input.root)) {
+        Set<HashCode> users = inputsIndex.remove(input);
+        if (users != null) {
+          invalidated.addAll(users);
+        }
+      }
+    }
+    remove(invalidated);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /** @return a number which changes whenever an entry is added or removed. */
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
+  /**
+   * Reads the store saved at {@code path}.
+   *
+   * @param maxEntries the bound on the number of entries of the store
+   * @return the store, or nothing if there is none, it is unreadable, or it has a different key or
+   *     other clocks.
+   */
+  public static Optional<PersistentRuleKeyStore> read(
+      Path path, String key, ImmutableMap<AbsPath, String> clocks, int maxEntries) {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        LOG.info("Ignoring rule key store %s written by a different version.", path);
+        return Optional.empty();
+      }
+      if (!in.readUTF().equals(key)) {
+        LOG.info("Ignoring rule key store %s saved with a different configuration.", path);
+        return Optional.empty();
+      }
+
+      PersistentRuleKeyStore store = new PersistentRuleKeyStore(maxEntries);
+      List<Record> uncommittedRecords = new ArrayList<>();
+      @Nullable ImmutableMap<AbsPath, String> savedClocks = null;
+      long recordCount = 0;
+      boolean complete = true;
+      for (int tag = in.read(); tag != -1; tag = in.read()) {
+        try {
+          if (tag == TAG_ENTRY) {
+            uncommittedRecords.add(new Record(readHashCode(in), readEntry(in)));
+          } else if (tag == TAG_REMOVAL) {
+            uncommittedRecords.add(new Record(readHashCode(in), null));
+          } else if (tag == TAG_CLOCKS) {
+            savedClocks = readClocks(in);
+            for (Record record : uncommittedRecords) {
+              if (record.entry == null) {
+                store.removeEntry(record.structuralKey);
+              } else {
+                store.add(record.structuralKey, record.entry);
+              }
+            }
+            recordCount += uncommittedRecords.size();
+            uncommittedRecords.clear();
+          } else {
+            throw new IOException("Unknown record tag " + tag);
+          }
+        } catch (EOFException e) {
+          // Left behind by a process which died while appending to the journal.
+          complete = false;
+          break;
+        }
+      }
+      if (!uncommittedRecords.isEmpty()) {
+        complete = false;
+      }
+      if (!clocks.equals(savedClocks)) {
+        LOG.info("Ignoring rule key store %s saved at other Watchman clocks.", path);
+        return Optional.empty();
+      }
+
+      store.unsavedRecords.clear();
+      store.modificationCount.set(0);
+      if (complete) {
+        synchronized (store) {
+          store.journalPath = path;
+          store.journalKey = key;
+          store.journalRecordCount = recordCount;
+        }
+      }
+      if (store.size() > maxEntries) {
+        store.evict();
+      }
+      LOG.debug("Loaded %d rule keys from %s.", store.size(), path);
+      return Optional.of(store);
+    } catch (NoSuchFileException e) {
+      // Nothing was persisted yet.
+      return Optional.empty();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Discarding unreadable rule key store %s.", path);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Saves the store at {@code path}, by appending the changes since it was last saved or read if
+   * it was saved there with the same key, and by replacing what is saved there otherwise.
+   */
+  public synchronized void write(Path path, String key, ImmutableMap<AbsPath, String> clocks)
+      throws IOException {
+    List<Record> records = new ArrayList<>();
+    for (Record record = unsavedRecords.poll(); record != null; record = unsavedRecords.poll()) {
+      records.add(record);
+    }
+    boolean append =
+        path.equals(journalPath)
+            && key.equals(journalKey)
+            && (journalRecordCount + records.size() < MIN_JOURNAL_RECORDS_TO_COMPACT
+                || journalRecordCount + records.size()
+                    <= (long) MAX_JOURNAL_RECORDS_PER_ENTRY * entries.size());
+    // Until the journal is known to be complete, the next save has to replace it.
+    journalPath = null;
+    if (append) {
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  Files.newOutputStream(path, StandardOpenOption.APPEND)))) {
+        for (Record record : records) {
+          writeRecord(out, record);
+        }
+        writeClocks(out, clocks);
+      }
+      journalRecordCount += records.size();
+    } else {
+      Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+      Files.createDirectories(path.getParent());
+      long recordCount = 0;
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(key);
+        for (Map.Entry<HashCode, Entry> entry : entries.entrySet()) {
+          writeRecord(out, new Record(entry.getKey(), entry.getValue()));
+          recordCount++;
+        }
+        writeClocks(out, clocks);
+      }
+      Files.move(
+          tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      journalKey = key;
+      journalRecordCount = recordCount;
+    }
+    journalPath = path;
+  }
+
+  private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+    Entry entry = record.entry;
+    out.writeByte(entry == null ? TAG_REMOVAL : TAG_ENTRY);
+    writeHashCode(out, record.structuralKey);
+    if (entry == null) {
+      return;
+    }
+    writeHashCode(out, entry.ruleKey);
+    out.writeInt(entry.deps.size());
+    for (HashCode dep : entry.deps) {
+      writeHashCode(out, dep);
+    }
+    out.writeInt(entry.inputs.size());
+    for (Input input : entry.inputs) {
+      out.writeUTF(input.root.toString());
+      out.writeUTF(input.path.toString());
+    }
+  }
+
+  private static Entry readEntry(DataInputStream in) throws IOException {
+    HashCode ruleKey = readHashCode(in);
+    ImmutableList.Builder<HashCode> deps = ImmutableList.builder();
+    for (int i = in.readInt(); i > 0; i--) {
+      deps.add(readHashCode(in));
+    }
+    ImmutableList.Builder<Input> inputs = ImmutableList.builder();
+    for (int i = in.readInt(); i > 0; i--) {
+      inputs.add(new Input(AbsPath.of(Paths.get(in.readUTF())), Paths.get(in.readUTF())));
+    }
+    return new Entry(ruleKey, deps.build(), inputs.build());
+  }
+
+  private static void writeClocks(DataOutputStream out, ImmutableMap<AbsPath, String> clocks)
+      throws IOException {
+    out.writeByte(TAG_CLOCKS);
+    out.writeInt(clocks.size());
+    for (Map.Entry<AbsPath, String> clock : clocks.entrySet()) {
+      out.writeUTF(clock.getKey().toString());
+      out.writeUTF(clock.getValue());
+    }
+  }
+
+  private static ImmutableMap<AbsPath, String> readClocks(DataInputStream in) throws IOException {
+    ImmutableMap.Builder<AbsPath, String> clocks = ImmutableMap.builder();
+    for (int i = in.readInt(); i > 0; i--) {
+      clocks.put(AbsPath.of(Paths.get(in.readUTF())), in.readUTF());
+    }
+    return clocks.build();
+  }
+
+  private static HashCode readHashCode(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedByte()];
+    in.readFully(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  private static void writeHashCode(DataOutputStream out, HashCode hashCode) throws IOException {
+    byte[] bytes = hashCode.asBytes();
+    out.writeByte(bytes.length);
+    out.write(bytes);
+  }
+
+  private static final class Entry {
+    private final HashCode ruleKey;
+    private final ImmutableList<HashCode> deps;
+    private final ImmutableList<Input> inputs;
+
+    /** The value of {@link #accessClock} when the entry was last added or looked up. */
+    private volatile long lastAccess;
+
+    private Entry(HashCode ruleKey, ImmutableList<HashCode> deps, ImmutableList<Input> inputs) {
+      this.ruleKey = ruleKey;
+      this.deps = deps;
+      this.inputs = inputs;
+    }
+  }
+
+  /** An entry added to the store, or the removal of one if there is no entry. */
+  private static final class Record {
+    private final HashCode structuralKey;
+    @Nullable private final Entry entry;
+
+    private Record(HashCode structuralKey, @Nullable Entry entry) {
+      this.structuralKey = structuralKey;
+      this.entry = entry;
+    }
+  }
+
+  /** A {@link RuleKeyInput} which doesn't hold on to its filesystem. */
+  private static final class Input {
+    private final AbsPath root;
+    private final Path path;
+
+    private Input(AbsPath root, Path path) {
+      this.root = root;
+      this.path = path;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Input)) {
+        return false;
+      }
+      Input that = (Input) other;
+      return root.equals(that.root) && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(root, path);
+    }
+  }
+}
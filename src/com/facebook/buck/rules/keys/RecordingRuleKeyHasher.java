@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.RuleType;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RuleKeyHasher} which records what is put into it, so that it can be put into another
+ * hasher later without walking the fields of the rule again.
+ *
+ * <p>Values can be marked as placeholders for the hash of a file or for the key of a dep just
+ * before they are put, and a {@link Resolver} supplies the real value for them when the recording
+ * is replayed.
+ */
+class RecordingRuleKeyHasher implements RuleKeyHasher<HashCode> {
+
+  /** Supplies the values of the placeholders of a recording. */
+  interface Resolver {
+    HashCode getFileHash(ProjectFilesystem filesystem, Path path) throws IOException;
+
+    RuleKey getRuleKey(Object dep);
+  }
+
+  /** A recorded call. */
+  interface Step {
+    void replay(RuleKeyHasher<?> hasher, Resolver resolver) throws IOException;
+  }
+
+  private final RuleKeyHasher<HashCode> delegate;
+  private final ImmutableList.Builder<Step> steps = ImmutableList.builder();
+
+  @Nullable private ProjectFilesystem placeholderFilesystem;
+  @Nullable private Path placeholderPath;
+  @Nullable private Object placeholderDep;
+
+  RecordingRuleKeyHasher(RuleKeyHasher<HashCode> delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Marks the hash put next by {@link #putPath} as the hash of the given file. */
+  void setFilePlaceholder(ProjectFilesystem filesystem, Path path) {
+    placeholderFilesystem = filesystem;
+    placeholderPath = path;
+  }
+
+  /** Marks the rule key put next by {@link #putRuleKey} as the key of {@code dep}. */
+  void setDepPlaceholder(Object dep) {
+    placeholderDep = dep;
+  }
+
+  ImmutableList<Step> getSteps() {
+    return steps.build();
+  }
+
+  /** Puts the recorded values into {@code hasher}, and returns its hash. */
+  static <HASH> HASH replay(
+      ImmutableList<Step> steps, RuleKeyHasher<HASH> hasher, Resolver resolver)
+      throws IOException {
+    for (Step step : steps) {
+      step.replay(hasher, resolver);
+    }
+    return hasher.hash();
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putKey(String key) {
+    steps.add((hasher, resolver) -> hasher.putKey(key));
+    delegate.putKey(key);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putKeyPath(Path key) {
+    steps.add((hasher, resolver) -> hasher.putKeyPath(key));
+    delegate.putKeyPath(key);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putNull() {
+    steps.add((hasher, resolver) -> hasher.putNull());
+    delegate.putNull();
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putCharacter(char val) {
+    steps.add((hasher, resolver) -> hasher.putCharacter(val));
+    delegate.putCharacter(val);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putBoolean(boolean val) {
+    steps.add((hasher, resolver) -> hasher.putBoolean(val));
+    delegate.putBoolean(val);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putNumber(Number val) {
+    steps.add((hasher, resolver) -> hasher.putNumber(val));
+    delegate.putNumber(val);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putString(String val) {
+    steps.add((hasher, resolver) -> hasher.putString(val));
+    delegate.putString(val);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putBytes(byte[] bytes) {
+    steps.add((hasher, resolver) -> hasher.putBytes(bytes));
+    delegate.putBytes(bytes);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putPattern(Pattern pattern) {
+    steps.add((hasher, resolver) -> hasher.putPattern(pattern));
+    delegate.putPattern(pattern);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putSha1(Sha1HashCode sha1) {
+    steps.add((hasher, resolver) -> hasher.putSha1(sha1));
+    delegate.putSha1(sha1);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putPath(Path path, HashCode hash) {
+    ProjectFilesystem filesystem = placeholderFilesystem;
+    Path filePath = placeholderPath;
+    if (filesystem != null && filePath != null) {
+      placeholderFilesystem = null;
+      placeholderPath = null;
+      steps.add(
+          (hasher, resolver) -> hasher.putPath(path, resolver.getFileHash(filesystem, filePath)));
+    } else {
+      steps.add((hasher, resolver) -> hasher.putPath(path, hash));
+    }
+    delegate.putPath(path, hash);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putArchiveMemberPath(
+      Path relativeArchivePath, Path archiveMemberPath, HashCode hash) {
+    steps.add(
+        (hasher, resolver) ->
+            hasher.putArchiveMemberPath(relativeArchivePath, archiveMemberPath, hash));
+    delegate.putArchiveMemberPath(relativeArchivePath, archiveMemberPath, hash);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putNonHashingPath(Path path) {
+    steps.add((hasher, resolver) -> hasher.putNonHashingPath(path));
+    delegate.putNonHashingPath(path);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putRuleKey(RuleKey ruleKey) {
+    Object dep = placeholderDep;
+    if (dep != null) {
+      placeholderDep = null;
+      steps.add((hasher, resolver) -> hasher.putRuleKey(resolver.getRuleKey(dep)));
+    } else {
+      steps.add((hasher, resolver) -> hasher.putRuleKey(ruleKey));
+    }
+    delegate.putRuleKey(ruleKey);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putRuleType(RuleType ruleType) {
+    steps.add((hasher, resolver) -> hasher.putRuleType(ruleType));
+    delegate.putRuleType(ruleType);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putBuildTarget(BuildTarget buildTarget) {
+    steps.add((hasher, resolver) -> hasher.putBuildTarget(buildTarget));
+    delegate.putBuildTarget(buildTarget);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putBuildTargetSourcePath(
+      BuildTargetSourcePath buildTargetSourcePath) {
+    steps.add((hasher, resolver) -> hasher.putBuildTargetSourcePath(buildTargetSourcePath));
+    delegate.putBuildTargetSourcePath(buildTargetSourcePath);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putContainer(Container container, int length) {
+    steps.add((hasher, resolver) -> hasher.putContainer(container, length));
+    delegate.putContainer(container, length);
+    return this;
+  }
+
+  @Override
+  public RecordingRuleKeyHasher putWrapper(Wrapper wrapper) {
+    steps.add((hasher, resolver) -> hasher.putWrapper(wrapper));
+    delegate.putWrapper(wrapper);
+    return this;
+  }
+
+  @Override
+  public HashCode hash() {
+    Preconditions.checkState(
+        placeholderPath == null && placeholderDep == null, "Placeholder was not put.");
+    return delegate.hash();
+  }
+}
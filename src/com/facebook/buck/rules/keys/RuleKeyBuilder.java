@@ -39,8 +39,8 @@ import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.log.thrift.rulekeys.FullRuleKey;
 import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ForwardingRuleKeyHasher;
-import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.Sha1RuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.rules.keys.hasher.ThriftRuleKeyHasher;
 import com.facebook.buck.util.Scope;
@@ -49,7 +49,6 @@ import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
@@ -109,7 +108,7 @@ public abstract class RuleKeyBuilder<RULE_KEY> extends AbstractRuleKeyBuilder<RU
   }
 
   static RuleKeyHasher<HashCode> createDefaultHasher(Optional<ThriftRuleKeyLogger> thriftLogger) {
-    RuleKeyHasher<HashCode> hasher = new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+    RuleKeyHasher<HashCode> hasher = Sha1RuleKeyHasher.obtain();
     if (logger.isVerboseEnabled()) {
       hasher =
           new ForwardingRuleKeyHasher<HashCode, String>(hasher, new StringRuleKeyHasher()) {
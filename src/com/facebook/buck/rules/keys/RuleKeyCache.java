@@ -20,6 +20,7 @@ import com.facebook.buck.core.build.action.BuildEngineAction;
 import com.facebook.buck.core.rulekey.AddsToRuleKey;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 
@@ -58,4 +59,9 @@ public interface RuleKeyCache<V> {
 
   /** Invalidate everything in the cache. */
   void invalidateAll();
+
+  /** @return the store keeping rule keys across daemon restarts, if there is one. */
+  default Optional<PersistentRuleKeyStore> getPersistentStore() {
+    return Optional.empty();
+  }
 }
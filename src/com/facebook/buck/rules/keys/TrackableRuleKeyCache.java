@@ -24,6 +24,7 @@ import com.facebook.buck.util.cache.CacheStatsTracker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 
@@ -57,4 +58,9 @@ public interface TrackableRuleKeyCache<V> {
   void invalidateAll(CacheStatsTracker statsTracker);
 
   ImmutableList<Map.Entry<BuildRule, V>> getCachedBuildRules();
+
+  /** @return the store keeping rule keys across daemon restarts, if there is one. */
+  default Optional<PersistentRuleKeyStore> getPersistentStore() {
+    return Optional.empty();
+  }
 }
@@ -23,6 +23,7 @@ import com.facebook.buck.util.cache.CacheStats;
 import com.facebook.buck.util.cache.CacheStatsTracker;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
 import java.util.function.Function;
 import javax.annotation.Nullable;
 
@@ -87,6 +88,11 @@ public class TrackedRuleKeyCache<V> implements RuleKeyCache<V> {
     cache.invalidateAll(statsTracker);
   }
 
+  @Override
+  public Optional<PersistentRuleKeyStore> getPersistentStore() {
+    return cache.getPersistentStore();
+  }
+
   @VisibleForTesting
   TrackableRuleKeyCache<V> getCache() {
     return cache;
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys.hasher;
+
+import com.facebook.buck.core.filesystems.BuckUnixPath;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.RuleType;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.ForwardingBuildTargetSourcePath;
+import com.facebook.buck.io.file.FastPaths;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A SHA-1 {@link RuleKeyHasher} which produces the same hashes as a {@link GuavaRuleKeyHasher}
+ * wrapping {@code Hashing.sha1().newHasher()}, but without allocating for the values it hashes.
+ *
+ * <p>Values are encoded into a buffer which is handed to the digest whenever it fills up: strings
+ * are encoded to UTF-8 in place, numbers are written without boxing them into the buffers of a
+ * {@link com.google.common.hash.Hasher}, and hashes of paths and rule keys are copied from their
+ * {@link HashCode}s. Hashers are reused: {@link #obtain()} takes one from a per-thread pool, and
+ * {@link #hash()} returns it there, after which it must not be used anymore.
+ */
+public class Sha1RuleKeyHasher implements RuleKeyHasher<HashCode> {
+
+  private static final int BUFFER_SIZE = 1024;
+  private static final int SHA1_LENGTH = 20;
+
+  /** Longest encoding of a primitive, and of a character in UTF-8. */
+  private static final int MAX_PRIMITIVE_SIZE = Long.BYTES;
+
+  private static final int MAX_POOLED_HASHERS = 16;
+
+  private static final ThreadLocal<ArrayDeque<Sha1RuleKeyHasher>> POOL =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+  private boolean hashed = false;
+
+  private Sha1RuleKeyHasher() {
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** @return a hasher from the pool of the current thread, or a new one. */
+  public static Sha1RuleKeyHasher obtain() {
+    Sha1RuleKeyHasher hasher = POOL.get().poll();
+    if (hasher == null) {
+      return new Sha1RuleKeyHasher();
+    }
+    hasher.hashed = false;
+    return hasher;
+  }
+
+  private void ensureCapacity(int size) {
+    if (position + size > buffer.length) {
+      digest.update(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  private void writeByte(byte value) {
+    ensureCapacity(1);
+    buffer[position++] = value;
+  }
+
+  // Multi-byte values are little endian, like in Guava's hashers.
+
+  private void writeShort(short value) {
+    ensureCapacity(Short.BYTES);
+    buffer[position++] = (byte) value;
+    buffer[position++] = (byte) (value >>> 8);
+  }
+
+  private void writeChar(char value) {
+    writeShort((short) value);
+  }
+
+  private void writeInt(int value) {
+    ensureCapacity(Integer.BYTES);
+    for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+      buffer[position++] = (byte) (value >>> shift);
+    }
+  }
+
+  private void writeLong(long value) {
+    ensureCapacity(Long.BYTES);
+    for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+      buffer[position++] = (byte) (value >>> shift);
+    }
+  }
+
+  private void writeBytes(byte[] bytes) {
+    if (bytes.length > buffer.length - position) {
+      digest.update(buffer, 0, position);
+      position = 0;
+      digest.update(bytes);
+    } else {
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+  }
+
+  private void writeHashCode(HashCode hashCode) {
+    int length = hashCode.bits() / Byte.SIZE;
+    ensureCapacity(length);
+    position += hashCode.writeBytesTo(buffer, position, length);
+  }
+
+  /** Writes what {@code String.getBytes(UTF_8)} would return, and returns its length. */
+  private int writeUtf8(String string) {
+    int length = 0;
+    for (int i = 0; i < string.length(); i++) {
+      ensureCapacity(MAX_PRIMITIVE_SIZE);
+      int start = position;
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >>> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < string.length()
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, string.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >>> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced, as String.getBytes(UTF_8) does.
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >>> 12));
+        buffer[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+      length += position - start;
+    }
+    return length;
+  }
+
+  private void writeUnencodedChars(String string) {
+    for (int i = 0; i < string.length(); i++) {
+      writeChar(string.charAt(i));
+    }
+  }
+
+  private Sha1RuleKeyHasher putBytes(byte type, byte[] bytes) {
+    writeBytes(bytes);
+    writeInt(bytes.length);
+    writeByte(type);
+    return this;
+  }
+
+  private Sha1RuleKeyHasher putHashCode(byte type, HashCode hashCode) {
+    writeHashCode(hashCode);
+    writeInt(hashCode.bits() / Byte.SIZE);
+    writeByte(type);
+    return this;
+  }
+
+  private Sha1RuleKeyHasher putStringified(byte type, String val) {
+    writeInt(writeUtf8(val));
+    writeByte(type);
+    return this;
+  }
+
+  private Sha1RuleKeyHasher putPathFast(byte type, Path path) {
+    if (!(path instanceof BuckUnixPath)) {
+      writeUnencodedChars(path.toString());
+    } else {
+      if (path.isAbsolute()) {
+        writeChar('/');
+      }
+      for (int i = 0; i < path.getNameCount(); i++) {
+        if (i != 0) {
+          writeChar('/');
+        }
+        writeUnencodedChars(FastPaths.getNameString(path, i));
+      }
+    }
+    writeByte(type);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putKey(String key) {
+    return putStringified(RuleKeyHasherTypes.KEY, key);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putKeyPath(Path key) {
+    return putPathFast(RuleKeyHasherTypes.KEY, key);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putNull() {
+    writeByte(RuleKeyHasherTypes.NULL);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putCharacter(char val) {
+    writeChar(val);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBoolean(boolean val) {
+    writeByte(val ? RuleKeyHasherTypes.TRUE : RuleKeyHasherTypes.FALSE);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putNumber(Number val) {
+    if (val instanceof Integer) { // most common, so test first
+      writeInt((Integer) val);
+      writeByte(RuleKeyHasherTypes.INTEGER);
+    } else if (val instanceof Long) {
+      writeLong((Long) val);
+      writeByte(RuleKeyHasherTypes.LONG);
+    } else if (val instanceof Short) {
+      writeShort((Short) val);
+      writeByte(RuleKeyHasherTypes.SHORT);
+    } else if (val instanceof Byte) {
+      writeByte((Byte) val);
+      writeByte(RuleKeyHasherTypes.BYTE);
+    } else if (val instanceof Float) {
+      writeInt(Float.floatToRawIntBits((Float) val));
+      writeByte(RuleKeyHasherTypes.FLOAT);
+    } else if (val instanceof Double) {
+      writeLong(Double.doubleToRawLongBits((Double) val));
+      writeByte(RuleKeyHasherTypes.DOUBLE);
+    } else {
+      throw new UnsupportedOperationException(("Unsupported Number type: " + val.getClass()));
+    }
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putString(String val) {
+    return putStringified(RuleKeyHasherTypes.STRING, val);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBytes(byte[] bytes) {
+    return putBytes(RuleKeyHasherTypes.BYTE_ARRAY, bytes);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putPattern(Pattern pattern) {
+    return putStringified(RuleKeyHasherTypes.PATTERN, pattern.toString());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putSha1(Sha1HashCode sha1) {
+    ensureCapacity(SHA1_LENGTH);
+    sha1.writeBytesTo(buffer, position);
+    position += SHA1_LENGTH;
+    writeByte(RuleKeyHasherTypes.SHA1);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putPath(Path path, HashCode hash) {
+    putPathFast(RuleKeyHasherTypes.PATH, path);
+    return putHashCode(RuleKeyHasherTypes.PATH, hash);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putArchiveMemberPath(
+      Path relativeArchivePath, Path archiveMemberPath, HashCode hash) {
+    putPathFast(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, relativeArchivePath);
+    putPathFast(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, archiveMemberPath);
+    return putHashCode(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, hash);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putNonHashingPath(Path path) {
+    return putPathFast(RuleKeyHasherTypes.NON_HASHING_PATH, path);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putRuleKey(RuleKey ruleKey) {
+    return putHashCode(RuleKeyHasherTypes.RULE_KEY, ruleKey.getHashCode());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putRuleType(RuleType ruleType) {
+    return putStringified(RuleKeyHasherTypes.RULE_TYPE, ruleType.toString());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBuildTarget(BuildTarget buildTarget) {
+    return putStringified(RuleKeyHasherTypes.TARGET, buildTarget.getFullyQualifiedName());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBuildTargetSourcePath(BuildTargetSourcePath targetSourcePath) {
+    putStringified(
+        RuleKeyHasherTypes.TARGET_SOURCE_PATH,
+        targetSourcePath.getTarget().getFullyQualifiedName());
+    if (targetSourcePath instanceof ExplicitBuildTargetSourcePath) {
+      putPathFast(
+          RuleKeyHasherTypes.TARGET_SOURCE_PATH,
+          ((ExplicitBuildTargetSourcePath) targetSourcePath).getResolvedPath());
+    } else if (targetSourcePath instanceof ForwardingBuildTargetSourcePath) {
+      putStringified(
+          RuleKeyHasherTypes.TARGET_SOURCE_PATH, targetSourcePath.representationForRuleKey());
+    }
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putContainer(Container container, int length) {
+    writeByte(RuleKeyHasherTypes.containerSubType(container));
+    writeInt(length);
+    writeByte(RuleKeyHasherTypes.CONTAINER);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putWrapper(Wrapper wrapper) {
+    writeByte(RuleKeyHasherTypes.wrapperSubType(wrapper));
+    writeByte(RuleKeyHasherTypes.WRAPPER);
+    return this;
+  }
+
+  /** Returns the hash and puts this hasher back into the pool of the current thread. */
+  @Override
+  public HashCode hash() {
+    Preconditions.checkState(!hashed, "hash() was already called on this hasher.");
+    hashed = true;
+    ensureCapacity(SHA1_LENGTH);
+    digest.update(buffer, 0, position);
+    try {
+      digest.digest(buffer, 0, SHA1_LENGTH);
+    } catch (DigestException e) {
+      throw new IllegalStateException(e);
+    }
+    HashCode hash = HashCode.fromBytes(Arrays.copyOf(buffer, SHA1_LENGTH));
+    position = 0;
+    ArrayDeque<Sha1RuleKeyHasher> pool = POOL.get();
+    if (pool.size() < MAX_POOLED_HASHERS) {
+      pool.push(this);
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps the results of Watchman globs between parses of build files, so that a package which is
+ * parsed again, e.g. because an extension file it loads has changed, does not query Watchman again
+ * for files under it that did not change.
+ *
+ * <p>Results are kept per package, and a file created or deleted anywhere under a package drops
+ * the results of that package and of every package above it. Only results which exclude
+ * directories are kept, since Watchman does not report changes to directories.
+ */
+@ThreadSafe
+public class GlobResultCache {
+
+  /** Loads the result of a glob which is not cached yet. */
+  @FunctionalInterface
+  public interface Loader {
+    Optional<ImmutableSet<String>> load() throws IOException, InterruptedException;
+  }
+
+  private final Map<Path, Map<GlobSpec, ImmutableSet<String>>> resultsByPackage =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Bumped on every invalidation, so that results which were being loaded while files changed are
+   * not stored.
+   */
+  @GuardedBy("this")
+  private long generation = 0;
+
+  /**
+   * @param packagePath absolute path of the package the glob is evaluated in.
+   * @return the cached result of the glob, or the result of {@code loader} if it is not cached.
+   */
+  public Optional<ImmutableSet<String>> get(
+      Path packagePath,
+      Collection<String> include,
+      Collection<String> exclude,
+      boolean excludeDirectories,
+      Loader loader)
+      throws IOException, InterruptedException {
+    if (!excludeDirectories) {
+      return loader.load();
+    }
+    GlobSpec globSpec =
+        GlobSpec.of(ImmutableList.copyOf(include), ImmutableList.copyOf(exclude), true);
+    @Nullable Map<GlobSpec, ImmutableSet<String>> results = resultsByPackage.get(packagePath);
+    @Nullable ImmutableSet<String> result = results == null ? null : results.get(globSpec);
+    if (result != null) {
+      return Optional.of(result);
+    }
+
+    long loadGeneration = getGeneration();
+    Optional<ImmutableSet<String>> loaded = loader.load();
+    if (loaded.isPresent()) {
+      synchronized (this) {
+        if (generation == loadGeneration) {
+          resultsByPackage
+              .computeIfAbsent(packagePath, path -> new ConcurrentHashMap<>())
+              .put(globSpec, loaded.get());
+        }
+      }
+    }
+    return loaded;
+  }
+
+  private synchronized long getGeneration() {
+    return generation;
+  }
+
+  /** Drops the results of globs which may match a file that was created or deleted. */
+  public synchronized void invalidateForPath(AbsPath changedPath) {
+    generation++;
+    for (Path packagePath = changedPath.getPath().getParent();
+        packagePath != null;
+        packagePath = packagePath.getParent()) {
+      resultsByPackage.remove(packagePath);
+    }
+  }
+
+  /** Drops the results of all globs. */
+  public synchronized void invalidateAll() {
+    generation++;
+    resultsByPackage.clear();
+  }
+
+  /** @return the number of packages which have cached glob results. */
+  public int getPackageCount() {
+    return resultsByPackage.size();
+  }
+}
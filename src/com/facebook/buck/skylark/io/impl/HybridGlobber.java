@@ -20,6 +20,8 @@ import com.facebook.buck.skylark.io.Globber;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.Set;
@@ -27,14 +29,29 @@ import java.util.Set;
 /**
  * A {@link Globber} implementation that tries to use Watchman if it's available and falls back to a
  * fallback globber, in case Watchman query cannot be fulfilled.
+ *
+ * <p>Watchman results are kept in a {@link GlobResultCache} if one is provided, so they can be
+ * reused by later parses of the same package.
  */
 public class HybridGlobber implements Globber {
   private final Globber fallbackGlobber;
   private final WatchmanGlobber watchmanGlobber;
+  private final Path packagePath;
+  private final Optional<GlobResultCache> globResultCache;
 
-  public HybridGlobber(Globber fallbackGlobber, WatchmanGlobber watchmanGlobber) {
+  public HybridGlobber(
+      Globber fallbackGlobber,
+      WatchmanGlobber watchmanGlobber,
+      Path packagePath,
+      Optional<GlobResultCache> globResultCache) {
     this.fallbackGlobber = fallbackGlobber;
     this.watchmanGlobber = watchmanGlobber;
+    this.packagePath = packagePath;
+    this.globResultCache = globResultCache;
+  }
+
+  public HybridGlobber(Globber fallbackGlobber, WatchmanGlobber watchmanGlobber) {
+    this(fallbackGlobber, watchmanGlobber, Paths.get(""), Optional.empty());
   }
 
   @Override
@@ -44,7 +61,16 @@ public class HybridGlobber implements Globber {
     checkPatternsForError(include);
     checkPatternsForError(exclude);
     Optional<ImmutableSet<String>> watchmanResult =
-        watchmanGlobber.run(include, exclude, excludeDirectories);
+        globResultCache.isPresent()
+            ? globResultCache
+                .get()
+                .get(
+                    packagePath,
+                    include,
+                    exclude,
+                    excludeDirectories,
+                    () -> watchmanGlobber.run(include, exclude, excludeDirectories))
+            : watchmanGlobber.run(include, exclude, excludeDirectories);
     if (watchmanResult.isPresent()) {
       return watchmanResult.get();
     }
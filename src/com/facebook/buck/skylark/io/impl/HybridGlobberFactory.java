@@ -25,6 +25,7 @@ import com.facebook.buck.util.environment.Platform;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -38,16 +39,19 @@ public class HybridGlobberFactory implements GlobberFactory {
   private final java.nio.file.Path projectRoot;
   private final ImmutableMap<AbsPath, ProjectWatch> projectWatches;
   private final SyncCookieState syncCookieState;
+  private final Optional<GlobResultCache> globResultCache;
 
   private HybridGlobberFactory(
       WatchmanClient watchmanClient,
       SyncCookieState syncCookieState,
       java.nio.file.Path projectRoot,
-      ImmutableMap<AbsPath, ProjectWatch> projectWatches) {
+      ImmutableMap<AbsPath, ProjectWatch> projectWatches,
+      Optional<GlobResultCache> globResultCache) {
     this.watchmanClient = watchmanClient;
     this.syncCookieState = syncCookieState;
     this.projectRoot = projectRoot;
     this.projectWatches = projectWatches;
+    this.globResultCache = globResultCache;
   }
 
   /** Keeps relevant results of watch-project operation */
@@ -118,14 +122,19 @@ public class HybridGlobberFactory implements GlobberFactory {
     }
     return new HybridGlobber(
         NativeGlobber.create(basePath),
-        WatchmanGlobber.create(watchmanClient, syncCookieState, relativeRoot, watchRoot));
+        WatchmanGlobber.create(watchmanClient, syncCookieState, relativeRoot, watchRoot),
+        Paths.get(basePath.getPathString()),
+        globResultCache);
   }
 
+  /** @param globResultCache keeps Watchman glob results between parses, if present */
   public static HybridGlobberFactory using(
       WatchmanClient watchmanClient,
       SyncCookieState syncCookieState,
       java.nio.file.Path projectRoot,
-      ImmutableMap<AbsPath, ProjectWatch> projectWatches) {
-    return new HybridGlobberFactory(watchmanClient, syncCookieState, projectRoot, projectWatches);
+      ImmutableMap<AbsPath, ProjectWatch> projectWatches,
+      Optional<GlobResultCache> globResultCache) {
+    return new HybridGlobberFactory(
+        watchmanClient, syncCookieState, projectRoot, projectWatches, globResultCache);
   }
 }
@@ -43,6 +43,8 @@ import com.google.common.collect.ImmutableMap.Builder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
@@ -74,6 +76,8 @@ import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.immutables.value.Value;
@@ -88,7 +92,14 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
   protected final BuckGlobals buckGlobals;
 
   private final Cache<com.google.devtools.build.lib.vfs.Path, BuildFileAST> astCache;
-  private final Cache<com.google.devtools.build.lib.vfs.Path, ExtensionData> extensionDataCache;
+  /**
+   * Extensions which have been evaluated or are being evaluated. They are frozen once evaluated, so
+   * all threads parsing build files with this parser share them. Only the thread which adds the
+   * future for an extension evaluates it, and the others wait for the future.
+   */
+  private final ConcurrentHashMap<
+          com.google.devtools.build.lib.vfs.Path, SettableFuture<ExtensionData>>
+      extensionDataCache;
   private final LoadingCache<LoadImport, IncludesData> includesDataCache;
   private final PackageImplicitIncludesFinder packageImplicitIncludeFinder;
 
@@ -103,7 +114,7 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
     this.buckGlobals = buckGlobals;
 
     this.astCache = CacheBuilder.newBuilder().build();
-    this.extensionDataCache = CacheBuilder.newBuilder().build();
+    this.extensionDataCache = new ConcurrentHashMap<>();
 
     this.includesDataCache =
         CacheBuilder.newBuilder()
@@ -581,10 +592,24 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
    */
   private @Nullable ExtensionData lookupExtensionForImport(
       com.google.devtools.build.lib.vfs.Path path, String importString) {
-    ExtensionData ext = extensionDataCache.getIfPresent(path);
+    ExtensionData ext = getExtensionDataIfPresent(path);
     return ext == null ? ext : ext.withImportString(importString);
   }
 
+  /** @return the data of an extension which has been evaluated, or null. */
+  private @Nullable ExtensionData getExtensionDataIfPresent(
+      com.google.devtools.build.lib.vfs.Path path) {
+    SettableFuture<ExtensionData> future = extensionDataCache.get(path);
+    if (future == null || !future.isDone()) {
+      return null;
+    }
+    try {
+      return Futures.getDone(future);
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
   /**
    * Loads extensions abstract syntax tree if needed.
    *
@@ -620,7 +645,7 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
       load.addDependency(dependency);
       com.google.devtools.build.lib.vfs.Path extensionPath =
           getImportPath(dependency.getLabel(), dependency.getImport());
-      if (extensionDataCache.getIfPresent(extensionPath) == null) {
+      if (getExtensionDataIfPresent(extensionPath) == null) {
         // Schedule dependency to be loaded if needed.
         haveUnsatisfiedDeps = true;
         queue.push(new ExtensionLoadState(dependency, extensionPath));
@@ -682,6 +707,33 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
         toLoadedPaths(load.getPath(), dependencies, null));
   }
 
+  /**
+   * Evaluates an extension unless another thread has started to, in which case waits for its
+   * result instead.
+   */
+  private ExtensionData getOrBuildExtensionData(ExtensionLoadState load)
+      throws InterruptedException {
+    SettableFuture<ExtensionData> future = SettableFuture.create();
+    SettableFuture<ExtensionData> existing = extensionDataCache.putIfAbsent(load.getPath(), future);
+    if (existing != null) {
+      try {
+        return existing.get();
+      } catch (ExecutionException e) {
+        throw new UncheckedExecutionException(e.getCause());
+      }
+    }
+    try {
+      ExtensionData data = buildExtensionData(load);
+      future.set(data);
+      return data;
+    } catch (Throwable t) {
+      // Let a later load evaluate the extension again rather than fail with the same error.
+      extensionDataCache.remove(load.getPath(), future);
+      future.setException(t);
+      throw t;
+    }
+  }
+
   /**
    * Call {@link com.google.devtools.build.lib.packages.SkylarkExportable#export(Label, String)} on
    * any objects that are assigned to
@@ -752,10 +804,16 @@ abstract class AbstractSkylarkFileParser<T extends FileManifest> implements File
       // This load is kept on the queue until all of its dependencies are satisfied.
 
       if (!haveUnsatisfiedDeps) {
-        // We are done with this load; build it and cache it.
+        // We are done with this load; build it and cache it. Other threads which need the same
+        // extension wait for it to be built instead of evaluating it again.
         work.removeFirst();
-        extension = buildExtensionData(load);
-        extensionDataCache.put(load.getPath(), extension);
+        try {
+          extension =
+              getOrBuildExtensionData(load)
+                  .withImportString(load.getSkylarkImport().getImportString());
+        } catch (UncheckedExecutionException e) {
+          propagateRootCause(e);
+        }
       }
     }
 
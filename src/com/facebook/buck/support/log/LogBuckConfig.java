@@ -75,6 +75,11 @@ public abstract class LogBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue(LOG_SECTION, "gc_event_logging_enabled", false);
   }
 
+  @Value.Lazy
+  public boolean isPerListenerEventDispatchEnabled() {
+    return getDelegate().getBooleanValue(LOG_SECTION, "per_listener_event_dispatch", false);
+  }
+
   public boolean isLogBuildIdToConsoleEnabled() {
     return getDelegate().getBooleanValue(LOG_SECTION, "log_build_id_to_console_enabled", false);
   }
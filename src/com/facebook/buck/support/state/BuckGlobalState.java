@@ -20,6 +20,8 @@ import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
 import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.graph.transformation.GraphEngineCache;
+import com.facebook.buck.core.graph.transformation.executor.impl.TaskDurationHistory;
 import com.facebook.buck.core.model.actiongraph.computation.ActionGraphCache;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.knowntypes.provider.KnownRuleTypesProvider;
@@ -31,8 +33,10 @@ import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.parser.DaemonicParserState;
-import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.manifest.BuildPackagePathToBuildFileManifestKey;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.PersistentRuleKeyStore;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
@@ -42,12 +46,14 @@ import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.eventbus.EventBus;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentMap;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * {@link BuckGlobalState} contains all the global state of Buck which is kept between invocations
@@ -69,20 +75,37 @@ public final class BuckGlobalState implements Closeable {
   private final DaemonicParserState daemonicParserState;
   private final ImmutableList<ProjectFileHashCache> hashCaches;
   private final LoadingCache<Path, DirectoryListCache> directoryListCachePerRoot;
-  private final LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot;
+  private final LoadingCache<
+          Path, GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>>
+      buildFileManifestCachePerRoot;
   private final LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot;
   private final EventBus fileEventBus;
   private final Optional<WebServer> webServer;
   private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
   private final VersionedTargetGraphCache versionedTargetGraphCache;
   private final ActionGraphCache actionGraphCache;
+  private final TaskDurationHistory taskDurationHistory = new TaskDurationHistory();
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
+  private final Optional<PersistentRuleKeyStore> ruleKeyStore;
   private final ImmutableMap<AbsPath, WatchmanCursor> cursor;
+  private final Optional<Path> parserStateSnapshotPath;
+  private final Optional<Path> ruleKeyStorePath;
+  private final String parserStateSnapshotKey;
   private final KnownRuleTypesProvider knownRuleTypesProvider;
   private final Clock clock;
   private final long startTime;
   private final boolean usesWatchman;
 
+  @GuardedBy("daemonicParserState")
+  private long persistedManifestsAddedCount = 0;
+
+  @GuardedBy("daemonicParserState")
+  private long persistedRuleKeyModificationCount = 0;
+
+  /** Whether restored rule keys still rely on the first Watchman query to be invalidated. */
+  @GuardedBy("daemonicParserState")
+  private boolean awaitingRestoredRuleKeysInvalidation;
+
   BuckGlobalState(
       Cell rootCell,
       TypeCoercerFactory typeCoercerFactory,
@@ -90,14 +113,21 @@ public final class BuckGlobalState implements Closeable {
       ImmutableList<ProjectFileHashCache> hashCaches,
       LoadingCache<Path, DirectoryListCache> directoryListCachePerRoot,
       LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot,
-      LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot,
+      LoadingCache<
+              Path, GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>>
+          buildFileManifestCachePerRoot,
       EventBus fileEventBus,
       Optional<WebServer> webServer,
       ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools,
       VersionedTargetGraphCache versionedTargetGraphCache,
       ActionGraphCache actionGraphCache,
       RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler,
+      Optional<PersistentRuleKeyStore> ruleKeyStore,
+      boolean ruleKeyStoreRestored,
       ImmutableMap<AbsPath, WatchmanCursor> cursor,
+      Optional<Path> parserStateSnapshotPath,
+      Optional<Path> ruleKeyStorePath,
+      String parserStateSnapshotKey,
       KnownRuleTypesProvider knownRuleTypesProvider,
       Clock clock,
       boolean usesWatchman) {
@@ -114,7 +144,12 @@ public final class BuckGlobalState implements Closeable {
     this.versionedTargetGraphCache = versionedTargetGraphCache;
     this.actionGraphCache = actionGraphCache;
     this.defaultRuleKeyFactoryCacheRecycler = defaultRuleKeyFactoryCacheRecycler;
+    this.ruleKeyStore = ruleKeyStore;
+    this.awaitingRestoredRuleKeysInvalidation = ruleKeyStoreRestored;
     this.cursor = cursor;
+    this.parserStateSnapshotPath = parserStateSnapshotPath;
+    this.ruleKeyStorePath = ruleKeyStorePath;
+    this.parserStateSnapshotKey = parserStateSnapshotKey;
     this.knownRuleTypesProvider = knownRuleTypesProvider;
     this.clock = clock;
     this.usesWatchman = usesWatchman;
@@ -142,10 +177,68 @@ public final class BuckGlobalState implements Closeable {
     return actionGraphCache;
   }
 
+  /**
+   * @return durations of the tasks run by the graph engines of earlier commands, which help later
+   *     ones schedule the slowest tasks first
+   */
+  public TaskDurationHistory getTaskDurationHistory() {
+    return taskDurationHistory;
+  }
+
   public ImmutableList<ProjectFileHashCache> getFileHashCaches() {
     return hashCaches;
   }
 
+  /** Saves the file hashes which are kept across daemon restarts. */
+  public void persistFileHashCaches() {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof WatchedFileHashCache) {
+        ((WatchedFileHashCache) hashCache).persist();
+      }
+    }
+  }
+
+  /**
+   * Saves the parsed build and package files and the persistent rule keys together with the
+   * current Watchman clocks, if anything changed since they were last saved. Both are saved
+   * whenever either changed, as a new daemon only restores rule keys saved at the same clocks as
+   * the parser state.
+   */
+  public void persistDaemonState() {
+    if (!parserStateSnapshotPath.isPresent()) {
+      return;
+    }
+    // Synchronize with the processing of watch events, so that the clocks match the caches.
+    synchronized (daemonicParserState) {
+      long manifestsAddedCount = daemonicParserState.getManifestsAddedCount();
+      long ruleKeyModificationCount =
+          ruleKeyStore.map(PersistentRuleKeyStore::getModificationCount).orElse(0L);
+      if (manifestsAddedCount == persistedManifestsAddedCount
+          && ruleKeyModificationCount == persistedRuleKeyModificationCount) {
+        return;
+      }
+      ImmutableMap<AbsPath, String> clocks =
+          ImmutableMap.copyOf(Maps.transformValues(cursor, WatchmanCursor::get));
+      try {
+        daemonicParserState
+            .snapshot(parserStateSnapshotKey, clocks)
+            .write(parserStateSnapshotPath.get());
+        persistedManifestsAddedCount = manifestsAddedCount;
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to write parser state snapshot to %s.", parserStateSnapshotPath.get());
+        return;
+      }
+      if (ruleKeyStore.isPresent() && ruleKeyStorePath.isPresent()) {
+        try {
+          ruleKeyStore.get().write(ruleKeyStorePath.get(), parserStateSnapshotKey, clocks);
+          persistedRuleKeyModificationCount = ruleKeyModificationCount;
+        } catch (IOException e) {
+          LOG.warn(e, "Failed to write rule key store to %s.", ruleKeyStorePath.get());
+        }
+      }
+    }
+  }
+
   /**
    * Return a map of all directory list caches for each cell which is a key. For every cell, we
    * cache directory structure (i.e. list of files and folders) for all subfolders that exist under
@@ -156,7 +249,9 @@ public final class BuckGlobalState implements Closeable {
   }
 
   /** Return a map of all build file manifest caches for each cell which is a key */
-  public LoadingCache<Path, BuildFileManifestCache> getBuildFileManifestCaches() {
+  public LoadingCache<
+          Path, GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>>
+      getBuildFileManifestCaches() {
     return buildFileManifestCachePerRoot;
   }
 
@@ -214,7 +309,14 @@ public final class BuckGlobalState implements Closeable {
       // TODO(sergeyb): replace with one single invalidation event containing all changes
       fileEventBus.post(started);
       try {
-        watchmanWatcher.postEvents(eventBus, watchmanFreshInstanceAction);
+        // The restored parser state and rule keys rely on Watchman to report everything that
+        // changed since they were saved, which it can't if it was restarted in the meantime.
+        watchmanWatcher.postEvents(
+            eventBus,
+            daemonicParserState.hasRestoredState() || awaitingRestoredRuleKeysInvalidation
+                ? WatchmanWatcher.FreshInstanceAction.POST_OVERFLOW_EVENT
+                : watchmanFreshInstanceAction);
+        awaitingRestoredRuleKeysInvalidation = false;
       } finally {
         FileHashCacheEvent.InvalidationFinished finished =
             FileHashCacheEvent.invalidationFinished(started);
@@ -248,6 +350,8 @@ public final class BuckGlobalState implements Closeable {
   public void close() {
     shutdownPersistentWorkerPools();
     shutdownWebServer();
+    persistFileHashCaches();
+    persistDaemonState();
   }
 
   private void shutdownPersistentWorkerPools() {
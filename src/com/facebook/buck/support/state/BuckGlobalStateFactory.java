@@ -27,6 +27,7 @@ import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
 import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.core.graph.transformation.GraphEngineCache;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.model.actiongraph.computation.ActionGraphCache;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
@@ -40,14 +41,22 @@ import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanFactory;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.parser.DaemonicParserState;
+import com.facebook.buck.parser.ParserStateSnapshot;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.Syntax;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.parser.manifest.BuildPackagePathToBuildFileManifestKey;
+import com.facebook.buck.parser.manifest.PersistentBuildFileManifestCache;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
+import com.facebook.buck.rules.keys.PersistentRuleKeyStore;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.PersistentFileHashStore;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.timing.Clock;
@@ -59,7 +68,11 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ConcurrentHashMap;
@@ -70,6 +83,9 @@ public class BuckGlobalStateFactory {
 
   private static final Logger LOG = Logger.get(BuckGlobalStateFactory.class);
 
+  /** Bound on the total size of the build file manifests stored on disk for each cell. */
+  private static final long MAX_STORED_MANIFESTS_SIZE_BYTES = 256L * 1024 * 1024;
+
   /** @return a new instance of {@link BuckGlobalState} for execution of buck */
   public static BuckGlobalState create(
       Cells rootCell,
@@ -90,7 +106,14 @@ public class BuckGlobalStateFactory {
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
     for (Cell subCell : allCells) {
       WatchedFileHashCache watchedCache =
-          new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
+          new WatchedFileHashCache(
+              subCell.getFilesystem(),
+              buildBuckConfig.getFileHashCacheMode(),
+              buildBuckConfig.isPersistentFileHashCacheEnabled()
+                  ? Optional.of(
+                      PersistentFileHashStore.load(
+                          subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode()))
+                  : Optional.empty());
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
     }
@@ -104,11 +127,23 @@ public class BuckGlobalStateFactory {
         createDirectoryListCachePerCellMap(fileEventBus);
     LoadingCache<Path, FileTreeCache> fileTreeCachePerRoot =
         createFileTreeCachePerCellMap(fileEventBus);
-    LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot =
-        createBuildFileManifestCachePerCellMap(
-            fileEventBus, rootCell.getCellProvider(), rootCell.getSuperRootPath());
+    String parserStateSnapshotKey = getParserStateSnapshotKey(allCells);
+    LoadingCache<Path, GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>>
+        buildFileManifestCachePerRoot =
+            createBuildFileManifestCachePerCellMap(
+                fileEventBus,
+                rootCell.getCellProvider(),
+                rootCell.getSuperRootPath(),
+                rootCell
+                    .getRootCell()
+                    .getBuckConfig()
+                    .getView(ParserConfig.class)
+                    .isDaemonStateSnapshotEnabled(),
+                parserStateSnapshotKey);
     ActionGraphCache actionGraphCache =
-        new ActionGraphCache(buildBuckConfig.getMaxActionGraphCacheEntries());
+        new ActionGraphCache(
+            buildBuckConfig.getMaxActionGraphCacheEntries(),
+            buildBuckConfig.getMaxActionGraphCacheRules());
     VersionedTargetGraphCache versionedTargetGraphCache = new VersionedTargetGraphCache();
 
     TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
@@ -117,13 +152,6 @@ public class BuckGlobalStateFactory {
         new DaemonicParserState(parserConfig.getNumParsingThreads());
     fileEventBus.register(daemonicParserState);
 
-    // Build the the rule key cache recycler.
-    RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler =
-        RuleKeyCacheRecycler.createAndRegister(
-            fileEventBus,
-            new DefaultRuleKeyCache<>(),
-            RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
-
     Optional<WebServer> webServer;
     if (webServerToReuse.isPresent()) {
       webServer = webServerToReuse;
@@ -148,15 +176,62 @@ public class BuckGlobalStateFactory {
       }
     }
     ImmutableMap<AbsPath, WatchmanCursor> cursor;
-    if (rootCell.getRootCell().getBuckConfig().getView(ParserConfig.class).getWatchmanCursor()
-            == WatchmanWatcher.CursorType.CLOCK_ID
-        && !watchman.getClockIds().isEmpty()) {
+    boolean usesClockCursors =
+        parserConfig.getWatchmanCursor() == WatchmanWatcher.CursorType.CLOCK_ID
+            && !watchman.getClockIds().isEmpty();
+    if (usesClockCursors) {
       cursor = watchman.buildClockWatchmanCursorMap();
     } else {
       LOG.debug("Falling back to named cursors: %s", watchman.getProjectWatches());
       cursor = watchman.buildNamedWatchmanCursorMap();
     }
+
+    // The parser state can only be restored if Watchman can tell what changed since it was saved.
+    Optional<Path> parserStateSnapshotPath = Optional.empty();
+    Optional<Path> ruleKeyStorePath = Optional.empty();
+    Optional<PersistentRuleKeyStore> ruleKeyStore =
+        buildBuckConfig.isPersistentRuleKeyCacheEnabled()
+            ? Optional.of(
+                new PersistentRuleKeyStore(buildBuckConfig.getMaxPersistentRuleKeyCacheEntries()))
+            : Optional.empty();
+    boolean ruleKeyStoreRestored = false;
+    if (usesClockCursors && parserConfig.isDaemonStateSnapshotEnabled()) {
+      ProjectFilesystem rootFilesystem = rootCell.getRootCell().getFilesystem();
+      parserStateSnapshotPath =
+          Optional.of(
+              rootFilesystem.resolve(
+                  rootFilesystem.getBuckPaths().getBuckOut().resolve("parser_state")));
+      Optional<ImmutableMap<AbsPath, String>> restoredClocks =
+          restoreParserState(
+              daemonicParserState, parserStateSnapshotPath.get(), parserStateSnapshotKey, cursor);
+      if (ruleKeyStore.isPresent()) {
+        Path storePath =
+            rootFilesystem.resolve(
+                rootFilesystem.getBuckPaths().getBuckOut().resolve("rule_key_state"));
+        ruleKeyStorePath = Optional.of(storePath);
+        // Rule keys are only valid from the clocks the cursors were moved back to.
+        Optional<PersistentRuleKeyStore> restoredStore =
+            restoredClocks.flatMap(
+                clocks ->
+                    PersistentRuleKeyStore.read(
+                        storePath,
+                        parserStateSnapshotKey,
+                        clocks,
+                        buildBuckConfig.getMaxPersistentRuleKeyCacheEntries()));
+        if (restoredStore.isPresent()) {
+          ruleKeyStore = restoredStore;
+          ruleKeyStoreRestored = true;
+        }
+      }
+    }
     LOG.debug("Using Watchman Cursor: %s", cursor);
+
+    // Build the the rule key cache recycler.
+    RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler =
+        RuleKeyCacheRecycler.createAndRegister(
+            fileEventBus,
+            new DefaultRuleKeyCache<>(ruleKeyStore),
+            RichStream.from(allCells).map(Cell::getFilesystem).toImmutableSet());
     ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools = new ConcurrentHashMap<>();
 
     return new BuckGlobalState(
@@ -173,12 +248,58 @@ public class BuckGlobalStateFactory {
         versionedTargetGraphCache,
         actionGraphCache,
         defaultRuleKeyFactoryCacheRecycler,
+        ruleKeyStore,
+        ruleKeyStoreRestored,
         cursor,
+        parserStateSnapshotPath,
+        ruleKeyStorePath,
+        parserStateSnapshotKey,
         knownRuleTypesProvider,
         clock,
         watchman != WatchmanFactory.NULL_WATCHMAN);
   }
 
+  /**
+   * Identifies everything besides the contents of the files which affects the result of parsing,
+   * i.e. the version of buck and the configuration of every cell. Also used for the rule key store,
+   * whose structural keys cover all of that, too.
+   */
+  private static String getParserStateSnapshotKey(ImmutableList<Cell> cells) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(BuckVersion.getVersion(), StandardCharsets.UTF_8);
+    Comparator<Cell> byRoot = Comparator.comparing(Cell::getRoot, AbsPath.comparator());
+    for (Cell cell : ImmutableList.sortedCopyOf(byRoot, cells)) {
+      hasher.putString(cell.getRoot().toString(), StandardCharsets.UTF_8);
+      hasher.putBytes(cell.getBuckConfig().getConfig().getOrderIndependentHashCode().asBytes());
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Restores the parser state saved by an earlier daemon and moves the Watchman cursors back to the
+   * clocks it was saved at, so that the first query reports every file changed since then.
+   *
+   * @return the clocks the cursors were moved back to, if the parser state was restored
+   */
+  private static Optional<ImmutableMap<AbsPath, String>> restoreParserState(
+      DaemonicParserState daemonicParserState,
+      Path snapshotPath,
+      String key,
+      ImmutableMap<AbsPath, WatchmanCursor> cursor) {
+    Optional<ParserStateSnapshot> snapshot = ParserStateSnapshot.read(snapshotPath, key);
+    if (!snapshot.isPresent()) {
+      return Optional.empty();
+    }
+    ImmutableMap<AbsPath, String> clocks = snapshot.get().getClocks();
+    if (!clocks.keySet().equals(cursor.keySet())) {
+      LOG.info("Ignoring parser state snapshot %s taken with other watch roots.", snapshotPath);
+      return Optional.empty();
+    }
+    cursor.forEach((cellPath, watchmanCursor) -> watchmanCursor.set(clocks.get(cellPath)));
+    daemonicParserState.restore(snapshot.get());
+    return Optional.of(clocks);
+  }
+
   /** Create a number of instances of {@link DirectoryListCache}, one per each cell */
   private static LoadingCache<Path, DirectoryListCache> createDirectoryListCachePerCellMap(
       EventBus fileEventBus) {
@@ -209,25 +330,52 @@ public class BuckGlobalStateFactory {
             });
   }
 
-  /** Create a number of instances of {@link BuildFileManifestCache}, one per each cell */
-  private static LoadingCache<Path, BuildFileManifestCache> createBuildFileManifestCachePerCellMap(
-      EventBus fileEventBus, CellProvider cellProvider, AbsPath superRootPath) {
+  /**
+   * Create a number of instances of {@link BuildFileManifestCache}, one per each cell. If {@code
+   * persistManifests} is set, the manifests of cells whose build files are all parsed by the
+   * Skylark parser are also stored on disk, see {@link PersistentBuildFileManifestCache}.
+   */
+  private static LoadingCache<
+          Path, GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>>
+      createBuildFileManifestCachePerCellMap(
+          EventBus fileEventBus,
+          CellProvider cellProvider,
+          AbsPath superRootPath,
+          boolean persistManifests,
+          String configurationKey) {
     return CacheBuilder.newBuilder()
         .build(
-            new CacheLoader<Path, BuildFileManifestCache>() {
+            new CacheLoader<
+                Path,
+                GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>>() {
               @Override
-              public BuildFileManifestCache load(Path path) {
+              public GraphEngineCache<BuildPackagePathToBuildFileManifestKey, BuildFileManifest>
+                  load(Path path) {
                 Cell cell = cellProvider.getCellByPath(path);
-                String buildFileName =
-                    cell.getBuckConfigView(ParserConfig.class).getBuildFileName();
+                ParserConfig parserConfig = cell.getBuckConfigView(ParserConfig.class);
+                Path buildFileName = cell.getFilesystem().getPath(parserConfig.getBuildFileName());
                 BuildFileManifestCache cache =
                     BuildFileManifestCache.of(
                         superRootPath.getPath(),
                         path,
-                        cell.getFilesystem().getPath(buildFileName),
+                        buildFileName,
                         cell.getFilesystemViewForSourceFiles());
                 fileEventBus.register(cache.getInvalidator());
-                return cache;
+                if (!persistManifests
+                    || parserConfig.getDefaultBuildFileSyntax() != Syntax.SKYLARK
+                    || parserConfig.isPolyglotParsingEnabled()) {
+                  return cache;
+                }
+                ProjectFilesystem filesystem = cell.getFilesystem();
+                return PersistentBuildFileManifestCache.of(
+                    cache,
+                    filesystem.resolve(
+                        filesystem.getBuckPaths().getBuckOut().resolve("manifest_cache")),
+                    MAX_STORED_MANIFESTS_SIZE_BYTES,
+                    configurationKey,
+                    superRootPath.getPath(),
+                    path,
+                    buildFileName);
               }
             });
   }
@@ -22,6 +22,7 @@ public enum FileHashCacheMode {
   PREFIX_TREE,
   LIMITED_PREFIX_TREE,
   LIMITED_PREFIX_TREE_PARALLEL,
+  PARALLEL_PREFIX_TREE,
   PARALLEL_COMPARISON;
   public static final FileHashCacheMode DEFAULT = PREFIX_TREE;
 }
@@ -54,6 +54,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
   private final Predicate<Path> ignoredPredicate;
+  protected final Optional<PersistentFileHashStore> persistentStore;
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
@@ -61,8 +62,17 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.persistentStore = persistentStore;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -125,6 +135,16 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
                         projectFilesystem, fileHashLoader, dirHashLoader, sizeLoader),
                     "limited"));
         break;
+      case PARALLEL_PREFIX_TREE:
+        fileHashCacheEngine =
+            new StatsTrackingFileHashCacheEngine(
+                new ParallelFileHashCacheEngine(
+                    hashLoader,
+                    sizeLoader,
+                    projectFilesystem,
+                    ParallelFileHashCacheEngine.getSharedPool()),
+                "parallel");
+        break;
       default:
         throw new RuntimeException("Unsupported file hash cache engine: " + fileHashCacheMode);
     }
@@ -212,6 +232,13 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
+    if (persistentStore.isPresent()) {
+      return persistentStore.get().get(path, this::computeFileHashCode);
+    }
+    return computeFileHashCode(path);
+  }
+
+  private HashCode computeFileHashCode(Path path) throws IOException {
     return projectFilesystem.computeSha1(path).asHashCode();
   }
 
@@ -257,6 +284,12 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   @Override
   public void invalidateAll() {
     fileHashCacheEngine.invalidateAll();
+    persistentStore.ifPresent(PersistentFileHashStore::invalidateAll);
+  }
+
+  /** Saves the hashes of this cache which outlive the process, if there are any. */
+  public void persist() {
+    persistentStore.ifPresent(PersistentFileHashStore::persist);
   }
 
   /** @return The {@link com.google.common.hash.HashCode} of the contents of path. */
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.DelegatingFileHashCacheEngine;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link FileHashCacheEngine} which hashes the files under a directory on a fork-join pool before
+ * combining them into the directory hash, instead of one after the other on the calling thread.
+ *
+ * <p>The values are stored by a {@link FileSystemMapFileHashCache}, and the directory hashes are
+ * the same as those of the other engines. Each file is still hashed as a whole by one worker, so
+ * file hashes stay the SHA-1 of the contents whatever the mode.
+ */
+class ParallelFileHashCacheEngine extends DelegatingFileHashCacheEngine {
+
+  private static final Logger LOG = Logger.get(ParallelFileHashCacheEngine.class);
+
+  /** Shared by all caches of the process, so that several cells don't each spin up a pool. */
+  private static volatile @Nullable ForkJoinPool sharedPool;
+
+  private final FileHashCacheEngine delegate;
+  private final ProjectFilesystem filesystem;
+  private final ForkJoinPool pool;
+
+  ParallelFileHashCacheEngine(
+      ValueLoader<HashCodeAndFileType> hashLoader,
+      ValueLoader<Long> sizeLoader,
+      ProjectFilesystem filesystem,
+      ForkJoinPool pool) {
+    this(new FileSystemMapFileHashCache(hashLoader, sizeLoader, filesystem), filesystem, pool);
+  }
+
+  private ParallelFileHashCacheEngine(
+      FileHashCacheEngine delegate, ProjectFilesystem filesystem, ForkJoinPool pool) {
+    super(delegate);
+    this.delegate = delegate;
+    this.filesystem = filesystem;
+    this.pool = pool;
+  }
+
+  static ForkJoinPool getSharedPool() {
+    ForkJoinPool pool = sharedPool;
+    if (pool == null) {
+      synchronized (ParallelFileHashCacheEngine.class) {
+        pool = sharedPool;
+        if (pool == null) {
+          pool =
+              MostExecutors.forkJoinPoolWithThreadLimit(
+                  Runtime.getRuntime().availableProcessors(), 0);
+          sharedPool = pool;
+        }
+      }
+    }
+    return pool;
+  }
+
+  @Override
+  public HashCode get(Path path) throws IOException {
+    Path normalizedPath = path.normalize();
+    if (getIfPresent(normalizedPath) == null && filesystem.isDirectory(normalizedPath)) {
+      prefetchFilesUnder(normalizedPath);
+    }
+    return super.get(normalizedPath);
+  }
+
+  /**
+   * Loads the hashes of all files under {@code directory} in parallel, so that hashing the
+   * directory itself only needs to look them up.
+   */
+  private void prefetchFilesUnder(Path directory) throws IOException {
+    List<Path> files = new ArrayList<>(filesystem.getFilesUnderPath(directory));
+    if (files.size() < 2) {
+      return;
+    }
+    ForkJoinTask<?> task =
+        ForkJoinTask.adapt(
+            () ->
+                files.parallelStream()
+                    .filter(file -> delegate.getIfPresent(file) == null)
+                    .forEach(
+                        file -> {
+                          try {
+                            delegate.get(file);
+                          } catch (IOException | RuntimeException e) {
+                            // Hashing the directory hits the same error again and reports it.
+                            LOG.verbose(e, "Failed to prefetch the hash of %s.", file);
+                          }
+                        }));
+    if (ForkJoinTask.getPool() == pool) {
+      task.invoke();
+    } else {
+      pool.invoke(task);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.timing.Clock;
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * File content hashes of a {@link ProjectFilesystem} which outlive the process.
+ *
+ * <p>Every hash is stored along with the modification time, size and file key (the inode on
+ * POSIX systems) the file had when it was hashed, and is only handed out again while all three
+ * still match. This makes the store safe to use without knowing what happened to the files while
+ * buck wasn't running, so a restarted daemon only needs to stat a file instead of reading it.
+ *
+ * <p>Files modified less than {@link #RACY_WINDOW_MILLIS} before they were hashed are not
+ * recorded, since a second write within the same timestamp granularity would go unnoticed.
+ *
+ * <p>The store is kept in memory and written out as a single snapshot by {@link #persist()}. A
+ * snapshot is only loaded by a store for the same {@link FileHashCacheMode} and snapshot format.
+ */
+public class PersistentFileHashStore {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final int SNAPSHOT_MAGIC = 0xB0C4F4A5;
+  private static final int SNAPSHOT_VERSION = 2;
+
+  @VisibleForTesting static final long RACY_WINDOW_MILLIS = 2000L;
+
+  private final ProjectFilesystem projectFilesystem;
+  private final Path snapshotPath;
+  private final FileHashCacheMode fileHashCacheMode;
+  private final Clock clock;
+  private final ConcurrentMap<Path, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+  @VisibleForTesting
+  PersistentFileHashStore(
+      ProjectFilesystem projectFilesystem,
+      Path snapshotPath,
+      FileHashCacheMode fileHashCacheMode,
+      Clock clock) {
+    this.projectFilesystem = projectFilesystem;
+    this.snapshotPath = snapshotPath;
+    this.fileHashCacheMode = fileHashCacheMode;
+    this.clock = clock;
+  }
+
+  /**
+   * Creates a store for the given filesystem, loading the hashes saved by a previous run if there
+   * are any and they were computed in the same mode.
+   */
+  public static PersistentFileHashStore load(
+      ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
+    PersistentFileHashStore store =
+        new PersistentFileHashStore(
+            projectFilesystem,
+            projectFilesystem.resolve(
+                projectFilesystem.getBuckPaths().getBuckOut().resolve("file_hashes")),
+            fileHashCacheMode,
+            new DefaultClock());
+    store.readSnapshot();
+    return store;
+  }
+
+  /**
+   * @return the hash of the file at {@code relativePath}, reusing the stored hash if the file is
+   *     unchanged since it was recorded and calling {@code loader} otherwise.
+   */
+  public HashCode get(Path relativePath, HashLoader loader) throws IOException {
+    BasicFileAttributes attributes =
+        projectFilesystem.readAttributes(relativePath, BasicFileAttributes.class);
+    long modifiedMillis = attributes.lastModifiedTime().toMillis();
+    long size = attributes.size();
+    String fileKey = Objects.toString(attributes.fileKey(), "");
+
+    Entry entry = entries.get(relativePath);
+    if (entry != null && entry.matches(modifiedMillis, size, fileKey)) {
+      return entry.hashCode;
+    }
+
+    long startMillis = clock.currentTimeMillis();
+    HashCode hashCode = loader.load(relativePath);
+    if (startMillis - modifiedMillis >= RACY_WINDOW_MILLIS) {
+      entries.put(relativePath, new Entry(modifiedMillis, size, fileKey, hashCode));
+      dirty.set(true);
+    } else if (entry != null) {
+      entries.remove(relativePath);
+      dirty.set(true);
+    }
+    return hashCode;
+  }
+
+  /** Forgets the hash of {@code relativePath}. */
+  public void invalidate(Path relativePath) {
+    if (entries.remove(relativePath) != null) {
+      dirty.set(true);
+    }
+  }
+
+  /** Forgets all hashes, including the ones written out by earlier runs. */
+  public void invalidateAll() {
+    entries.clear();
+    dirty.set(true);
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+
+  /** Writes the store out if it changed since it was loaded or last written. */
+  public synchronized void persist() {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(snapshotPath.getParent());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(fileHashCacheMode.name());
+        for (Map.Entry<Path, Entry> mapEntry : entries.entrySet()) {
+          Entry entry = mapEntry.getValue();
+          byte[] hashBytes = entry.hashCode.asBytes();
+          out.writeBoolean(true);
+          out.writeUTF(mapEntry.getKey().toString());
+          out.writeLong(entry.modifiedMillis);
+          out.writeLong(entry.size);
+          out.writeUTF(entry.fileKey);
+          out.writeByte(hashBytes.length);
+          out.write(hashBytes);
+        }
+        out.writeBoolean(false);
+      }
+      Files.move(
+          tempPath,
+          snapshotPath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      dirty.set(true);
+      LOG.warn(e, "Failed to write file hash snapshot to %s.", snapshotPath);
+    }
+  }
+
+  @VisibleForTesting
+  void readSnapshot() {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        LOG.info("Ignoring file hash snapshot %s written by a different version.", snapshotPath);
+        return;
+      }
+      String snapshotMode = in.readUTF();
+      if (!snapshotMode.equals(fileHashCacheMode.name())) {
+        LOG.info(
+            "Ignoring file hash snapshot %s written in mode %s instead of %s.",
+            snapshotPath, snapshotMode, fileHashCacheMode);
+        return;
+      }
+      while (in.readBoolean()) {
+        Path path = projectFilesystem.getPath(in.readUTF());
+        long modifiedMillis = in.readLong();
+        long size = in.readLong();
+        String fileKey = in.readUTF();
+        byte[] hashBytes = new byte[in.readUnsignedByte()];
+        in.readFully(hashBytes);
+        entries.put(
+            path, new Entry(modifiedMillis, size, fileKey, HashCode.fromBytes(hashBytes)));
+      }
+      LOG.debug("Loaded %d file hashes from %s.", entries.size(), snapshotPath);
+    } catch (NoSuchFileException e) {
+      // Nothing was persisted yet.
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Discarding unreadable file hash snapshot %s.", snapshotPath);
+      entries.clear();
+    }
+  }
+
+  /** Computes the hash of a file which is not in the store. */
+  @FunctionalInterface
+  public interface HashLoader {
+    HashCode load(Path relativePath) throws IOException;
+  }
+
+  private static class Entry {
+    private final long modifiedMillis;
+    private final long size;
+    private final String fileKey;
+    private final HashCode hashCode;
+
+    private Entry(long modifiedMillis, long size, String fileKey, HashCode hashCode) {
+      this.modifiedMillis = modifiedMillis;
+      this.size = size;
+      this.fileKey = fileKey;
+      this.hashCode = hashCode;
+    }
+
+    private boolean matches(long modifiedMillis, long size, String fileKey) {
+      return this.modifiedMillis == modifiedMillis
+          && this.size == size
+          && this.fileKey.equals(fileKey);
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -31,7 +32,22 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
 
   public WatchedFileHashCache(
       ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
-    super(projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
+    this(projectFilesystem, fileHashCacheMode, Optional.empty());
+  }
+
+  /**
+   * @param persistentStore hashes which survive daemon restarts. These are checked before reading
+   *     the contents of a file whose hash is not cached in memory.
+   */
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
+    super(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        persistentStore);
   }
 
   /**
@@ -45,13 +61,15 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     RelPath path = event.getPath().normalize();
     LOG.verbose("Invalidating %s", path);
     fileHashCacheEngine.invalidateWithParents(path.getPath());
+    persistentStore.ifPresent(store -> store.invalidate(path.getPath()));
   }
 
   @SuppressWarnings("unused")
   @Subscribe
   public synchronized void onFileSystemChange(WatchmanOverflowEvent event) {
     // Non-path change event, likely an overflow due to many change events: invalidate everything.
+    // The persistent store validates its entries against the files themselves, so it is kept.
     LOG.debug("Invalidating all");
-    invalidateAll();
+    fileHashCacheEngine.invalidateAll();
   }
 }
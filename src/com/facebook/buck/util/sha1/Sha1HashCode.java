@@ -99,6 +99,23 @@ public final class Sha1HashCode {
     return hasher;
   }
 
+  /**
+   * Writes the 20 bytes of this SHA-1 to {@code dest} starting at {@code offset}, in the same order
+   * as {@link #update(Hasher)} puts them.
+   */
+  public void writeBytesTo(byte[] dest, int offset) {
+    Preconditions.checkPositionIndexes(offset, offset + NUM_BYTES_IN_HASH, dest.length);
+    for (int i = 0; i < Integer.BYTES; i++) {
+      dest[offset++] = (byte) (firstFourBytes >>> (i * Byte.SIZE));
+    }
+    for (int i = 0; i < Long.BYTES; i++) {
+      dest[offset++] = (byte) (nextEightBytes >>> (i * Byte.SIZE));
+    }
+    for (int i = 0; i < Long.BYTES; i++) {
+      dest[offset++] = (byte) (lastEightBytes >>> (i * Byte.SIZE));
+    }
+  }
+
   /**
    * <strong>This method should be used sparingly as we are trying to favor {@link Sha1HashCode}
    * over {@link HashCode}, where appropriate.</strong> Currently, the {@code FileHashCache} API is
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.trace;
+
+import com.facebook.buck.util.json.ObjectMappers;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Converts binary traces (see {@link BinaryTraceFormat}) to the JSON array format understood by
+ * chrome://tracing and Perfetto.
+ *
+ * <p>Can be run offline: {@code java -cp buck.jar com.facebook.buck.util.trace.BinaryTraceConverter
+ * build.trace.btrace [build.trace.json]}. Writes to stdout if no output file is given.
+ */
+public class BinaryTraceConverter {
+
+  private BinaryTraceConverter() {}
+
+  /** Writes the events of a binary trace to {@code json} as a JSON array. */
+  public static void convertToJson(InputStream binaryTrace, OutputStream json) throws IOException {
+    try (BinaryTraceReader reader = BinaryTraceReader.open(binaryTrace)) {
+      JsonGenerator generator = ObjectMappers.createGenerator(json);
+      generator.writeStartArray();
+      for (Map<String, Object> event = reader.next(); event != null; event = reader.next()) {
+        ObjectMappers.WRITER.writeValue(generator, event);
+      }
+      generator.writeEndArray();
+      generator.flush();
+    }
+  }
+
+  /**
+   * @return a stream of the events of a binary trace as a JSON array, which converts events as it
+   *     is read
+   */
+  public static InputStream toJsonStream(InputStream binaryTrace) throws IOException {
+    return new JsonStream(BinaryTraceReader.open(binaryTrace));
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: BinaryTraceConverter <binary trace> [<JSON trace>]");
+      System.exit(1);
+    }
+    Path input = Paths.get(args[0]);
+    try (InputStream binaryTrace =
+            input.toString().endsWith(".gz")
+                ? new GZIPInputStream(Files.newInputStream(input))
+                : Files.newInputStream(input);
+        OutputStream json =
+            new BufferedOutputStream(
+                args.length == 2 ? Files.newOutputStream(Paths.get(args[1])) : System.out)) {
+      convertToJson(binaryTrace, json);
+    }
+  }
+
+  private static class JsonStream extends InputStream {
+    private final BinaryTraceReader reader;
+    @Nullable private byte[] chunk = {'['};
+    private int position = 0;
+    private boolean first = true;
+
+    private JsonStream(BinaryTraceReader reader) {
+      this.reader = reader;
+    }
+
+    /** @return whether there is more to read */
+    private boolean fill() throws IOException {
+      while (chunk != null && position == chunk.length) {
+        position = 0;
+        Map<String, Object> event = reader.next();
+        if (event == null) {
+          chunk = chunk[0] == ']' ? null : new byte[] {']'};
+        } else {
+          byte[] json = ObjectMappers.WRITER.writeValueAsBytes(event);
+          chunk = new byte[json.length + 1];
+          chunk[0] = first ? (byte) '\n' : (byte) ',';
+          System.arraycopy(json, 0, chunk, 1, json.length);
+          first = false;
+        }
+      }
+      return chunk != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Constants of the binary build trace format, a compact encoding of the events of a Chrome trace.
+ *
+ * <p>A binary trace starts with {@link #MAGIC} and {@link #VERSION}, followed by records which
+ * each start with a tag byte: {@link #EVENT_RECORD} or {@link #END_RECORD}. A trace cut short
+ * without an end record is still readable up to its last complete event. An event record holds:
+ *
+ * <ul>
+ *   <li>the phase as the character used by the JSON format,
+ *   <li>the category and the name as strings,
+ *   <li>the process and thread ids as unsigned varints,
+ *   <li>the timestamp and the thread timestamp as zigzag varints, relative to the previous event,
+ *   <li>the number of arguments plus one as an unsigned varint, or 0 if there are none, followed by
+ *       a string and a value for each argument.
+ * </ul>
+ *
+ * <p>Every string is written once: as {@link #NEW_STRING} followed by its UTF-8 length as a varint
+ * and its bytes. Later occurrences are written as a varint holding its index in the order of first
+ * occurrence plus {@link #FIRST_STRING_INDEX}. {@link #NULL_STRING} stands for null. Values start
+ * with one of the {@code VALUE_} tags.
+ */
+public final class BinaryTraceFormat {
+
+  private BinaryTraceFormat() {}
+
+  private static final byte[] MAGIC = {'B', 'T', 'R', 'C'};
+  public static final int VERSION = 1;
+
+  public static final int EVENT_RECORD = 1;
+  public static final int END_RECORD = 2;
+
+  public static final int NEW_STRING = 0;
+  public static final int NULL_STRING = 1;
+  public static final int FIRST_STRING_INDEX = 2;
+
+  public static final int VALUE_NULL = 0;
+  public static final int VALUE_STRING = 1;
+  public static final int VALUE_LONG = 2;
+  public static final int VALUE_DOUBLE = 3;
+  public static final int VALUE_TRUE = 4;
+  public static final int VALUE_FALSE = 5;
+  public static final int VALUE_LIST = 6;
+  public static final int VALUE_MAP = 7;
+
+  /** @return a copy of the bytes every binary trace starts with. */
+  public static byte[] getMagic() {
+    return MAGIC.clone();
+  }
+
+  /**
+   * Checks whether a stream holds a binary trace, and consumes the magic if so. The stream must
+   * support {@link InputStream#mark(int)}, and is reset to where it was otherwise.
+   */
+  public static boolean readMagic(InputStream input) throws IOException {
+    input.mark(MAGIC.length);
+    byte[] start = new byte[MAGIC.length];
+    int read = 0;
+    while (read < start.length) {
+      int count = input.read(start, read, start.length - read);
+      if (count < 0) {
+        break;
+      }
+      read += count;
+    }
+    if (read == MAGIC.length && Arrays.equals(start, MAGIC)) {
+      return true;
+    }
+    input.reset();
+    return false;
+  }
+}
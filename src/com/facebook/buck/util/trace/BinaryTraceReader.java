@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the events of a binary trace (see {@link BinaryTraceFormat}) one at a time, as the maps
+ * that parsing the same events in the JSON format would produce.
+ */
+public class BinaryTraceReader implements Closeable {
+
+  private final DataInputStream input;
+  private final List<String> strings = new ArrayList<>();
+  private long previousMicroTime = 0;
+  private long previousMicroThreadUserTime = 0;
+  private boolean ended = false;
+
+  /** Creates a reader for a stream positioned after the magic of a binary trace. */
+  public BinaryTraceReader(InputStream input) throws IOException {
+    this.input =
+        new DataInputStream(
+            input instanceof BufferedInputStream ? input : new BufferedInputStream(input));
+    int version = this.input.readUnsignedByte();
+    if (version != BinaryTraceFormat.VERSION) {
+      throw new IOException("Unsupported binary trace version " + version);
+    }
+  }
+
+  /** Creates a reader for a stream positioned at the start of a binary trace. */
+  public static BinaryTraceReader open(InputStream input) throws IOException {
+    BufferedInputStream bufferedInput = new BufferedInputStream(input);
+    if (!BinaryTraceFormat.readMagic(bufferedInput)) {
+      throw new IOException("Not a binary trace");
+    }
+    return new BinaryTraceReader(bufferedInput);
+  }
+
+  /** @return the next event, or null after the last complete one. */
+  @Nullable
+  public Map<String, Object> next() throws IOException {
+    if (ended) {
+      return null;
+    }
+    try {
+      return readEvent();
+    } catch (EOFException e) {
+      // The trace was cut short, e.g. because buck was killed while writing it.
+      ended = true;
+      return null;
+    }
+  }
+
+  @Nullable
+  private Map<String, Object> readEvent() throws IOException {
+    int tag = input.read();
+    if (tag == BinaryTraceFormat.END_RECORD || tag < 0) {
+      ended = true;
+      return null;
+    }
+    if (tag != BinaryTraceFormat.EVENT_RECORD) {
+      throw new IOException("Unexpected record " + tag);
+    }
+
+    // Same keys in the same order as ChromeTraceEvent serialized to JSON.
+    Map<String, Object> event = new LinkedHashMap<>();
+    String phase = String.valueOf((char) input.readUnsignedByte());
+    String category = readString();
+    String name = readString();
+    if (category != null) {
+      event.put("cat", category);
+    }
+    if (name != null) {
+      event.put("name", name);
+    }
+    event.put("ph", phase);
+    event.put("pid", readVarLong());
+    event.put("tid", readVarLong());
+    previousMicroTime += readZigZagLong();
+    previousMicroThreadUserTime += readZigZagLong();
+    event.put("ts", previousMicroTime);
+    event.put("tts", previousMicroThreadUserTime);
+    int argCount = readVarInt();
+    if (argCount > 0) {
+      event.put("args", readMapEntries(argCount - 1));
+    }
+    return event;
+  }
+
+  @Nullable
+  private Object readValue() throws IOException {
+    int tag = input.readUnsignedByte();
+    switch (tag) {
+      case BinaryTraceFormat.VALUE_NULL:
+        return null;
+      case BinaryTraceFormat.VALUE_STRING:
+        return readString();
+      case BinaryTraceFormat.VALUE_LONG:
+        return readZigZagLong();
+      case BinaryTraceFormat.VALUE_DOUBLE:
+        return input.readDouble();
+      case BinaryTraceFormat.VALUE_TRUE:
+        return true;
+      case BinaryTraceFormat.VALUE_FALSE:
+        return false;
+      case BinaryTraceFormat.VALUE_LIST:
+        int size = readVarInt();
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue());
+        }
+        return list;
+      case BinaryTraceFormat.VALUE_MAP:
+        return readMapEntries(readVarInt());
+      default:
+        throw new IOException("Unexpected value " + tag);
+    }
+  }
+
+  private Map<String, Object> readMapEntries(int size) throws IOException {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      map.put(readString(), readValue());
+    }
+    return map;
+  }
+
+  @Nullable
+  private String readString() throws IOException {
+    int reference = readVarInt();
+    if (reference == BinaryTraceFormat.NULL_STRING) {
+      return null;
+    }
+    if (reference != BinaryTraceFormat.NEW_STRING) {
+      int index = reference - BinaryTraceFormat.FIRST_STRING_INDEX;
+      if (index >= strings.size()) {
+        throw new IOException("Unknown string " + index);
+      }
+      return strings.get(index);
+    }
+    byte[] bytes = new byte[readVarInt()];
+    input.readFully(bytes);
+    String string = new String(bytes, StandardCharsets.UTF_8);
+    strings.add(string);
+    return string;
+  }
+
+  private int readVarInt() throws IOException {
+    long value = readVarLong();
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException("Varint out of range: " + value);
+    }
+    return (int) value;
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = input.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private long readZigZagLong() throws IOException {
+    long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
@@ -57,7 +57,7 @@ public class BuildTraces {
 
   private static final Logger logger = Logger.get(BuildTraces.class);
 
-  private static final Pattern TRACES_FILE_PATTERN = Pattern.compile("build\\..*\\.trace$");
+  private static final Pattern TRACES_FILE_PATTERN = Pattern.compile("build\\..*\\.b?trace$");
 
   private final ProjectFilesystem projectFilesystem;
 
@@ -99,14 +99,20 @@ public class BuildTraces {
     }
   }
 
+  /** @return the traces for the specified build ID in the JSON format, converting binary ones. */
   public Iterable<InputStream> getInputsForTraces(String id) throws IOException {
     ImmutableList.Builder<InputStream> tracesBuilder = ImmutableList.builder();
     for (Path p : getPathsToTraces(id)) {
-      tracesBuilder.add(projectFilesystem.getInputStreamForRelativePath(p));
+      InputStream input = projectFilesystem.getInputStreamForRelativePath(p);
+      tracesBuilder.add(isBinaryTrace(p) ? BinaryTraceConverter.toJsonStream(input) : input);
     }
     return tracesBuilder.build();
   }
 
+  private static boolean isBinaryTrace(Path path) {
+    return path.getFileName().toString().endsWith(".btrace");
+  }
+
   public TraceAttributes getTraceAttributesFor(String id) throws IOException {
     for (Path p : getPathsToTraces(id)) {
       if (isTraceForBuild(p, id)) {
@@ -147,8 +153,10 @@ public class BuildTraces {
   private boolean isTraceForBuild(Path path, String id) {
     String testPrefix = "build.";
     String testSuffix = "." + id + ".trace";
+    String binaryTestSuffix = "." + id + ".btrace";
     String name = path.getFileName().toString();
-    return name.startsWith(testPrefix) && name.endsWith(testSuffix);
+    return name.startsWith(testPrefix)
+        && (name.endsWith(testSuffix) || name.endsWith(binaryTestSuffix));
   }
 
   /** The most recent trace (the one with the greatest last-modified time) will be listed first. */
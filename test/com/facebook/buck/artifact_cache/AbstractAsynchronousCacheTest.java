@@ -41,7 +41,9 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import org.junit.Test;
@@ -106,6 +108,53 @@ public class AbstractAsynchronousCacheTest {
     }
   }
 
+  @Test
+  public void testMultiFetchWaitsForBatchWithinWindow() throws Exception {
+    ExplicitRunExecutorService service = new ExplicitRunExecutorService();
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+
+    List<ImmutableList<RuleKey>> requestedRuleKeys = new ArrayList<>();
+    List<ImmutableSet<RuleKey>> checkedRuleKeys = new ArrayList<>();
+    CountDownLatch fetchStarted = new CountDownLatch(1);
+
+    try (AbstractAsynchronousCache cache =
+        new RequestedKeyRecordingAsynchronousCache(
+            service, filesystem, requestedRuleKeys, checkedRuleKeys, 2, 1, false) {
+          @Override
+          protected int getMultiFetchBatchSize(int pendingRequestsSize) {
+            fetchStarted.countDown();
+            return 2;
+          }
+
+          @Override
+          protected long getMultiFetchBatchWindowMillis() {
+            return TimeUnit.MINUTES.toMillis(1);
+          }
+        }) {
+      RuleKey first = new RuleKey(HashCode.fromInt(0));
+      RuleKey second = new RuleKey(HashCode.fromInt(1));
+      cache.fetchAsync(null, first, LazyPath.ofInstance(filesystem.getPath("path0")));
+
+      // The second key only becomes fetchable once the first batch is already being assembled.
+      Thread producer =
+          new Thread(
+              () -> {
+                try {
+                  fetchStarted.await();
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+                cache.fetchAsync(null, second, LazyPath.ofInstance(filesystem.getPath("path1")));
+              });
+      producer.start();
+      service.runOnce();
+      producer.join();
+
+      assertEquals(1, requestedRuleKeys.size());
+      MoreAsserts.assertIterablesEquals(ImmutableList.of(first, second), requestedRuleKeys.get(0));
+    }
+  }
+
   @Test
   public void testSkipPendingAsyncFetchRequests() throws ExecutionException, InterruptedException {
     ExplicitRunExecutorService service = new ExplicitRunExecutorService();
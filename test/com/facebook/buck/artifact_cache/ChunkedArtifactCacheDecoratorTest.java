@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ChunkedArtifactCacheDecoratorTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey dummyRuleKey =
+      new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey dummyRuleKey2 =
+      new RuleKey("1111111111111111111111111111111111111111");
+
+  private ChunkedArtifactCacheDecorator newChunkedCache(
+      InMemoryArtifactCache delegate, boolean performChunkedStores) {
+    return new ChunkedArtifactCacheDecorator(
+        delegate,
+        TestProjectFilesystems.createProjectFilesystem(tmp.getRoot()),
+        performChunkedStores,
+        /* minimumChunkedStoredArtifactSize */ 8L,
+        /* chunkSize */ 4L);
+  }
+
+  private Path newArtifact(byte[] contents) throws IOException {
+    Path artifact = tmp.newFile();
+    Files.write(artifact, contents);
+    return artifact;
+  }
+
+  @Test
+  public void testStoreAndFetchChunkedArtifact() throws IOException {
+    byte[] contents = "0123456789".getBytes();
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* performChunkedStores */ true)) {
+      Futures.getUnchecked(
+          chunkedCache.store(
+              ArtifactInfo.builder()
+                  .addRuleKeys(dummyRuleKey)
+                  .setMetadata(ImmutableMap.of("key", "value"))
+                  .build(),
+              BorrowablePath.notBorrowablePath(newArtifact(contents))));
+
+      // One manifest and three chunks.
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(4));
+
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      CacheResult result =
+          Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey, output));
+      assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+      assertThat(result.getMetadata(), Matchers.equalTo(ImmutableMap.of("key", "value")));
+      assertThat(result.getArtifactSizeBytes(), Matchers.equalTo((long) contents.length));
+      assertArrayEquals(contents, Files.readAllBytes(output.get()));
+    }
+  }
+
+  @Test
+  public void testSharedChunksAreStoredOnce() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* performChunkedStores */ true)) {
+      Futures.getUnchecked(
+          chunkedCache.store(
+              ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+              BorrowablePath.notBorrowablePath(newArtifact("aaaabbbbaaaa".getBytes()))));
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(3));
+
+      Futures.getUnchecked(
+          chunkedCache.store(
+              ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+              BorrowablePath.notBorrowablePath(newArtifact("bbbbaaaacccc".getBytes()))));
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(5));
+
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      assertThat(
+          Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey2, output)).getType(),
+          Matchers.equalTo(CacheResultType.HIT));
+      assertArrayEquals("bbbbaaaacccc".getBytes(), Files.readAllBytes(output.get()));
+    }
+  }
+
+  @Test
+  public void testChunksWhoseStoreFailedAreStoredAgain() throws IOException {
+    AtomicBoolean failNextChunkStore = new AtomicBoolean(true);
+    try (InMemoryArtifactCache inMemoryArtifactCache =
+            new InMemoryArtifactCache() {
+              @Override
+              public ListenableFuture<Unit> store(ArtifactInfo info, BorrowablePath output) {
+                if (!info.getMetadata().containsKey(ChunkedArtifactCacheDecorator.METADATA_KEY)
+                    && failNextChunkStore.getAndSet(false)) {
+                  return Futures.immediateFailedFuture(new IOException("Store failed."));
+                }
+                return super.store(info, output);
+              }
+            };
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* performChunkedStores */ true)) {
+      // Storing the first chunk, "aaaa", fails.
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(newArtifact("aaaabbbb".getBytes())));
+
+      Futures.getUnchecked(
+          chunkedCache.store(
+              ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+              BorrowablePath.notBorrowablePath(newArtifact("aaaacccc".getBytes()))));
+
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      assertThat(
+          Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey2, output)).getType(),
+          Matchers.equalTo(CacheResultType.HIT));
+      assertArrayEquals("aaaacccc".getBytes(), Files.readAllBytes(output.get()));
+    }
+  }
+
+  @Test
+  public void testMissingChunkIsAMiss() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* performChunkedStores */ true)) {
+      inMemoryArtifactCache.store(
+          ArtifactInfo.builder()
+              .addRuleKeys(dummyRuleKey)
+              .setMetadata(
+                  ImmutableMap.of(
+                      ChunkedArtifactCacheDecorator.METADATA_KEY, dummyRuleKey2.toString()))
+              .build(),
+          new byte[0]);
+
+      LazyPath output = LazyPath.ofInstance(tmp.getRoot().resolve("output"));
+      assertThat(
+          Futures.getUnchecked(chunkedCache.fetchAsync(null, dummyRuleKey, output)).getType(),
+          Matchers.equalTo(CacheResultType.MISS));
+    }
+  }
+
+  @Test
+  public void testSmallArtifactsAreStoredWhole() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* performChunkedStores */ true)) {
+      Futures.getUnchecked(
+          chunkedCache.store(
+              ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+              BorrowablePath.notBorrowablePath(newArtifact("0123".getBytes()))));
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(1));
+    }
+  }
+
+  @Test
+  public void testNoChunkedStoresWhenDisabled() throws IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        ChunkedArtifactCacheDecorator chunkedCache =
+            newChunkedCache(inMemoryArtifactCache, /* performChunkedStores */ false)) {
+      Futures.getUnchecked(
+          chunkedCache.store(
+              ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+              BorrowablePath.notBorrowablePath(newArtifact("0123456789".getBytes()))));
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.equalTo(1));
+    }
+  }
+}
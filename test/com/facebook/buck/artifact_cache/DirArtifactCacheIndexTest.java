@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DirArtifactCacheIndexTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private Path journalPath;
+  private AtomicInteger seedCount;
+
+  @Before
+  public void setUp() throws IOException {
+    journalPath = tmpDir.newFolder().resolve("index").resolve("journal");
+    seedCount = new AtomicInteger();
+  }
+
+  private DirArtifactCacheIndex newIndex(ImmutableList<Pair<String, Long>> seed) {
+    return new DirArtifactCacheIndex(
+        journalPath,
+        () -> {
+          seedCount.incrementAndGet();
+          return seed;
+        });
+  }
+
+  @Test
+  public void seedsFromScanWithoutWritingJournal() {
+    DirArtifactCacheIndex index =
+        newIndex(ImmutableList.of(new Pair<>("a", 1L), new Pair<>("b", 2L)));
+
+    assertEquals(3L, index.getTotalSizeBytes());
+    assertEquals(ImmutableList.of("a", "b"), index.getEntriesColdestFirst());
+    index.close();
+
+    assertEquals(1, seedCount.get());
+    assertFalse(Files.exists(journalPath));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntries() {
+    DirArtifactCacheIndex index = newIndex(ImmutableList.of());
+    index.recordStore("a", 4L);
+    index.recordStore("b", 4L);
+    index.recordStore("c", 4L);
+    index.recordAccess("a");
+
+    assertEquals(ImmutableList.of(), index.evict(12L, 4L));
+    assertEquals(ImmutableList.of("b", "c"), index.evict(10L, 4L));
+    assertEquals(ImmutableList.of("a"), index.getEntriesColdestFirst());
+    assertEquals(4L, index.getTotalSizeBytes());
+    index.close();
+  }
+
+  @Test
+  public void replaysJournalInsteadOfScanning() {
+    DirArtifactCacheIndex index =
+        newIndex(ImmutableList.of(new Pair<>("a", 1L), new Pair<>("b", 2L)));
+    index.recordStore("c", 3L);
+    index.recordAccess("a");
+    index.recordRemoval("b");
+    index.close();
+    assertTrue(Files.exists(journalPath));
+
+    DirArtifactCacheIndex reloaded = newIndex(ImmutableList.of());
+    assertEquals(ImmutableList.of("c", "a"), reloaded.getEntriesColdestFirst());
+    assertEquals(4L, reloaded.getTotalSizeBytes());
+    reloaded.close();
+
+    assertEquals(1, seedCount.get());
+  }
+
+  @Test
+  public void compactsJournal() throws IOException {
+    DirArtifactCacheIndex index = newIndex(ImmutableList.of());
+    index.recordStore("a", 1L);
+    for (int i = 0; i < 10000; i++) {
+      index.recordAccess("a");
+    }
+    index.close();
+
+    // Each access record is a few bytes, so without compaction the journal would be much bigger.
+    assertTrue(Files.size(journalPath) < 10000);
+
+    DirArtifactCacheIndex reloaded = newIndex(ImmutableList.of());
+    assertEquals(ImmutableList.of("a"), reloaded.getEntriesColdestFirst());
+    reloaded.close();
+  }
+
+  @Test
+  public void evictsEntriesStoredByAnotherProcess() {
+    DirArtifactCacheIndex first = newIndex(ImmutableList.of());
+    DirArtifactCacheIndex second = newIndex(ImmutableList.of());
+    first.recordStore("a", 4L);
+    second.recordStore("b", 4L);
+
+    assertEquals(8L, first.getTotalSizeBytes());
+    assertEquals(ImmutableList.of("a"), first.evict(6L, 4L));
+    assertEquals(ImmutableList.of("b"), second.getEntriesColdestFirst());
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void compactionKeepsEntriesStoredByAnotherProcess() {
+    DirArtifactCacheIndex first = newIndex(ImmutableList.of());
+    DirArtifactCacheIndex second = newIndex(ImmutableList.of());
+    first.recordStore("a", 1L);
+    second.recordStore("b", 2L);
+    for (int i = 0; i < 10000; i++) {
+      first.recordAccess("a");
+    }
+    first.close();
+    second.recordStore("c", 3L);
+    second.close();
+
+    DirArtifactCacheIndex reloaded = newIndex(ImmutableList.of());
+    assertEquals(ImmutableList.of("b", "a", "c"), reloaded.getEntriesColdestFirst());
+    assertEquals(6L, reloaded.getTotalSizeBytes());
+    reloaded.close();
+  }
+
+  @Test
+  public void rebuildsFromScanIfJournalIsCorrupt() throws IOException {
+    Files.createDirectories(journalPath.getParent());
+    Files.write(journalPath, new byte[] {1, 2, 3, 4, 5});
+
+    DirArtifactCacheIndex index = newIndex(ImmutableList.of(new Pair<>("a", 1L)));
+    assertEquals(ImmutableList.of("a"), index.getEntriesColdestFirst());
+    index.close();
+
+    assertEquals(1, seedCount.get());
+  }
+}
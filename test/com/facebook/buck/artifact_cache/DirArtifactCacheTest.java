@@ -826,6 +826,78 @@ public class DirArtifactCacheTest {
             .getType());
   }
 
+  @Test
+  public void testDeleteUsesPersistedAccessOrder() throws IOException {
+    Path fileX = tmpDir.newFile("x");
+    Path fileY = tmpDir.newFile("y");
+
+    fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                fileX, HashCode.fromInt(0),
+                fileY, HashCode.fromInt(1)));
+
+    dirArtifactCache =
+        newDirArtifactCache(/* maxCacheSizeBytes */ Optional.of(1024L), CacheReadMode.READWRITE);
+
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+
+    BuildRule inputRuleX = new BuildRuleForTest(fileX);
+    BuildRule inputRuleY = new BuildRuleForTest(fileY);
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    graphBuilder.addToIndex(inputRuleX);
+    graphBuilder.addToIndex(inputRuleY);
+
+    DefaultRuleKeyFactory fakeRuleKeyFactory =
+        new TestDefaultRuleKeyFactory(fileHashLoader, graphBuilder);
+
+    RuleKey ruleKeyX = fakeRuleKeyFactory.build(inputRuleX);
+    RuleKey ruleKeyY = fakeRuleKeyFactory.build(inputRuleY);
+
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
+        BorrowablePath.notBorrowablePath(fileY));
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(fileX)))
+            .getType());
+    dirArtifactCache.close();
+
+    // The file access times disagree with the order recorded by the cache. The recorded order
+    // should win, as the cache no longer scans the directory once it has an index.
+    for (String extension : ImmutableList.of("", ".metadata")) {
+      Files.setAttribute(
+          dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.of(extension)),
+          "lastAccessTime",
+          FileTime.fromMillis(0));
+      Files.setAttribute(
+          dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.of(extension)),
+          "lastAccessTime",
+          FileTime.fromMillis(10000));
+    }
+
+    // 1-byte entries take 6 bytes to store, trimming to 2/3 of 9 bytes leaves room for one.
+    dirArtifactCache =
+        newDirArtifactCache(/* maxCacheSizeBytes */ Optional.of(9L), CacheReadMode.READWRITE);
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyX, LazyPath.ofInstance(fileX)))
+            .getType());
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(
+                dirArtifactCache.fetchAsync(null, ruleKeyY, LazyPath.ofInstance(fileY)))
+            .getType());
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException {
     Path fileX = tmpDir.newFile("x");
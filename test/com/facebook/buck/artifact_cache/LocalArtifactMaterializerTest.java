@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LocalArtifactMaterializerTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private LocalArtifactMaterializer materializer;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot());
+    materializer = new LocalArtifactMaterializer(filesystem);
+  }
+
+  @Test
+  public void linksStoredArtifactIntoOutput() throws IOException {
+    Path stored = tmpDir.newFile("stored");
+    Files.write(stored, "artifact".getBytes(UTF_8));
+    Path output = tmpDir.getRoot().resolve("output");
+    Files.write(output, "stale".getBytes(UTF_8));
+
+    materializer.materialize(Paths.get("stored"), output);
+
+    assertEquals("artifact", new String(Files.readAllBytes(output), UTF_8));
+    assertTrue(materializer.isLinkingSupported());
+    assertTrue(Files.isSameFile(stored, output));
+  }
+
+  @Test(expected = NoSuchFileException.class)
+  public void missingStoredArtifactIsReported() throws IOException {
+    materializer.materialize(Paths.get("missing"), tmpDir.getRoot().resolve("output"));
+  }
+
+  @Test
+  public void missingStoredArtifactDoesNotDisableLinking() throws IOException {
+    try {
+      materializer.materialize(Paths.get("missing"), tmpDir.getRoot().resolve("output"));
+    } catch (NoSuchFileException e) {
+      // expected
+    }
+    assertTrue(materializer.isLinkingSupported());
+  }
+}
@@ -154,6 +154,7 @@ public class ThriftArtifactCacheTest {
             new BuildId("aabb"),
             0,
             0,
+            0,
             false,
             "test://",
             "hostname")) {
@@ -356,6 +357,7 @@ public class ThriftArtifactCacheTest {
             new BuildId("aabb"),
             0,
             0,
+            0,
             false,
             "test://",
             "hostname")) {
@@ -446,6 +448,7 @@ public class ThriftArtifactCacheTest {
             "/nice_as_well",
             new BuildId("aabb"),
             1,
+            0,
             1,
             false,
             "test://",
@@ -511,6 +514,7 @@ public class ThriftArtifactCacheTest {
             new BuildId("aabb"),
             0,
             0,
+            0,
             false,
             "test://",
             "hostname")) {
@@ -18,7 +18,9 @@ package com.facebook.buck.cli;
 
 import static java.util.Collections.singletonList;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.core.cell.Cells;
@@ -61,6 +63,7 @@ import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
@@ -212,6 +215,17 @@ public class BuckQueryEnvironmentTest {
         buckQueryEnvironment.getTargetsMatchingPattern("//example:"), is(equalTo(expectedTargets)));
   }
 
+  @Test
+  public void resultsAreReusedByLaterQueries() throws Exception {
+    QueryTarget one = createQueryBuildTarget("//example", "one");
+    Set<QueryTarget> deps = buckQueryEnvironment.evaluateQuery("deps(//example:one)");
+    assertThat(deps, hasItem(one));
+    assertSame(deps, buckQueryEnvironment.evaluateQuery("deps(//example:one)"));
+    assertThat(
+        buckQueryEnvironment.evaluateQuery("deps(//example:one) - //example:one"),
+        is(equalTo(Sets.difference(deps, ImmutableSet.of(one)))));
+  }
+
   @Test
   public void whenNonExistentFileIsQueriedAWarningIsIssued() {
     ImmutableList<String> expectedTargets = ImmutableList.of("/foo/bar");
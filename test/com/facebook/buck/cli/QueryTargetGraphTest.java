@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.graph.MutableDirectedGraph;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryTargetGraphTest {
+
+  private TargetNode<?> a;
+  private TargetNode<?> b;
+  private TargetNode<?> c;
+  private TargetNode<?> d;
+  private QueryTargetGraph graph;
+
+  @Before
+  public void setUp() {
+    // a -> b -> d, a -> c -> d
+    d = node("//:d");
+    b = node("//:b", d);
+    c = node("//:c", d);
+    a = node("//:a", b, c);
+    graph = new QueryTargetGraph();
+    graph.addNode(d);
+    graph.addNode(b);
+    graph.addNode(c);
+    graph.addNode(a);
+  }
+
+  private static TargetNode<?> node(String target, TargetNode<?>... deps) {
+    return FakeTargetNodeBuilder.newBuilder(BuildTargetFactory.newInstance(target))
+        .setDeps(deps)
+        .build();
+  }
+
+  @Test
+  public void addingNodeTwiceDoesNotDuplicateEdges() {
+    graph.addNode(b);
+    assertEquals(4, graph.size());
+    assertEquals(ImmutableList.of(b, c), graph.getReverseDeps(d));
+  }
+
+  @Test
+  public void depsAndReverseDeps() {
+    assertEquals(ImmutableList.of(b, c), graph.getDeps(a));
+    assertEquals(ImmutableList.of(), graph.getDeps(d));
+    assertEquals(ImmutableList.of(a), graph.getReverseDeps(b));
+    assertEquals(ImmutableList.of(), graph.getReverseDeps(a));
+  }
+
+  @Test
+  public void nodesOutsideTheGraphHaveNoEdges() {
+    TargetNode<?> e = node("//:e", a);
+    assertFalse(graph.contains(e.getBuildTarget()));
+    assertTrue(graph.contains(a.getBuildTarget()));
+    assertEquals(ImmutableList.of(), graph.getDeps(e));
+    assertEquals(ImmutableList.of(), graph.getReverseDeps(e));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void addingNodeBeforeItsDepsFails() {
+    new QueryTargetGraph().addNode(a);
+  }
+
+  @Test
+  public void transitiveClosureVisitsEachNodeOnceBreadthFirst() {
+    List<TargetNode<?>> visited = new ArrayList<>();
+    graph.forEachInTransitiveClosure(ImmutableList.of(a, b), visited::add);
+    assertEquals(ImmutableList.of(a, b, c, d), visited);
+
+    visited.clear();
+    TargetNode<?> e = node("//:e");
+    graph.forEachInTransitiveClosure(ImmutableList.of(e, c), visited::add);
+    assertEquals(ImmutableList.of(e, c, d), visited);
+  }
+
+  @Test
+  public void transitiveClosureOfManyNodes() {
+    QueryTargetGraph chain = new QueryTargetGraph();
+    TargetNode<?> previous = node("//:n0");
+    chain.addNode(previous);
+    for (int i = 1; i < 100; i++) {
+      previous = node("//:n" + i, previous);
+      chain.addNode(previous);
+    }
+    List<TargetNode<?>> visited = new ArrayList<>();
+    chain.forEachInTransitiveClosure(ImmutableList.of(previous), visited::add);
+    assertEquals(100, visited.size());
+    assertEquals(previous, visited.get(0));
+  }
+
+  @Test
+  public void toMutableDirectedGraphCopiesNodesAndEdges() {
+    MutableDirectedGraph<TargetNode<?>> copy = graph.toMutableDirectedGraph();
+    assertEquals(ImmutableSet.of(a, b, c, d), ImmutableSet.copyOf(copy.getNodes()));
+    assertEquals(ImmutableSet.of(b, c), ImmutableSet.copyOf(copy.getOutgoingNodesFor(a)));
+    assertEquals(ImmutableSet.of(b, c), ImmutableSet.copyOf(copy.getIncomingNodesFor(d)));
+  }
+}
@@ -429,6 +429,41 @@ public class TargetsCommandIntegrationTest {
     parseAndVerifyTargetsAndHashes(result.getStdout(), "//:another-test", "//:test");
   }
 
+  @Test
+  public void testStreamingRuleKeysMatchSortedRuleKeys() throws IOException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "output_path", tmp);
+    workspace.setUp();
+
+    ProcessResult sorted =
+        workspace.runBuckCommand("targets", "--show-rulekey", "//:test", "//:another-test");
+    sorted.assertSuccess();
+    ProcessResult streamed =
+        workspace.runBuckCommand(
+            "targets", "--show-rulekey", "--streaming", "//:test", "//:another-test");
+    streamed.assertSuccess();
+    assertEquals(
+        ImmutableSet.copyOf(Splitter.on('\n').omitEmptyStrings().split(sorted.getStdout())),
+        ImmutableSet.copyOf(Splitter.on('\n').omitEmptyStrings().split(streamed.getStdout())));
+  }
+
+  @Test
+  public void testStreamingRuleKeysAsJsonLines() throws IOException {
+    ProjectWorkspace workspace =
+        TestDataHelper.createProjectWorkspaceForScenario(this, "output_path", tmp);
+    workspace.setUp();
+
+    ProcessResult result =
+        workspace.runBuckCommand("targets", "--show-rulekey", "--streaming", "--json", "//:test");
+    result.assertSuccess();
+    List<String> lines = Splitter.on('\n').omitEmptyStrings().splitToList(result.getStdout());
+    assertEquals(1, lines.size());
+    JsonNode record = ObjectMappers.READER.readTree(lines.get(0));
+    assertEquals("//:test", record.get("fully_qualified_name").asText());
+    assertEquals("genrule", record.get("buck.ruleType").asText());
+    assertTrue(record.get("buck.ruleKey").asText().matches("[0-9a-f]{40}"));
+  }
+
   @Test
   public void testConfigurationRulesNotIncludedInRuleKey() throws IOException {
     ProjectWorkspace workspace =
@@ -49,6 +49,7 @@ public class CachingBuildEngineFactory {
   private DepFiles depFiles = DepFiles.ENABLED;
   private long maxDepFileCacheEntries = 256L;
   private Optional<Long> artifactCacheSizeLimit = Optional.empty();
+  private int cachePrefetchLimit = 0;
   private long inputFileSizeLimit = Long.MAX_VALUE;
   private Optional<RuleKeyFactories> ruleKeyFactories = Optional.empty();
   private CachingBuildEngineDelegate cachingBuildEngineDelegate;
@@ -93,6 +94,11 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setCachePrefetchLimit(int cachePrefetchLimit) {
+    this.cachePrefetchLimit = cachePrefetchLimit;
+    return this;
+  }
+
   public CachingBuildEngineFactory setCachingBuildEngineDelegate(
       CachingBuildEngineDelegate cachingBuildEngineDelegate) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
@@ -145,6 +151,7 @@ public class CachingBuildEngineFactory {
           depFiles,
           maxDepFileCacheEntries,
           artifactCacheSizeLimit,
+          cachePrefetchLimit,
           buildRuleResolver,
           buildInfoStoreManager,
           actionToBuildRuleResolver,
@@ -163,6 +170,7 @@ public class CachingBuildEngineFactory {
         depFiles,
         maxDepFileCacheEntries,
         artifactCacheSizeLimit,
+        cachePrefetchLimit,
         buildRuleResolver,
         actionToBuildRuleResolver,
         targetConfigurationSerializer,
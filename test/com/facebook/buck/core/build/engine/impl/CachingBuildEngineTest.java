@@ -83,6 +83,7 @@ import com.facebook.buck.core.model.impl.BuildTargetPaths;
 import com.facebook.buck.core.rulekey.AddToRuleKey;
 import com.facebook.buck.core.rulekey.BuildRuleKeys;
 import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rulekey.calculator.ParallelRuleKeyCalculator;
 import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleParams;
@@ -189,6 +190,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -1688,6 +1690,168 @@ public class CachingBuildEngineTest {
         assertTrue(fakeFileHashCache.contains(filesystem.resolve(output)));
       }
     }
+
+    @Test
+    public void prefetchedArtifactIsUsedByTheBuild() throws Exception {
+      BuildTarget target = BuildTargetFactory.newInstance("//:rule");
+      Path output = filesystem.getPath("output/path");
+      BuildRule rule = new WriteFile(target, filesystem, "data", output, /* executable */ false);
+
+      // Run an initial build to seed the cache.
+      try (CachingBuildEngine cachingBuildEngine = cachingBuildEngineFactory().build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(buildContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+
+        filesystem.deleteRecursivelyIfExists(Paths.get(""));
+        buildInfoStore.deleteMetadata(target);
+      }
+
+      List<RuleKey> fetches = Collections.synchronizedList(new ArrayList<>());
+      BuildEngineBuildContext countingContext =
+          buildContext.withArtifactCache(new FetchRecordingArtifactCache(cache, fetches));
+      try (CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setCachePrefetchLimit(4).build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(countingContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.FETCHED_FROM_CACHE, result.getSuccess());
+        assertTrue(filesystem.exists(output));
+      }
+      assertEquals(ImmutableList.of(defaultRuleKeyFactory.build(rule)), fetches);
+    }
+
+    @Test
+    public void prefetchFollowsMissesToBuildDeps() throws Exception {
+      BuildRule dep =
+          new WriteFile(
+              BuildTargetFactory.newInstance("//:dep"),
+              filesystem,
+              "data",
+              filesystem.getPath("dep/output"),
+              /* executable */ false);
+      graphBuilder.addToIndex(dep);
+      BuildRule rule =
+          createRule(
+              filesystem,
+              graphBuilder,
+              ImmutableSortedSet.of(dep),
+              /* buildSteps */ ImmutableList.of(),
+              /* postBuildSteps */ ImmutableList.of(),
+              /* pathToOutputFile */ null,
+              ImmutableList.of());
+
+      List<RuleKey> fetches = Collections.synchronizedList(new ArrayList<>());
+      BuildEngineBuildContext countingContext =
+          buildContext.withArtifactCache(new FetchRecordingArtifactCache(cache, fetches));
+      try (CachingBuildEngine cachingBuildEngine =
+          cachingBuildEngineFactory().setCachePrefetchLimit(4).build()) {
+        BuildResult result =
+            cachingBuildEngine
+                .build(countingContext, TestExecutionContext.newInstance(), rule)
+                .getResult()
+                .get();
+        assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+      }
+      // Both misses were discovered once, whether by the prefetcher or by the builder.
+      assertThat(
+          fetches,
+          Matchers.containsInAnyOrder(
+              defaultRuleKeyFactory.build(rule), defaultRuleKeyFactory.build(dep)));
+    }
+
+    @Test
+    public void slotOfArtifactNeverClaimedIsReleasedOnceTheRuleIsDone() throws Exception {
+      BuildRule first =
+          new WriteFile(
+              BuildTargetFactory.newInstance("//:first"),
+              filesystem,
+              "first",
+              filesystem.getPath("first/output"),
+              /* executable */ false);
+      BuildRule second =
+          new WriteFile(
+              BuildTargetFactory.newInstance("//:second"),
+              filesystem,
+              "second",
+              filesystem.getPath("second/output"),
+              /* executable */ false);
+      graphBuilder.addToIndex(first);
+      graphBuilder.addToIndex(second);
+
+      // Run an initial build to seed the cache.
+      try (CachingBuildEngine cachingBuildEngine = cachingBuildEngineFactory().build()) {
+        for (BuildRule rule : ImmutableList.of(first, second)) {
+          assertEquals(
+              BuildRuleSuccessType.BUILT_LOCALLY,
+              cachingBuildEngine
+                  .build(buildContext, TestExecutionContext.newInstance(), rule)
+                  .getResult()
+                  .get()
+                  .getSuccess());
+          buildInfoStore.deleteMetadata(rule.getBuildTarget());
+        }
+        filesystem.deleteRecursivelyIfExists(Paths.get(""));
+      }
+
+      List<RuleKey> fetches = Collections.synchronizedList(new ArrayList<>());
+      BuildEngineBuildContext countingContext =
+          buildContext.withArtifactCache(new FetchRecordingArtifactCache(cache, fetches));
+      DefaultRuleDepsCache ruleDeps =
+          new DefaultRuleDepsCache(graphBuilder, actionToBuildRuleResolver);
+      CachePrefetcher prefetcher =
+          new CachePrefetcher(
+              /* limit */ 1,
+              BuildType.SHALLOW,
+              new ParallelRuleKeyCalculator<>(
+                  MoreExecutors.newDirectExecutorService(),
+                  defaultRuleKeyFactory,
+                  ruleDeps,
+                  (eventBus, rule) -> () -> {}),
+              ruleDeps,
+              buildInfoStoreManager);
+      RuleKey firstKey = defaultRuleKeyFactory.build(first);
+      RuleKey secondKey = defaultRuleKeyFactory.build(second);
+
+      prefetcher.prefetch(first, countingContext);
+      prefetcher.prefetch(second, countingContext);
+      // The staged hit of the first rule holds the only slot.
+      assertEquals(ImmutableList.of(firstKey), fetches);
+      // The in-memory cache fetches on a single thread, so this waits for the prefetch to land.
+      cache
+          .fetchAsync(
+              null,
+              new RuleKey("aaaa"),
+              LazyPath.ofInstance(tmp.getRoot().resolve("missing")))
+          .get();
+
+      // The first rule finishes without claiming its artifact, e.g. because it failed.
+      prefetcher.releaseWhenDone(firstKey, Futures.immediateFuture(null));
+      assertEquals(ImmutableList.of(firstKey, secondKey), fetches);
+      prefetcher.close();
+    }
+
+    private static class FetchRecordingArtifactCache extends NoopArtifactCache {
+      private final ArtifactCache delegate;
+      private final List<RuleKey> fetches;
+
+      private FetchRecordingArtifactCache(ArtifactCache delegate, List<RuleKey> fetches) {
+        this.delegate = delegate;
+        this.fetches = fetches;
+      }
+
+      @Override
+      public ListenableFuture<CacheResult> fetchAsync(
+          @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+        fetches.add(ruleKey);
+        return delegate.fetchAsync(target, ruleKey, output);
+      }
+    }
   }
 
   public static class InputBasedRuleKeyTests extends CommonFixture {
@@ -42,7 +42,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -77,6 +79,27 @@ public class ManifestTest {
     assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
   }
 
+  @Test
+  public void serializeInputsSharingPrefixes() throws IOException {
+    ImmutableMap<RuleKey, ImmutableMap<String, HashCode>> entries =
+        ImmutableMap.of(
+            new RuleKey("aa"),
+            ImmutableMap.of(
+                "foo/bar/baz.h", HashCode.fromInt(1),
+                "foo/bar/bazinga.h", HashCode.fromInt(2),
+                "foo/qux.h", HashCode.fromInt(3),
+                "other.h", HashCode.fromInt(4)),
+            new RuleKey("bb"),
+            ImmutableMap.of(
+                "other.h", HashCode.fromInt(5), "foo/bar/baz.h", HashCode.fromInt(1)));
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(new RuleKey("cc"), entries).serialize(byteArrayOutputStream);
+    Manifest deserialized =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(deserialized.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
+  }
+
   @Test
   public void addEntry() throws IOException {
     Manifest manifest = new Manifest(new RuleKey("cc"));
@@ -293,6 +316,56 @@ public class ManifestTest {
         Matchers.equalTo(Optional.of(key2)));
   }
 
+  @Test
+  public void lookupHashesEachInputOnce() throws IOException {
+    SourcePath input1 = FakeSourcePath.of("input1.h");
+    SourcePath input2 = FakeSourcePath.of("input2.h");
+    String header1 = RESOLVER.getRelativePath(input1).toString();
+    String header2 = RESOLVER.getRelativePath(input2).toString();
+    Manifest manifest =
+        ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                new RuleKey("aa"),
+                ImmutableMap.of(header1, HashCode.fromInt(1), header2, HashCode.fromInt(2)),
+                new RuleKey("bb"),
+                ImmutableMap.of(header1, HashCode.fromInt(3), header2, HashCode.fromInt(4)),
+                new RuleKey("dd"),
+                ImmutableMap.of(header1, HashCode.fromInt(3), header2, HashCode.fromInt(5))));
+    FakeFileHashCache hashCache =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(input1),
+                HashCode.fromInt(3),
+                RESOLVER.getAbsolutePath(input2),
+                HashCode.fromInt(5)));
+    List<Path> hashedPaths = new ArrayList<>();
+    FileHashLoader fileHashLoader =
+        new FileHashLoader() {
+          @Override
+          public HashCode get(Path path) throws IOException {
+            hashedPaths.add(path);
+            return hashCache.get(path);
+          }
+
+          @Override
+          public long getSize(Path path) throws IOException {
+            return hashCache.getSize(path);
+          }
+
+          @Override
+          public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath)
+              throws IOException {
+            return hashCache.getForArchiveMember(relativeArchivePath, memberPath);
+          }
+        };
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(input1, input2)),
+        Matchers.equalTo(Optional.of(new RuleKey("dd"))));
+    assertThat(hashedPaths, Matchers.hasSize(2));
+    assertThat(ImmutableSet.copyOf(hashedPaths), Matchers.hasSize(2));
+  }
+
   @Test
   public void size() {
     assertThat(new Manifest(new RuleKey("cc")).size(), Matchers.equalTo(0));
@@ -325,6 +398,6 @@ public class ManifestTest {
                     new RuleKey("bb"),
                     ImmutableMap.of("bar.h", HashCode.fromInt(0))))
             .getStats(),
-        Matchers.equalTo(ImmutableManifestStats.of(2, 1, 2)));
+        Matchers.equalTo(ImmutableManifestStats.of(2, 1, 2, 0, 0)));
   }
 }
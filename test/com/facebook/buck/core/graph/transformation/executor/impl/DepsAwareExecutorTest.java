@@ -65,6 +65,11 @@ public class DepsAwareExecutorTest<TaskType extends DepsAwareTask<Object, TaskTy
             (Supplier<DepsAwareExecutor<?, ?>>)
                 () -> ToposortBasedDepsAwareExecutor.of(NUMBER_OF_THREADS)
           },
+          {
+            (Supplier<DepsAwareExecutor<?, ?>>)
+                () ->
+                    WorkStealingDepsAwareExecutor.of(NUMBER_OF_THREADS, new TaskDurationHistory())
+          },
         });
   }
 
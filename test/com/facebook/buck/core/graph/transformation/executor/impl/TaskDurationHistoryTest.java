@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class TaskDurationHistoryTest {
+
+  @Test
+  public void equalKeysShareTheirDuration() {
+    TaskDurationHistory history = new TaskDurationHistory();
+    history.record(new StringBuilder("key").toString(), 5);
+    assertEquals(5, history.estimateNanos(new StringBuilder("key").toString()));
+  }
+
+  @Test
+  public void keysOfDifferentTypesWithTheSameHashCodeDoNotShareTheirDuration() {
+    TaskDurationHistory history = new TaskDurationHistory();
+    history.record("a", 5);
+    assertEquals("a".hashCode(), Integer.valueOf(97).hashCode());
+    assertNotEquals(5, history.estimateNanos(97));
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.executor.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class WorkStealingDepsAwareExecutorTest {
+
+  @Test
+  public void runsDepsOnLongerCriticalPathFirst() throws ExecutionException, InterruptedException {
+    TaskDurationHistory history = new TaskDurationHistory();
+    history.record("slow", TimeUnit.SECONDS.toNanos(1));
+    history.record("fast", TimeUnit.MICROSECONDS.toNanos(1));
+
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    try (WorkStealingDepsAwareExecutor<String> executor =
+        WorkStealingDepsAwareExecutor.of(1, history)) {
+      List<CriticalPathDepsAwareTask<String>> deps = new ArrayList<>();
+      for (String key : ImmutableList.of("fast", "slow", "fast2")) {
+        deps.add(
+            executor.createThrowingTask(
+                key.startsWith("fast") ? "fast" : key,
+                () -> {
+                  order.add(key);
+                  return key;
+                },
+                ImmutableSet::of,
+                ImmutableSet::of));
+      }
+      CriticalPathDepsAwareTask<String> root =
+          executor.createThrowingTask(
+              "root", () -> "root", ImmutableSet::of, () -> ImmutableSet.copyOf(deps));
+
+      assertEquals("root", executor.submit(root).get());
+    }
+
+    assertEquals("slow", order.get(0));
+  }
+
+  @Test
+  public void criticalPathGoesThroughLongestChainOfDependants() {
+    TaskDurationHistory history = new TaskDurationHistory();
+    history.record("a", 10);
+    history.record("b", 100);
+    history.record("c", 1);
+    try (WorkStealingDepsAwareExecutor<Object> executor =
+        WorkStealingDepsAwareExecutor.of(1, history)) {
+      CriticalPathDepsAwareTask<Object> a = createTask(executor, "a");
+      CriticalPathDepsAwareTask<Object> b = createTask(executor, "b");
+      CriticalPathDepsAwareTask<Object> c = createTask(executor, "c");
+
+      c.addDependantCriticalPath(a.getCriticalPathNanos());
+      assertEquals(11, c.getCriticalPathNanos());
+      c.addDependantCriticalPath(b.getCriticalPathNanos());
+      assertEquals(101, c.getCriticalPathNanos());
+      c.addDependantCriticalPath(a.getCriticalPathNanos());
+      assertEquals(101, c.getCriticalPathNanos());
+    }
+  }
+
+  @Test
+  public void historyFallsBackToAverageOfKeyType() {
+    TaskDurationHistory history = new TaskDurationHistory();
+    long unknown = history.estimateNanos("never ran");
+
+    history.record("ran", unknown * 2);
+
+    assertEquals(unknown * 2, history.estimateNanos("ran"));
+    assertEquals(unknown * 2, history.estimateNanos("never ran"));
+    assertEquals(unknown, history.estimateNanos(1L));
+  }
+
+  private static CriticalPathDepsAwareTask<Object> createTask(
+      WorkStealingDepsAwareExecutor<Object> executor, String key) {
+    return executor.createThrowingTask(key, () -> key, ImmutableSet::of, ImmutableSet::of);
+  }
+}
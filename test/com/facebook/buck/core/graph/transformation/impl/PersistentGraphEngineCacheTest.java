@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.graph.transformation.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.core.graph.transformation.impl.ChildrenAdder.LongNode;
+import com.facebook.buck.core.graph.transformation.impl.PersistentGraphEngineCache.Codec;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentGraphEngineCacheTest {
+
+  private static final Codec<LongNode> CODEC =
+      new Codec<LongNode>() {
+        @Override
+        public Optional<byte[]> encode(LongNode value) {
+          return value.get() < 0
+              ? Optional.empty()
+              : Optional.of(Longs.toByteArray(value.get()));
+        }
+
+        @Override
+        public Optional<LongNode> decode(byte[] bytes) throws IOException {
+          if (bytes.length != Long.BYTES) {
+            throw new IOException("Corrupt");
+          }
+          return Optional.of(LongNode.of(Longs.fromByteArray(bytes)));
+        }
+      };
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  /** Stands for the inputs of the results besides their keys. */
+  private long inputVersion = 0;
+
+  @Test
+  public void resultsAreReusedByANewCache() {
+    newCache(1024).put(LongNode.of(2), LongNode.of(20));
+
+    assertEquals(Optional.of(LongNode.of(20)), newCache(1024).get(LongNode.of(2)));
+    assertEquals(Optional.empty(), newCache(1024).get(LongNode.of(4)));
+  }
+
+  @Test
+  public void leastRecentlyUsedResultsAreEvicted() {
+    PersistentGraphEngineCache<LongNode, LongNode> cache = newCache(2 * Long.BYTES);
+    cache.put(LongNode.of(2), LongNode.of(20));
+    cache.put(LongNode.of(4), LongNode.of(40));
+    cache.get(LongNode.of(2));
+    cache.put(LongNode.of(6), LongNode.of(60));
+
+    PersistentGraphEngineCache<LongNode, LongNode> newCache = newCache(2 * Long.BYTES);
+    assertEquals(Optional.of(LongNode.of(20)), newCache.get(LongNode.of(2)));
+    assertEquals(Optional.empty(), newCache.get(LongNode.of(4)));
+    assertEquals(Optional.of(LongNode.of(60)), newCache.get(LongNode.of(6)));
+  }
+
+  @Test
+  public void resultsOfKeysWithoutHashAreOnlyKeptInMemory() {
+    PersistentGraphEngineCache<LongNode, LongNode> cache = newCache(1024);
+    cache.put(LongNode.of(3), LongNode.of(30));
+
+    assertEquals(Optional.of(LongNode.of(30)), cache.get(LongNode.of(3)));
+    assertEquals(Optional.empty(), newCache(1024).get(LongNode.of(3)));
+  }
+
+  @Test
+  public void resultsAreNotReusedOnceTheirInputsChange() {
+    PersistentGraphEngineCache<LongNode, LongNode> cache = newCache(1024);
+    cache.put(LongNode.of(2), LongNode.of(20));
+    inputVersion++;
+
+    assertEquals(Optional.empty(), cache.get(LongNode.of(2)));
+    assertEquals(Optional.empty(), newCache(1024).get(LongNode.of(2)));
+  }
+
+  @Test
+  public void numberOfResultsKeptInMemoryIsBounded() {
+    PersistentGraphEngineCache<LongNode, LongNode> cache =
+        new PersistentGraphEngineCache<>(tmp.getRoot(), 1024, 1, key -> Optional.empty(), CODEC);
+    cache.put(LongNode.of(3), LongNode.of(30));
+    cache.put(LongNode.of(5), LongNode.of(50));
+
+    assertEquals(Optional.empty(), cache.get(LongNode.of(3)));
+    assertEquals(Optional.of(LongNode.of(50)), cache.get(LongNode.of(5)));
+  }
+
+  @Test
+  public void resultsTheCodecDeclinesAreOnlyKeptInMemory() {
+    PersistentGraphEngineCache<LongNode, LongNode> cache = newCache(1024);
+    cache.put(LongNode.of(2), LongNode.of(-20));
+
+    assertEquals(Optional.of(LongNode.of(-20)), cache.get(LongNode.of(2)));
+    assertEquals(Optional.empty(), newCache(1024).get(LongNode.of(2)));
+  }
+
+  @Test
+  public void unreadableResultsAreDeleted() throws IOException {
+    newCache(1024).put(LongNode.of(2), LongNode.of(20));
+    Path stored;
+    try (Stream<Path> paths = Files.walk(tmp.getRoot())) {
+      stored = paths.filter(Files::isRegularFile).findFirst().get();
+    }
+    Files.write(stored, new byte[] {1});
+
+    assertEquals(Optional.empty(), newCache(1024).get(LongNode.of(2)));
+    assertFalse(Files.exists(stored));
+  }
+
+  /** @return a cache which only stores results of even keys on disk */
+  private PersistentGraphEngineCache<LongNode, LongNode> newCache(long maxSizeBytes) {
+    return new PersistentGraphEngineCache<>(
+        tmp.getRoot(),
+        maxSizeBytes,
+        16,
+        key ->
+            key.get() % 2 == 0
+                ? Optional.of(
+                    Hashing.sha1().newHasher().putLong(key.get()).putLong(inputVersion).hash())
+                : Optional.empty(),
+        CODEC);
+  }
+}
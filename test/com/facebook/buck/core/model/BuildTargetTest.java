@@ -169,4 +169,13 @@ public class BuildTargetTest {
 
     assertSame(target1, target2);
   }
+
+  @Test
+  public void buildTargetsAreInterned() {
+    BuildTarget target1 = BuildTargetFactory.newInstance("//foo", "bar", InternalFlavor.of("baz"));
+    BuildTarget target2 = BuildTargetFactory.newInstance("//foo", "bar", InternalFlavor.of("baz"));
+
+    assertSame(target1, target2);
+    assertSame(target1.getCellRelativeBasePath(), target2.getCellRelativeBasePath());
+  }
 }
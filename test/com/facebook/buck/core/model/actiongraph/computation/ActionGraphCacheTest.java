@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.model.actiongraph.computation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.actiongraph.ActionGraph;
+import com.facebook.buck.core.model.actiongraph.ActionGraphAndBuilder;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphFactory;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.rules.transformer.TargetNodeToBuildRuleTransformer;
+import com.facebook.buck.core.rules.transformer.impl.DefaultTargetNodeToBuildRuleTransformer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ActionGraphCacheTest {
+
+  private static final TargetNodeToBuildRuleTransformer TRANSFORMER =
+      new DefaultTargetNodeToBuildRuleTransformer();
+
+  @Test
+  public void graphsAreCachedPerTransformerAndIncrementalMode() {
+    ActionGraphCache cache = new ActionGraphCache(3);
+    TargetGraph targetGraph = newTargetGraph("a");
+    ActionGraphCacheKey key =
+        ActionGraphCacheKey.of(targetGraph, TRANSFORMER, IncrementalActionGraphMode.ENABLED);
+    ActionGraphAndBuilder actionGraph = newActionGraph(1);
+    cache.put(key, actionGraph);
+
+    assertSame(
+        actionGraph,
+        cache.getIfPresent(
+            ActionGraphCacheKey.of(
+                newTargetGraph("a"),
+                new DefaultTargetNodeToBuildRuleTransformer(),
+                IncrementalActionGraphMode.ENABLED)));
+    assertNull(
+        cache.getIfPresent(
+            ActionGraphCacheKey.of(
+                targetGraph, TRANSFORMER, IncrementalActionGraphMode.DISABLED)));
+    assertNull(
+        cache.getIfPresent(
+            ActionGraphCacheKey.of(
+                targetGraph,
+                new DefaultTargetNodeToBuildRuleTransformer() {},
+                IncrementalActionGraphMode.ENABLED)));
+  }
+
+  @Test
+  public void leastRecentlyUsedGraphIsEvictedBeyondMaxEntries() {
+    ActionGraphCache cache = new ActionGraphCache(2);
+    ActionGraphCacheKey a = newKey("a");
+    ActionGraphCacheKey b = newKey("b");
+    ActionGraphCacheKey c = newKey("c");
+    cache.put(a, newActionGraph(1));
+    cache.put(b, newActionGraph(1));
+    cache.getIfPresent(a);
+    cache.put(c, newActionGraph(1));
+
+    assertEquals(2, cache.size());
+    assertNull(cache.getIfPresent(b));
+  }
+
+  @Test
+  public void leastRecentlyUsedGraphsAreEvictedBeyondMaxRules() {
+    ActionGraphCache cache = new ActionGraphCache(3, 3);
+    ActionGraphCacheKey a = newKey("a");
+    ActionGraphCacheKey b = newKey("b");
+    ActionGraphCacheKey c = newKey("c");
+    cache.put(a, newActionGraph(2));
+    cache.put(b, newActionGraph(1));
+    assertEquals(2, cache.size());
+    assertEquals(3, cache.getCachedRuleCount());
+
+    cache.put(c, newActionGraph(2));
+    assertNull(cache.getIfPresent(a));
+    assertEquals(3, cache.getCachedRuleCount());
+
+    // The most recent graph is kept even if it is larger than the limit on its own.
+    ActionGraphAndBuilder large = newActionGraph(5);
+    cache.put(a, large);
+    assertEquals(1, cache.size());
+    assertSame(large, cache.getIfPresent(a));
+  }
+
+  @Test
+  public void nothingIsCachedWithoutEntries() {
+    ActionGraphCache cache = new ActionGraphCache(0);
+    cache.put(newKey("a"), newActionGraph(1));
+    assertTrue(cache.isEmpty());
+  }
+
+  private static ActionGraphCacheKey newKey(String name) {
+    return ActionGraphCacheKey.of(
+        newTargetGraph(name), TRANSFORMER, IncrementalActionGraphMode.ENABLED);
+  }
+
+  private static TargetGraph newTargetGraph(String name) {
+    return TargetGraphFactory.newInstance(
+        FakeTargetNodeBuilder.build(new FakeBuildRule("//:" + name)));
+  }
+
+  private static ActionGraphAndBuilder newActionGraph(int ruleCount) {
+    TestActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    List<BuildRule> rules = new ArrayList<>();
+    for (int i = 0; i < ruleCount; i++) {
+      rules.add(graphBuilder.addToIndex(new FakeBuildRule("//:rule" + i)));
+    }
+    return ActionGraphAndBuilder.of(new ActionGraph(rules), graphBuilder);
+  }
+}
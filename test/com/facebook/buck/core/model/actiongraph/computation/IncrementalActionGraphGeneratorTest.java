@@ -48,6 +48,7 @@ import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.util.timing.IncrementingFakeClock;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -611,6 +612,88 @@ public class IncrementalActionGraphGeneratorTest {
     event = trackedEvents.take();
     assertTrue(event instanceof ActionGraphEvent.IncrementalLoad);
     assertEquals(1, ((ActionGraphEvent.IncrementalLoad) event).getReusedNodeCount());
+    assertEquals(1, ((ActionGraphEvent.IncrementalLoad) event).getPreviousNodeCount());
+    assertEquals(1.0, ((ActionGraphEvent.IncrementalLoad) event).getReuseRatio(), 0);
+  }
+
+  @Test
+  public void alternatingTargetGraphsReuseTheirOwnPreviousGraph() {
+    generator = new IncrementalActionGraphGenerator(2);
+    TargetNode<?> first = createTargetNode("first");
+    TargetNode<?> second = createTargetNode("second");
+
+    setUpTargetGraphAndResolver(first);
+    ActionGraphBuilder firstGraphBuilder = graphBuilder;
+    assertEquals(
+        Optional.empty(),
+        generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder));
+    BuildRule firstRule = graphBuilder.requireRule(first.getBuildTarget());
+
+    setUpTargetGraphAndResolver(second);
+    ActionGraphBuilder secondGraphBuilder = graphBuilder;
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    BuildRule secondRule = graphBuilder.requireRule(second.getBuildTarget());
+
+    setUpTargetGraphAndResolver(first);
+    assertEquals(
+        Optional.of(firstGraphBuilder),
+        generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder));
+    assertSame(firstRule, graphBuilder.requireRule(first.getBuildTarget()));
+
+    setUpTargetGraphAndResolver(second);
+    assertEquals(
+        Optional.of(secondGraphBuilder),
+        generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder));
+    assertSame(secondRule, graphBuilder.requireRule(second.getBuildTarget()));
+  }
+
+  @Test
+  public void previousGraphsBeyondTheLimitAreDropped() {
+    TargetNode<?> first = createTargetNode("first");
+    TargetNode<?> second = createTargetNode("second");
+
+    setUpTargetGraphAndResolver(first);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    BuildRule firstRule = graphBuilder.requireRule(first.getBuildTarget());
+
+    setUpTargetGraphAndResolver(second);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(second.getBuildTarget());
+
+    // The first graph's rules were handed to the second builder, which didn't keep them.
+    setUpTargetGraphAndResolver(first);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    assertNotSame(firstRule, graphBuilder.requireRule(first.getBuildTarget()));
+  }
+
+  @Test
+  public void previousGraphsBeyondTheRuleLimitAreDropped() {
+    generator = new IncrementalActionGraphGenerator(3, 1);
+    TargetNode<?> first = createTargetNode("first");
+    TargetNode<?> second = createTargetNode("second");
+    TargetNode<?> third = createTargetNode("third");
+
+    setUpTargetGraphAndResolver(first);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(first.getBuildTarget());
+    generator.evictPreviousGraphs();
+
+    // The second builder is empty until it is populated, so the first one is only dropped once
+    // the second graph is built.
+    setUpTargetGraphAndResolver(second);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(second.getBuildTarget());
+    generator.evictPreviousGraphs();
+
+    setUpTargetGraphAndResolver(third);
+    generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder);
+    graphBuilder.requireRule(third.getBuildTarget());
+    generator.evictPreviousGraphs();
+
+    setUpTargetGraphAndResolver(first);
+    assertEquals(
+        Optional.empty(),
+        generator.populateActionGraphBuilderWithCachedRules(eventBus, targetGraph, graphBuilder));
   }
 
   private FakeTargetNodeBuilder createTargetNodeBuilder(String name) {
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.rulekey.calculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.build.action.BuildEngineAction;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.rules.keys.RuleKeyFactory;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Test;
+
+public class BatchedRuleKeyCalculatorTest {
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+  private final Map<BuildRule, String> builtKeys = new ConcurrentHashMap<>();
+  private final Set<BuildRule> cachedRules = ConcurrentHashMap.newKeySet();
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void keysOfDepsAreComputedFirst() {
+    List<BuildRule> leaves = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      leaves.add(new FakeBuildRule("//:leaf" + i));
+    }
+    BuildRule middle = new FakeBuildRule("//:middle", leaves.get(0), leaves.get(1));
+    BuildRule top = new FakeBuildRule("//:top", leaves.toArray(new BuildRule[0]));
+    BuildRule root = new FakeBuildRule("//:root", middle, top, leaves.get(2));
+
+    List<String> keys = calculate(newCalculator(Optional.empty()), ImmutableList.of(root, middle));
+
+    assertEquals(ImmutableList.of(builtKeys.get(root), builtKeys.get(middle)), keys);
+    assertEquals(53, builtKeys.size());
+    assertEquals("//:middle(//:leaf0()//:leaf1())", keys.get(1));
+    assertTrue(keys.get(0).startsWith("//:root(//:leaf2()//:middle(//:leaf0()"));
+  }
+
+  @Test
+  public void depsOfCachedRulesAreNotVisited() {
+    BuildRule leaf = new FakeBuildRule("//:leaf");
+    BuildRule cached = new FakeBuildRule("//:cached", leaf);
+    BuildRule root = new FakeBuildRule("//:root", cached);
+    cachedRules.add(cached);
+
+    List<String> keys = calculate(newCalculator(Optional.empty()), ImmutableList.of(root));
+
+    assertEquals(ImmutableList.of("//:root(cached)"), keys);
+    assertFalse(builtKeys.containsKey(leaf));
+    assertFalse(builtKeys.containsKey(cached));
+  }
+
+  @Test
+  public void inputsArePrefetched() {
+    List<BuildRule> rules = new ArrayList<>();
+    Set<String> sources = new HashSet<>();
+    for (int i = 0; i < 20; i++) {
+      rules.add(new RuleWithSource("//:rule" + i, FakeSourcePath.of("src" + i)));
+      sources.add("src" + i);
+    }
+    Set<Path> prefetched = ConcurrentHashMap.newKeySet();
+    FileHashLoader fileHashLoader =
+        new FileHashLoader() {
+          @Override
+          public HashCode get(Path path) {
+            prefetched.add(path);
+            return HashCode.fromInt(0);
+          }
+
+          @Override
+          public long getSize(Path path) {
+            return 0;
+          }
+
+          @Override
+          public HashCode getForArchiveMember(Path relativeArchivePath, Path memberPath) {
+            throw new UnsupportedOperationException();
+          }
+        };
+
+    calculate(newCalculator(Optional.of(fileHashLoader)), rules);
+
+    assertEquals(
+        sources,
+        prefetched.stream()
+            .map(path -> path.getFileName().toString())
+            .collect(Collectors.toSet()));
+  }
+
+  private BatchedRuleKeyCalculator<String> newCalculator(
+      Optional<FileHashLoader> inputPrefetcher) {
+    RuleKeyFactory<String> ruleKeyFactory =
+        new RuleKeyFactory<String>() {
+          @Override
+          public String build(BuildEngineAction action) {
+            BuildRule rule = (BuildRule) action;
+            StringBuilder key = new StringBuilder(rule.getFullyQualifiedName()).append('(');
+            for (BuildRule dep : rule.getBuildDeps()) {
+              String depKey = cachedRules.contains(dep) ? "cached" : builtKeys.get(dep);
+              if (depKey == null) {
+                throw new IllegalStateException(dep + " wasn't computed before " + rule);
+              }
+              key.append(depKey);
+            }
+            String result = key.append(')').toString();
+            if (builtKeys.put(rule, result) != null) {
+              throw new IllegalStateException(rule + " was computed twice");
+            }
+            return result;
+          }
+
+          @Nullable
+          @Override
+          public String getFromCache(BuildEngineAction action) {
+            return cachedRules.contains(action) ? "cached" : null;
+          }
+        };
+    return new BatchedRuleKeyCalculator<>(
+        pool,
+        ruleKeyFactory,
+        new BuildDepsCache(),
+        (buckEventBus, rule) -> () -> {},
+        inputPrefetcher);
+  }
+
+  private List<String> calculate(
+      BatchedRuleKeyCalculator<String> calculator, List<BuildRule> rules) {
+    return calculator.calculate(BuckEventBusForTests.newInstance(), rules);
+  }
+
+  private static class RuleWithSource extends FakeBuildRule {
+    @AddToRuleKey private final SourcePath source;
+
+    private RuleWithSource(String target, SourcePath source) {
+      super(target);
+      this.source = source;
+    }
+  }
+
+  private static class BuildDepsCache implements RuleDepsCache {
+    @Override
+    public SortedSet<BuildRule> get(BuildRule rule) {
+      return rule.getBuildDeps();
+    }
+
+    @Override
+    public SortedSet<BuildRule> getRuntimeDeps(BuildRule rule) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedSet<BuildEngineAction> get(BuildEngineAction buildEngineAction) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedSet<BuildEngineAction> getRuntimeDeps(BuildEngineAction buildEngineAction) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
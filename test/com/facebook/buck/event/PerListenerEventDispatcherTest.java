@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.timing.DefaultClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PerListenerEventDispatcherTest {
+
+  private static final int TIMEOUT_MILLIS = 10000;
+
+  private DefaultBuckEventBus eventBus;
+
+  @Before
+  public void setUp() {
+    eventBus =
+        new DefaultBuckEventBus(new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, true);
+  }
+
+  @After
+  public void tearDown() {
+    eventBus.close();
+  }
+
+  @Test
+  public void eventsFromEachThreadArriveInOrder() throws InterruptedException {
+    int threadCount = 4;
+    int eventsPerThread = 5000;
+    RecordingListener first = new RecordingListener();
+    RecordingListener second = new RecordingListener();
+    eventBus.register(first);
+    eventBus.register(second);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int thread = 0; thread < threadCount; thread++) {
+      int source = thread;
+      threads.add(
+          new Thread(
+              () -> {
+                for (int sequence = 0; sequence < eventsPerThread; sequence++) {
+                  eventBus.post(new TestEvent(source, sequence));
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(eventBus.waitEvents(TIMEOUT_MILLIS));
+    for (RecordingListener listener : ImmutableList.of(first, second)) {
+      assertEquals(threadCount * eventsPerThread, listener.events.size());
+      int[] nextSequence = new int[threadCount];
+      for (TestEvent event : listener.events) {
+        assertEquals(nextSequence[event.source]++, event.sequence);
+      }
+    }
+  }
+
+  @Test
+  public void slowListenerDoesNotHoldUpOtherListeners() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingListener recording = new RecordingListener();
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void block(TestEvent event) throws InterruptedException {
+            release.await();
+          }
+        });
+    eventBus.register(recording);
+
+    eventBus.post(new TestEvent(0, 0));
+    eventBus.post(new TestEvent(0, 1));
+
+    recording.awaitEvents(2);
+    assertFalse(eventBus.waitEvents(100));
+    ImmutableList<EventListenerDispatchStats> stats =
+        eventBus.getAndResetListenerDispatchStats();
+    assertEquals(2, stats.size());
+    assertTrue(stats.stream().anyMatch(listenerStats -> listenerStats.getMaxQueueDepth() > 0));
+    release.countDown();
+    assertTrue(eventBus.waitEvents(TIMEOUT_MILLIS));
+  }
+
+  @Test
+  public void eventsPostedByListenersFollowTheEventTheyHandle() {
+    eventBus.register(
+        new Object() {
+          @Subscribe
+          public void repost(TestEvent event) {
+            if (event.sequence == 0) {
+              eventBus.post(new TestEvent(event.source, 1));
+            }
+          }
+        });
+    RecordingListener recording = new RecordingListener();
+    eventBus.register(recording);
+
+    for (int source = 0; source < 100; source++) {
+      eventBus.post(new TestEvent(source, 0));
+    }
+
+    assertTrue(eventBus.waitEvents(TIMEOUT_MILLIS));
+    assertEquals(200, recording.events.size());
+    boolean[] seen = new boolean[100];
+    for (TestEvent event : recording.events) {
+      assertEquals(event.sequence == 1, seen[event.source]);
+      seen[event.source] = true;
+    }
+  }
+
+  @Test
+  public void unregisteredListenerStopsReceivingEvents() {
+    RecordingListener recording = new RecordingListener();
+    eventBus.register(recording);
+    eventBus.post(new TestEvent(0, 0));
+    assertTrue(eventBus.waitEvents(TIMEOUT_MILLIS));
+
+    eventBus.unregister(recording);
+    eventBus.post(new TestEvent(0, 1));
+
+    assertTrue(eventBus.waitEvents(TIMEOUT_MILLIS));
+    assertEquals(1, recording.events.size());
+  }
+
+  private static class RecordingListener {
+    private final List<TestEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Subscribe
+    public void record(TestEvent event) {
+      synchronized (events) {
+        events.add(event);
+        events.notifyAll();
+      }
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+      synchronized (events) {
+        while (events.size() < count) {
+          events.wait(TIMEOUT_MILLIS);
+        }
+      }
+    }
+  }
+
+  private static class TestEvent extends AbstractBuckEvent {
+    private final int source;
+    private final int sequence;
+
+    private TestEvent(int source, int sequence) {
+      super(EventKey.unique());
+      this.source = source;
+      this.sequence = sequence;
+    }
+
+    @Override
+    protected String getValueString() {
+      return source + ":" + sequence;
+    }
+
+    @Override
+    public String getEventName() {
+      return "TestEvent";
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.trace.BinaryTraceConverter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Test;
+
+public class BinaryChromeTraceWriterTest {
+
+  private static final ImmutableList<ChromeTraceEvent> EVENTS =
+      ImmutableList.of(
+          new ChromeTraceEvent(
+              "buck",
+              "process_name",
+              Phase.METADATA,
+              0,
+              0,
+              1000,
+              10,
+              ImmutableMap.of("name", "BUILD_ID", "is_daemon", true, "timestamp", 1234567890L)),
+          new ChromeTraceEvent(
+              "buck",
+              "build",
+              Phase.BEGIN,
+              0,
+              42,
+              5621911884918L,
+              20,
+              ImmutableMap.of(
+                  "command_args", "build //foo:bar",
+                  "ratio", 0.25,
+                  "labels", ImmutableList.of("a", 1, false),
+                  "nested", ImmutableMap.of("key", Optional.of("value")),
+                  "phase", Phase.END)),
+          new ChromeTraceEvent(
+              "buck", "build", Phase.END, 0, 42, 5621911880000L, 15, ImmutableMap.of()),
+          new ChromeTraceEvent(
+              null,
+              "unicode é中😀 " + Strings.repeat("x", 100_000),
+              Phase.COUNTER,
+              0,
+              7,
+              -1,
+              0,
+              null));
+
+  @Test
+  public void convertsToTheSameJsonAsChromeTraceWriter() throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (ChromeTraceWriter writer = new ChromeTraceWriter(json)) {
+      write(writer);
+    }
+
+    byte[] binary = writeBinary();
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    BinaryTraceConverter.convertToJson(new ByteArrayInputStream(binary), converted);
+
+    assertEquals(readTree(json.toByteArray()), readTree(converted.toByteArray()));
+    assertTrue(binary.length < json.size());
+  }
+
+  @Test
+  public void jsonStreamMatchesConversion() throws IOException {
+    byte[] binary = writeBinary();
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    BinaryTraceConverter.convertToJson(new ByteArrayInputStream(binary), converted);
+
+    byte[] streamed;
+    try (InputStream stream = BinaryTraceConverter.toJsonStream(new ByteArrayInputStream(binary))) {
+      streamed = ByteStreams.toByteArray(stream);
+    }
+
+    assertEquals(readTree(converted.toByteArray()), readTree(streamed));
+  }
+
+  @Test
+  public void truncatedTraceIsReadUpToTheLastCompleteEvent() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BinaryChromeTraceWriter writer = new BinaryChromeTraceWriter(output);
+    writer.writeStart();
+    writer.writeEvent(EVENTS.get(0));
+    writer.close();
+    int firstEventEnd = output.size();
+    output = new ByteArrayOutputStream();
+    try (BinaryChromeTraceWriter fullWriter = new BinaryChromeTraceWriter(output)) {
+      write(fullWriter);
+    }
+    byte[] truncated = Arrays.copyOf(output.toByteArray(), firstEventEnd + 5);
+
+    ByteArrayOutputStream converted = new ByteArrayOutputStream();
+    BinaryTraceConverter.convertToJson(new ByteArrayInputStream(truncated), converted);
+
+    JsonNode events = readTree(converted.toByteArray());
+    assertEquals(1, events.size());
+    assertEquals("process_name", events.get(0).get("name").asText());
+  }
+
+  private static byte[] writeBinary() throws IOException {
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    try (BinaryChromeTraceWriter writer = new BinaryChromeTraceWriter(binary)) {
+      write(writer);
+    }
+    return binary.toByteArray();
+  }
+
+  private static void write(TraceEventWriter writer) throws IOException {
+    writer.writeStart();
+    for (ChromeTraceEvent event : EVENTS) {
+      writer.writeEvent(event);
+    }
+    writer.writeEnd();
+  }
+
+  private static JsonNode readTree(byte[] json) throws IOException {
+    return ObjectMappers.READER.readTree(new ByteArrayInputStream(json));
+  }
+}
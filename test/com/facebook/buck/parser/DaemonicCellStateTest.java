@@ -32,9 +32,15 @@ import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.model.RuleType;
 import com.facebook.buck.core.model.UnconfiguredBuildTarget;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeArg;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.model.targetgraph.TargetNodeMaybeIncompatible;
 import com.facebook.buck.core.model.targetgraph.impl.ImmutableUnconfiguredTargetNode;
+import com.facebook.buck.core.model.targetgraph.impl.TargetNodeImpl;
 import com.facebook.buck.core.model.targetgraph.raw.UnconfiguredTargetNode;
 import com.facebook.buck.core.parser.buildtargetpattern.UnconfiguredBuildTargetParser;
+import com.facebook.buck.core.path.ForwardRelativePath;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
 import com.facebook.buck.parser.DaemonicCellState.Cache;
@@ -100,8 +106,8 @@ public class DaemonicCellStateTest {
             .build();
     cells = new TestCellBuilder().setFilesystem(filesystem).setBuckConfig(config).build();
     childCell = cells.getRootCell().getCell(filesystem.resolve("../xplat").toAbsolutePath());
-    state = new DaemonicCellState(cells.getRootCell(), 1);
-    childState = new DaemonicCellState(childCell, 1);
+    state = new DaemonicCellState(cells.getRootCell(), 1, new ReverseDepsIndex());
+    childState = new DaemonicCellState(childCell, 1, new ReverseDepsIndex());
   }
 
   private UnconfiguredTargetNode rawTargetNode(String name) {
@@ -178,6 +184,98 @@ public class DaemonicCellStateTest {
         cache.lookupComputedNode(target.getUnconfiguredBuildTarget()));
   }
 
+  @Test
+  public void fileOwnerIndexFollowsCachedTargetNodes() throws BuildTargetException {
+    Cache<BuildTarget, TargetNodeMaybeIncompatible> cache =
+        state.getCache(DaemonicCellState.TARGET_NODE_CACHE_TYPE);
+    BuildTarget target = BuildTargetFactory.newInstance("//path/to:target");
+    populateDummyRawNode(state, target);
+
+    TargetNode<FakeTargetNodeArg> node = FakeTargetNodeBuilder.newBuilder(target).build(filesystem);
+    cache.putComputedNodeIfNotPresent(
+        target,
+        TargetNodeMaybeIncompatible.ofCompatible(
+            TargetNodeImpl.of(
+                node.getBuildTarget(),
+                node.getNodeCopier(),
+                node.getDescription(),
+                node.getConstructorArg(),
+                node.getFilesystem(),
+                ImmutableSet.of(
+                    ForwardRelativePath.of("path/to/A.java"), ForwardRelativePath.of("path/res")),
+                node.getDeclaredDeps(),
+                node.getExtraDeps(),
+                node.getTargetGraphOnlyDeps(),
+                node.getConfigurationDeps(),
+                node.getVisibilityPatterns(),
+                node.getWithinViewPatterns(),
+                node.getSelectedVersions())));
+
+    assertEquals(
+        ImmutableSet.of(target), state.getCachedOwners(ForwardRelativePath.of("path/to/A.java")));
+    assertEquals(
+        "Files under an input directory are owned by the node",
+        ImmutableSet.of(target),
+        state.getCachedOwners(ForwardRelativePath.of("path/res/values/strings.xml")));
+    assertEquals(
+        ImmutableSet.of(), state.getCachedOwners(ForwardRelativePath.of("path/to/B.java")));
+
+    state.invalidatePath(cells.getRootCell().getRoot().resolve("path/to/BUCK"));
+    assertEquals(
+        "Invalidated nodes no longer own their inputs",
+        ImmutableSet.of(),
+        state.getCachedOwners(ForwardRelativePath.of("path/to/A.java")));
+  }
+
+  @Test
+  public void droppedStatesNoLongerIndexReverseDeps() throws BuildTargetException {
+    ReverseDepsIndex reverseDepsIndex = new ReverseDepsIndex();
+    state = new DaemonicCellState(cells.getRootCell(), 1, reverseDepsIndex);
+    Cache<BuildTarget, TargetNodeMaybeIncompatible> cache =
+        state.getCache(DaemonicCellState.TARGET_NODE_CACHE_TYPE);
+    BuildTarget target = BuildTargetFactory.newInstance("//path/to:target");
+    BuildTarget otherTarget = BuildTargetFactory.newInstance("//path/other:other");
+    populateDummyRawNode(state, target);
+    populateDummyRawNode(state, otherTarget);
+    cache.putComputedNodeIfNotPresent(
+        target,
+        TargetNodeMaybeIncompatible.ofCompatible(
+            FakeTargetNodeBuilder.newBuilder(target).build(filesystem)));
+
+    assertTrue(
+        reverseDepsIndex
+            .getReverseDepsWithinUniverse(ImmutableSet.of(target), ImmutableSet.of(target), 1)
+            .isPresent());
+
+    state.drop();
+    cache.putComputedNodeIfNotPresent(
+        otherTarget,
+        TargetNodeMaybeIncompatible.ofCompatible(
+            FakeTargetNodeBuilder.newBuilder(otherTarget).build(filesystem)));
+    assertFalse(
+        reverseDepsIndex
+            .getReverseDepsWithinUniverse(ImmutableSet.of(target), ImmutableSet.of(target), 1)
+            .isPresent());
+    assertFalse(
+        reverseDepsIndex
+            .getReverseDepsWithinUniverse(
+                ImmutableSet.of(otherTarget), ImmutableSet.of(otherTarget), 1)
+            .isPresent());
+  }
+
+  @Test
+  public void cachedContentIsBasedOnTheBuildFilesItWasParsedFrom() throws BuildTargetException {
+    AbsPath buildFile = cells.getRootCell().getRoot().resolve("path/to/BUCK");
+    AbsPath sourceFile = cells.getRootCell().getRoot().resolve("path/to/A.java");
+    populateDummyRawNode(state, BuildTargetFactory.newInstance("//path/to:target"));
+
+    assertTrue(state.isCachedContentBasedOn(buildFile));
+    assertFalse(state.isCachedContentBasedOn(sourceFile));
+
+    state.invalidatePath(buildFile);
+    assertFalse(state.isCachedContentBasedOn(buildFile));
+  }
+
   @Test
   public void putPackageIfNotPresent() {
     AbsPath packageFile = dummyPackageFile();
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.PackageFileManifest;
+import com.facebook.buck.parser.api.PackageMetadata;
+import com.facebook.buck.parser.exceptions.ParsingError;
+import com.facebook.buck.parser.syntax.ListWithSelects;
+import com.facebook.buck.parser.syntax.SelectorValue;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.devtools.build.lib.syntax.Runtime;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParserStateSnapshotTest {
+
+  private static final String KEY = "key";
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private AbsPath cellRoot;
+  private Path snapshotPath;
+
+  @Before
+  public void setUp() {
+    cellRoot = AbsPath.of(tmp.getRoot());
+    snapshotPath = tmp.getRoot().resolve("buck-out/parser_state");
+  }
+
+  @Test
+  public void manifestsSurviveRoundTrip() throws IOException {
+    BuildFileManifest buildFileManifest =
+        BuildFileManifest.of(
+            ImmutableMap.of(
+                "lib",
+                ImmutableMap.<String, Object>builder()
+                    .put("name", "lib")
+                    .put("buck.type", "java_library")
+                    .put("srcs", ImmutableSortedSet.of("A.java", "B.java"))
+                    .put("deps", ImmutableList.of(":dep", ":other"))
+                    .put("labels", ImmutableSet.of("label"))
+                    .put("exported", true)
+                    .put("count", 3)
+                    .put("size", 1L << 40)
+                    .put("ratio", 0.5)
+                    .put("default_host_platform", Runtime.NONE)
+                    .put(
+                        "resources",
+                        ListWithSelects.of(
+                            ImmutableList.of(
+                                ImmutableList.of("res"),
+                                SelectorValue.of(
+                                    ImmutableMap.of(
+                                        "//:linux", ImmutableList.of("linux"),
+                                        "DEFAULT", Runtime.NONE),
+                                    "no match")),
+                            ImmutableList.class))
+                    .build()),
+            ImmutableSortedSet.of(cellRoot.resolve("defs.bzl").toString()),
+            ImmutableMap.of("java", ImmutableMap.of("source_level", "8")),
+            Optional.of(ImmutableMap.of("HOME", Optional.of("/home"), "UNSET", Optional.empty())),
+            ImmutableList.of(
+                GlobSpecWithResult.of(
+                    GlobSpec.of(ImmutableList.of("*.java"), ImmutableList.of("Test*.java"), true),
+                    ImmutableSet.of("A.java", "B.java"))),
+            ImmutableList.of(ParsingError.of("error", ImmutableList.of("frame"))));
+    PackageFileManifest packageFileManifest =
+        PackageFileManifest.of(
+            PackageMetadata.of(ImmutableList.of("PUBLIC"), ImmutableList.of("//foo/...")),
+            ImmutableSortedSet.of(),
+            ImmutableMap.of(),
+            Optional.empty(),
+            ImmutableList.of());
+    ParserStateSnapshot snapshot =
+        new ParserStateSnapshot(
+            KEY,
+            ImmutableMap.of(cellRoot, "c:123:456"),
+            ImmutableMap.of(
+                cellRoot, ImmutableMap.of(cellRoot.resolve("foo/BUCK"), buildFileManifest)),
+            ImmutableMap.of(
+                cellRoot, ImmutableMap.of(cellRoot.resolve("foo/PACKAGE"), packageFileManifest)));
+
+    snapshot.write(snapshotPath);
+    ParserStateSnapshot read = ParserStateSnapshot.read(snapshotPath, KEY).get();
+
+    assertEquals(snapshot.getClocks(), read.getClocks());
+    assertEquals(snapshot.getBuildFileManifests(), read.getBuildFileManifests());
+    assertEquals(snapshot.getPackageFileManifests(), read.getPackageFileManifests());
+  }
+
+  @Test
+  public void snapshotWithOtherKeyIsNotRead() throws IOException {
+    new ParserStateSnapshot(KEY, ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of())
+        .write(snapshotPath);
+    assertTrue(ParserStateSnapshot.read(snapshotPath, KEY).isPresent());
+    assertFalse(ParserStateSnapshot.read(snapshotPath, "other").isPresent());
+  }
+
+  @Test
+  public void unreadableSnapshotIsIgnored() throws IOException {
+    Files.createDirectories(snapshotPath.getParent());
+    Files.write(snapshotPath, new byte[] {1, 2, 3});
+    assertFalse(ParserStateSnapshot.read(snapshotPath, KEY).isPresent());
+  }
+
+  @Test
+  public void manifestsWithUnknownValuesAreLeftOut() throws IOException {
+    BuildFileManifest writable = manifest("name", "writable");
+    BuildFileManifest unwritable = manifest("value", new Object());
+    assertFalse(ParserStateSnapshot.isWritable(new Object()));
+
+    new ParserStateSnapshot(
+            KEY,
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                cellRoot,
+                ImmutableMap.of(
+                    cellRoot.resolve("a/BUCK"), writable, cellRoot.resolve("b/BUCK"), unwritable)),
+            ImmutableMap.of())
+        .write(snapshotPath);
+
+    assertEquals(
+        ImmutableMap.of(cellRoot, ImmutableMap.of(cellRoot.resolve("a/BUCK"), writable)),
+        ParserStateSnapshot.read(snapshotPath, KEY).get().getBuildFileManifests());
+  }
+
+  private static BuildFileManifest manifest(String attribute, Object value) {
+    return BuildFileManifest.of(
+        ImmutableMap.of("target", ImmutableMap.of(attribute, value)),
+        ImmutableSortedSet.of(),
+        ImmutableMap.of(),
+        Optional.empty(),
+        ImmutableList.of(),
+        ImmutableList.of());
+  }
+}
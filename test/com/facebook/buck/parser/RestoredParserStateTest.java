@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.parser.api.PackageFileManifest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RestoredParserStateTest {
+
+  private final AbsPath cellRoot = AbsPath.of(Paths.get("/repo").toAbsolutePath());
+  private final AbsPath defs = cellRoot.resolve("defs.bzl");
+  private final AbsPath fooBuildFile = cellRoot.resolve("foo/BUCK");
+  private final AbsPath barBuildFile = cellRoot.resolve("foo/bar/BUCK");
+  private final AbsPath bazBuildFile = cellRoot.resolve("baz/BUCK");
+  private final AbsPath packageFile = cellRoot.resolve("foo/PACKAGE");
+
+  private RestoredParserState state;
+
+  @Before
+  public void setUp() {
+    state = new RestoredParserState();
+    state.restore(
+        new ParserStateSnapshot(
+            "key",
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                cellRoot,
+                ImmutableMap.of(
+                    fooBuildFile,
+                    manifest(),
+                    barBuildFile,
+                    manifest(),
+                    bazBuildFile,
+                    manifest(defs.toString()))),
+            ImmutableMap.of(
+                cellRoot,
+                ImmutableMap.of(packageFile, PackageFileManifest.EMPTY_SINGLETON))));
+  }
+
+  @Test
+  public void manifestIsOnlyHandedOutOnce() {
+    assertTrue(state.takeBuildFileManifest(cellRoot, fooBuildFile).isPresent());
+    assertFalse(state.takeBuildFileManifest(cellRoot, fooBuildFile).isPresent());
+    assertFalse(
+        state.takeBuildFileManifest(AbsPath.of(Paths.get("/other")), barBuildFile).isPresent());
+  }
+
+  @Test
+  public void changedIncludeDropsDependentBuildFiles() {
+    state.invalidatePath(defs, false);
+    assertFalse(state.takeBuildFileManifest(cellRoot, bazBuildFile).isPresent());
+    assertTrue(state.takeBuildFileManifest(cellRoot, fooBuildFile).isPresent());
+  }
+
+  @Test
+  public void addedFileDropsBuildFilesInParentDirectories() {
+    state.invalidatePath(cellRoot.resolve("foo/bar/New.java"), true);
+    assertFalse(state.takeBuildFileManifest(cellRoot, fooBuildFile).isPresent());
+    assertFalse(state.takeBuildFileManifest(cellRoot, barBuildFile).isPresent());
+    assertTrue(state.takeBuildFileManifest(cellRoot, bazBuildFile).isPresent());
+  }
+
+  @Test
+  public void modifiedSourceFileKeepsBuildFiles() {
+    state.invalidatePath(cellRoot.resolve("foo/bar/Old.java"), false);
+    assertTrue(state.takeBuildFileManifest(cellRoot, barBuildFile).isPresent());
+  }
+
+  @Test
+  public void changedPackageFileDropsBuildFilesBelowIt() {
+    state.invalidatePath(packageFile, false);
+    assertFalse(state.takePackageFileManifest(cellRoot, packageFile).isPresent());
+    assertFalse(state.takeBuildFileManifest(cellRoot, fooBuildFile).isPresent());
+    assertFalse(state.takeBuildFileManifest(cellRoot, barBuildFile).isPresent());
+    assertTrue(state.takeBuildFileManifest(cellRoot, bazBuildFile).isPresent());
+  }
+
+  @Test
+  public void invalidateAllDropsEverything() {
+    state.invalidateAll();
+    assertTrue(state.isEmpty());
+  }
+
+  @Test
+  public void unusedManifestsAreKeptForTheNextSnapshot() {
+    state.takeBuildFileManifest(cellRoot, fooBuildFile);
+    Map<AbsPath, Map<AbsPath, BuildFileManifest>> buildFileManifests = new HashMap<>();
+    state.addTo(buildFileManifests, new HashMap<>());
+    assertEquals(
+        ImmutableMap.of(barBuildFile, manifest(), bazBuildFile, manifest(defs.toString())),
+        buildFileManifests.get(cellRoot));
+  }
+
+  private static BuildFileManifest manifest(String... includes) {
+    return BuildFileManifest.of(
+        ImmutableMap.of(),
+        ImmutableSortedSet.copyOf(includes),
+        ImmutableMap.of(),
+        Optional.empty(),
+        ImmutableList.of(),
+        ImmutableList.of());
+  }
+}
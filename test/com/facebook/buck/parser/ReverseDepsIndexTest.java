@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReverseDepsIndexTest {
+
+  private final BuildTarget a = BuildTargetFactory.newInstance("//:a");
+  private final BuildTarget b = BuildTargetFactory.newInstance("//:b");
+  private final BuildTarget c = BuildTargetFactory.newInstance("//:c");
+  private final BuildTarget d = BuildTargetFactory.newInstance("//:d");
+  private final BuildTarget e = BuildTargetFactory.newInstance("//:e");
+
+  private ReverseDepsIndex index;
+  private TargetNode<?> nodeA;
+
+  @Before
+  public void setUp() {
+    // e -> a -> b -> c <- d
+    index = new ReverseDepsIndex();
+    nodeA = FakeTargetNodeBuilder.newBuilder(a).setDeps(b).build();
+    index.add(nodeA);
+    index.add(FakeTargetNodeBuilder.newBuilder(b).setDeps(c).build());
+    index.add(FakeTargetNodeBuilder.newBuilder(c).build());
+    index.add(FakeTargetNodeBuilder.newBuilder(d).setDeps(c).build());
+    index.add(FakeTargetNodeBuilder.newBuilder(e).setDeps(a).build());
+  }
+
+  @Test
+  public void reverseDepsAreLimitedToTheClosureOfTheUniverse() {
+    ReverseDepsIndex.ReverseDeps reverseDeps =
+        index.getReverseDepsWithinUniverse(ImmutableSet.of(a), ImmutableSet.of(c), 10).get();
+
+    assertEquals(ImmutableSet.of(a, b, c), reverseDeps.getUniverseClosure());
+    assertEquals(ImmutableSet.of(c, b, a), reverseDeps.getReverseDeps());
+  }
+
+  @Test
+  public void reverseDepsAreLimitedToTheDepth() {
+    assertEquals(
+        ImmutableSet.of(c, b),
+        index
+            .getReverseDepsWithinUniverse(ImmutableSet.of(a), ImmutableSet.of(c), 1)
+            .get()
+            .getReverseDeps());
+    assertEquals(
+        ImmutableSet.of(c),
+        index
+            .getReverseDepsWithinUniverse(ImmutableSet.of(a), ImmutableSet.of(c), 0)
+            .get()
+            .getReverseDeps());
+  }
+
+  @Test
+  public void nothingIsFoundWhenPartOfTheClosureIsNotIndexed() {
+    index.remove(nodeA);
+
+    assertFalse(
+        index.getReverseDepsWithinUniverse(ImmutableSet.of(e), ImmutableSet.of(c), 10).isPresent());
+    assertEquals(
+        ImmutableSet.of(c, b),
+        index
+            .getReverseDepsWithinUniverse(ImmutableSet.of(b), ImmutableSet.of(c), 10)
+            .get()
+            .getReverseDeps());
+  }
+
+  @Test
+  public void removingAReplacedNodeKeepsItsReplacement() {
+    TargetNode<?> newNodeA = FakeTargetNodeBuilder.newBuilder(a).setDeps(c).build();
+    index.add(newNodeA);
+    index.remove(nodeA);
+
+    assertEquals(
+        ImmutableSet.of(c, a),
+        index
+            .getReverseDepsWithinUniverse(ImmutableSet.of(a), ImmutableSet.of(c), 10)
+            .get()
+            .getReverseDeps());
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.facebook.buck.parser.manifest;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.parser.api.BuildFileManifest;
+import com.facebook.buck.skylark.io.GlobSpec;
+import com.facebook.buck.skylark.io.GlobSpecWithResult;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentBuildFileManifestCacheTest {
+
+  private static final BuildPackagePathToBuildFileManifestKey KEY =
+      BuildPackagePathToBuildFileManifestKey.of(Paths.get("pkg"));
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path buildFile;
+  private Path include;
+  private BuildFileManifest manifest;
+
+  @Before
+  public void setUp() throws IOException {
+    Files.createDirectory(tmp.getRoot().resolve("pkg"));
+    buildFile = tmp.getRoot().resolve("pkg/BUCK");
+    include = tmp.getRoot().resolve("defs.bzl");
+    Files.write(buildFile, "java_library(name = 'lib')".getBytes(StandardCharsets.UTF_8));
+    Files.write(include, "def foo(): pass".getBytes(StandardCharsets.UTF_8));
+
+    manifest =
+        BuildFileManifest.of(
+            ImmutableMap.of("lib", ImmutableMap.of("name", "lib")),
+            ImmutableSortedSet.of(buildFile.toString(), include.toString()),
+            ImmutableMap.of(),
+            Optional.empty(),
+            ImmutableList.of(),
+            ImmutableList.of());
+  }
+
+  @Test
+  public void manifestsAreReusedByANewDaemon() {
+    newCache("config").put(KEY, manifest);
+
+    assertEquals(Optional.of(manifest), newCache("config").get(KEY));
+  }
+
+  @Test
+  public void manifestsAreNotReusedOnceTheBuildFileChanges() throws IOException {
+    newCache("config").put(KEY, manifest);
+    Files.write(buildFile, "java_library(name = 'other')".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(Optional.empty(), newCache("config").get(KEY));
+  }
+
+  @Test
+  public void manifestsAreNotReusedOnceAnIncludeChanges() throws IOException {
+    newCache("config").put(KEY, manifest);
+    Files.write(include, "def bar(): pass".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(Optional.empty(), newCache("config").get(KEY));
+  }
+
+  @Test
+  public void manifestsAreNotReusedWithAnotherConfiguration() {
+    newCache("config").put(KEY, manifest);
+
+    assertEquals(Optional.empty(), newCache("other config").get(KEY));
+  }
+
+  @Test
+  public void manifestsWithGlobsAreOnlyKeptInMemory() {
+    BuildFileManifest manifestWithGlobs =
+        BuildFileManifest.of(
+            manifest.getTargets(),
+            manifest.getIncludes(),
+            manifest.getConfigs(),
+            manifest.getEnv(),
+            ImmutableList.of(
+                GlobSpecWithResult.of(
+                    GlobSpec.of(ImmutableList.of("*.java"), ImmutableList.of(), false),
+                    ImmutableSet.of("A.java"))),
+            manifest.getErrors());
+    PersistentBuildFileManifestCache cache = newCache("config");
+    cache.put(KEY, manifestWithGlobs);
+
+    assertEquals(Optional.of(manifestWithGlobs), cache.get(KEY));
+    assertEquals(Optional.empty(), newCache("config").get(KEY));
+  }
+
+  private PersistentBuildFileManifestCache newCache(String configurationKey) {
+    Path root = tmp.getRoot();
+    return PersistentBuildFileManifestCache.of(
+        BuildFileManifestCache.of(
+            root,
+            root,
+            Paths.get("BUCK"),
+            TestProjectFilesystems.createProjectFilesystem(root).asView()),
+        root.resolve("buck-out/manifest_cache"),
+        1024 * 1024,
+        configurationKey,
+        root,
+        root,
+        Paths.get("BUCK"));
+  }
+}
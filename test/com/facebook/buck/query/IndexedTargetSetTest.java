@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexedTargetSetTest {
+
+  private QueryTargetIndex<QueryBuildTarget> index;
+  private QueryBuildTarget a;
+  private QueryBuildTarget b;
+  private QueryBuildTarget c;
+  private QueryBuildTarget d;
+
+  @Before
+  public void setUp() {
+    index = new QueryTargetIndex<>();
+    a = target("//:a");
+    b = target("//:b");
+    c = target("//:c");
+    d = target("//:d");
+  }
+
+  private static QueryBuildTarget target(String name) {
+    return QueryBuildTarget.of(BuildTargetFactory.newInstance(name));
+  }
+
+  private IndexedTargetSet<QueryBuildTarget> setOf(QueryBuildTarget... targets) {
+    return IndexedTargetSet.copyOf(index, ImmutableList.copyOf(targets));
+  }
+
+  @Test
+  public void behavesAsASet() {
+    IndexedTargetSet<QueryBuildTarget> set = new IndexedTargetSet<>(index);
+    assertTrue(set.isEmpty());
+    assertTrue(set.add(b));
+    assertTrue(set.add(a));
+    assertFalse(set.add(b));
+    assertEquals(2, set.size());
+    assertTrue(set.contains(a));
+    assertFalse(set.contains(c));
+    assertFalse(set.contains("//:a"));
+    assertTrue(set.remove(a));
+    assertFalse(set.remove(a));
+    assertFalse(set.remove(d));
+    assertEquals(ImmutableSet.of(b), set);
+    assertEquals(ImmutableSet.of(b).hashCode(), set.hashCode());
+  }
+
+  @Test
+  public void iteratesInOrderOfNumbering() {
+    setOf(c, a);
+    IndexedTargetSet<QueryBuildTarget> set = setOf(b, a, c);
+    assertEquals(ImmutableList.of(c, a, b), ImmutableList.copyOf(set));
+
+    Iterator<QueryBuildTarget> iterator = set.iterator();
+    iterator.next();
+    iterator.remove();
+    assertEquals(ImmutableList.of(a, b), ImmutableList.copyOf(set));
+  }
+
+  @Test
+  public void setOperationsOverTheSameIndex() {
+    IndexedTargetSet<QueryBuildTarget> union = setOf(a, b);
+    assertTrue(union.addAll(setOf(b, c)));
+    assertFalse(union.addAll(setOf(a)));
+    assertEquals(ImmutableSet.of(a, b, c), union);
+
+    IndexedTargetSet<QueryBuildTarget> intersection = setOf(a, b, c);
+    assertTrue(intersection.retainAll(setOf(b, c, d)));
+    assertFalse(intersection.retainAll(setOf(b, c)));
+    assertEquals(ImmutableSet.of(b, c), intersection);
+
+    IndexedTargetSet<QueryBuildTarget> difference = setOf(a, b, c);
+    assertTrue(difference.removeAll(setOf(b, d)));
+    assertFalse(difference.removeAll(setOf(d)));
+    assertEquals(ImmutableSet.of(a, c), difference);
+
+    assertTrue(setOf(a, b, c).containsAll(setOf(a, c)));
+    assertFalse(setOf(a, b).containsAll(setOf(a, d)));
+    assertEquals(setOf(a, b), setOf(b, a));
+  }
+
+  @Test
+  public void setOperationsWithOtherCollections() {
+    Set<QueryBuildTarget> other = new LinkedHashSet<>(ImmutableList.of(d, b));
+    IndexedTargetSet<QueryBuildTarget> union = setOf(a, b);
+    union.addAll(other);
+    assertEquals(ImmutableSet.of(a, b, d), union);
+
+    IndexedTargetSet<QueryBuildTarget> intersection = setOf(a, b);
+    intersection.retainAll(other);
+    assertEquals(ImmutableSet.of(b), intersection);
+
+    IndexedTargetSet<QueryBuildTarget> overOtherIndex =
+        IndexedTargetSet.copyOf(new QueryTargetIndex<>(), ImmutableList.of(b, c));
+    IndexedTargetSet<QueryBuildTarget> difference = setOf(a, b, c);
+    difference.removeAll(overOtherIndex);
+    assertEquals(ImmutableSet.of(a), difference);
+    assertEquals(overOtherIndex, setOf(c, b));
+  }
+
+  @Test
+  public void copiesAreIndependent() {
+    IndexedTargetSet<QueryBuildTarget> original = setOf(a, b);
+    IndexedTargetSet<QueryBuildTarget> copy = IndexedTargetSet.copyOf(original);
+    copy.add(c);
+    copy.remove(a);
+    assertEquals(ImmutableSet.of(a, b), original);
+    assertEquals(ImmutableSet.of(b, c), copy);
+  }
+
+  @Test
+  public void largeSets() {
+    List<QueryBuildTarget> targets = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      targets.add(target("//:t" + i));
+    }
+    IndexedTargetSet<QueryBuildTarget> evens = new IndexedTargetSet<>(index);
+    IndexedTargetSet<QueryBuildTarget> all = IndexedTargetSet.copyOf(index, targets);
+    for (int i = 0; i < targets.size(); i += 2) {
+      evens.add(targets.get(i));
+    }
+    all.removeAll(evens);
+    assertEquals(500, all.size());
+    assertTrue(all.contains(targets.get(999)));
+    assertFalse(all.contains(targets.get(998)));
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.QueryTarget;
+import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.Test;
+
+public class QueryResultStoreTest {
+
+  private static final QueryExpression<QueryBuildTarget> FOO = TargetLiteral.of("//foo:foo");
+  private static final QueryExpression<QueryBuildTarget> BAR = TargetLiteral.of("//bar:bar");
+  private static final Set<QueryBuildTarget> FOO_RESULT =
+      ImmutableSet.of(QueryBuildTarget.of(BuildTargetFactory.newInstance("//foo:foo")));
+
+  @Test
+  public void resultsAreKeptPerContext() {
+    QueryResultStore store = new QueryResultStore();
+    store.view("a").put(FOO, FOO_RESULT);
+
+    assertEquals(Optional.of(FOO_RESULT), store.view("a").get(FOO));
+    assertFalse(store.view("a").get(BAR).isPresent());
+    assertFalse(store.view("b").get(FOO).isPresent());
+  }
+
+  @Test
+  public void invalidatingDropsResultsAndViewsTakenBefore() {
+    QueryResultStore store = new QueryResultStore();
+    QueryResultStore.View before = store.view("a");
+    before.put(FOO, FOO_RESULT);
+
+    store.invalidateAll();
+
+    assertFalse(store.view("a").get(FOO).isPresent());
+    before.put(FOO, FOO_RESULT);
+    assertFalse(store.view("a").get(FOO).isPresent());
+    store.view("a").put(FOO, FOO_RESULT);
+    assertTrue(store.view("a").get(FOO).isPresent());
+  }
+
+  @Test
+  public void resultsAreDroppedBeyondTheirMaximumSize() {
+    QueryResultStore store = new QueryResultStore(1);
+    store.view("a").put(FOO, FOO_RESULT);
+
+    assertFalse(store.view("a").get(FOO).isPresent());
+  }
+
+  @Test
+  public void evaluatorsSharingAStoreEvaluateAnExpressionOnce() throws Exception {
+    @SuppressWarnings("unchecked")
+    QueryEnvironment<QueryBuildTarget> env = createMock(QueryEnvironment.class);
+    expect(env.getTargetsMatchingPattern("//foo:foo")).andReturn(ImmutableSet.copyOf(FOO_RESULT));
+    replay(env);
+    QueryResultStore store = new QueryResultStore();
+
+    CachingQueryEvaluator<QueryBuildTarget> first =
+        new CachingQueryEvaluator<>(Optional.of(store.view("a")));
+    Set<QueryTarget> firstResult = first.eval(FOO, env);
+    CachingQueryEvaluator<QueryBuildTarget> second =
+        new CachingQueryEvaluator<>(Optional.of(store.view("a")));
+    Set<QueryTarget> secondResult = second.eval(FOO, env);
+
+    verify(env);
+    assertEquals(FOO_RESULT, firstResult);
+    assertEquals(FOO_RESULT, secondResult);
+    assertTrue(first.getStoredExpressions().isEmpty());
+    assertEquals(ImmutableSet.of(FOO), second.getStoredExpressions());
+  }
+}
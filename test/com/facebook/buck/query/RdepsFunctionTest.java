@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.query.QueryEnvironment.Argument;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.Test;
+
+public class RdepsFunctionTest {
+
+  private static final QueryBuildTarget A =
+      QueryBuildTarget.of(BuildTargetFactory.newInstance("//:a"));
+  private static final QueryBuildTarget B =
+      QueryBuildTarget.of(BuildTargetFactory.newInstance("//:b"));
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void reverseDepsFoundByTheEnvironmentAreUsedAsTheyAre() throws Exception {
+    QueryEnvironment<QueryBuildTarget> env = createMock(QueryEnvironment.class);
+    expect(env.getTargetsMatchingPattern("//:a")).andReturn(ImmutableSet.of(A));
+    expect(env.getTargetsMatchingPattern("//:b")).andReturn(ImmutableSet.of(B));
+    expect(env.getReverseDepsWithinUniverse(ImmutableSet.of(A), ImmutableSet.of(B), 2))
+        .andReturn(Optional.of(ImmutableSet.of(B, A)));
+    replay(env);
+
+    Set<QueryBuildTarget> result =
+        new RdepsFunction<QueryBuildTarget>()
+            .eval(
+                new NoopQueryEvaluator<>(),
+                env,
+                ImmutableList.of(
+                    Argument.of(TargetLiteral.of("//:a")),
+                    Argument.of(TargetLiteral.of("//:b")),
+                    (Argument<QueryBuildTarget>) Argument.of(2)));
+
+    verify(env);
+    assertEquals(ImmutableSet.of(B, A), result);
+  }
+}
@@ -43,6 +43,7 @@ import com.facebook.buck.rules.keys.config.TestRuleKeyConfigurationFactory;
 import com.facebook.buck.rules.keys.hasher.StringRuleKeyHasher;
 import com.facebook.buck.testutil.DummyFileHashCache;
 import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.NoOpCacheStatsTracker;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
 import com.facebook.buck.util.cache.impl.StackedFileHashCache;
 import com.facebook.buck.util.hashing.FileHashLoader;
@@ -503,6 +504,74 @@ public class DefaultRuleKeyFactoryTest {
     assertThat(result.deps, Matchers.emptyIterable());
   }
 
+  @Test
+  public void storedRuleKeysAreReusedForNewRulesUntilTheirInputsChange() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    PathSourcePath input = FakeSourcePath.of(filesystem, "input");
+    filesystem.writeContentsToPath("old", input.getRelativePath());
+    PersistentRuleKeyStore store = new PersistentRuleKeyStore(100);
+
+    RuleKey ruleKey = newFactoryWithStore(filesystem, store).build(newRuleWithInput(input));
+    assertEquals(2, store.size());
+
+    // A new daemon or action graph gets the stored rule key without hashing the changed input.
+    filesystem.writeContentsToPath("new", input.getRelativePath());
+    assertEquals(ruleKey, newFactoryWithStore(filesystem, store).build(newRuleWithInput(input)));
+
+    new DefaultRuleKeyCache<RuleKey>(Optional.of(store))
+        .invalidateInputs(
+            ImmutableList.of(ImmutableRuleKeyInput.of(filesystem, input.getRelativePath())),
+            new NoOpCacheStatsTracker());
+    assertEquals(1, store.size());
+    assertNotEquals(
+        ruleKey, newFactoryWithStore(filesystem, store).build(newRuleWithInput(input)));
+  }
+
+  @Test
+  public void ruleKeysCalculatedForTheStoreMatchRuleKeysCalculatedWithoutIt() throws IOException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    PathSourcePath input = FakeSourcePath.of(filesystem, "input");
+    filesystem.writeContentsToPath("contents", input.getRelativePath());
+    PersistentRuleKeyStore store = new PersistentRuleKeyStore(100);
+
+    RuleKey storedRuleKey = newFactoryWithStore(filesystem, store).build(newRuleWithInput(input));
+    assertEquals(2, store.size());
+    assertEquals(
+        newFactory(filesystem, Optional.empty()).build(newRuleWithInput(input)), storedRuleKey);
+  }
+
+  private static DefaultRuleKeyFactory newFactoryWithStore(
+      ProjectFilesystem filesystem, PersistentRuleKeyStore store) {
+    return newFactory(filesystem, Optional.of(store));
+  }
+
+  private static DefaultRuleKeyFactory newFactory(
+      ProjectFilesystem filesystem, Optional<PersistentRuleKeyStore> store) {
+    return new DefaultRuleKeyFactory(
+        new RuleKeyFieldLoader(TestRuleKeyConfigurationFactory.create()),
+        new StackedFileHashCache(
+            ImmutableList.of(
+                DefaultFileHashCache.createDefaultFileHashCache(
+                    filesystem, FileHashCacheMode.DEFAULT))),
+        new TestActionGraphBuilder(),
+        new TrackedRuleKeyCache<>(
+            new DefaultRuleKeyCache<>(store), new NoOpCacheStatsTracker()),
+        Optional.empty());
+  }
+
+  private static BuildRule newRuleWithInput(PathSourcePath input) {
+    BuildRule dep = new EmptyFakeBuildRule(BuildTargetFactory.newInstance("//:dep"));
+    return new NoopBuildRuleWithDeclaredAndExtraDeps(
+        BuildTargetFactory.newInstance("//:target"),
+        input.getFilesystem(),
+        TestBuildRuleParams.create().withDeclaredDeps(ImmutableSortedSet.of(dep))) {
+
+      @SuppressWarnings("unused")
+      @AddToRuleKey
+      private final SourcePath inputField = input;
+    };
+  }
+
   private void assertBothKeysAndValuesGetHashed(@Nullable Object val1, @Nullable Object val2) {
     assertKeysGetHashed(val1);
     assertValuesGetHashed(val1, val2);
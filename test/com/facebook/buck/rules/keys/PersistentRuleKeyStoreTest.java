@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentRuleKeyStoreTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ProjectFilesystem otherFilesystem;
+  private PersistentRuleKeyStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.newFolder("cell"));
+    otherFilesystem = TestProjectFilesystems.createProjectFilesystem(tmp.newFolder("other"));
+    store = new PersistentRuleKeyStore(100);
+  }
+
+  @Test
+  public void storesRuleKeysWhoseDepsAreStored() {
+    store.put(key("dep"), key("dep rule key"), ImmutableList.of(), ImmutableList.of());
+    store.put(key("rule"), key("rule rule key"), ImmutableList.of(key("dep")), ImmutableList.of());
+    store.put(
+        key("other"), key("other rule key"), ImmutableList.of(key("missing")), ImmutableList.of());
+
+    assertEquals(key("dep rule key"), store.get(key("dep")));
+    assertEquals(key("rule rule key"), store.get(key("rule")));
+    assertNull(store.get(key("other")));
+  }
+
+  @Test
+  public void invalidatingAnInputInvalidatesTransitiveDependents() {
+    store.put(key("dep"), key("dep"), ImmutableList.of(), inputs(filesystem, "dep.c"));
+    store.put(key("rule"), key("rule"), ImmutableList.of(key("dep")), ImmutableList.of());
+    store.put(key("unrelated"), key("unrelated"), ImmutableList.of(), inputs(filesystem, "u.c"));
+    long modificationCount = store.getModificationCount();
+
+    store.invalidateInputs(inputs(filesystem, "dep.c"));
+
+    assertNull(store.get(key("dep")));
+    assertNull(store.get(key("rule")));
+    assertEquals(key("unrelated"), store.get(key("unrelated")));
+    assertTrue(store.getModificationCount() > modificationCount);
+  }
+
+  @Test
+  public void invalidatesInputsByFilesystem() {
+    store.put(key("cell"), key("cell"), ImmutableList.of(), inputs(filesystem, "a.c"));
+    store.put(key("other"), key("other"), ImmutableList.of(), inputs(otherFilesystem, "a.c"));
+
+    store.invalidateAllExceptFilesystems(ImmutableSet.of(filesystem));
+    assertEquals(1, store.size());
+    assertEquals(key("cell"), store.get(key("cell")));
+
+    store.invalidateFilesystem(filesystem);
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void restoresStoreWrittenWithTheSameKeyAndClocks() throws IOException {
+    store.put(key("dep"), key("dep"), ImmutableList.of(), inputs(filesystem, "dir/dep.c"));
+    store.put(key("rule"), key("rule"), ImmutableList.of(key("dep")), ImmutableList.of());
+    Path path = tmp.getRoot().resolve("buck-out/rule_key_state");
+    ImmutableMap<AbsPath, String> clocks = ImmutableMap.of(filesystem.getRootPath(), "c:1:2");
+    store.write(path, "key", clocks);
+
+    assertFalse(PersistentRuleKeyStore.read(path, "other key", clocks, 100).isPresent());
+    assertFalse(
+        PersistentRuleKeyStore.read(
+                path, "key", ImmutableMap.of(filesystem.getRootPath(), "c:1:3"), 100)
+            .isPresent());
+
+    Optional<PersistentRuleKeyStore> restored =
+        PersistentRuleKeyStore.read(path, "key", clocks, 100);
+    assertTrue(restored.isPresent());
+    assertEquals(2, restored.get().size());
+    assertEquals(0, restored.get().getModificationCount());
+    assertEquals(key("rule"), restored.get().get(key("rule")));
+
+    restored.get().invalidateInputs(inputs(filesystem, "dir/dep.c"));
+    assertEquals(0, restored.get().size());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvictedWithTheirDependents() {
+    store = new PersistentRuleKeyStore(4);
+    store.put(key("a"), key("a"), ImmutableList.of(), ImmutableList.of());
+    store.put(key("b"), key("b"), ImmutableList.of(key("a")), ImmutableList.of());
+    store.put(key("c"), key("c"), ImmutableList.of(), ImmutableList.of());
+    store.put(key("d"), key("d"), ImmutableList.of(), ImmutableList.of());
+    store.get(key("b"));
+    store.get(key("c"));
+    store.get(key("d"));
+
+    store.put(key("e"), key("e"), ImmutableList.of(), ImmutableList.of());
+
+    assertEquals(3, store.size());
+    assertNull(store.get(key("a")));
+    assertNull(store.get(key("b")));
+    assertEquals(key("c"), store.get(key("c")));
+    assertEquals(key("e"), store.get(key("e")));
+  }
+
+  @Test
+  public void savingAgainAppendsTheChangesSinceTheLastSave() throws IOException {
+    store.put(key("dep"), key("dep"), ImmutableList.of(), inputs(filesystem, "dep.c"));
+    store.put(key("rule"), key("rule"), ImmutableList.of(key("dep")), ImmutableList.of());
+    Path path = tmp.getRoot().resolve("buck-out/rule_key_state");
+    store.write(path, "key", clocks("c:1:2"));
+    long size = Files.size(path);
+
+    store.invalidateInputs(inputs(filesystem, "dep.c"));
+    store.put(key("other"), key("other"), ImmutableList.of(), ImmutableList.of());
+    store.write(path, "key", clocks("c:1:3"));
+    assertTrue(Files.size(path) > size);
+
+    assertFalse(PersistentRuleKeyStore.read(path, "key", clocks("c:1:2"), 100).isPresent());
+    PersistentRuleKeyStore restored =
+        PersistentRuleKeyStore.read(path, "key", clocks("c:1:3"), 100).get();
+    assertEquals(1, restored.size());
+    assertEquals(key("other"), restored.get(key("other")));
+
+    // The restored store appends to the same journal.
+    restored.put(key("new"), key("new"), ImmutableList.of(), ImmutableList.of());
+    restored.write(path, "key", clocks("c:1:4"));
+    assertEquals(2, PersistentRuleKeyStore.read(path, "key", clocks("c:1:4"), 100).get().size());
+  }
+
+  @Test
+  public void incompleteChangesAtTheEndOfTheJournalAreIgnored() throws IOException {
+    store.put(key("rule"), key("rule"), ImmutableList.of(), ImmutableList.of());
+    Path path = tmp.getRoot().resolve("buck-out/rule_key_state");
+    store.write(path, "key", clocks("c:1:2"));
+    long size = Files.size(path);
+    store.put(key("other"), key("other"), ImmutableList.of(), ImmutableList.of());
+    store.write(path, "key", clocks("c:1:3"));
+
+    // As if the process died while appending.
+    byte[] bytes = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(bytes, (int) size + 10));
+
+    assertFalse(PersistentRuleKeyStore.read(path, "key", clocks("c:1:3"), 100).isPresent());
+    PersistentRuleKeyStore restored =
+        PersistentRuleKeyStore.read(path, "key", clocks("c:1:2"), 100).get();
+    assertEquals(1, restored.size());
+
+    // The journal is replaced instead of appended to.
+    restored.write(path, "key", clocks("c:1:4"));
+    assertEquals(1, PersistentRuleKeyStore.read(path, "key", clocks("c:1:4"), 100).get().size());
+  }
+
+  private ImmutableMap<AbsPath, String> clocks(String clock) {
+    return ImmutableMap.of(filesystem.getRootPath(), clock);
+  }
+
+  private static HashCode key(String name) {
+    return Hashing.sha1().hashString(name, StandardCharsets.UTF_8);
+  }
+
+  private static ImmutableList<RuleKeyInput> inputs(ProjectFilesystem filesystem, String path) {
+    return ImmutableList.of(ImmutableRuleKeyInput.of(filesystem, Paths.get(path)));
+  }
+}
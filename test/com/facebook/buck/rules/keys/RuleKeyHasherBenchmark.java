@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.BuildRuleParams;
+import com.facebook.buck.core.rules.TestBuildRuleParams;
+import com.facebook.buck.core.rules.impl.NoopBuildRuleWithDeclaredAndExtraDeps;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.Sha1RuleKeyHasher;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares {@link GuavaRuleKeyHasher} with {@link Sha1RuleKeyHasher} by computing the default rule
+ * keys of an action graph shaped like a C++ library graph with each of them.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RuleKeyHasherBenchmark {
+
+  @Param({"1000"})
+  private int ruleCount;
+
+  private DefaultRuleKeyFactory factory;
+  private List<BuildRule> rules;
+
+  @Setup
+  public void setUp() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    Map<Path, HashCode> hashes = new HashMap<>();
+    rules = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      for (int dep = i / 2, count = 0; dep > 0 && count < 4; dep /= 2, count++) {
+        deps.add(rules.get(dep));
+      }
+      ImmutableList.Builder<SourcePath> srcs = ImmutableList.builder();
+      for (int src = 0; src < 10; src++) {
+        PathSourcePath path =
+            FakeSourcePath.of(filesystem, "lib" + i + "/src/file" + src + ".cpp");
+        hashes.put(
+            filesystem.resolve(path.getRelativePath()),
+            Hashing.sha1().hashInt(hashes.size()));
+        srcs.add(path);
+      }
+      BuildRule rule =
+          new LibraryRule(
+              filesystem,
+              TestBuildRuleParams.create().withDeclaredDeps(deps.build()),
+              i,
+              srcs.build());
+      rules.add(graphBuilder.addToIndex(rule));
+    }
+    factory = new TestDefaultRuleKeyFactory(new FakeFileHashCache(hashes), graphBuilder);
+    // Calculate and cache the real rule keys, so only the hashers differ between benchmarks.
+    rules.forEach(factory::build);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void guavaHasher(Blackhole blackhole) {
+    for (BuildRule rule : rules) {
+      blackhole.consume(
+          factory.buildForDiagnostics(rule, new GuavaRuleKeyHasher(Hashing.sha1().newHasher())));
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public void sha1Hasher(Blackhole blackhole) {
+    for (BuildRule rule : rules) {
+      blackhole.consume(factory.buildForDiagnostics(rule, Sha1RuleKeyHasher.obtain()));
+    }
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(new String[] {RuleKeyHasherBenchmark.class.getName()});
+  }
+
+  private static class LibraryRule extends NoopBuildRuleWithDeclaredAndExtraDeps {
+    @AddToRuleKey private final ImmutableList<SourcePath> srcs;
+    @AddToRuleKey private final ImmutableList<String> flags;
+    @AddToRuleKey private final String name;
+    @AddToRuleKey private final int optimizationLevel = 2;
+    @AddToRuleKey private final boolean pic = true;
+
+    private LibraryRule(
+        ProjectFilesystem filesystem,
+        BuildRuleParams params,
+        int index,
+        ImmutableList<SourcePath> srcs) {
+      super(BuildTargetFactory.newInstance("//lib" + index + ":lib"), filesystem, params);
+      this.srcs = srcs;
+      this.flags = ImmutableList.of("-Wall", "-Werror", "-std=c++14", "-DLIB_INDEX=" + index);
+      this.name = "lib" + index;
+    }
+  }
+}
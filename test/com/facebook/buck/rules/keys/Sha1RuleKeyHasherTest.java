@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.Sha1RuleKeyHasher;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Enclosed.class)
+public class Sha1RuleKeyHasherTest {
+
+  @RunWith(Parameterized.class)
+  public static class UniquenessTest extends CommonRuleKeyHasherTest.UniquenessTest<HashCode> {
+    @Parameters(name = "{0} != {2}")
+    public static Iterable<Object[]> cases() {
+      return CommonRuleKeyHasherTest.uniquenessTestCases(Sha1RuleKeyHasher::obtain);
+    }
+  }
+
+  public static class ConsistencyTest extends CommonRuleKeyHasherTest.ConsistencyTest<HashCode> {
+
+    @Override
+    protected Sha1RuleKeyHasher newHasher() {
+      return Sha1RuleKeyHasher.obtain();
+    }
+  }
+
+  public static class CompatibilityTest {
+
+    @Test
+    public void hashesAreTheSameAsGuavaHashes() {
+      List<Object[]> expected =
+          CommonRuleKeyHasherTest.uniquenessTestCases(GuavaRuleKeyHasherTest::newHasher);
+      List<Object[]> actual =
+          CommonRuleKeyHasherTest.uniquenessTestCases(Sha1RuleKeyHasher::obtain);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertArrayEquals(expected.get(i), actual.get(i));
+      }
+    }
+
+    @Test
+    public void stringsAndPathsAreHashedLikeGuava() {
+      String longString = Strings.repeat("0123456789", 300);
+      ImmutableList<Function<RuleKeyHasher<HashCode>, RuleKeyHasher<HashCode>>> cases =
+          ImmutableList.of(
+              h -> h.putString("été € 😀"),
+              h -> h.putString("unpaired \ud83d and \ude00"),
+              h -> h.putKey(longString).putString(longString + "é"),
+              h -> h.putBytes(longString.getBytes()).putNumber(42L),
+              h -> h.putNonHashingPath(Paths.get("foo", "bar")),
+              h -> h.putKeyPath(Paths.get(longString, longString)));
+      for (Function<RuleKeyHasher<HashCode>, RuleKeyHasher<HashCode>> hashCase : cases) {
+        assertEquals(
+            hashCase.apply(GuavaRuleKeyHasherTest.newHasher()).hash(),
+            hashCase.apply(Sha1RuleKeyHasher.obtain()).hash());
+      }
+    }
+
+    @Test
+    public void hashersAreReusedOnlyAfterHashing() {
+      Sha1RuleKeyHasher first = Sha1RuleKeyHasher.obtain();
+      Sha1RuleKeyHasher second = Sha1RuleKeyHasher.obtain();
+      assertNotSame(first, second);
+      HashCode hash = first.putString("42").hash();
+
+      Sha1RuleKeyHasher reused = Sha1RuleKeyHasher.obtain();
+      assertSame(first, reused);
+      assertEquals(hash, reused.putString("42").hash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hashingTwiceFails() {
+      Sha1RuleKeyHasher hasher = Sha1RuleKeyHasher.obtain();
+      hasher.hash();
+      hasher.hash();
+    }
+  }
+}
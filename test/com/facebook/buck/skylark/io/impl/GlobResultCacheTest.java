@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.skylark.io.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.filesystems.AbsPath;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class GlobResultCacheTest {
+
+  private final Path root = Paths.get("/repo").toAbsolutePath();
+  private final Path packagePath = root.resolve("foo");
+  private final GlobResultCache cache = new GlobResultCache();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private Optional<ImmutableSet<String>> glob(Path packagePath, boolean excludeDirectories)
+      throws Exception {
+    return cache.get(
+        packagePath,
+        ImmutableList.of("**/*.java"),
+        ImmutableList.of(),
+        excludeDirectories,
+        () -> {
+          loads.incrementAndGet();
+          return Optional.of(ImmutableSet.of("A.java"));
+        });
+  }
+
+  @Test
+  public void resultsAreReused() throws Exception {
+    assertEquals(Optional.of(ImmutableSet.of("A.java")), glob(packagePath, true));
+    assertEquals(Optional.of(ImmutableSet.of("A.java")), glob(packagePath, true));
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.getPackageCount());
+  }
+
+  @Test
+  public void resultsIncludingDirectoriesAreNotKept() throws Exception {
+    glob(packagePath, false);
+    glob(packagePath, false);
+    assertEquals(2, loads.get());
+    assertEquals(0, cache.getPackageCount());
+  }
+
+  @Test
+  public void missingResultsAreNotKept() throws Exception {
+    cache.get(packagePath, ImmutableList.of("*"), ImmutableList.of(), true, Optional::empty);
+    assertEquals(0, cache.getPackageCount());
+  }
+
+  @Test
+  public void changeUnderPackageInvalidatesItAndPackagesAboveIt() throws Exception {
+    glob(root, true);
+    glob(packagePath, true);
+    glob(root.resolve("bar"), true);
+
+    cache.invalidateForPath(AbsPath.of(packagePath.resolve("src/B.java")));
+
+    assertEquals(1, cache.getPackageCount());
+    glob(root, true);
+    glob(packagePath, true);
+    glob(root.resolve("bar"), true);
+    assertEquals(5, loads.get());
+  }
+
+  @Test
+  public void resultLoadedWhileFilesChangedIsNotKept() throws Exception {
+    cache.get(
+        packagePath,
+        ImmutableList.of("*"),
+        ImmutableList.of(),
+        true,
+        () -> {
+          cache.invalidateForPath(AbsPath.of(packagePath.resolve("B.java")));
+          return Optional.of(ImmutableSet.of("A.java"));
+        });
+    assertEquals(0, cache.getPackageCount());
+  }
+
+  @Test
+  public void invalidateAllDropsEverything() throws Exception {
+    glob(root, true);
+    glob(packagePath, true);
+    cache.invalidateAll();
+    assertEquals(0, cache.getPackageCount());
+  }
+}
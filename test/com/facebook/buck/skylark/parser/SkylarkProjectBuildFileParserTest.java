@@ -68,12 +68,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
@@ -567,6 +572,48 @@ public class SkylarkProjectBuildFileParserTest {
         equalTo(recordingParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
   }
 
+  @Test
+  public void doesNotBuildSameExtensionMultipleTimesWhenParsingConcurrently() throws Exception {
+    Path ext1 = projectFilesystem.resolve("ext_1.bzl");
+    Files.write(ext1, Arrays.asList("load('//:ext_2.bzl', 'ext_2')", "ext_1 = ext_2"));
+
+    Path ext2 = projectFilesystem.resolve("ext_2.bzl");
+    Files.write(ext2, Arrays.asList("ext_2 = len([i for i in range(100000)])"));
+
+    List<Path> buildFiles = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      Path buildFile = projectFilesystem.resolve("pkg" + i).resolve("BUCK");
+      Files.createDirectories(buildFile.getParent());
+      Files.write(buildFile, Arrays.asList("load('//:ext_1.bzl', 'ext_1')"));
+      buildFiles.add(buildFile);
+    }
+
+    RecordingParser recordingParser = new RecordingParser(parser);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<BuildFileManifest>> manifests = new ArrayList<>();
+      for (Path buildFile : buildFiles) {
+        manifests.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return recordingParser.getManifest(buildFile);
+                }));
+      }
+      start.countDown();
+      for (Future<BuildFileManifest> manifest : manifests) {
+        manifest.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(
+        recordingParser.buildCounts,
+        equalTo(recordingParser.expectedCounts(vfs_path(ext1), 1, vfs_path(ext2), 1)));
+  }
+
   @Test
   public void doesNotReadSameBuildFileMultipleTimes() throws Exception {
     // Verifies BUILD file is accessed for IO and AST construction only once.
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+
+  private static final long NOW_MILLIS = 1_500_000_000_000L;
+  private static final HashCode HASH = HashCode.fromInt(42);
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path snapshot;
+  private SettableFakeClock clock;
+  private AtomicInteger loads;
+  private final Path path = Paths.get("Foo.java");
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    snapshot = tmp.getRoot().resolve("buck-out/file_hashes");
+    clock = new SettableFakeClock(NOW_MILLIS, 0);
+    loads = new AtomicInteger();
+    filesystem.writeContentsToPath("class Foo {}", path);
+    setModifiedMillis(NOW_MILLIS - 60_000);
+  }
+
+  @Test
+  public void unchangedFileIsNotHashedAgainAfterReload() throws IOException {
+    PersistentFileHashStore store = newStore();
+    assertEquals(HASH, store.get(path, this::load));
+    store.persist();
+
+    PersistentFileHashStore reloaded = newStore();
+    assertEquals(HASH, reloaded.get(path, this::load));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void modifiedFileIsHashedAgain() throws IOException {
+    PersistentFileHashStore store = newStore();
+    store.get(path, this::load);
+    store.persist();
+
+    setModifiedMillis(NOW_MILLIS - 30_000);
+    newStore().get(path, this::load);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void recentlyModifiedFileIsNotRecorded() throws IOException {
+    setModifiedMillis(NOW_MILLIS - PersistentFileHashStore.RACY_WINDOW_MILLIS / 2);
+    PersistentFileHashStore store = newStore();
+    store.get(path, this::load);
+    store.get(path, this::load);
+    assertEquals(2, loads.get());
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  public void invalidateAllDiscardsPersistedHashes() throws IOException {
+    PersistentFileHashStore store = newStore();
+    store.get(path, this::load);
+    store.persist();
+
+    PersistentFileHashStore reloaded = newStore();
+    reloaded.invalidateAll();
+    reloaded.persist();
+    assertEquals(0, newStore().size());
+  }
+
+  @Test
+  public void unreadableSnapshotIsIgnored() throws IOException {
+    Files.createDirectories(snapshot.getParent());
+    Files.write(snapshot, new byte[] {1, 2, 3});
+    PersistentFileHashStore store = newStore();
+    assertEquals(0, store.size());
+    assertEquals(HASH, store.get(path, this::load));
+  }
+
+  @Test
+  public void snapshotOfAnotherModeIsIgnored() throws IOException {
+    PersistentFileHashStore store = newStore();
+    store.get(path, this::load);
+    store.persist();
+
+    assertEquals(0, newStore(FileHashCacheMode.PARALLEL_PREFIX_TREE).size());
+    assertEquals(1, newStore().size());
+  }
+
+  private PersistentFileHashStore newStore() {
+    return newStore(FileHashCacheMode.PREFIX_TREE);
+  }
+
+  private PersistentFileHashStore newStore(FileHashCacheMode mode) {
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, snapshot, mode, clock);
+    store.readSnapshot();
+    return store;
+  }
+
+  private HashCode load(Path relativePath) {
+    assertEquals(path, relativePath);
+    loads.incrementAndGet();
+    return HASH;
+  }
+
+  private void setModifiedMillis(long millis) throws IOException {
+    Files.setLastModifiedTime(filesystem.resolve(path), FileTime.fromMillis(millis));
+  }
+}